@@ -0,0 +1,929 @@
+package daikon;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.plumelib.util.FilesPlume;
+
+/**
+ * Reads and writes data trace files in Daikon's binary format. A binary data trace file holds the
+ * same information as a textual one, but each sample is a compact record that does not repeat the
+ * program point name or the variable names. See the "Binary data trace files" section of the Daikon
+ * Developer Manual.
+ *
+ * <p>The file starts with the four bytes {@code DKBT} and a version byte, and is followed by a
+ * sequence of records, each introduced by a one-byte tag:
+ *
+ * <dl>
+ *   <dt>{@link #TEXT}
+ *   <dd>a length and that many bytes of UTF-8 text, containing records in the textual format
+ *       (declarations, {@code decl-version}, comparability, comments, and so on)
+ *   <dt>{@link #PPT}
+ *   <dd>a program point id, the program point name, and the name and type code of each variable
+ *       that appears in the samples of the program point. Appears once per program point, after the
+ *       program point's declaration and before its first sample.
+ *   <dt>{@link #SAMPLE}
+ *   <dd>a program point id, the length of the rest of the record, a flags byte (bit 0 set if an
+ *       invocation nonce follows), the nonce, the modbits of all variables packed four to a byte,
+ *       and the value of each variable that is not missing (modbit 2)
+ * </dl>
+ *
+ * <p>Ids, lengths, and counts are unsigned LEB128 varints; nonces and integers are zigzag-encoded
+ * varints; doubles are 8 big-endian bytes; strings are a varint of the UTF-8 length plus one (0 for
+ * null) followed by the bytes; arrays are a varint element count followed by the elements. Names
+ * are written as Daikon reports them (for example, {@link VarInfo#str_name()}), without the escapes
+ * of the textual format. The format does no compression of its own.
+ */
+public final class BinaryDtrace {
+
+  /** Do not instantiate. */
+  private BinaryDtrace() {
+    throw new Error("do not instantiate");
+  }
+
+  /** The bytes at the beginning of every binary data trace file. */
+  private static final byte[] MAGIC = {'D', 'K', 'B', 'T'};
+
+  /** The version of the format that this class reads and writes. */
+  public static final int VERSION = 1;
+
+  /** Record tag for a block of text in the textual data trace format. */
+  public static final int TEXT = 1;
+
+  /** Record tag for the variable list of a program point. */
+  public static final int PPT = 2;
+
+  /** Record tag for a sample. */
+  public static final int SAMPLE = 3;
+
+  /** Type code for a variable whose representation type is int (or boolean, hashcode, etc.). */
+  public static final int INT = 1;
+
+  /** Type code for a variable whose representation type is double. */
+  public static final int DOUBLE = 2;
+
+  /** Type code for a variable whose representation type is java.lang.String. */
+  public static final int STRING = 3;
+
+  /** Type code for a variable whose representation type is int[]. */
+  public static final int INT_ARRAY = 4;
+
+  /** Type code for a variable whose representation type is double[]. */
+  public static final int DOUBLE_ARRAY = 5;
+
+  /** Type code for a variable whose representation type is java.lang.String[]. */
+  public static final int STRING_ARRAY = 6;
+
+  /**
+   * Returns the type code for values of the given representation type, or -1 if such values cannot
+   * be written in the binary format. The representation type is interpreted as Daikon interprets
+   * the {@code rep-type} of a declaration: for example, "boolean" and "hashcode" are "int".
+   *
+   * @param rep_type a representation type, such as "int" or "java.lang.String[]"
+   * @return the type code for rep_type, or -1
+   */
+  public static int type_code(String rep_type) {
+    int dims = 0;
+    String base = rep_type;
+    while (base.endsWith("[]")) {
+      dims++;
+      base = base.substring(0, base.length() - 2);
+    }
+    int code;
+    switch (base) {
+      case "int":
+      case "boolean":
+      case "hashcode":
+      case "address":
+      case "pointer":
+      case "long":
+      case "long long int":
+      case "short":
+        code = INT;
+        break;
+      case "double":
+      case "float":
+        code = DOUBLE;
+        break;
+      case "java.lang.String":
+      case "string":
+        code = STRING;
+        break;
+      default:
+        // Includes "char", whose textual values are characters rather than numbers.
+        return -1;
+    }
+    switch (dims) {
+      case 0:
+        return code;
+      case 1:
+        return code + (INT_ARRAY - INT);
+      default:
+        return -1;
+    }
+  }
+
+  /**
+   * Returns true if the given file is a binary data trace file.
+   *
+   * @param filename the name of a file, which may be compressed
+   * @return true if the file starts with the binary format's header
+   * @throws IOException if there is trouble reading the file
+   */
+  public static boolean is_binary(String filename) throws IOException {
+    try (InputStream in = FilesPlume.newFileInputStream(new File(filename))) {
+      for (byte b : MAGIC) {
+        if (in.read() != b) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  /** A growable byte array with methods to append encoded values. */
+  private static final class Buffer {
+    /** The contents; only the first {@link #size} bytes are used. */
+    byte[] bytes = new byte[256];
+
+    /** Number of bytes in use. */
+    int size = 0;
+
+    /** Makes room for n more bytes. */
+    private void reserve(int n) {
+      if (size + n > bytes.length) {
+        bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + n));
+      }
+    }
+
+    void write_byte(int b) {
+      reserve(1);
+      bytes[size++] = (byte) b;
+    }
+
+    /** Appends an unsigned LEB128 varint. */
+    void write_varint(long v) {
+      reserve(10);
+      while ((v & ~0x7FL) != 0) {
+        bytes[size++] = (byte) ((v & 0x7F) | 0x80);
+        v >>>= 7;
+      }
+      bytes[size++] = (byte) v;
+    }
+
+    /** Appends a zigzag-encoded varint, so that small negative numbers are short. */
+    void write_signed(long v) {
+      write_varint((v << 1) ^ (v >> 63));
+    }
+
+    void write_double(double d) {
+      reserve(8);
+      long bits = Double.doubleToLongBits(d);
+      for (int shift = 56; shift >= 0; shift -= 8) {
+        bytes[size++] = (byte) (bits >>> shift);
+      }
+    }
+
+    void write_string(@Nullable String s) {
+      if (s == null) {
+        write_varint(0);
+        return;
+      }
+      byte[] utf8 = s.getBytes(UTF_8);
+      write_varint(utf8.length + 1L);
+      reserve(utf8.length);
+      System.arraycopy(utf8, 0, bytes, size, utf8.length);
+      size += utf8.length;
+    }
+
+    void write_to(OutputStream out) throws IOException {
+      out.write(bytes, 0, size);
+    }
+  }
+
+  /**
+   * Writes a binary data trace file. Text written to {@link #text()} (such as declarations) is
+   * buffered and written as a {@link #TEXT} record before the next binary record, or when the
+   * writer is flushed or closed.
+   */
+  public static final class Writer implements Closeable {
+
+    /** Where the file is written. */
+    private final OutputStream out;
+
+    /** Text not yet written. */
+    private final StringBuilder pending_text = new StringBuilder();
+
+    /** Scratch space for one record. */
+    private final Buffer record = new Buffer();
+
+    /** Scratch space for the body of a sample. */
+    private final Buffer body = new Buffer();
+
+    /** The id of each program point declared so far, by name. */
+    private final Map<String, Integer> ppt_ids = new HashMap<>();
+
+    /** The type codes of the variables of each declared program point, indexed by id. */
+    private final List<int[]> ppt_types = new ArrayList<>();
+
+    /** The text view of this writer; see {@link #text()}. */
+    private final java.io.Writer text =
+        new java.io.Writer() {
+          @Override
+          public void write(char[] cbuf, int off, int len) {
+            pending_text.append(cbuf, off, len);
+          }
+
+          @Override
+          public void write(String str, int off, int len) {
+            pending_text.append(str, off, off + len);
+          }
+
+          @Override
+          public void flush() throws IOException {
+            Writer.this.flush();
+          }
+
+          @Override
+          public void close() throws IOException {
+            Writer.this.close();
+          }
+        };
+
+    /**
+     * Creates a writer and writes the file header.
+     *
+     * @param out where to write the file; closed when this writer is closed
+     * @throws IOException if there is trouble writing
+     */
+    public Writer(OutputStream out) throws IOException {
+      this.out = out;
+      out.write(MAGIC);
+      out.write(VERSION);
+    }
+
+    /**
+     * Returns a java.io.Writer through which text in the textual data trace format (declarations,
+     * comments, and so on) is written. Each record must end with a line terminator. Flushing or
+     * closing the returned writer flushes or closes this one.
+     *
+     * @return a writer for the text parts of the file
+     */
+    public java.io.Writer text() {
+      return text;
+    }
+
+    /** Writes any pending text as a {@link #TEXT} record. */
+    private void write_pending_text() throws IOException {
+      if (pending_text.length() == 0) {
+        return;
+      }
+      byte[] utf8 = pending_text.toString().getBytes(UTF_8);
+      pending_text.setLength(0);
+      record.size = 0;
+      record.write_byte(TEXT);
+      record.write_varint(utf8.length);
+      record.write_to(out);
+      out.write(utf8);
+    }
+
+    /**
+     * Returns the id of the given program point, or -1 if it has not been declared with {@link
+     * #declare_ppt}.
+     *
+     * @param ppt_name the name of a program point
+     * @return the id of the program point, or -1
+     */
+    public int ppt_id(String ppt_name) {
+      Integer id = ppt_ids.get(ppt_name);
+      return (id == null) ? -1 : id;
+    }
+
+    /**
+     * Writes a {@link #PPT} record that gives the variables whose values appear in the samples of
+     * a program point, in order. The textual declaration of the program point must already have
+     * been written.
+     *
+     * @param ppt_name the name of the program point
+     * @param var_names the names of the variables
+     * @param type_codes the type code of each variable; see {@link #type_code}
+     * @return the id to pass to {@link #write_sample}
+     * @throws IOException if there is trouble writing
+     */
+    public int declare_ppt(String ppt_name, String[] var_names, int[] type_codes)
+        throws IOException {
+      if (var_names.length != type_codes.length) {
+        throw new IllegalArgumentException(
+            var_names.length + " variable names but " + type_codes.length + " type codes");
+      }
+      if (ppt_ids.containsKey(ppt_name)) {
+        throw new IllegalArgumentException("Program point declared twice: " + ppt_name);
+      }
+      int id = ppt_types.size();
+      ppt_ids.put(ppt_name, id);
+      ppt_types.add(type_codes.clone());
+
+      write_pending_text();
+      record.size = 0;
+      record.write_byte(PPT);
+      record.write_varint(id);
+      record.write_string(ppt_name);
+      record.write_varint(var_names.length);
+      for (int i = 0; i < var_names.length; i++) {
+        if (type_codes[i] < INT || type_codes[i] > STRING_ARRAY) {
+          throw new IllegalArgumentException(
+              "Bad type code " + type_codes[i] + " for variable " + var_names[i]);
+        }
+        record.write_string(var_names[i]);
+        record.write_byte(type_codes[i]);
+      }
+      record.write_to(out);
+      return id;
+    }
+
+    /**
+     * Writes a {@link #SAMPLE} record. A null value is written as missing, whatever its modbit.
+     *
+     * @param ppt_id the id returned by {@link #declare_ppt}
+     * @param nonce the invocation nonce, or null if the sample has none
+     * @param vals the value of each variable, in the order given to {@link #declare_ppt}: a Long,
+     *     Double, String, long[], double[], or String[], according to the variable's type code
+     * @param mods the modbit of each variable
+     * @throws IOException if there is trouble writing
+     */
+    public void write_sample(
+        int ppt_id, @Nullable Integer nonce, @Nullable Object[] vals, int[] mods)
+        throws IOException {
+      int[] types = ppt_types.get(ppt_id);
+      int num_vars = types.length;
+
+      body.size = 0;
+      if (nonce == null) {
+        body.write_byte(0);
+      } else {
+        body.write_byte(1);
+        body.write_signed(nonce);
+      }
+      for (int i = 0; i < num_vars; i += 4) {
+        int packed = 0;
+        for (int j = i; j < i + 4 && j < num_vars; j++) {
+          int mod = (vals[j] == null) ? ValueTuple.MISSING_NONSENSICAL : (mods[j] & 3);
+          packed |= mod << (2 * (j - i));
+        }
+        body.write_byte(packed);
+      }
+      for (int i = 0; i < num_vars; i++) {
+        Object val = vals[i];
+        if (val != null) {
+          write_value(types[i], val);
+        }
+      }
+
+      write_pending_text();
+      record.size = 0;
+      record.write_byte(SAMPLE);
+      record.write_varint(ppt_id);
+      record.write_varint(body.size);
+      record.write_to(out);
+      body.write_to(out);
+    }
+
+    /** Appends one value of the given type to the body of the current sample. */
+    private void write_value(int type, Object val) {
+      switch (type) {
+        case INT:
+          body.write_signed(((Long) val).longValue());
+          break;
+        case DOUBLE:
+          body.write_double(((Double) val).doubleValue());
+          break;
+        case STRING:
+          body.write_string((String) val);
+          break;
+        case INT_ARRAY:
+          {
+            long[] a = (long[]) val;
+            body.write_varint(a.length);
+            for (long elt : a) {
+              body.write_signed(elt);
+            }
+            break;
+          }
+        case DOUBLE_ARRAY:
+          {
+            double[] a = (double[]) val;
+            body.write_varint(a.length);
+            for (double elt : a) {
+              body.write_double(elt);
+            }
+            break;
+          }
+        case STRING_ARRAY:
+          {
+            @Nullable String[] a = (@Nullable String[]) val;
+            body.write_varint(a.length);
+            for (String elt : a) {
+              body.write_string(elt);
+            }
+            break;
+          }
+        default:
+          throw new Error("Bad type code " + type);
+      }
+    }
+
+    /**
+     * Writes any pending text and flushes the underlying stream.
+     *
+     * @throws IOException if there is trouble writing
+     */
+    public void flush() throws IOException {
+      write_pending_text();
+      out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+      flush();
+      out.close();
+    }
+  }
+
+  /** What a {@link Reader} needs to know to decode the samples of one program point. */
+  static final class PptSlots {
+    /** The program point. */
+    final PptTopLevel ppt;
+
+    /** The type code of each variable in the samples. */
+    final int[] types;
+
+    /** The variable of each value in the samples, or null if the variable is omitted. */
+    final @Nullable VarInfo[] vars;
+
+    /**
+     * The encoding of the previous value of each variable, or null if it was missing or there is
+     * no previous sample. Used to compute modbits, as {@link FileIO} does for textual files.
+     */
+    final byte[] @Nullable [] old_values;
+
+    /**
+     * Creates a PptSlots.
+     *
+     * @param ppt the program point
+     * @param types the type code of each variable in the samples
+     * @param vars the variable of each value in the samples, or null if the variable is omitted
+     */
+    PptSlots(PptTopLevel ppt, int[] types, @Nullable VarInfo[] vars) {
+      this.ppt = ppt;
+      this.types = types;
+      this.vars = vars;
+      this.old_values = new byte[types.length][];
+    }
+  }
+
+  /**
+   * Reads a binary data trace file. Record by record, {@link #next_record} reads the file; after a
+   * {@link #TEXT} record, the text is available by reading this object as a {@link java.io.Reader},
+   * which reports end of file at the end of the text.
+   */
+  static final class Reader extends java.io.Reader {
+
+    /** Where the file is read from. */
+    private final InputStream in;
+
+    /** The text of the most recent {@link #TEXT} record. */
+    private char[] text = new char[0];
+
+    /** Number of characters of {@link #text} already read. */
+    private int text_pos = 0;
+
+    /** The information for each program point id, or null if its samples are skipped. */
+    private final List<@Nullable PptSlots> ppts = new ArrayList<>();
+
+    /** Whether each program point id has been declared by a {@link #PPT} record. */
+    private final List<Boolean> declared = new ArrayList<>();
+
+    /** Program point id of the most recent {@link #PPT} or {@link #SAMPLE} record. */
+    int ppt_id;
+
+    /** Program point name of the most recent {@link #PPT} record. */
+    @Nullable String ppt_name;
+
+    /** Variable names of the most recent {@link #PPT} record. */
+    String[] var_names = new String[0];
+
+    /** Variable type codes of the most recent {@link #PPT} record. */
+    int[] var_types = new int[0];
+
+    /** The body of the most recent {@link #SAMPLE} record; only the first sample_size are used. */
+    private byte[] sample = new byte[256];
+
+    /** Length of the body of the most recent {@link #SAMPLE} record. */
+    private int sample_size = 0;
+
+    /** Position in {@link #sample} of the next byte to decode. */
+    private int pos = 0;
+
+    /**
+     * Creates a Reader for a file, which must be a binary data trace file.
+     *
+     * @param filename the name of the file, which may be compressed
+     * @throws IOException if there is trouble reading, or the file is not a binary data trace file
+     *     of a supported version
+     */
+    Reader(String filename) throws IOException {
+      in = new BufferedInputStream(FilesPlume.newFileInputStream(new File(filename)));
+      try {
+        for (byte b : MAGIC) {
+          if (in.read() != b) {
+            throw new IOException(filename + " is not a binary data trace file");
+          }
+        }
+        int version = in.read();
+        if (version != VERSION) {
+          throw new IOException(
+              String.format(
+                  "%s has binary data trace format version %d; only version %d is supported",
+                  filename, version, VERSION));
+        }
+      } catch (IOException e) {
+        in.close();
+        throw e;
+      }
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) {
+      int available = text.length - text_pos;
+      if (available == 0) {
+        return -1;
+      }
+      int n = Math.min(len, available);
+      System.arraycopy(text, text_pos, cbuf, off, n);
+      text_pos += n;
+      return n;
+    }
+
+    @Override
+    public boolean ready() {
+      return text_pos < text.length;
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+
+    /**
+     * Reads the next record. Must not be called while text remains to be read.
+     *
+     * @return the record's tag ({@link #TEXT}, {@link #PPT}, or {@link #SAMPLE}), or -1 at the end
+     *     of the file
+     * @throws IOException if there is trouble reading, or the record is malformed
+     */
+    int next_record() throws IOException {
+      assert !ready();
+      int tag = in.read();
+      switch (tag) {
+        case -1:
+          return -1;
+        case TEXT:
+          {
+            byte[] utf8 = read_bytes(read_length());
+            text = new String(utf8, UTF_8).toCharArray();
+            text_pos = 0;
+            return tag;
+          }
+        case PPT:
+          {
+            ppt_id = read_length();
+            ppt_name = read_string();
+            int num_vars = read_length();
+            var_names = new String[num_vars];
+            var_types = new int[num_vars];
+            for (int i = 0; i < num_vars; i++) {
+              String name = read_string();
+              if (name == null) {
+                throw new IOException("Null variable name for program point " + ppt_name);
+              }
+              var_names[i] = name;
+              var_types[i] = read_byte();
+              if (var_types[i] < INT || var_types[i] > STRING_ARRAY) {
+                throw new IOException(
+                    "Bad type code " + var_types[i] + " for variable " + name);
+              }
+            }
+            return tag;
+          }
+        case SAMPLE:
+          {
+            ppt_id = read_length();
+            if (ppt_id >= declared.size() || !declared.get(ppt_id)) {
+              throw new IOException("Sample for undeclared program point id " + ppt_id);
+            }
+            sample_size = read_length();
+            if (sample.length < sample_size) {
+              sample = new byte[Math.max(sample.length * 2, sample_size)];
+            }
+            read_fully(sample, sample_size);
+            pos = 0;
+            return tag;
+          }
+        default:
+          throw new IOException("Bad record tag " + tag + " in binary data trace file");
+      }
+    }
+
+    /**
+     * Records how to decode the samples of the program point of the most recent {@link #PPT}
+     * record.
+     *
+     * @param slots how to decode the samples, or null if they are to be skipped
+     */
+    void define_ppt(@Nullable PptSlots slots) {
+      while (ppts.size() <= ppt_id) {
+        ppts.add(null);
+        declared.add(false);
+      }
+      ppts.set(ppt_id, slots);
+      declared.set(ppt_id, true);
+    }
+
+    /**
+     * Returns how to decode the most recent sample, or null if it is to be skipped.
+     *
+     * @return how to decode the most recent sample, or null if it is to be skipped
+     */
+    @Nullable PptSlots sample_slots() {
+      return ppts.get(ppt_id);
+    }
+
+    /**
+     * Decodes the most recent sample into vals and mods, which are indexed by {@link
+     * VarInfo#value_index}. Values are interned, and modbits are recomputed by comparison with the
+     * previous sample, as {@link FileIO} does for textual files.
+     *
+     * @param slots the result of {@link #sample_slots}
+     * @param vals where to store the values
+     * @param mods where to store the modbits
+     * @return the invocation nonce, or null if the sample has none
+     * @throws IOException if the sample is malformed
+     */
+    @Nullable Integer read_sample(PptSlots slots, @Nullable Object[] vals, int[] mods)
+        throws IOException {
+      try {
+        Integer nonce = null;
+        int flags = sample[pos++];
+        if ((flags & 1) != 0) {
+          nonce = (int) decode_signed();
+        }
+        int num_vars = slots.types.length;
+        int mod_pos = pos;
+        pos += (num_vars + 3) / 4;
+        for (int i = 0; i < num_vars; i++) {
+          int mod = (sample[mod_pos + i / 4] >> (2 * (i % 4))) & 3;
+          VarInfo vi = slots.vars[i];
+          if (mod == ValueTuple.MISSING_NONSENSICAL) {
+            if (vi != null) {
+              vals[vi.value_index] = null;
+              mods[vi.value_index] = mod;
+              vi.canBeMissing = true;
+              slots.old_values[i] = null;
+            }
+            continue;
+          }
+          if (mod == ValueTuple.MISSING_FLOW) {
+            throw new IOException("Data trace value can't be missing due to flow");
+          }
+          int start = pos;
+          int end = skip_value(slots.types[i]);
+          if (vi == null) {
+            continue;
+          }
+          byte[] old = slots.old_values[i];
+          if (old != null && same_bytes(old, start, end)) {
+            if (!FileIO.dkconfig_add_changed) {
+              mod = ValueTuple.UNMODIFIED;
+            }
+          } else {
+            mod = ValueTuple.MODIFIED;
+            slots.old_values[i] = Arrays.copyOfRange(sample, start, end);
+          }
+          pos = start;
+          Object val = decode_value(slots.types[i]);
+          if (val == null) {
+            // As for a textual file, a null value is missing.
+            mod = ValueTuple.MISSING_NONSENSICAL;
+            vi.canBeMissing = true;
+          }
+          vals[vi.value_index] = val;
+          mods[vi.value_index] = mod;
+        }
+        if (pos != sample_size) {
+          throw new IOException(
+              "Sample has " + (sample_size - pos) + " bytes after the last value");
+        }
+        return nonce;
+      } catch (ArrayIndexOutOfBoundsException e) {
+        throw new IOException("Sample ends before its last value", e);
+      }
+    }
+
+    /** Returns true if bytes [start, end) of the sample equal the given bytes. */
+    private boolean same_bytes(byte[] old, int start, int end) {
+      if (old.length != end - start) {
+        return false;
+      }
+      for (int i = 0; i < old.length; i++) {
+        if (old[i] != sample[start + i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /** Skips over one value of the given type in the sample, and returns the new position. */
+    private int skip_value(int type) {
+      switch (type) {
+        case INT:
+          decode_varint();
+          break;
+        case DOUBLE:
+          pos += 8;
+          break;
+        case STRING:
+          skip_string();
+          break;
+        case INT_ARRAY:
+          for (long n = decode_varint(); n > 0; n--) {
+            decode_varint();
+          }
+          break;
+        case DOUBLE_ARRAY:
+          pos += 8 * (int) decode_varint();
+          break;
+        case STRING_ARRAY:
+          for (long n = decode_varint(); n > 0; n--) {
+            skip_string();
+          }
+          break;
+        default:
+          throw new Error("Bad type code " + type);
+      }
+      if (pos > sample_size) {
+        throw new ArrayIndexOutOfBoundsException(pos);
+      }
+      return pos;
+    }
+
+    /** Skips over one string in the sample. */
+    private void skip_string() {
+      long len = decode_varint();
+      if (len > 0) {
+        pos += (int) (len - 1);
+      }
+    }
+
+    /** Decodes one value of the given type from the sample, and interns it. */
+    private @Nullable Object decode_value(int type) {
+      switch (type) {
+        case INT:
+          return InternPool.internedLong(decode_signed());
+        case DOUBLE:
+          return InternPool.internedDouble(decode_double());
+        case STRING:
+          {
+            String s = decode_string();
+            return (s == null) ? null : s.intern();
+          }
+        case INT_ARRAY:
+          {
+            long[] a = new long[(int) decode_varint()];
+            for (int i = 0; i < a.length; i++) {
+              a[i] = decode_signed();
+            }
+            return InternPool.intern(a);
+          }
+        case DOUBLE_ARRAY:
+          {
+            double[] a = new double[(int) decode_varint()];
+            for (int i = 0; i < a.length; i++) {
+              a[i] = decode_double();
+            }
+            return InternPool.intern(a);
+          }
+        case STRING_ARRAY:
+          {
+            @Nullable String[] a = new @Nullable String[(int) decode_varint()];
+            for (int i = 0; i < a.length; i++) {
+              a[i] = decode_string();
+            }
+            @SuppressWarnings("nullness") // Intern permits null elements
+            String[] elts = InternPool.internStrings(a);
+            return InternPool.intern(elts);
+          }
+        default:
+          throw new Error("Bad type code " + type);
+      }
+    }
+
+    private long decode_varint() {
+      long result = 0;
+      for (int shift = 0; ; shift += 7) {
+        byte b = sample[pos++];
+        result |= (long) (b & 0x7F) << shift;
+        if (b >= 0) {
+          return result;
+        }
+      }
+    }
+
+    private long decode_signed() {
+      long v = decode_varint();
+      return (v >>> 1) ^ -(v & 1);
+    }
+
+    private double decode_double() {
+      long bits = 0;
+      for (int i = 0; i < 8; i++) {
+        bits = (bits << 8) | (sample[pos++] & 0xFF);
+      }
+      return Double.longBitsToDouble(bits);
+    }
+
+    private @Nullable String decode_string() {
+      int len = (int) decode_varint();
+      if (len == 0) {
+        return null;
+      }
+      String result = new String(sample, pos, len - 1, UTF_8);
+      pos += len - 1;
+      return result;
+    }
+
+    /** Reads one byte of the file, which must not be at its end. */
+    private int read_byte() throws IOException {
+      int b = in.read();
+      if (b == -1) {
+        throw new EOFException("Binary data trace file ends in the middle of a record");
+      }
+      return b;
+    }
+
+    /** Reads a varint that is a length, count, or id. */
+    private int read_length() throws IOException {
+      long result = 0;
+      for (int shift = 0; shift < 35; shift += 7) {
+        int b = read_byte();
+        result |= (long) (b & 0x7F) << shift;
+        if (b < 0x80) {
+          if (result > Integer.MAX_VALUE) {
+            break;
+          }
+          return (int) result;
+        }
+      }
+      throw new IOException("Bad length in binary data trace file");
+    }
+
+    /** Reads a string from the file. */
+    private @Nullable String read_string() throws IOException {
+      int len = read_length();
+      if (len == 0) {
+        return null;
+      }
+      return new String(read_bytes(len - 1), UTF_8);
+    }
+
+    /** Reads the given number of bytes from the file. */
+    private byte[] read_bytes(int len) throws IOException {
+      byte[] result = new byte[len];
+      read_fully(result, len);
+      return result;
+    }
+
+    /** Reads len bytes from the file into the beginning of buf. */
+    private void read_fully(byte[] buf, int len) throws IOException {
+      int off = 0;
+      while (off < len) {
+        int n = in.read(buf, off, len - off);
+        if (n == -1) {
+          throw new EOFException("Binary data trace file ends in the middle of a record");
+        }
+        off += n;
+      }
+    }
+  }
+}
@@ -0,0 +1,1661 @@
+package daikon;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import daikon.PptRelation.PptRelationType;
+import daikon.config.Configuration;
+import daikon.inv.DiscardCode;
+import daikon.inv.Invariant;
+import daikon.split.PptSplitter;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Reads and writes invariant (.inv) files in Daikon's binary format. Unlike a file that holds the
+ * whole {@link PptMap} as one serialized object, a binary invariant file has an index, so that a
+ * tool can read some of its program points without reading the rest. See {@link
+ * FileIO#dkconfig_binary_inv_files}.
+ *
+ * <p>The file starts with the four bytes {@code DKIV}, a version byte, a flags byte (see {@link
+ * #COMPRESSED} and {@link #NEW_DECL_FORMAT}), and the 8-byte offset of the index. Next come the
+ * chunks, and then the index, which contains:
+ *
+ * <ul>
+ *   <li>the serialized {@link Configuration} that the invariants were computed with
+ *   <li>the name table: the name of each program point, in the order of the PptMap, and the chunk
+ *       that holds it. Elsewhere in the file, program points are referred to by their position in
+ *       this table.
+ *   <li>the offset and length of each chunk
+ *   <li>the relations of the program point hierarchy: for each {@link PptRelation}, its parent and
+ *       child (a program point, or one of its conditional program points), its type, its position
+ *       in the parent's children list and in the child's parent list, and its variable maps, as
+ *       pairs of indices into the two program points' variables
+ *   <li>the class table: the serialized descriptor of each class whose objects are in the chunks
+ *       (see {@link ClassTable})
+ * </ul>
+ *
+ * <p>A chunk is a serialized array of program points, compressed if the flags say so. Program
+ * points that share objects other than their relations (for example, a combined exit point whose
+ * implications refer to the invariants of the numbered exit points) are in the same chunk; most
+ * chunks hold a single program point. The relations are not in the chunks, because they connect
+ * every program point to its parents and children; when a chunk is read, the relations between its
+ * program points and the program points already read are restored.
+ *
+ * <p>An invariant whose class has a layout for its state (see {@link Invariant#state_version}) is
+ * not serialized; in its place is an {@link EncodedInvariant} that holds the name of its class, the
+ * version of the layout, and the state written in that layout. Such an invariant can be read after
+ * its class gains or loses fields, as long as the class still reads that version. Other invariants
+ * are serialized. An invariant that refers to nothing outside itself but its slice, and that no
+ * other invariant refers to, is serialized on its own, as a {@link SerializedInvariant}; if its class
+ * has changed, it is dropped when it is read, with a warning, and the rest of its program point is
+ * read. Reading any other invariant whose class has changed fails, along with its chunk.
+ *
+ * <p>All integers are big-endian, as written by {@link DataOutputStream}.
+ */
+public final class BinaryInv {
+
+  /** Do not instantiate. */
+  private BinaryInv() {
+    throw new Error("do not instantiate");
+  }
+
+  /** The bytes at the beginning of every binary invariant file. */
+  private static final byte[] MAGIC = {'D', 'K', 'I', 'V'};
+
+  /**
+   * The version of the format that this class reads and writes. Increment it when the layout of the
+   * file changes; older versions can still be read as long as this class knows how. Version 2 added
+   * {@link EncodedInvariant}. Version 3 added {@link SerializedInvariant} and the {@link
+   * ClassTable}, and compresses the index along with the chunks.
+   */
+  public static final int VERSION = 3;
+
+  /** Flag bit set if the chunks and the index are compressed with {@link DeflaterOutputStream}. */
+  public static final int COMPRESSED = 1;
+
+  /** Flag bit set if the invariants were computed from declarations in the version 2 format. */
+  public static final int NEW_DECL_FORMAT = 2;
+
+  /** The length of the header: the magic bytes, the version, the flags, and the index offset. */
+  private static final int HEADER_LENGTH = MAGIC.length + 2 + 8;
+
+  /**
+   * Returns true if the given file is a binary invariant file.
+   *
+   * @param file a file
+   * @return true if the file starts with the binary format's header
+   * @throws IOException if there is trouble reading the file
+   */
+  public static boolean is_binary(File file) throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      for (byte b : MAGIC) {
+        if (raf.read() != b) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  /// Writing
+  ///
+
+  /**
+   * Writes a PptMap to a file in the binary format, with a compressed index and compressed chunks.
+   * The file as a whole is never compressed, so that its chunks can be read individually.
+   *
+   * @param map the program points to write
+   * @param file the file to which to write
+   * @throws IOException if there is trouble writing the file
+   */
+  public static void write(PptMap map, File file) throws IOException {
+    write(map, file, true);
+  }
+
+  /**
+   * Writes a PptMap to a file in the binary format.
+   *
+   * @param map the program points to write
+   * @param file the file to which to write
+   * @param compressed if true, the chunks and the index are compressed
+   * @throws IOException if there is trouble writing the file
+   */
+  public static void write(PptMap map, File file, boolean compressed) throws IOException {
+    List<PptTopLevel> ppts = new ArrayList<>(map.all_ppts());
+    Map<PptTopLevel, Integer> ppt_index = new IdentityHashMap<>();
+    for (int i = 0; i < ppts.size(); i++) {
+      ppt_index.put(ppts.get(i), i);
+    }
+    int[] chunk_of = group_into_chunks(ppts);
+    List<List<Integer>> chunks = chunk_members(chunk_of);
+    int num_chunks = chunks.size();
+
+    int flags = compressed ? COMPRESSED : 0;
+    if (Boolean.TRUE.equals(FileIO.new_decl_format)) {
+      flags |= NEW_DECL_FORMAT;
+    }
+    long[] chunk_offsets = new long[num_chunks];
+    int[] chunk_lengths = new int[num_chunks];
+    ClassTable classes = new ClassTable();
+    long index_offset;
+    try (CountingOutputStream counter =
+            new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        DataOutputStream out = new DataOutputStream(counter)) {
+      out.write(MAGIC);
+      out.writeByte(VERSION);
+      out.writeByte(flags);
+      out.writeLong(0); // the index offset, filled in below
+
+      for (int c = 0; c < num_chunks; c++) {
+        PptTopLevel[] members = new PptTopLevel[chunks.get(c).size()];
+        for (int k = 0; k < members.length; k++) {
+          members[k] = ppts.get(chunks.get(c).get(k));
+        }
+        out.flush();
+        chunk_offsets[c] = counter.count;
+        OutputStream chunk_out = new UncloseableOutputStream(counter);
+        if (compressed) {
+          chunk_out = new BufferedOutputStream(new DeflaterOutputStream(chunk_out));
+        }
+        try (ObjectOutputStream oos = new ChunkOutputStream(chunk_out, classes, members)) {
+          oos.writeObject(members);
+        }
+        chunk_lengths[c] = (int) (counter.count - chunk_offsets[c]);
+      }
+
+      out.flush();
+      index_offset = counter.count;
+      OutputStream index_out = new UncloseableOutputStream(counter);
+      if (compressed) {
+        index_out = new BufferedOutputStream(new DeflaterOutputStream(index_out));
+      }
+      try (DataOutputStream index = new DataOutputStream(index_out)) {
+        byte[] config = serialize(Configuration.getInstance());
+        index.writeInt(config.length);
+        index.write(config);
+        index.writeInt(ppts.size());
+        for (int i = 0; i < ppts.size(); i++) {
+          byte[] name = ppts.get(i).name().getBytes(UTF_8);
+          index.writeInt(name.length);
+          index.write(name);
+          index.writeInt(chunk_of[i]);
+        }
+        index.writeInt(num_chunks);
+        for (int c = 0; c < num_chunks; c++) {
+          index.writeLong(chunk_offsets[c]);
+          index.writeInt(chunk_lengths[c]);
+        }
+        write_relations(index, ppts, ppt_index);
+        classes.write(index);
+      }
+    }
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.seek(MAGIC.length + 2);
+      raf.writeLong(index_offset);
+    }
+  }
+
+  /**
+   * Returns the chunk of each program point. Program points that share objects, other than through
+   * their relations, are put in the same chunk, because objects that are serialized separately are
+   * read back as separate objects.
+   *
+   * @param ppts the program points of the map
+   * @return the chunk of each program point; chunks are numbered in order of their first member
+   * @throws IOException if a program point cannot be serialized
+   */
+  private static int[] group_into_chunks(List<PptTopLevel> ppts) throws IOException {
+    // A union-find forest over the program points.
+    int[] root = new int[ppts.size()];
+    for (int i = 0; i < root.length; i++) {
+      root[i] = i;
+    }
+    Map<Object, Integer> owner = new IdentityHashMap<>();
+    for (int i = 0; i < ppts.size(); i++) {
+      try (ObjectOutputStream tracer = new SharingTracer(owner, i, root)) {
+        tracer.writeObject(ppts.get(i));
+      }
+    }
+    int[] chunk_of = new int[root.length];
+    int[] chunk_of_root = new int[root.length];
+    Arrays.fill(chunk_of_root, -1);
+    int num_chunks = 0;
+    for (int i = 0; i < root.length; i++) {
+      int r = find(root, i);
+      if (chunk_of_root[r] == -1) {
+        chunk_of_root[r] = num_chunks++;
+      }
+      chunk_of[i] = chunk_of_root[r];
+    }
+    return chunk_of;
+  }
+
+  /**
+   * Returns the members of each chunk.
+   *
+   * @param chunk_of the chunk of each program point; chunks are numbered from 0 without gaps
+   * @return the positions of the program points in each chunk, in increasing order
+   */
+  private static List<List<Integer>> chunk_members(int[] chunk_of) {
+    List<List<Integer>> chunks = new ArrayList<>();
+    for (int i = 0; i < chunk_of.length; i++) {
+      while (chunks.size() <= chunk_of[i]) {
+        chunks.add(new ArrayList<>());
+      }
+      chunks.get(chunk_of[i]).add(i);
+    }
+    return chunks;
+  }
+
+  /**
+   * Returns the root of element i of a union-find forest, compressing the path to it.
+   *
+   * @param root the parent of each element; an element is a root if it is its own parent
+   * @param i an element
+   * @return the root of i's tree
+   */
+  private static int find(int[] root, int i) {
+    while (root[i] != i) {
+      root[i] = root[root[i]];
+      i = root[i];
+    }
+    return i;
+  }
+
+  /**
+   * Returns true if copies of the given object may be read back in several chunks. Such objects
+   * are immutable or have no state, or are canonicalized (interned) when they are read. For
+   * example, every Equality invariant refers to the same {@link VarInfo.IndexComparator}, and many
+   * variables to {@link VarComparabilityImplicit#unknown}; if those objects were not duplicated,
+   * every program point would be in the same chunk.
+   *
+   * @param obj an object that is being serialized
+   * @return true if obj need not be read back as a single object
+   */
+  private static boolean may_duplicate(Object obj) {
+    Class<?> c = obj.getClass();
+    if (c.isArray()) {
+      return c.getComponentType().isPrimitive()
+          || obj instanceof String[]
+          || Array.getLength(obj) == 0;
+    }
+    if (obj instanceof String
+        || obj instanceof Number
+        || obj instanceof Boolean
+        || obj instanceof Character
+        || obj instanceof Enum
+        || obj instanceof Class
+        || obj instanceof ProglangType
+        || obj instanceof VarComparability
+        || obj instanceof VarInfoAux
+        || obj instanceof VarInfoName
+        || obj instanceof DiscardCode) {
+      return true;
+    }
+    // An object without serializable fields, such as a Comparator.
+    for (Class<?> k = c; k != null; k = k.getSuperclass()) {
+      ObjectStreamClass desc = ObjectStreamClass.lookup(k);
+      if (desc != null && desc.getFields().length > 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Serializes a program point without writing anything, to find the objects that it shares with
+   * other program points. Omits relations, as {@link ChunkOutputStream} does.
+   */
+  private static final class SharingTracer extends ObjectOutputStream {
+
+    /** The program point that first reached each object. */
+    private final Map<Object, Integer> owner;
+
+    /** The program point being serialized. */
+    private final Integer ppt;
+
+    /** The union-find forest of program points. */
+    private final int[] root;
+
+    /**
+     * Creates a tracer for a program point.
+     *
+     * @param owner the program point that first reached each object, updated by this tracer
+     * @param ppt the position of the program point in the map
+     * @param root the union-find forest of program points, updated by this tracer
+     * @throws IOException never
+     */
+    SharingTracer(Map<Object, Integer> owner, int ppt, int[] root) throws IOException {
+      super(
+          new OutputStream() {
+            @Override
+            public void write(int b) {}
+
+            @Override
+            public void write(byte[] b, int off, int len) {}
+          });
+      this.owner = owner;
+      this.ppt = ppt;
+      this.root = root;
+      enableReplaceObject(true);
+    }
+
+    @Override
+    protected @Nullable Object replaceObject(Object obj) {
+      if (obj instanceof PptRelation) {
+        return null;
+      }
+      if (may_duplicate(obj)) {
+        // Don't look inside it, either; what it refers to may be duplicated with it.
+        return null;
+      }
+      Integer other = owner.putIfAbsent(obj, ppt);
+      if (other != null && other.intValue() != ppt.intValue()) {
+        root[find(root, other)] = find(root, ppt);
+      }
+      // An encoded invariant refers to nothing else.
+      return (obj instanceof Invariant && EncodedInvariant.can_encode((Invariant) obj)) ? null : obj;
+    }
+  }
+
+  /**
+   * The descriptors of the classes whose objects are serialized in the chunks of a file. A
+   * serialized object is preceded by the descriptor of its class (its name, its serialVersionUID,
+   * and its fields) the first time that the class is used in its stream; since every chunk is a
+   * stream of its own, the descriptors would otherwise take up much of every chunk. Instead, the
+   * chunks refer to the descriptors by their position in this table, which is in the index. Each
+   * descriptor is serialized on its own, so that a descriptor whose class has changed or been
+   * removed fails to be read only when a chunk uses it.
+   */
+  private static final class ClassTable {
+
+    /** The position of each descriptor in the table, when writing. */
+    private final Map<ObjectStreamClass, Integer> positions = new IdentityHashMap<>();
+
+    /** The serialized descriptors. */
+    private final List<byte[]> serialized;
+
+    /** The descriptors that have been read, when reading; null for the others. */
+    private final @Nullable ObjectStreamClass[] read;
+
+    /** Creates an empty table, to which descriptors are added as chunks are written. */
+    ClassTable() {
+      serialized = new ArrayList<>();
+      read = new ObjectStreamClass[0];
+    }
+
+    /**
+     * Reads a table written by {@link #write}.
+     *
+     * @param in the index of a file
+     * @throws IOException if there is trouble reading the table
+     */
+    ClassTable(DataInputStream in) throws IOException {
+      int size = in.readInt();
+      serialized = new ArrayList<>(size);
+      for (int i = 0; i < size; i++) {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        serialized.add(bytes);
+      }
+      read = new ObjectStreamClass[size];
+    }
+
+    /**
+     * Returns the position of a descriptor in the table, adding it if it is not there.
+     *
+     * @param desc a class descriptor
+     * @return the position of desc in the table
+     * @throws IOException if there is trouble serializing the descriptor
+     */
+    int position(ObjectStreamClass desc) throws IOException {
+      Integer result = positions.get(desc);
+      if (result == null) {
+        result = serialized.size();
+        positions.put(desc, result);
+        serialized.add(serialize(desc));
+      }
+      return result;
+    }
+
+    /**
+     * Writes the table.
+     *
+     * @param out the index of a file
+     * @throws IOException if there is trouble writing
+     */
+    void write(DataOutputStream out) throws IOException {
+      out.writeInt(serialized.size());
+      for (byte[] bytes : serialized) {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+      }
+    }
+
+    /**
+     * Returns the descriptor at a position in the table.
+     *
+     * @param position a position in the table
+     * @return the descriptor at that position
+     * @throws IOException if the table has no such position, or the class of the descriptor has
+     *     changed
+     * @throws ClassNotFoundException if the class of the descriptor does not exist
+     */
+    ObjectStreamClass get(int position) throws IOException, ClassNotFoundException {
+      if (position < 0 || position >= read.length) {
+        throw new IOException("Bad class number " + position + " in invariant file");
+      }
+      ObjectStreamClass result = read[position];
+      if (result == null) {
+        try (ObjectInputStream ois =
+            new ObjectInputStream(new ByteArrayInputStream(serialized.get(position)))) {
+          result = (ObjectStreamClass) ois.readObject();
+        }
+        read[position] = result;
+      }
+      return result;
+    }
+  }
+
+  /** A stream that writes each class descriptor as its position in a {@link ClassTable}. */
+  private static class TableOutputStream extends ObjectOutputStream {
+
+    /** The table of the file being written. */
+    private final ClassTable classes;
+
+    /**
+     * Creates a stream that adds the descriptors of the classes it writes to a table.
+     *
+     * @param out the stream to which objects are written
+     * @param classes the table of the file being written
+     * @throws IOException if there is trouble writing the stream header
+     */
+    TableOutputStream(OutputStream out, ClassTable classes) throws IOException {
+      super(out);
+      this.classes = classes;
+    }
+
+    @Override
+    protected void writeClassDescriptor(ObjectStreamClass desc) throws IOException {
+      writeInt(classes.position(desc));
+    }
+  }
+
+  /**
+   * Serializes the program points of a chunk, writing null in place of each relation, an {@link
+   * EncodedInvariant} in place of each invariant that can be encoded, and a {@link
+   * SerializedInvariant} in place of each other invariant that can be serialized on its own.
+   */
+  private static final class ChunkOutputStream extends TableOutputStream {
+
+    /** The invariants of the chunk that are serialized on their own, and their serialized forms. */
+    private final Map<Invariant, byte[]> alone = new IdentityHashMap<>();
+
+    /**
+     * Creates a stream that writes a chunk.
+     *
+     * @param out the stream to which the chunk is written
+     * @param classes the table of the file being written
+     * @param members the program points of the chunk
+     * @throws IOException if there is trouble writing the stream header, or serializing an
+     *     invariant
+     */
+    ChunkOutputStream(OutputStream out, ClassTable classes, PptTopLevel[] members)
+        throws IOException {
+      super(out, classes);
+      enableReplaceObject(true);
+
+      // Invariants that other invariants refer to are serialized with the chunk, so that they are
+      // still shared when they are read.
+      Set<Invariant> referenced = Collections.newSetFromMap(new IdentityHashMap<>());
+      for (PptTopLevel member : members) {
+        List<PptTopLevel> locals = new ArrayList<>();
+        locals.add(member);
+        for (PptConditional cond : member.cond_iterable()) {
+          locals.add(cond);
+        }
+        for (PptTopLevel local : locals) {
+          List<PptSlice> slices = new ArrayList<>(local.viewsAsCollection());
+          slices.add(local.joiner_view);
+          for (PptSlice slice : slices) {
+            for (Invariant inv : slice.invs) {
+              if (inv.ppt == slice
+                  && !inv.is_false()
+                  && !EncodedInvariant.can_encode(inv)
+                  && !alone.containsKey(inv)) {
+                byte[] bytes = SerializedInvariant.serialize_alone(inv, classes, referenced);
+                if (bytes != null) {
+                  alone.put(inv, bytes);
+                }
+              }
+            }
+          }
+        }
+      }
+      alone.keySet().removeAll(referenced);
+    }
+
+    @Override
+    protected @Nullable Object replaceObject(Object obj) throws IOException {
+      if (obj instanceof PptRelation) {
+        return null;
+      }
+      if (obj instanceof Invariant) {
+        Invariant inv = (Invariant) obj;
+        if (EncodedInvariant.can_encode(inv)) {
+          return new EncodedInvariant(inv);
+        }
+        byte[] bytes = alone.get(inv);
+        if (bytes != null) {
+          return new SerializedInvariant(inv.getClass().getName(), bytes);
+        }
+      }
+      return obj;
+    }
+  }
+
+  /**
+   * An invariant that is serialized on its own, in place of the invariant, so that if its class has
+   * changed, reading it fails without failing the rest of its chunk. Like an {@link
+   * EncodedInvariant}, it does not refer to its slice, which {@link ChunkInputStream} sets.
+   */
+  private static final class SerializedInvariant implements Serializable {
+    static final long serialVersionUID = 20261019L;
+
+    /** The name of the invariant's class, for messages. */
+    private final String class_name;
+
+    /** The serialized invariant, whose slice is null. */
+    private final byte[] bytes;
+
+    /**
+     * Creates a SerializedInvariant.
+     *
+     * @param class_name the name of the invariant's class
+     * @param bytes the serialized invariant, as returned by {@link #serialize_alone}
+     */
+    SerializedInvariant(String class_name, byte[] bytes) {
+      this.class_name = class_name;
+      this.bytes = bytes;
+    }
+
+    /**
+     * Serializes an invariant on its own, omitting its slice. Fails if the invariant refers to a
+     * program point, a variable, or another invariant, because those would be read back as copies.
+     *
+     * @param inv an invariant in its slice's list of invariants
+     * @param classes the table of the file being written
+     * @param referenced the invariants that other invariants refer to; the invariants that inv
+     *     refers to are added to it
+     * @return the serialized invariant, or null if it refers to objects outside itself
+     * @throws IOException if the invariant cannot be serialized
+     */
+    static byte @Nullable [] serialize_alone(
+        Invariant inv, ClassTable classes, Set<Invariant> referenced) throws IOException {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      boolean[] alone = {true};
+      try (ObjectOutputStream oos =
+          new TableOutputStream(bytes, classes) {
+            {
+              enableReplaceObject(true);
+            }
+
+            @Override
+            protected @Nullable Object replaceObject(Object obj) {
+              if (obj == inv) {
+                return obj;
+              }
+              if (obj == inv.ppt) {
+                return null;
+              }
+              if (obj instanceof Invariant) {
+                referenced.add((Invariant) obj);
+                alone[0] = false;
+                return null;
+              }
+              if (obj instanceof Ppt || obj instanceof VarInfo || obj instanceof PptRelation) {
+                alone[0] = false;
+                return null;
+              }
+              return obj;
+            }
+          }) {
+        oos.writeObject(inv);
+      }
+      return alone[0] ? bytes.toByteArray() : null;
+    }
+
+    /**
+     * Returns the invariant, or null if its class has changed since it was written. Its slice is
+     * null.
+     *
+     * @param classes the table of the file being read
+     * @return the invariant, or null if it cannot be read
+     * @throws IOException if there is trouble reading the invariant, other than a changed class
+     */
+    @Nullable Invariant decode(ClassTable classes) throws IOException {
+      try (ObjectInputStream ois = new TableInputStream(new ByteArrayInputStream(bytes), classes)) {
+        return (Invariant) ois.readObject();
+      } catch (InvalidClassException | ClassNotFoundException e) {
+        return null;
+      }
+    }
+  }
+
+  /**
+   * An invariant written in the layout of its class (see {@link Invariant#write_state}), in place of
+   * the serialized invariant.
+   *
+   * <p>It does not refer to the invariant's slice: an object that {@link
+   * ObjectInputStream#resolveObject} replaces is only replaced after it has been read, so an
+   * encoded invariant that referred to its slice would be read back in the slice's list of
+   * invariants, in place of the invariant. Only invariants in their slice's list are encoded, and
+   * {@link ChunkInputStream} sets their slice when it reads the slice.
+   */
+  private static final class EncodedInvariant implements Serializable {
+    static final long serialVersionUID = 20261019L;
+
+    /** Whether each class of invariants has a layout of its own, by class. */
+    private static final Map<Class<?>, Boolean> has_layout = new ConcurrentHashMap<>();
+
+    /** The name of the invariant's class. */
+    private final String class_name;
+
+    /** The version of the layout in which the state was written. */
+    private final int version;
+
+    /** The invariant's {@link Invariant#isGuardingPredicate} field. */
+    private final boolean guarding;
+
+    /** The invariant's state, as written by {@link Invariant#write_state}. */
+    private final byte[] state;
+
+    /**
+     * Encodes an invariant.
+     *
+     * @param inv an invariant for which {@link #can_encode} is true
+     * @throws IOException if the invariant cannot write its state
+     */
+    EncodedInvariant(Invariant inv) throws IOException {
+      class_name = inv.getClass().getName();
+      version = inv.state_version();
+      guarding = inv.isGuardingPredicate;
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try (DataOutputStream out = new DataOutputStream(bytes)) {
+        inv.write_state(out);
+      }
+      state = bytes.toByteArray();
+    }
+
+    /**
+     * Returns true if an invariant is written encoded rather than serialized: its own class (not
+     * just a superclass) has a layout, it has not been falsified, and it is in its slice's list of
+     * invariants.
+     *
+     * @param inv an invariant that is being written
+     * @return true if inv is written as an EncodedInvariant
+     */
+    static boolean can_encode(Invariant inv) {
+      if (inv.ppt == null
+          || inv.is_false()
+          || !has_layout.computeIfAbsent(inv.getClass(), EncodedInvariant::declares_layout)
+          || inv.state_version() <= 0) {
+        return false;
+      }
+      for (Invariant slice_inv : inv.ppt.invs) {
+        if (slice_inv == inv) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Returns true if a class declares {@link Invariant#state_version}. A class that inherits the
+     * layout of a superclass may have fields that the layout omits.
+     *
+     * @param c a class of invariants
+     * @return true if c declares state_version
+     */
+    private static boolean declares_layout(Class<?> c) {
+      try {
+        return c.getMethod("state_version").getDeclaringClass() == c;
+      } catch (NoSuchMethodException e) {
+        throw new Error(e);
+      }
+    }
+
+    /**
+     * Returns the invariant that this encodes. Its slice is null.
+     *
+     * @return the invariant
+     * @throws IOException if the class of the invariant does not exist, or cannot read the state
+     */
+    Invariant decode() throws IOException {
+      Invariant proto;
+      try {
+        proto = (Invariant) Class.forName(class_name).getMethod("get_proto").invoke(null);
+      } catch (ReflectiveOperationException | ClassCastException e) {
+        InvalidClassException ice = new InvalidClassException(class_name, "no invariant prototype");
+        ice.initCause(e);
+        throw ice;
+      }
+      ByteArrayInputStream bytes = new ByteArrayInputStream(state);
+      Invariant result = proto.read_state(version, new DataInputStream(bytes));
+      if (bytes.available() != 0) {
+        throw new InvalidClassException(
+            class_name, "version " + version + " of the state layout has changed");
+      }
+      result.isGuardingPredicate = guarding;
+      return result;
+    }
+  }
+
+  /**
+   * Writes the relations between the program points of a map, and their conditional program
+   * points. Relations to program points outside the map are omitted.
+   *
+   * @param out where to write the relations
+   * @param ppts the program points of the map
+   * @param ppt_index the position of each program point in ppts
+   * @throws IOException if there is trouble writing
+   */
+  private static void write_relations(
+      DataOutputStream out, List<PptTopLevel> ppts, Map<PptTopLevel, Integer> ppt_index)
+      throws IOException {
+    // The location of every program point whose relations are written.
+    Map<PptTopLevel, int[]> locations = new IdentityHashMap<>();
+    for (int i = 0; i < ppts.size(); i++) {
+      PptTopLevel ppt = ppts.get(i);
+      locations.put(ppt, new int[] {i, -1, -1});
+      if (ppt.splitters != null) {
+        for (int s = 0; s < ppt.splitters.size(); s++) {
+          PptTopLevel[] conds = ppt.splitters.get(s).ppts;
+          for (int j = 0; j < conds.length; j++) {
+            if (!ppt_index.containsKey(conds[j])) {
+              locations.putIfAbsent(conds[j], new int[] {i, s, j});
+            }
+          }
+        }
+      }
+    }
+
+    List<PptRelation> rels = new ArrayList<>();
+    Map<PptRelation, Boolean> seen = new IdentityHashMap<>();
+    for (PptTopLevel ppt : locations.keySet()) {
+      for (List<PptRelation> list : Arrays.asList(ppt.children, ppt.parents)) {
+        for (PptRelation rel : list) {
+          if (locations.containsKey(rel.parent)
+              && locations.containsKey(rel.child)
+              && seen.put(rel, Boolean.TRUE) == null) {
+            rels.add(rel);
+          }
+        }
+      }
+    }
+
+    out.writeInt(rels.size());
+    for (PptRelation rel : rels) {
+      write_location(out, locations.get(rel.parent));
+      write_location(out, locations.get(rel.child));
+      out.writeByte(rel.getRelationType().ordinal());
+      out.writeInt(identity_index(rel.parent.children, rel));
+      out.writeInt(identity_index(rel.child.parents, rel));
+      write_var_map(out, rel.parent_to_child_map, rel.parent, rel.child);
+      write_var_map(out, rel.child_to_parent_map, rel.child, rel.parent);
+    }
+  }
+
+  /**
+   * Writes the location of a program point: its position in the name table, and the indices of its
+   * splitter and of its position in the splitter if it is a conditional program point (else -1).
+   */
+  private static void write_location(DataOutputStream out, int[] location) throws IOException {
+    for (int i : location) {
+      out.writeInt(i);
+    }
+  }
+
+  /**
+   * Returns the position of an object in a list, comparing by identity, or -1 if it is not in the
+   * list.
+   */
+  private static int identity_index(List<?> list, Object obj) {
+    for (int i = 0; i < list.size(); i++) {
+      if (list.get(i) == obj) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Writes a map between the variables of two program points as pairs of variable indices.
+   *
+   * @param out where to write the map
+   * @param map the map
+   * @param from the program point of the map's keys
+   * @param to the program point of the map's values
+   * @throws IOException if there is trouble writing
+   */
+  private static void write_var_map(
+      DataOutputStream out, Map<VarInfo, VarInfo> map, PptTopLevel from, PptTopLevel to)
+      throws IOException {
+    out.writeInt(map.size());
+    for (Map.Entry<VarInfo, VarInfo> entry : map.entrySet()) {
+      out.writeInt(var_index(from, entry.getKey()));
+      out.writeInt(var_index(to, entry.getValue()));
+    }
+  }
+
+  /** Returns the index of a variable in its program point. */
+  private static int var_index(PptTopLevel ppt, VarInfo vi) {
+    int index = vi.varinfo_index;
+    if (index < 0 || index >= ppt.var_infos.length || ppt.var_infos[index] != vi) {
+      throw new Error("Variable " + vi.name() + " is not a variable of " + ppt.name());
+    }
+    return index;
+  }
+
+  /** Returns the serialized form of an object. */
+  private static byte[] serialize(Object obj) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+      oos.writeObject(obj);
+    }
+    return bytes.toByteArray();
+  }
+
+  /** An output stream that counts the bytes written to it. */
+  private static final class CountingOutputStream extends OutputStream {
+    /** The stream to which bytes are written. */
+    private final OutputStream out;
+
+    /** The number of bytes written. */
+    long count = 0;
+
+    /** Creates a stream that writes to out. */
+    CountingOutputStream(OutputStream out) {
+      this.out = out;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      count += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+      out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+      out.close();
+    }
+  }
+
+  /** An output stream whose close method flushes the underlying stream, but does not close it. */
+  private static final class UncloseableOutputStream extends OutputStream {
+    /** The stream to which bytes are written. */
+    private final OutputStream out;
+
+    /** Creates a stream that writes to out. */
+    UncloseableOutputStream(OutputStream out) {
+      this.out = out;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+      out.flush();
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  /// Reading
+  ///
+
+  /**
+   * Reads a whole binary invariant file.
+   *
+   * @param file a binary invariant file
+   * @param use_saved_config if true, the configuration saved in the file is applied
+   * @return the program points in the file
+   * @throws IOException if there is trouble reading the file
+   */
+  public static PptMap read(File file, boolean use_saved_config) throws IOException {
+    try (Reader reader = new Reader(file)) {
+      if (use_saved_config) {
+        Configuration.getInstance().overlap(reader.config());
+      }
+      FileIO.new_decl_format = reader.new_decl_format();
+      return reader.read_all();
+    }
+  }
+
+  /** A relation, as recorded in the index. */
+  private static final class RelationRecord {
+    /** The location of the parent. */
+    final int[] parent;
+
+    /** The location of the child. */
+    final int[] child;
+
+    /** The type of the relation. */
+    final PptRelationType type;
+
+    /** The position of the relation in the parent's children list, or -1. */
+    final int parent_pos;
+
+    /** The position of the relation in the child's parent list, or -1. */
+    final int child_pos;
+
+    /** The parent-to-child variable map, as pairs of indices. */
+    final int[] parent_to_child;
+
+    /** The child-to-parent variable map, as pairs of indices. */
+    final int[] child_to_parent;
+
+    /** The relation, once both of its program points have been read. */
+    @Nullable PptRelation rel = null;
+
+    /** Reads a relation from the index. */
+    RelationRecord(DataInputStream in) throws IOException {
+      parent = read_location(in);
+      child = read_location(in);
+      int ordinal = in.readUnsignedByte();
+      PptRelationType[] types = PptRelationType.values();
+      if (ordinal >= types.length) {
+        throw new IOException("Bad relation type " + ordinal + " in invariant file");
+      }
+      type = types[ordinal];
+      parent_pos = in.readInt();
+      child_pos = in.readInt();
+      parent_to_child = read_var_map(in);
+      child_to_parent = read_var_map(in);
+    }
+
+    /** Reads a location written by {@link #write_location}. */
+    private static int[] read_location(DataInputStream in) throws IOException {
+      return new int[] {in.readInt(), in.readInt(), in.readInt()};
+    }
+
+    /** Reads a variable map written by {@link #write_var_map}. */
+    private static int[] read_var_map(DataInputStream in) throws IOException {
+      int[] pairs = new int[2 * in.readInt()];
+      for (int i = 0; i < pairs.length; i++) {
+        pairs[i] = in.readInt();
+      }
+      return pairs;
+    }
+  }
+
+  /**
+   * Reads the program points of a binary invariant file on demand. Reading a program point reads
+   * the other program points of its chunk, and restores its relations to the program points that
+   * have already been read; so once every program point has been read, the hierarchy is complete.
+   * Program points can also be evicted, to save memory; see {@link #evict}. The methods of a Reader
+   * may be called from several threads.
+   */
+  public static final class Reader implements Closeable {
+
+    /** The file being read. */
+    private final File file;
+
+    /** The open file. */
+    private final FileChannel channel;
+
+    /** The flags of the file. */
+    private final int flags;
+
+    /** The class table of the file, or null if the file's version has none. */
+    private final @Nullable ClassTable classes;
+
+    /** The configuration saved in the file. */
+    private final Configuration config;
+
+    /** The name of each program point, in the order of the PptMap. */
+    private final String[] names;
+
+    /** The position of each program point in {@link #names}. */
+    private final Map<String, Integer> name_index;
+
+    /** The chunk of each program point. */
+    private final int[] chunk_of;
+
+    /** The program points in each chunk. */
+    private final List<List<Integer>> chunk_members;
+
+    /** The offset of each chunk in the file. */
+    private final long[] chunk_offsets;
+
+    /** The length of each chunk. */
+    private final int[] chunk_lengths;
+
+    /** The program points that have been read; null for the others. */
+    private final @Nullable PptTopLevel[] loaded;
+
+    /** The relations of each program point (including its conditional program points). */
+    private final List<List<RelationRecord>> relations_of;
+
+    /** Incremented by each call of a method that reads program points. */
+    private long clock = 0;
+
+    /** The value of {@link #clock} when each chunk was last used, or 0 if it is not loaded. */
+    private final long[] last_use;
+
+    /**
+     * Opens a binary invariant file and reads its index.
+     *
+     * @param file a binary invariant file
+     * @throws IOException if there is trouble reading the file, or it is not a binary invariant
+     *     file of a version that this class can read
+     */
+    public Reader(File file) throws IOException {
+      this.file = file;
+      channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+      try {
+        ByteBuffer header = read_fully(0, HEADER_LENGTH);
+        for (byte b : MAGIC) {
+          if (header.get() != b) {
+            throw new IOException(file + " is not a binary invariant file");
+          }
+        }
+        int version = header.get() & 0xFF;
+        if (version > VERSION) {
+          throw new IOException(
+              String.format(
+                  "%s has version %d of the invariant file format, but this version of Daikon only"
+                      + " reads versions up to %d.  Please use a newer version of Daikon.",
+                  file, version, VERSION));
+        }
+        flags = header.get() & 0xFF;
+        long index_offset = header.getLong();
+        long length = channel.size();
+        if (index_offset < HEADER_LENGTH || index_offset > length) {
+          throw new IOException(file + " is truncated or corrupted");
+        }
+        InputStream index_in =
+            new ByteArrayInputStream(
+                read_fully(index_offset, (int) (length - index_offset)).array());
+        if (version >= 3 && (flags & COMPRESSED) != 0) {
+          index_in = new BufferedInputStream(new InflaterInputStream(index_in));
+        }
+        DataInputStream in = new DataInputStream(index_in);
+
+        byte[] config_bytes = new byte[in.readInt()];
+        in.readFully(config_bytes);
+        config = (Configuration) deserialize(new ByteArrayInputStream(config_bytes));
+
+        int num_ppts = in.readInt();
+        names = new String[num_ppts];
+        name_index = new HashMap<>();
+        chunk_of = new int[num_ppts];
+        for (int i = 0; i < num_ppts; i++) {
+          byte[] name = new byte[in.readInt()];
+          in.readFully(name);
+          names[i] = new String(name, UTF_8).intern();
+          name_index.put(names[i], i);
+          chunk_of[i] = in.readInt();
+        }
+        int num_chunks = in.readInt();
+        chunk_members = chunk_members(chunk_of);
+        if (chunk_members.size() != num_chunks) {
+          throw new IOException(file + " is corrupted: wrong number of chunks");
+        }
+        chunk_offsets = new long[num_chunks];
+        chunk_lengths = new int[num_chunks];
+        for (int c = 0; c < num_chunks; c++) {
+          chunk_offsets[c] = in.readLong();
+          chunk_lengths[c] = in.readInt();
+        }
+        loaded = new PptTopLevel[num_ppts];
+        last_use = new long[num_chunks];
+        relations_of = new ArrayList<>(num_ppts);
+        for (int i = 0; i < num_ppts; i++) {
+          relations_of.add(new ArrayList<>());
+        }
+        int num_rels = in.readInt();
+        for (int r = 0; r < num_rels; r++) {
+          RelationRecord rec = new RelationRecord(in);
+          relations_of.get(rec.parent[0]).add(rec);
+          if (rec.child[0] != rec.parent[0]) {
+            relations_of.get(rec.child[0]).add(rec);
+          }
+        }
+        classes = (version >= 3) ? new ClassTable(in) : null;
+      } catch (EOFException | IndexOutOfBoundsException e) {
+        channel.close();
+        throw new IOException(file + " is truncated or corrupted", e);
+      } catch (IOException | RuntimeException e) {
+        channel.close();
+        throw e;
+      }
+    }
+
+    /** Returns the configuration saved in the file. */
+    public Configuration config() {
+      return config;
+    }
+
+    /** Returns true if the invariants were computed from version 2 declarations. */
+    public boolean new_decl_format() {
+      return (flags & NEW_DECL_FORMAT) != 0;
+    }
+
+    /** Returns the names of the program points in the file, in the order of the PptMap. */
+    public List<String> ppt_names() {
+      return Collections.unmodifiableList(Arrays.asList(names));
+    }
+
+    /**
+     * Returns true if the file contains a program point with the given name.
+     *
+     * @param name a program point name
+     * @return true if the file contains the program point
+     */
+    public boolean contains(String name) {
+      return name_index.containsKey(name);
+    }
+
+    /**
+     * Returns the program point with the given name if it has been read and not evicted, without
+     * reading anything.
+     *
+     * @param name a program point name
+     * @return the program point, or null if it is not in memory
+     */
+    public synchronized @Nullable PptTopLevel get_if_loaded(String name) {
+      Integer i = name_index.get(name);
+      return (i == null) ? null : loaded[i];
+    }
+
+    /**
+     * Returns the program point with the given name, reading it if it has not been read.
+     *
+     * @param name a program point name
+     * @return the program point, or null if the file does not contain it
+     * @throws IOException if there is trouble reading the file
+     */
+    public synchronized @Nullable PptTopLevel get(String name) throws IOException {
+      Integer i = name_index.get(name);
+      if (i == null) {
+        return null;
+      }
+      clock++;
+      use_chunk(chunk_of[i]);
+      return loaded[i];
+    }
+
+    /**
+     * Returns the program point with the given name, reading it and its ancestors in the program
+     * point hierarchy if they have not been read. Unlike {@link #get}, this ensures that the
+     * program point's parent relations are complete, as filters that compare an invariant to the
+     * invariants of the parent program points require.
+     *
+     * @param name a program point name
+     * @return the program point, or null if the file does not contain it
+     * @throws IOException if there is trouble reading the file
+     */
+    public synchronized @Nullable PptTopLevel get_with_ancestors(String name) throws IOException {
+      Integer start = name_index.get(name);
+      if (start == null) {
+        return null;
+      }
+      clock++;
+      boolean[] visited = new boolean[names.length];
+      visited[start] = true;
+      List<Integer> worklist = new ArrayList<>();
+      worklist.add(start);
+      while (!worklist.isEmpty()) {
+        int i = worklist.remove(worklist.size() - 1);
+        use_chunk(chunk_of[i]);
+        for (RelationRecord rec : relations_of.get(i)) {
+          int parent = rec.parent[0];
+          if (rec.child[0] == i && !visited[parent]) {
+            visited[parent] = true;
+            worklist.add(parent);
+          }
+        }
+      }
+      return loaded[start];
+    }
+
+    /**
+     * Reads a chunk if it has not been read, and records that it was used at the current time.
+     *
+     * @param c a chunk number
+     * @throws IOException if there is trouble reading the file
+     */
+    private void use_chunk(int c) throws IOException {
+      read_chunk(c, true);
+      last_use[c] = clock;
+    }
+
+    /**
+     * Returns the number of chunks that have been read and not evicted.
+     *
+     * @return the number of chunks in memory
+     */
+    public synchronized int loaded_chunks() {
+      int result = 0;
+      for (long use : last_use) {
+        if (use != 0) {
+          result++;
+        }
+      }
+      return result;
+    }
+
+    /**
+     * Forgets the least recently used program points, so that they can be garbage-collected, and
+     * removes the relations between them and the program points that remain. A program point that
+     * is requested again is read again, as a new object. The program points returned by the most
+     * recent call of {@link #get} or {@link #get_with_ancestors} are never evicted.
+     *
+     * @param count how many chunks to evict
+     * @return the number of chunks evicted, which may be less than count
+     */
+    public synchronized int evict(int count) {
+      Integer[] order = new Integer[last_use.length];
+      for (int c = 0; c < order.length; c++) {
+        order[c] = c;
+      }
+      Arrays.sort(order, Comparator.comparingLong(c -> last_use[c]));
+      int evicted_chunks = 0;
+      List<Integer> evicted = new ArrayList<>();
+      for (int c : order) {
+        if (evicted_chunks == count || last_use[c] == clock) {
+          break;
+        }
+        if (last_use[c] != 0) {
+          last_use[c] = 0;
+          evicted_chunks++;
+          evicted.addAll(chunk_members.get(c));
+        }
+      }
+
+      // Forget the program points and their relations, then remove the relations from the
+      // program points that remain.
+      for (int i : evicted) {
+        loaded[i] = null;
+        for (RelationRecord rec : relations_of.get(i)) {
+          rec.rel = null;
+        }
+      }
+      restore_related(evicted);
+      return evicted_chunks;
+    }
+
+    /**
+     * Reads every program point in the file.
+     *
+     * @return a PptMap that contains every program point in the file
+     * @throws IOException if there is trouble reading the file
+     */
+    public synchronized PptMap read_all() throws IOException {
+      clock++;
+      for (int c = 0; c < chunk_offsets.length; c++) {
+        read_chunk(c, false);
+        last_use[c] = clock;
+      }
+      for (int i = 0; i < loaded.length; i++) {
+        restore_relations(i);
+      }
+      PptMap map = new PptMap();
+      for (PptTopLevel ppt : loaded) {
+        assert ppt != null : "@AssumeAssertion(nullness): every chunk was read";
+        map.add(ppt);
+      }
+      return map;
+    }
+
+    /**
+     * Reads a chunk, if it has not been read.
+     *
+     * @param c a chunk number
+     * @param restore if true, restore the relations of the chunk's program points; otherwise the
+     *     caller must do so
+     * @throws IOException if there is trouble reading the file
+     */
+    private void read_chunk(int c, boolean restore) throws IOException {
+      List<Integer> members = chunk_members.get(c);
+      if (loaded[members.get(0)] != null) {
+        return;
+      }
+
+      InputStream in =
+          new ByteArrayInputStream(read_fully(chunk_offsets[c], chunk_lengths[c]).array());
+      if ((flags & COMPRESSED) != 0) {
+        // ObjectInputStream reads a few bytes at a time.
+        in = new BufferedInputStream(new InflaterInputStream(in));
+      }
+      PptTopLevel[] ppts;
+      try (ChunkInputStream chunk_in = new ChunkInputStream(in, classes)) {
+        ppts = (PptTopLevel[]) chunk_in.readObject();
+        if (chunk_in.num_dropped > 0) {
+          System.err.printf(
+              "Warning: dropped %d invariant(s) from %s, because their classes (%s) have been"
+                  + " modified since %s was written.  Please regenerate the .inv file.%n",
+              chunk_in.num_dropped,
+              names[members.get(0)],
+              String.join(", ", chunk_in.dropped),
+              file);
+        }
+      } catch (ClassNotFoundException e) {
+        throw new IOException("Error while loading inv file", e);
+      } catch (InvalidClassException e) {
+        throw new IOException(
+            "Cannot read program point "
+                + names[members.get(0)]
+                + " from "
+                + file
+                + ", because a Daikon data structure has been modified since the file was"
+                + " written.  Please regenerate the .inv file.",
+            e);
+      }
+      if (ppts.length != members.size()) {
+        throw new IOException(file + " is corrupted: wrong number of program points in a chunk");
+      }
+      for (int k = 0; k < ppts.length; k++) {
+        loaded[members.get(k)] = ppts[k];
+      }
+      if (!restore) {
+        return;
+      }
+
+      restore_related(members);
+    }
+
+    /**
+     * Restores the relation lists of the given program points that are loaded, and of the loaded
+     * program points that they are related to.
+     *
+     * @param ppts positions of program points in the name table
+     */
+    private void restore_related(List<Integer> ppts) {
+      Set<Integer> affected = new LinkedHashSet<>();
+      for (int i : ppts) {
+        if (loaded[i] != null) {
+          affected.add(i);
+        }
+        for (RelationRecord rec : relations_of.get(i)) {
+          for (int other : new int[] {rec.parent[0], rec.child[0]}) {
+            if (loaded[other] != null) {
+              affected.add(other);
+            }
+          }
+        }
+      }
+      for (int i : affected) {
+        restore_relations(i);
+      }
+    }
+
+    /**
+     * Sets the relation lists of a program point that has been read, and of its conditional
+     * program points, to the relations whose program points have both been read.
+     *
+     * @param i the position of a program point in the name table
+     */
+    private void restore_relations(int i) {
+      PptTopLevel ppt = loaded[i];
+      assert ppt != null;
+      List<PptTopLevel> locals = new ArrayList<>();
+      locals.add(ppt);
+      for (PptConditional cond : ppt.cond_iterable()) {
+        locals.add(cond);
+      }
+      for (PptTopLevel local : locals) {
+        local.parents.clear();
+        local.children.clear();
+      }
+
+      List<RelationRecord> children = new ArrayList<>();
+      List<RelationRecord> parents = new ArrayList<>();
+      for (RelationRecord rec : relations_of.get(i)) {
+        PptRelation rel = relation(rec);
+        if (rel == null) {
+          continue;
+        }
+        if (rec.parent[0] == i && rec.parent_pos >= 0) {
+          children.add(rec);
+        }
+        if (rec.child[0] == i && rec.child_pos >= 0) {
+          parents.add(rec);
+        }
+      }
+      children.sort(Comparator.comparingInt(rec -> rec.parent_pos));
+      parents.sort(Comparator.comparingInt(rec -> rec.child_pos));
+      for (RelationRecord rec : children) {
+        assert rec.rel != null;
+        rec.rel.parent.children.add(rec.rel);
+      }
+      for (RelationRecord rec : parents) {
+        assert rec.rel != null;
+        rec.rel.child.parents.add(rec.rel);
+      }
+    }
+
+    /**
+     * Returns the relation that a record describes, creating it if necessary, or null if one of its
+     * program points has not been read.
+     */
+    private @Nullable PptRelation relation(RelationRecord rec) {
+      if (rec.rel != null) {
+        return rec.rel;
+      }
+      PptTopLevel parent = locate(rec.parent);
+      PptTopLevel child = locate(rec.child);
+      if (parent == null || child == null) {
+        return null;
+      }
+      PptRelation rel = PptRelation.newUnconnectedRel(parent, child, rec.type);
+      for (int k = 0; k < rec.parent_to_child.length; k += 2) {
+        rel.parent_to_child_map.put(
+            parent.var_infos[rec.parent_to_child[k]], child.var_infos[rec.parent_to_child[k + 1]]);
+      }
+      for (int k = 0; k < rec.child_to_parent.length; k += 2) {
+        rel.child_to_parent_map.put(
+            child.var_infos[rec.child_to_parent[k]], parent.var_infos[rec.child_to_parent[k + 1]]);
+      }
+      rec.rel = rel;
+      return rel;
+    }
+
+    /**
+     * Returns the program point at a location, or null if it has not been read.
+     *
+     * @param location a location written by {@link #write_location}
+     * @return the program point at the location, or null
+     */
+    private @Nullable PptTopLevel locate(int[] location) {
+      PptTopLevel ppt = loaded[location[0]];
+      if (ppt == null || location[1] < 0) {
+        return ppt;
+      }
+      List<PptSplitter> splitters = ppt.splitters;
+      assert splitters != null : "@AssumeAssertion(nullness): the writer found a conditional ppt";
+      return splitters.get(location[1]).ppts[location[2]];
+    }
+
+    /**
+     * Reads bytes from the file.
+     *
+     * @param offset where to start reading
+     * @param length how many bytes to read
+     * @return a buffer, positioned at its start, that holds the bytes
+     * @throws IOException if there is trouble reading, or the file ends first
+     */
+    private ByteBuffer read_fully(long offset, int length) throws IOException {
+      ByteBuffer buffer = ByteBuffer.allocate(length);
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer, offset + buffer.position()) < 0) {
+          throw new EOFException(file + " is truncated");
+        }
+      }
+      buffer.flip();
+      return buffer;
+    }
+
+    @Override
+    public void close() throws IOException {
+      channel.close();
+    }
+  }
+
+  /**
+   * A stream that reads each class descriptor as its position in a {@link ClassTable}, if the file
+   * has one.
+   */
+  private static class TableInputStream extends ObjectInputStream {
+
+    /** The table of the file being read, or null if the file has none. */
+    final @Nullable ClassTable classes;
+
+    /**
+     * Creates a stream that reads class descriptors from a table.
+     *
+     * @param in the stream from which objects are read
+     * @param classes the table of the file being read, or null if the file has none
+     * @throws IOException if there is trouble reading the stream header
+     */
+    TableInputStream(InputStream in, @Nullable ClassTable classes) throws IOException {
+      super(in);
+      this.classes = classes;
+    }
+
+    @Override
+    protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+      if (classes == null) {
+        return super.readClassDescriptor();
+      }
+      return classes.get(readInt());
+    }
+  }
+
+  /**
+   * Deserializes the program points of a chunk. Removes the nulls that {@link ChunkOutputStream}
+   * wrote in place of relations from the relation lists of every program point; the relations of
+   * the program points in the file are restored by the {@link Reader}. Decodes each {@link
+   * EncodedInvariant} and {@link SerializedInvariant}, removes from its slice each invariant whose
+   * class has changed, and sets the slice of each decoded invariant when the slice is read.
+   */
+  private static final class ChunkInputStream extends TableInputStream {
+
+    /** The names of the classes of the invariants that could not be read. */
+    final Set<String> dropped = new TreeSet<>();
+
+    /** The number of invariants that could not be read. */
+    int num_dropped = 0;
+
+    /**
+     * Creates a stream that reads a chunk.
+     *
+     * @param in the stream from which the chunk is read
+     * @param classes the table of the file being read, or null if the file has none
+     * @throws IOException if there is trouble reading the stream header
+     */
+    ChunkInputStream(InputStream in, @Nullable ClassTable classes) throws IOException {
+      super(in, classes);
+      enableResolveObject(true);
+    }
+
+    @Override
+    protected @Nullable Object resolveObject(Object obj) throws IOException {
+      if (obj instanceof EncodedInvariant) {
+        return ((EncodedInvariant) obj).decode();
+      }
+      if (obj instanceof SerializedInvariant) {
+        SerializedInvariant serialized = (SerializedInvariant) obj;
+        if (classes == null) {
+          throw new IOException("Serialized invariant in a file without a class table");
+        }
+        Invariant inv = serialized.decode(classes);
+        if (inv == null) {
+          dropped.add(serialized.class_name);
+          num_dropped++;
+        }
+        return inv;
+      }
+      if (obj instanceof PptSlice) {
+        PptSlice slice = (PptSlice) obj;
+        slice.invs.removeIf(Objects::isNull);
+        for (Invariant inv : slice.invs) {
+          if (inv.ppt == null) {
+            inv.ppt = slice;
+          }
+        }
+      } else if (obj instanceof PptTopLevel) {
+        PptTopLevel ppt = (PptTopLevel) obj;
+        ppt.parents.removeIf(Objects::isNull);
+        ppt.children.removeIf(Objects::isNull);
+      }
+      return obj;
+    }
+  }
+
+  /** Deserializes an object, reporting a missing class as an IOException. */
+  private static Object deserialize(InputStream in) throws IOException {
+    try (ObjectInputStream ois = new ObjectInputStream(in)) {
+      return ois.readObject();
+    } catch (ClassNotFoundException e) {
+      throw new IOException("Error while loading inv file", e);
+    }
+  }
+}
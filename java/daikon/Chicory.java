@@ -47,6 +47,21 @@ public class Chicory {
   @Option("File in which to put dtrace output")
   public static @MonotonicNonNull File dtrace_file = null;
 
+  /**
+   * If true, the dtrace file is written in Daikon's binary format (see {@link
+   * daikon.BinaryDtrace}), which is smaller and faster for Daikon to read.
+   */
+  @Option("Write the dtrace file in binary format")
+  public static boolean binary_dtrace = false;
+
+  /**
+   * If true, each thread of the target program formats its dtrace records into a buffer of its
+   * own, and a separate thread appends the buffers to the dtrace file. Records of different threads
+   * are then written concurrently, rather than one at a time.
+   */
+  @Option("Buffer the dtrace records of each thread separately")
+  public static boolean thread_buffers = false;
+
   /** Decl formatted file containing comparability information. */
   @Option("Decl formatted file containing comparability information")
   public static @Nullable File comparability_file = null;
@@ -106,6 +121,16 @@ public class Chicory {
   @Option("Number of calls after which sampling will begin")
   public static int sample_start = 0;
 
+  /**
+   * When this option is chosen, Chicory records a call only if the values of its primitive and
+   * String arguments and of the primitive and String fields of its receiver differ from those of
+   * the last sample-novelty distinct calls of the method. Other calls are sampled as given by
+   * sample-start, or not recorded if sample-start is 0. If sample-novelty is 0, calls are not
+   * sampled by their values.
+   */
+  @Option("Number of recent distinct calls of a method whose repetitions are not recorded")
+  public static int sample_novelty = 0;
+
   /** Treat classes that match the regex as boot classes (do not instrument). */
   @Option("Treat classes that match the regex as boot classes (do not instrument)")
   public static @Nullable Pattern boot_classes = null;
@@ -240,6 +265,16 @@ public class Chicory {
       options.printUsage();
       System.exit(1);
     }
+    if (sample_novelty < 0) {
+      System.out.printf("sample-novelty (%d) must not be negative%n", sample_novelty);
+      options.printUsage();
+      System.exit(1);
+    }
+    if (thread_buffers && binary_dtrace) {
+      System.out.printf("may not specify both thread-buffers and binary-dtrace%n");
+      options.printUsage();
+      System.exit(1);
+    }
     if (!daikon_args.trim().isEmpty() && !(daikon || daikon_online)) {
       System.out.printf("may not specify daikon-args without either daikon or daikon-onlne%n");
       options.printUsage();
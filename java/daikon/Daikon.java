@@ -257,6 +257,13 @@ public final class Daikon {
    */
   public static boolean dkconfig_print_sample_totals = false;
 
+  /**
+   * Integer. If greater than 1, the number of threads that merge invariants up the program point
+   * hierarchy (see {@link #createUpperPpts}). Program points that do not share any children are
+   * merged concurrently; the results are the same as for serial merging.
+   */
+  public static int dkconfig_merge_threads = 1;
+
   // All these variables really need to be organized better.
 
   public static final String lineSep = Global.lineSep;
@@ -588,18 +595,26 @@ public final class Daikon {
     static final long serialVersionUID = 20050923L;
 
     public static String error_at_line_file(LineNumberReader reader, String filename, Throwable e) {
+      return error_at_line_file(reader.getLineNumber(), filename, e);
+    }
+
+    public static String error_at_line_file(int linenum, String filename, Throwable e) {
       String msg = e.getMessage();
       if (msg == null) {
         msg = " of type " + e.getClass() + " with no detail message";
       }
-      return error_at_line_file(reader, filename, msg);
+      return error_at_line_file(linenum, filename, msg);
     }
 
     public static String error_at_line_file(LineNumberReader reader, String filename, String msg) {
+      return error_at_line_file(reader.getLineNumber(), filename, msg);
+    }
+
+    public static String error_at_line_file(int linenum, String filename, String msg) {
       if (msg == null) {
         throw new Error("Null message supplied to error_at_line_file()");
       }
-      return "Error at line " + reader.getLineNumber() + " in file " + filename + ": " + msg;
+      return "Error at line " + linenum + " in file " + filename + ": " + msg;
     }
 
     /// Constructors that take a Throwable
@@ -618,7 +633,7 @@ public final class Daikon {
     }
 
     public UserError(Throwable e, FileIO.ParseState state) {
-      this(e, error_at_line_file(state.reader, state.filename, e));
+      this(e, error_at_line_file(state.get_linenum(), state.filename, e));
     }
 
     public UserError(Throwable e, LineNumberReader reader, String filename) {
@@ -640,7 +655,7 @@ public final class Daikon {
     }
 
     public UserError(String msg, FileIO.ParseState state) {
-      super(error_at_line_file(state.reader, state.filename, msg));
+      super(error_at_line_file(state.get_linenum(), state.filename, msg));
     }
 
     public UserError(String msg, LineNumberReader reader, String filename) {
@@ -758,11 +773,11 @@ public final class Daikon {
       NIS.hybrid_method = true;
     } else {
       if (NIS.dkconfig_suppression_processor == SuppressionProcessor.ANTECEDENT) {
-        NIS.antecedent_method = true;
+        NIS.antecedent_method.set(true);
         NIS.hybrid_method = false;
       } else {
         assert (NIS.dkconfig_suppression_processor == SuppressionProcessor.FALSIFIED);
-        NIS.antecedent_method = false;
+        NIS.antecedent_method.set(false);
         NIS.hybrid_method = false;
       }
     }
@@ -969,6 +984,7 @@ public final class Daikon {
     use_mem_monitor = false;
 
     proto_invs.clear();
+    InvariantSnapshots.reset();
   }
 
   // Structure for return value of read_options.
@@ -1792,6 +1808,10 @@ public final class Daikon {
    */
   public static void createUpperPpts(PptMap all_ppts) {
 
+    if (dkconfig_merge_threads > 1 && ParallelMerge.merge(all_ppts, dkconfig_merge_threads)) {
+      return;
+    }
+
     // Process each ppt that doesn't have a parent
     // (mergeInvs is called on a root, and recursively processes children)
     for (PptTopLevel ppt : all_ppts.pptIterable()) {
@@ -2335,6 +2355,10 @@ public final class Daikon {
       monitor.stop();
     }
 
+    if (InternPool.dkconfig_statistics) {
+      InternPool.print_statistics(System.out);
+    }
+
     if (FileIO.dkconfig_read_samples_only) {
       throw new Daikon.NormalTermination(
           String.format("Finished reading %d samples", FileIO.samples_processed));
@@ -2385,9 +2409,23 @@ public final class Daikon {
     // System.exit(0);
 
     // Postprocessing
+    fileio_progress.clear();
+    postprocess_ppts(all_ppts);
+  }
+
+  /**
+   * Computes the invariants of the program points that do not receive samples directly, after the
+   * samples have been processed: creates the combined exits, merges invariants up the program point
+   * hierarchy, post-processes dynamic constants and equality sets, and adds implications. Called at
+   * the end of {@link #process_data}, and on a copy of the program points by {@link
+   * InvariantSnapshots}.
+   *
+   * @param all_ppts the program points, whose leaves have processed the samples
+   */
+  static void postprocess_ppts(PptMap all_ppts) {
 
     debugProgress.fine("Create Combined Exits ... ");
-    startTime = System.nanoTime();
+    long startTime = System.nanoTime();
     create_combined_exits(all_ppts);
     long duration = System.nanoTime() - startTime;
     debugProgress.fine(
@@ -2462,7 +2500,6 @@ public final class Daikon {
 
     // Add implications
     startTime = System.nanoTime();
-    fileio_progress.clear();
     if (!PptSplitter.dkconfig_disable_splitting) {
       debugProgress.fine("Adding Implications ... ");
       for (PptTopLevel ppt : all_ppts.pptIterable()) {
@@ -0,0 +1,307 @@
+package daikon;
+
+import daikon.derive.Derivation;
+import daikon.derive.ValueAndModified;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.checkerframework.checker.interning.qual.Interned;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Computes the values of the derived variables of the samples of one program point. See {@link
+ * FileIO#compute_derived_variables}.
+ *
+ * <p>Each expensive derivation (see {@link Derivation#isExpensive}) remembers the values and
+ * modbits of its bases at the last sample for which it was computed, and its result there (see
+ * {@link FileIO#dkconfig_cache_derivations}). Sample
+ * values are interned, so if the bases have identical values and the same modbits at a later
+ * sample, the derivation would compute the same result, and it is not computed again. This is
+ * common for sequence derivations, whose arrays often do not change from one call of a method to
+ * the next. Computing a derivation may set its {@link Derivation#missing_array_bounds} flag, but
+ * never clears it, so skipping the computation leaves the flag as computing it would.
+ *
+ * <p>At a program point with many derived variables, the derivations may be computed on several
+ * threads (see {@link FileIO#dkconfig_derivation_threads}). A variable may be derived from other
+ * derived variables, so the derivations are grouped into levels: a derivation is in level 0 if
+ * none of its bases is derived, and otherwise in the level after the highest level of its derived
+ * bases. The derivations of a level are split among the threads, and each level is finished before
+ * the next one starts. Each derivation writes only its own slot of the sample and its own cache
+ * entry.
+ *
+ * <p>Several threads may compute samples of the same program point at once (as {@link
+ * daikon.tools.InvariantChecker} does). A cache entry is immutable, so a thread sees either an
+ * entry that some thread wrote completely, or none.
+ */
+final class DerivationEngine {
+
+  /**
+   * The fewest derivations of a level that are handed to one thread. Not final, so that tests can
+   * use several threads at a program point with few derived variables.
+   */
+  static int min_chunk = 256;
+
+  /** The threads that compute derivations, other than the thread that asks for them. */
+  private static @Nullable ExecutorService pool = null;
+
+  /** The variables of the program point when this was created. */
+  final VarInfo[] var_infos;
+
+  /** The derivations, in the order of their variables in var_infos. */
+  private final Derivation[] derivations;
+
+  /** The slot in a sample of the variable of each derivation. */
+  private final int[] slots;
+
+  /** The bases of each derivation. */
+  private final VarInfo[][] bases;
+
+  /**
+   * Whether the result of each derivation is cached: whether it is expensive (see {@link
+   * Derivation#isExpensive}) and has one to three bases.
+   */
+  private final boolean[] cacheable;
+
+  /** The last result of each derivation, or null if it has not been computed. */
+  private final @Nullable Entry[] cache;
+
+  /**
+   * For each level, the indices (into derivations) of its derivations; or null if the derivations
+   * cannot be grouped into levels and must be computed in order.
+   */
+  private final int @Nullable [][] levels;
+
+  /**
+   * A derivation's result, and the values and modbits of its (at most three) bases from which it
+   * was computed.
+   */
+  private static final class Entry {
+    /** The value of the first base. */
+    final @Nullable @Interned Object val1;
+
+    /** The value of the second base, if any. */
+    final @Nullable @Interned Object val2;
+
+    /** The value of the third base, if any. */
+    final @Nullable @Interned Object val3;
+
+    /** The modbit of the first base. */
+    final int mod1;
+
+    /** The modbit of the second base, if any. */
+    final int mod2;
+
+    /** The modbit of the third base, if any. */
+    final int mod3;
+
+    /** The derived value. */
+    final @Nullable @Interned Object value;
+
+    /** The derived modbit. */
+    final int modified;
+
+    /**
+     * Creates a cache entry.
+     *
+     * @param bases the bases of the derivation, at most three
+     * @param vt the sample from which the result was computed
+     * @param result the result
+     */
+    Entry(VarInfo[] bases, ValueTuple vt, ValueAndModified result) {
+      int n = bases.length;
+      val1 = bases[0].getValueOrNull(vt);
+      mod1 = bases[0].getModified(vt);
+      val2 = (n > 1) ? bases[1].getValueOrNull(vt) : null;
+      mod2 = (n > 1) ? bases[1].getModified(vt) : 0;
+      val3 = (n > 2) ? bases[2].getValueOrNull(vt) : null;
+      mod3 = (n > 2) ? bases[2].getModified(vt) : 0;
+      value = result.value;
+      modified = result.modified;
+    }
+
+    /**
+     * Returns true if the bases have the same values and modbits in vt as when this was computed.
+     *
+     * @param bases the bases of the derivation
+     * @param vt a sample
+     * @return true if the derivation would compute this result from vt
+     */
+    boolean matches(VarInfo[] bases, ValueTuple vt) {
+      int n = bases.length;
+      return bases[0].getValueOrNull(vt) == val1
+          && bases[0].getModified(vt) == mod1
+          && (n < 2 || (bases[1].getValueOrNull(vt) == val2 && bases[1].getModified(vt) == mod2))
+          && (n < 3 || (bases[2].getValueOrNull(vt) == val3 && bases[2].getModified(vt) == mod3));
+    }
+  }
+
+  /**
+   * Creates an engine for the derived variables of a program point.
+   *
+   * @param ppt the program point
+   */
+  DerivationEngine(PptTopLevel ppt) {
+    var_infos = ppt.var_infos;
+    int filled_slots = ppt.num_orig_vars + ppt.num_tracevars + ppt.num_static_constant_vars;
+    int num_const = ppt.num_static_constant_vars;
+    int count = var_infos.length - filled_slots;
+    derivations = new Derivation[count];
+    slots = new int[count];
+    bases = new VarInfo[count][];
+    cacheable = new boolean[count];
+    cache = new Entry[count];
+
+    // The level of each variable; -1 if it is not derived.
+    int[] level_of = new int[var_infos.length];
+    int num_levels = 0;
+    boolean ordered = true;
+    for (int i = 0; i < var_infos.length; i++) {
+      level_of[i] = -1;
+      if (i < filled_slots) {
+        continue;
+      }
+      Derivation derived = var_infos[i].derived;
+      assert derived != null : "variable not derived: " + var_infos[i].repr();
+      int d = i - filled_slots;
+      derivations[d] = derived;
+      slots[d] = i - num_const;
+      bases[d] = derived.getBases();
+      cacheable[d] = derived.isExpensive() && bases[d].length >= 1 && bases[d].length <= 3;
+      int level = 0;
+      for (VarInfo base : bases[d]) {
+        int b = base.varinfo_index;
+        if (b >= i || var_infos[b] != base) {
+          ordered = false;
+        } else if (level_of[b] >= 0) {
+          level = Math.max(level, level_of[b] + 1);
+        }
+      }
+      level_of[i] = level;
+      num_levels = Math.max(num_levels, level + 1);
+    }
+
+    if (!ordered) {
+      levels = null;
+    } else {
+      List<List<Integer>> members = new ArrayList<>();
+      for (int l = 0; l < num_levels; l++) {
+        members.add(new ArrayList<>());
+      }
+      for (int d = 0; d < count; d++) {
+        members.get(level_of[d + filled_slots]).add(d);
+      }
+      levels = new int[num_levels][];
+      for (int l = 0; l < num_levels; l++) {
+        List<Integer> level = members.get(l);
+        levels[l] = new int[level.size()];
+        for (int j = 0; j < level.size(); j++) {
+          levels[l][j] = level.get(j);
+        }
+      }
+    }
+  }
+
+  /**
+   * Computes the values of the derived variables, into the arrays of an uninterned sample.
+   *
+   * @param vt the sample, whose trace and orig variables have values
+   */
+  void compute(ValueTuple vt) {
+    int num_threads = FileIO.dkconfig_derivation_threads;
+    int[][] levels = this.levels;
+    if (num_threads <= 1 || levels == null || derivations.length < 2 * min_chunk) {
+      compute(vt, null, 0, derivations.length);
+      return;
+    }
+
+    for (int[] level : levels) {
+      int chunks = Math.min(num_threads, level.length / min_chunk);
+      if (chunks <= 1) {
+        compute(vt, level, 0, level.length);
+        continue;
+      }
+      ExecutorService pool = pool(num_threads);
+      List<Future<?>> others = new ArrayList<>(chunks - 1);
+      for (int c = 1; c < chunks; c++) {
+        int from = (int) ((long) level.length * c / chunks);
+        int to = (int) ((long) level.length * (c + 1) / chunks);
+        others.add(pool.submit(() -> compute(vt, level, from, to)));
+      }
+      compute(vt, level, 0, level.length / chunks);
+      for (Future<?> other : others) {
+        try {
+          other.get();
+        } catch (InterruptedException e) {
+          throw new Daikon.UserError(e, "Interrupted while computing derived variables");
+        } catch (ExecutionException e) {
+          Throwable cause = e.getCause();
+          if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+          } else if (cause instanceof Error) {
+            throw (Error) cause;
+          }
+          throw new Error("Error while computing derived variables", cause);
+        }
+      }
+    }
+  }
+
+  /**
+   * Computes some of the derivations, in order.
+   *
+   * @param vt the sample
+   * @param order indices into derivations, or null for all derivations in order
+   * @param from the first element of order (or index into derivations) to compute
+   * @param to one past the last element of order (or index into derivations) to compute
+   */
+  private void compute(ValueTuple vt, int @Nullable [] order, int from, int to) {
+    @Nullable Object[] vals = vt.vals;
+    int[] mods = vt.mods;
+    boolean use_cache = FileIO.dkconfig_cache_derivations;
+    for (int j = from; j < to; j++) {
+      int d = (order == null) ? j : order[j];
+      int slot = slots[d];
+      if (use_cache && cacheable[d]) {
+        Entry entry = cache[d];
+        if (entry == null || !entry.matches(bases[d], vt)) {
+          entry = new Entry(bases[d], vt, derivations[d].computeValueAndModified(vt));
+          cache[d] = entry;
+        }
+        vals[slot] = entry.value;
+        mods[slot] = entry.modified;
+      } else {
+        ValueAndModified vm = derivations[d].computeValueAndModified(vt);
+        vals[slot] = vm.value;
+        mods[slot] = vm.modified;
+      }
+    }
+  }
+
+  /**
+   * Returns the threads that compute derivations, creating them if necessary.
+   *
+   * @param num_threads the number of threads that compute a level, including the caller
+   * @return the pool of threads
+   */
+  private static synchronized ExecutorService pool(int num_threads) {
+    ExecutorService result = pool;
+    if (result == null) {
+      AtomicInteger thread_count = new AtomicInteger();
+      result =
+          Executors.newFixedThreadPool(
+              num_threads - 1,
+              r -> {
+                Thread worker =
+                    new Thread(r, "derivation worker " + thread_count.getAndIncrement());
+                worker.setDaemon(true);
+                return worker;
+              });
+      pool = result;
+    }
+    return result;
+  }
+}
@@ -10,6 +10,13 @@ import java.util.List;
 import org.checkerframework.checker.nullness.qual.EnsuresNonNull;
 import org.checkerframework.checker.nullness.qual.NonNull;
 
+/**
+ * The reasons why invariants were discarded, for the {@code --disc_reason} command-line option.
+ * Samples of different program points may be applied on different threads (see {@link
+ * FileIO#dkconfig_inference_threads}), so all access to the map is synchronized on this class. The
+ * samples of one program point are applied on one thread, so the reasons for each program point
+ * are recorded in the same order as when samples are applied serially.
+ */
 public final class DiscReasonMap {
 
   // Key: PptTopLevel name string
@@ -30,7 +37,7 @@ public final class DiscReasonMap {
   }
 
   @EnsuresNonNull("the_map")
-  public static void initialize() {
+  public static synchronized void initialize() {
     the_map = new HashMap<>();
   }
 
@@ -74,7 +81,7 @@ public final class DiscReasonMap {
     put(inv, new DiscardInfo(inv, discardCode, discardString));
   }
 
-  public static void put(String vars, String ppt, DiscardInfo disc_info) {
+  public static synchronized void put(String vars, String ppt, DiscardInfo disc_info) {
     if (!PrintInvariants.print_discarded_invariants) {
       return;
     }
@@ -134,7 +141,7 @@ public final class DiscReasonMap {
    *     whose class and vars match the params passed into the method call. If the user wishes for
    *     any of the 3 params to be a wildcard, they can pass that/those param(s) in as null.
    */
-  public static List<DiscardInfo> returnMatches_from_ppt(InvariantInfo invInfo) {
+  public static synchronized List<DiscardInfo> returnMatches_from_ppt(InvariantInfo invInfo) {
     ArrayList<DiscardInfo> result = new ArrayList<>();
     HashMap<String, List<DiscardInfo>> vars_map_from_ppt = the_map.get(invInfo.ppt());
 
@@ -174,7 +181,7 @@ public final class DiscReasonMap {
   // Helper function used to combine all the DiscardInfo lists associated
   // with a set of vars at a ppt.  Only called when we know ppt has at
   // least 1 DiscardInfo associated with it.
-  private static List<DiscardInfo> all_vars_tied_from_ppt(String ppt) {
+  private static synchronized List<DiscardInfo> all_vars_tied_from_ppt(String ppt) {
     @SuppressWarnings("nullness") // map:  method precondition
     @NonNull HashMap<String, List<DiscardInfo>> vars_map = the_map.get(ppt);
     assert vars_map != null;
@@ -187,7 +194,7 @@ public final class DiscReasonMap {
   }
 
   /** Prints out all vars from ppt that have DiscardInfo's in the Set.toString() format. */
-  public static void debugVarMap(String ppt) {
+  public static synchronized void debugVarMap(String ppt) {
     System.out.println();
     System.out.println();
     System.out.println("DEBUGGING PPT: " + ppt);
@@ -13,6 +13,8 @@ import daikon.inv.unary.sequence.OneOfSequence;
 import daikon.inv.unary.string.OneOfString;
 import daikon.inv.unary.stringsequence.OneOfStringSequence;
 import daikon.suppress.NIS;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.PrintWriter;
 import java.io.Serializable;
 import java.util.ArrayList;
@@ -26,6 +28,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.checkerframework.checker.interning.qual.Interned;
 import org.checkerframework.checker.lock.qual.GuardSatisfied;
+import org.checkerframework.checker.nullness.qual.EnsuresNonNull;
 import org.checkerframework.checker.nullness.qual.EnsuresNonNullIf;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 import org.checkerframework.checker.nullness.qual.NonNull;
@@ -112,6 +115,30 @@ public class DynamicConstants implements Serializable {
   /** Number of samples received. */
   int sample_cnt = 0;
 
+  /**
+   * The elements of con_list, or null if con_list or missing_list has changed since the packed
+   * arrays were last computed. See {@link #pack}.
+   */
+  private transient Constant @Nullable [] packed_cons = null;
+
+  /**
+   * For each element of packed_cons that is not a static constant, the value_index of its
+   * variable. Parallel to packed_con_vals.
+   */
+  private transient int @Nullable [] packed_con_indices = null;
+
+  /** The constant value of the variable at each index of packed_con_indices. */
+  private transient @Interned Object @Nullable [] packed_con_vals = null;
+
+  /** The elements of missing_list. Parallel to packed_missing_indices. */
+  private transient Constant @Nullable [] packed_missing = null;
+
+  /**
+   * For each element of packed_missing, the value_index of its variable, or -1 if it is a static
+   * constant (which is never missing).
+   */
+  private transient int @Nullable [] packed_missing_indices = null;
+
   /**
    * Class used to indicate, for each variable, whether it is constant (see boolean field
    * "constant"). If it is, then the class also stores its constant value and its sample count.
@@ -192,6 +219,18 @@ public class DynamicConstants implements Serializable {
       this.vi = vi;
     }
 
+    // Interning is lost when an object is serialized and deserialized.
+    // Manually re-intern any interned fields upon deserialization.
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+      in.defaultReadObject();
+      if (val instanceof String[]) {
+        // The elements of a deserialized array are not interned.
+        val = InternPool.intern(InternPool.internStrings((String[]) val));
+      } else if (val != null) {
+        val = InternPool.intern(val);
+      }
+    }
+
     /**
      * Returns whether the specified variable is currently a constant OR was a constant at the
      * beginning of constants processing.
@@ -295,6 +334,17 @@ public class DynamicConstants implements Serializable {
 
     // System.out.println("DynamicConstants.add : " + vt.toString(ppt.var_infos));
 
+    // Usually no variable stops being constant or missing; check that without allocating.
+    if (!Debug.logDetail() && unchanged(vt)) {
+      assert packed_cons != null : "@AssumeAssertion(nullness): set by unchanged()";
+      for (Constant con : packed_cons) {
+        con.count += count;
+      }
+      sample_cnt += count;
+      return;
+    }
+    discard_packed();
+
     List<Constant> non_missing = new ArrayList<>();
     List<Constant> non_con = new ArrayList<>();
 
@@ -414,6 +464,96 @@ public class DynamicConstants implements Serializable {
     return (mod == ValueTuple.MISSING_FLOW) || (mod == ValueTuple.MISSING_NONSENSICAL);
   }
 
+  /**
+   * Returns true if the sample leaves con_list and missing_list unchanged: every constant has its
+   * constant value, and every always-missing variable is still missing (or is missing out of
+   * bounds). In that case, {@link #add} only needs to update the sample counts.
+   *
+   * @param vt the sample
+   * @return true if no variable stops being constant or always missing
+   */
+  private boolean unchanged(ValueTuple vt) {
+    if (packed_cons == null) {
+      pack();
+    }
+    Object[] vals = vt.vals;
+    int[] mods = vt.mods;
+
+    int[] con_indices = packed_con_indices;
+    Object[] con_vals = packed_con_vals;
+    assert con_indices != null && con_vals != null : "@AssumeAssertion(nullness): set by pack()";
+    for (int i = 0; i < con_indices.length; i++) {
+      int index = con_indices[i];
+      int mod = mods[index];
+      if (mod == ValueTuple.MISSING_FLOW
+          || mod == ValueTuple.MISSING_NONSENSICAL
+          || vals[index] != con_vals[i]) {
+        return false;
+      }
+    }
+
+    int[] missing_indices = packed_missing_indices;
+    Constant[] missing = packed_missing;
+    assert missing_indices != null && missing != null : "@AssumeAssertion(nullness): set by pack()";
+    for (int i = 0; i < missing_indices.length; i++) {
+      int index = missing_indices[i];
+      if (index >= 0) {
+        int mod = mods[index];
+        if (mod == ValueTuple.MISSING_FLOW || mod == ValueTuple.MISSING_NONSENSICAL) {
+          continue;
+        }
+      }
+      if (!missing[i].vi.missingOutOfBounds()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Computes the packed arrays from con_list and missing_list. */
+  @EnsuresNonNull({
+    "packed_cons",
+    "packed_con_indices",
+    "packed_con_vals",
+    "packed_missing",
+    "packed_missing_indices"
+  })
+  private void pack() {
+    Constant[] cons = con_list.toArray(new Constant[0]);
+    int[] con_indices = new int[cons.length];
+    @Interned Object[] con_vals = new @Interned Object[cons.length];
+    int n = 0;
+    for (Constant con : cons) {
+      if (!con.vi.is_static_constant) {
+        assert con.val != null : "@AssumeAssertion(nullness): con is a constant";
+        con_indices[n] = con.vi.value_index;
+        con_vals[n] = con.val;
+        n++;
+      }
+    }
+    packed_con_indices = Arrays.copyOf(con_indices, n);
+    packed_con_vals = Arrays.copyOf(con_vals, n);
+
+    Constant[] missing = missing_list.toArray(new Constant[0]);
+    int[] missing_indices = new int[missing.length];
+    for (int i = 0; i < missing.length; i++) {
+      VarInfo vi = missing[i].vi;
+      missing_indices[i] = vi.is_static_constant ? -1 : vi.value_index;
+    }
+    packed_missing = missing;
+    packed_missing_indices = missing_indices;
+    packed_cons = cons;
+  }
+
+  /** Discards the packed arrays, which must be done whenever con_list or missing_list changes. */
+  private void discard_packed() {
+    packed_cons = null;
+    packed_con_indices = null;
+    packed_con_vals = null;
+    packed_missing = null;
+    packed_missing_indices = null;
+  }
+
   /** Returns the Constant for the specified variable. */
   @Pure
   public Constant getConstant(VarInfo vi) {
@@ -1009,6 +1149,7 @@ public class DynamicConstants implements Serializable {
       con.previously_constant = true;
     }
     con_list = new ArrayList<Constant>();
+    discard_packed();
 
     // Don't do anything with variables that have always been missing.  They
     // should have no invariants over them.
@@ -1146,6 +1287,7 @@ public class DynamicConstants implements Serializable {
     // clear the constant and missing lists
     missing_list.clear();
     con_list.clear();
+    discard_packed();
 
     // Process each variable at this ppt.  If the variable is missing at
     // each of the children, it is also missing here.  Ignore children that
@@ -12,7 +12,6 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 
 import daikon.Daikon.BugInDaikon;
 import daikon.config.Configuration;
-import daikon.derive.ValueAndModified;
 import daikon.diff.InvMap;
 import daikon.inv.Invariant;
 import java.io.BufferedReader;
@@ -168,6 +167,70 @@ public final class FileIO {
    */
   public static long dkconfig_dtrace_line_count = 0;
 
+  /**
+   * Boolean. When true, each dtrace file is read and parsed on a separate thread while samples are
+   * processed, so that reading (including decompression and value parsing) overlaps with
+   * inference. Samples are still processed in file order.
+   */
+  public static boolean dkconfig_pipelined_read = false;
+
+  /**
+   * Integer. When {@code pipelined_read} is true, the maximum number of samples that the reader
+   * thread may read ahead of the thread that processes them.
+   */
+  public static int dkconfig_pipelined_read_queue_size = 1024;
+
+  /**
+   * Integer. If greater than 1, the number of threads that apply samples to program points. Each
+   * program point is processed by a single thread, in file order, so the results are the same as
+   * for serial processing; samples of different program points are processed concurrently. Reading
+   * the file, and computing orig and derived variables, still happen on a single thread (see also
+   * {@code pipelined_read}).
+   */
+  public static int dkconfig_inference_threads = 1;
+
+  /**
+   * Boolean. When true, an uncompressed dtrace file is memory-mapped, in windows of 1GB, rather
+   * than read through a Reader. The variable names, modbits, and integer values of samples are then
+   * checked and parsed directly from the file's bytes, and Strings are created only for other
+   * values, and only when they differ from the previous sample of the same program point.
+   */
+  public static boolean dkconfig_mapped_read = false;
+
+  /**
+   * Integer. The maximum number of identical consecutive samples at a program point that are
+   * applied to its invariants at once, as a single sample with a count. Runs of identical samples
+   * are common when a method is called in a loop. 1, the default, means that every sample is
+   * applied separately; a larger value, such as 1000, makes Daikon faster on such traces, without
+   * changing its results.
+   */
+  public static int dkconfig_coalesce_samples = 1;
+
+  /**
+   * Boolean. When true, each derived variable whose computation scans an array (such as a
+   * subsequence, or the sum of an array) remembers the values of the variables it is derived from
+   * at the last sample, and its value there. If those values are the same at the next sample, its
+   * value is not computed again. This saves time when arrays often do not change between samples.
+   */
+  public static boolean dkconfig_cache_derivations = true;
+
+  /**
+   * Integer. If greater than 1, the number of threads that compute the derived variables of a
+   * sample at a program point with many (at least 512) derived variables. Each thread computes at
+   * least 256 of them. The values are the same as when they are computed serially.
+   */
+  public static int dkconfig_derivation_threads = 1;
+
+  /**
+   * Boolean. When true, invariant (.inv) files are written in Daikon's binary format (see {@link
+   * BinaryInv}), which has a version number and an index, so that PrintInvariants and Diff can read
+   * only the program points they need from a large file, and in which an invariant whose class has
+   * changed is dropped rather than making its program point unreadable. When false, invariant files
+   * are written as a single serialized object, which older versions of Daikon can read. Both
+   * formats can be read.
+   */
+  public static boolean dkconfig_binary_inv_files = true;
+
   /** True if declaration records are in the new format -- that is, decl-version 2.0. */
   // Set by read_decl_version; by read_data_trace_record if the file is non-empty;
   // by read_serialized_pptmap; and by InvMap.readObject.
@@ -1299,6 +1362,22 @@ public final class FileIO {
     /** Miscellaneous text in the parsed item. */
     public @Nullable Object payload; // used when status=COMMENT
 
+    /** The reader thread for this file, if samples are being read by a separate thread. */
+    @Nullable TraceReaderPipeline pipeline;
+
+    /** The worker threads that apply samples to program points, if there are several. */
+    @Nullable ParallelInference inference;
+
+    /** Combines runs of identical samples, if {@link #dkconfig_coalesce_samples} is above 1. */
+    @Nullable SampleCoalescer coalescer;
+
+    /**
+     * The binary records of the file, if it is a binary data trace file (see {@link
+     * BinaryDtrace}). Then {@link #reader} reads the text of its TEXT records, and each binary
+     * record counts as one line.
+     */
+    BinaryDtrace.@Nullable Reader binary;
+
     /**
      * Start parsing the given file.
      *
@@ -1328,6 +1407,21 @@ public final class FileIO {
       all_ppts = ppts;
 
       boolean is_url = raw_filename.startsWith("file:") || raw_filename.startsWith("jar:");
+      boolean is_binary =
+          !is_decl_file
+              && !raw_filename.equals("-")
+              && !raw_filename.equals("+")
+              && !is_url
+              && new File(raw_filename).length() != 0
+              && BinaryDtrace.is_binary(raw_filename);
+      boolean is_mapped =
+          dkconfig_mapped_read
+              && !is_decl_file
+              && !raw_filename.equals("-")
+              && !raw_filename.equals("+")
+              && !is_url
+              && !is_binary
+              && MappedTraceReader.can_map(raw_filename, new File(raw_filename).length());
 
       // Do we need to count the lines in the file?
       total_lines = 0;
@@ -1341,6 +1435,8 @@ public final class FileIO {
         count_lines = false;
       } else if (is_url) {
         count_lines = false;
+      } else if (is_binary) {
+        count_lines = false;
       } else if (Daikon.dkconfig_progress_delay == -1) {
         count_lines = false;
       } else if (new File(raw_filename).length() == 0) {
@@ -1348,7 +1444,7 @@ public final class FileIO {
         count_lines = false;
       }
 
-      if (count_lines) {
+      if (count_lines && !is_mapped) {
         Daikon.progress = "Checking size of " + filename;
         total_lines = FilesPlume.countLines(raw_filename);
       } else {
@@ -1382,6 +1478,17 @@ public final class FileIO {
           }
           throw e;
         }
+      } else if (is_binary) {
+        BinaryDtrace.Reader binary_reader = new BinaryDtrace.Reader(raw_filename);
+        binary = binary_reader;
+        reader = new LineNumberReader(binary_reader);
+      } else if (is_mapped) {
+        MappedTraceReader mapped_reader = new MappedTraceReader(raw_filename);
+        reader = mapped_reader;
+        if (count_lines) {
+          Daikon.progress = "Checking size of " + filename;
+          total_lines = mapped_reader.count_lines();
+        }
       } else {
         reader = FilesPlume.newLineNumberFileReader(raw_filename);
       }
@@ -1391,10 +1498,38 @@ public final class FileIO {
       ppt = null;
     }
 
+    /**
+     * Start parsing a textual data trace file that has already been opened. The records are read
+     * from the given reader, which is closed when this is.
+     *
+     * @param filename the name of the file, for messages
+     * @param reader the text of the file
+     * @param ppts the program points; declarations in the file add to them
+     */
+    public ParseState(String filename, @Owning LineNumberReader reader, PptMap ppts) {
+      this.filename = filename;
+      is_decl_file = false;
+      ppts_may_be_new = true;
+      all_ppts = ppts;
+      this.reader = reader;
+      total_lines = 0;
+      varcomp_format = VarComparability.IMPLICIT;
+      rtype = RecordType.NULL;
+      ppt = null;
+    }
+
     /** Releases resources held by this. */
     @Override
     @EnsuresCalledMethods(value = "reader", methods = "close")
     public void close(@GuardSatisfied ParseState this) {
+      ParallelInference inference = this.inference;
+      if (inference != null) {
+        inference.close();
+        this.inference = null;
+      }
+      if (reader instanceof MappedTraceReader) {
+        save_previous_values((MappedTraceReader) reader);
+      }
       try {
         reader.close();
       } catch (IOException e) {
@@ -1408,6 +1543,11 @@ public final class FileIO {
      * @return the current line number in the input file, or -1 if not available
      */
     public int get_linenum() {
+      TraceReaderPipeline pipeline = this.pipeline;
+      if (pipeline != null && !pipeline.is_reader_thread()) {
+        // The reader is ahead of the sample being processed.
+        return pipeline.consumer_linenum();
+      }
       return reader.getLineNumber();
     }
 
@@ -1436,7 +1576,7 @@ public final class FileIO {
     }
 
     public String line_file_message() {
-      return String.format(" at line %d in file %s", reader.getLineNumber(), filename);
+      return String.format(" at line %d in file %s", get_linenum(), filename);
     }
   }
 
@@ -1512,41 +1652,46 @@ public final class FileIO {
         }
       }
 
-      while (true) {
-        read_data_trace_record(data_trace_state);
-
-        if (data_trace_state.rtype == RecordType.SAMPLE) {
-          assert data_trace_state.ppt != null
-              : "@AssumeAssertion(nullness): dependent: RecordType.SAMPLE";
-          assert data_trace_state.vt != null
-              : "@AssumeAssertion(nullness): dependent: RecordType.SAMPLE";
-          // Nonce may be null
-          samples_processed++;
-          // Add orig and derived variables; pass to inference (add_and_flow)
-          try {
-            processor.process_sample(
-                data_trace_state.all_ppts,
+      if (dkconfig_pipelined_read && !is_decl_file && !Global.debugPrintDtrace) {
+        try (TraceReaderPipeline pipeline =
+            new TraceReaderPipeline(data_trace_state, dkconfig_pipelined_read_queue_size)) {
+          while (true) {
+            TraceReaderPipeline.Record record = pipeline.take();
+            try {
+              if (record.rtype != RecordType.SAMPLE) {
+                break;
+              }
+              assert record.ppt != null
+                  : "@AssumeAssertion(nullness): dependent: RecordType.SAMPLE";
+              assert record.vt != null : "@AssumeAssertion(nullness): dependent: RecordType.SAMPLE";
+              process_sample_record(
+                  data_trace_state, processor, record.ppt, record.vt, record.nonce);
+            } finally {
+              pipeline.done();
+            }
+          }
+        }
+      } else {
+        while (true) {
+          read_data_trace_record(data_trace_state);
+
+          if (data_trace_state.rtype == RecordType.SAMPLE) {
+            assert data_trace_state.ppt != null
+                : "@AssumeAssertion(nullness): dependent: RecordType.SAMPLE";
+            assert data_trace_state.vt != null
+                : "@AssumeAssertion(nullness): dependent: RecordType.SAMPLE";
+            process_sample_record(
+                data_trace_state,
+                processor,
                 data_trace_state.ppt,
                 data_trace_state.vt,
                 data_trace_state.nonce);
-          } catch (Error e) {
-            // e.printStackTrace();
-            if (!dkconfig_continue_after_file_exception) {
-              throw new Daikon.UserError(e, data_trace_state);
-            } else {
-              System.out.println();
-              System.out.println(
-                  "WARNING: Error while processing trace file; subsequent records ignored.");
-              System.out.print("Ignored backtrace:");
-              e.printStackTrace(System.out);
-              System.out.println();
-            }
+          } else if ((data_trace_state.rtype == RecordType.EOF)
+              || (data_trace_state.rtype == RecordType.TRUNCATED)) {
+            break;
+          } else {
+            // don't need to do anything explicit for other records found
           }
-        } else if ((data_trace_state.rtype == RecordType.EOF)
-            || (data_trace_state.rtype == RecordType.TRUNCATED)) {
-          break;
-        } else {
-          // don't need to do anything explicit for other records found
         }
       }
 
@@ -1556,12 +1701,88 @@ public final class FileIO {
         Global.dtraceWriter.close();
       }
 
+      SampleCoalescer coalescer = data_trace_state.coalescer;
+      if (coalescer != null) {
+        try {
+          coalescer.flush();
+        } catch (Error e) {
+          throw new Daikon.UserError(e, data_trace_state);
+        }
+        if (debugRead.isLoggable(Level.FINE)) {
+          debugRead.fine(
+              String.format(
+                  "Each sample applied stood for %.2f samples", coalescer.average_count()));
+        }
+      }
+
+      ParallelInference inference = data_trace_state.inference;
+      if (inference != null) {
+        inference.finish();
+      }
+
       Daikon.progress = "Finished reading " + data_trace_state.filename;
 
       clear_data_trace_state();
     }
   }
 
+  /**
+   * Passes one sample read from a dtrace file to the processor, converting errors into user errors
+   * that cite the current file and line (or reporting them, if {@code
+   * dkconfig_continue_after_file_exception} is set).
+   *
+   * @param state the parse state of the file being read
+   * @param processor the processor to which the sample is passed
+   * @param ppt the program point of the sample
+   * @param vt the values of the sample
+   * @param nonce the nonce of the sample, or null
+   */
+  @RequiresNonNull("FileIO.data_trace_state")
+  private static void process_sample_record(
+      ParseState state,
+      Processor processor,
+      PptTopLevel ppt,
+      ValueTuple vt,
+      @Nullable Integer nonce) {
+    // Nonce may be null
+    samples_processed++;
+    // Add orig and derived variables; pass to inference (add_and_flow)
+    try {
+      processor.process_sample(state.all_ppts, ppt, vt, nonce);
+    } catch (Error e) {
+      // e.printStackTrace();
+      if (!dkconfig_continue_after_file_exception) {
+        throw new Daikon.UserError(e, state);
+      } else {
+        System.out.println();
+        System.out.println(
+            "WARNING: Error while processing trace file; subsequent records ignored.");
+        System.out.print("Ignored backtrace:");
+        e.printStackTrace(System.out);
+        System.out.println();
+      }
+    }
+    InvariantSnapshots.sample_processed(state);
+  }
+
+  /**
+   * If the samples of the file are being read by a separate thread (this method is then called on
+   * that thread) or applied by worker threads, waits until every sample read so far has been
+   * processed. Called before reading a record that changes state used while processing samples.
+   *
+   * @param state the parse state of the file being read
+   */
+  private static void await_pipeline_idle(ParseState state) {
+    TraceReaderPipeline pipeline = state.pipeline;
+    if (pipeline != null) {
+      pipeline.await_idle();
+    }
+    ParallelInference inference = state.inference;
+    if (inference != null) {
+      inference.await_idle();
+    }
+  }
+
   /**
    * Like read_data_trace_record, but sets global FileIO.data_trace_state for the duration of the
    * call then clears it before returning. Intended for most external callers.
@@ -1588,6 +1809,31 @@ public final class FileIO {
     boolean stateOK = (state == FileIO.data_trace_state);
     assert stateOK;
 
+    BinaryDtrace.@Nullable Reader binary = state.binary;
+    if (binary == null) {
+      read_text_record(state);
+      return;
+    }
+    // The TEXT records of a binary file contain records in the textual format.
+    while (true) {
+      if (state.reader.ready()) {
+        read_text_record(state);
+        if (state.rtype != RecordType.EOF) {
+          return;
+        }
+      }
+      if (read_binary_record(state, binary)) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Reads a single record in the textual format from {@code state.reader}. Otherwise like {@link
+   * #read_data_trace_record}.
+   */
+  @RequiresNonNull("FileIO.data_trace_state")
+  private static void read_text_record(ParseState state) throws IOException {
     LineNumberReader reader = state.reader;
 
     for (String line = reader.readLine(); line != null; line = reader.readLine()) {
@@ -1618,6 +1864,7 @@ public final class FileIO {
 
       // Check for the file format
       if (line.startsWith("decl-version")) {
+        await_pipeline_idle(state);
         read_decl_version(state, line);
         state.payload = (new_decl_format ? "2.0" : "1.0");
         state.payload = (FileIO.new_decl_format ? "2.0" : "1.0");
@@ -1627,6 +1874,7 @@ public final class FileIO {
 
       // Check for the input language
       if (line.startsWith("input-language")) {
+        await_pipeline_idle(state);
         String input_language = read_input_language(state, line);
         state.payload = input_language;
         state.rtype = RecordType.INPUT_LANGUAGE;
@@ -1642,6 +1890,7 @@ public final class FileIO {
 
       // First look for declarations in the dtrace stream
       if (is_declaration_header(line)) {
+        await_pipeline_idle(state);
         if (new_decl_format) {
           state.ppt = read_ppt_decl(state, line);
         } else {
@@ -1664,11 +1913,13 @@ public final class FileIO {
         return;
       }
       if (line.equals("VarComparability") || line.startsWith("var-comparability")) {
+        await_pipeline_idle(state);
         state.varcomp_format = read_var_comparability(state, line);
         state.rtype = RecordType.COMPARABILITY;
         return;
       }
       if (line.equals("ListImplementors")) {
+        await_pipeline_idle(state);
         state.payload = read_list_implementors(reader);
         state.rtype = RecordType.LIST_IMPLEMENTORS;
         return;
@@ -1809,6 +2060,177 @@ public final class FileIO {
     return;
   }
 
+  /**
+   * Reads a single binary record from a binary data trace file. A SAMPLE record, or the end of the
+   * file, is stored into state, as by {@link #read_data_trace_record}. Other records are processed.
+   *
+   * @param state the parse state of a binary data trace file
+   * @param binary the binary records of the file
+   * @return true if a record was stored into state, false if the caller should read another record
+   * @throws IOException if there is trouble reading the file
+   */
+  @RequiresNonNull("FileIO.data_trace_state")
+  private static boolean read_binary_record(ParseState state, BinaryDtrace.Reader binary)
+      throws IOException {
+    LineNumberReader reader = state.reader;
+    int tag;
+    try {
+      tag = binary.next_record();
+    } catch (EOFException e) {
+      System.out.println();
+      System.out.println(
+          "WARNING: Unexpected EOF while processing "
+              + "trace file - last record of trace file ignored");
+      state.rtype = RecordType.EOF;
+      return true;
+    } catch (IOException e) {
+      throw new Daikon.UserError(e, String.valueOf(e.getMessage()), reader, state.filename);
+    }
+    reader.setLineNumber(reader.getLineNumber() + 1);
+    switch (tag) {
+      case -1:
+        state.rtype = RecordType.EOF;
+        return true;
+      case BinaryDtrace.TEXT:
+        return false;
+      case BinaryDtrace.PPT:
+        binary.define_ppt(read_binary_ppt(state, binary));
+        return false;
+      case BinaryDtrace.SAMPLE:
+        break;
+      default:
+        throw new BugInDaikon("Unexpected tag " + tag);
+    }
+
+    // stop at a specified point in the file
+    if ((dkconfig_max_line_number > 0) && (reader.getLineNumber() > dkconfig_max_line_number)) {
+      state.rtype = RecordType.TRUNCATED;
+      return true;
+    }
+
+    BinaryDtrace.@Nullable PptSlots slots = binary.sample_slots();
+    if (slots == null) {
+      // The program point is not included.
+      return false;
+    }
+    PptTopLevel ppt = slots.ppt;
+    int vals_array_size = ppt.var_infos.length - ppt.num_static_constant_vars;
+    @Nullable Object[] vals = new @Nullable Object[vals_array_size];
+    int[] mods = new int[vals_array_size];
+    Integer nonce;
+    try {
+      nonce = binary.read_sample(slots, vals, mods);
+    } catch (IOException e) {
+      throw new Daikon.UserError(
+          e,
+          "Malformed sample for program point " + ppt.name() + ": " + e.getMessage(),
+          reader,
+          state.filename);
+    }
+
+    state.ppt = ppt;
+    state.nonce = nonce;
+    state.vt = ValueTuple.makeUninterned(vals, mods);
+    state.rtype = RecordType.SAMPLE;
+    return true;
+  }
+
+  /**
+   * Matches the variables of the PPT record just read from a binary data trace file against the
+   * declaration of the program point, as {@link #read_vals_and_mods_from_trace_file} does for each
+   * sample of a textual file.
+   *
+   * @param state the parse state of a binary data trace file
+   * @param binary the binary records of the file
+   * @return how to decode the samples of the program point, or null if they are to be skipped
+   */
+  @RequiresNonNull("FileIO.data_trace_state")
+  private static BinaryDtrace.@Nullable PptSlots read_binary_ppt(
+      ParseState state, BinaryDtrace.Reader binary) {
+    String ppt_name = binary.ppt_name;
+    if (ppt_name == null) {
+      throw new Daikon.UserError("Missing program point name", state);
+    }
+    ppt_name = user_mod_ppt_name(ppt_name);
+    if (!ppt_included(ppt_name)) {
+      return null;
+    }
+    if (state.all_ppts.size() == 0) {
+      throw new Daikon.UserError(
+          "No declarations were provided before the first sample.  Perhaps you did not supply"
+              + " the proper .decls file to Daikon.  (Or, there could be a bug in the front end"
+              + " that created the .dtrace file "
+              + state.filename
+              + ".)");
+    }
+    PptTopLevel ppt = state.all_ppts.get(ppt_name);
+    if (ppt == null) {
+      throw new Daikon.UserError(
+          "No declaration was provided for program point " + ppt_name, state);
+    }
+
+    String[] names = binary.var_names;
+    int[] types = binary.var_types;
+    @Nullable VarInfo[] vars = new @Nullable VarInfo[names.length];
+    VarInfo[] vis = ppt.var_infos;
+    int vi_index = 0;
+    int val_index = 0;
+    for (int i = 0; i < names.length; i++) {
+      if (!var_included(names[i])) {
+        continue;
+      }
+      while (vi_index < vis.length && vis[vi_index].is_static_constant) {
+        vi_index++;
+      }
+      if (val_index == ppt.num_tracevars) {
+        throw new Daikon.UserError(
+            "Mismatch between declaration and trace.  Unexpected variable "
+                + names[i]
+                + " for program point "
+                + ppt.name(),
+            state);
+      }
+      VarInfo vi = vis[vi_index];
+      if (!names[i].equals(vi.str_name())) {
+        throw new Daikon.UserError(
+            "Mismatch between declaration and trace.  Expected variable "
+                + vi.name()
+                + ", got "
+                + names[i]
+                + " for program point "
+                + ppt.name(),
+            state);
+      }
+      if (types[i] != BinaryDtrace.type_code(vi.rep_type.format())) {
+        throw new Daikon.UserError(
+            "Mismatch between declaration and trace.  Variable "
+                + vi.name()
+                + " has type code "
+                + types[i]
+                + " in the trace, but representation type "
+                + vi.rep_type
+                + " in the declaration, for program point "
+                + ppt.name(),
+            state);
+      }
+      assert val_index == vi.value_index;
+      vars[i] = vi;
+      vi_index++;
+      val_index++;
+    }
+    if (val_index != ppt.num_tracevars) {
+      throw new Daikon.UserError(
+          "Mismatch between declaration and trace.  The trace has "
+              + val_index
+              + " variables, but the declaration has "
+              + ppt.num_tracevars
+              + ", for program point "
+              + ppt.name(),
+          state);
+    }
+    return new BinaryDtrace.PptSlots(ppt, types, vars);
+  }
+
   /**
    * Add orig() and derived variables to vt (by side effect), then supply it to the program point
    * for flowing.
@@ -1857,8 +2279,81 @@ public final class FileIO {
       }
     }
 
+    if (dkconfig_coalesce_samples > 1
+        && !data_trace_state.is_decl_file
+        && !Global.debugPrintDtrace) {
+      SampleCoalescer coalescer = data_trace_state.coalescer;
+      if (coalescer == null) {
+        coalescer = new SampleCoalescer(dkconfig_coalesce_samples);
+        data_trace_state.coalescer = coalescer;
+      }
+      coalescer.add(ppt, vt);
+    } else {
+      dispatch_sample(ppt, vt, 1);
+    }
+
+    if (Global.debugPrintDtrace) {
+      assert Global.dtraceWriter != null
+          : "@AssumeAssertion(nullness): dependent: set if debugPrintDtrace is true";
+      Global.dtraceWriter.close();
+    }
+  }
+
+  /**
+   * Returns the program point whose samples must be applied in file order together with those of
+   * the given one: the combined exit, for a numbered exit when the dataflow hierarchy is not used
+   * (see {@link PptTopLevel#add_bottom_up}), and otherwise the program point itself.
+   *
+   * @param ppt a program point
+   * @return the program point that represents the group of ppt
+   */
+  static PptTopLevel sample_group(PptTopLevel ppt) {
+    if (!Daikon.use_dataflow_hierarchy && ppt.ppt_name.isNumberedExitPoint()) {
+      PptTopLevel combined_exit = Daikon.all_ppts.get(ppt.ppt_name.makeExit());
+      if (combined_exit != null) {
+        return combined_exit;
+      }
+    }
+    return ppt;
+  }
+
+  /**
+   * Applies a sample (which stands for count identical samples) on this thread, or hands it to the
+   * worker threads if there are several (see {@link #dkconfig_inference_threads}).
+   *
+   * @param ppt the program point of the sample
+   * @param vt trace data and orig variables only; modified by side effect to add derived vars
+   * @param count the number of samples that vt represents
+   */
+  @RequiresNonNull("FileIO.data_trace_state")
+  static void dispatch_sample(PptTopLevel ppt, ValueTuple vt, int count) {
+    if (dkconfig_inference_threads > 1 && !data_trace_state.is_decl_file) {
+      ParallelInference inference = data_trace_state.inference;
+      if (inference == null) {
+        inference = new ParallelInference(data_trace_state, dkconfig_inference_threads);
+        data_trace_state.inference = inference;
+      }
+      // The worker computes the derived variables, because computing them updates state of the
+      // derivations (such as missing_array_bounds) that inference over earlier samples reads.
+      inference.add_sample(ppt, vt, count);
+    } else {
+      apply_sample(ppt, vt, count);
+    }
+  }
+
+  /**
+   * Adds derived variables to vt (by side effect), then supplies it to the program point for
+   * flowing. Called by {@link #dispatch_sample}, or by a worker thread if there are several (see
+   * {@link #dkconfig_inference_threads}).
+   *
+   * @param ppt the program point of the sample
+   * @param vt trace data and orig variables only; modified by side effect to add derived vars
+   * @param count the number of samples that vt represents
+   */
+  static void apply_sample(PptTopLevel ppt, ValueTuple vt, int count) {
+
     // Add derived variables
-    compute_derived_variables(ppt, vt.vals, vt.mods);
+    compute_derived_variables(ppt, vt);
 
     // Causes interning
     vt = new ValueTuple(vt.vals, vt.mods);
@@ -1874,17 +2369,11 @@ public final class FileIO {
     }
 
     @SuppressWarnings({"UnusedVariable", "nullness:contracts.precondition"})
-    Object dummy = ppt.add_bottom_up(vt, 1);
+    Object dummy = ppt.add_bottom_up(vt, count);
 
     if (debugVars.isLoggable(Level.FINE)) {
       debugVars.fine(ppt.name() + " vars: " + Debug.int_vars(ppt, vt));
     }
-
-    if (Global.debugPrintDtrace) {
-      assert Global.dtraceWriter != null
-          : "@AssumeAssertion(nullness): dependent: set if debugPrintDtrace is true";
-      Global.dtraceWriter.close();
-    }
   }
 
   /** Returns true if this procedure has an unmatched entry. */
@@ -1997,17 +2486,50 @@ public final class FileIO {
       @Nullable Object[] vals,
       int[] mods)
       throws IOException {
+    TraceRecordSource source;
+    if (reader instanceof MappedTraceReader && ((MappedTraceReader) reader).at_line_start()) {
+      source = (MappedTraceReader) reader;
+    } else {
+      if (reader instanceof MappedTraceReader) {
+        // From now on, the previous values are recorded in ppt_to_value_reps instead.
+        MappedTraceReader.PreviousValues prev =
+            ((MappedTraceReader) reader).previous_values.remove(ppt);
+        if (prev != null) {
+          save_previous_values(ppt, prev);
+        }
+      }
+      source = new TextRecordSource(reader);
+    }
+    source.begin_record(ppt);
+    try {
+      read_vals_and_mods(source, filename, ppt, vals, mods);
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+    source.end_record(ppt);
+  }
+
+  /**
+   * Reads the values of a sample, after its ppt name and invocation nonce (if any), and fills up
+   * vals and mods by side effect.
+   *
+   * @param source the lines of the record
+   * @param filename the name of the file, for messages
+   * @param ppt the program point of the sample
+   * @param vals the values of the sample; filled in by side effect
+   * @param mods the modbits of the sample; filled in by side effect
+   */
+  @RequiresNonNull("FileIO.data_trace_state")
+  private static void read_vals_and_mods(
+      TraceRecordSource source,
+      String filename,
+      PptTopLevel ppt,
+      @Nullable Object[] vals,
+      int[] mods) {
+    LineNumberReader reader = source.reader();
     VarInfo[] vis = ppt.var_infos;
     int num_tracevars = ppt.num_tracevars;
 
-    /*NNC:@Nullable*/ String[] oldvalue_reps = ppt_to_value_reps.get(ppt);
-    if (oldvalue_reps == null) {
-      // We've not encountered this program point before.  The nulls in
-      // this array will compare non-equal to whatever is in the trace
-      // file, which is the desired behavior.
-      oldvalue_reps = new /*NNC:@Nullable*/ String[num_tracevars];
-    }
-
     if (Global.debugPrintDtrace) {
       assert Global.dtraceWriter != null
           : "@AssumeAssertion(nullness): dependent: set if debugPrintDtrace is true";
@@ -2046,8 +2568,7 @@ public final class FileIO {
       // In errors, say "for program point", not "at program point" as the
       // latter confuses Emacs goto-error.
 
-      String line = reader.readLine();
-      if (line == null) {
+      if (!source.next_line()) {
         throw new Daikon.UserError(
             "Unexpected end of file at "
                 + data_trace_state.filename
@@ -2063,15 +2584,17 @@ public final class FileIO {
       }
 
       // Read lines until an included variable is found
-      while ((line != null) && !line.equals("") && !var_included(line)) {
-        line = reader.readLine(); // value (discard it)
-        line = reader.readLine(); // modbit
-        if (line == null || !(line.equals("0") || line.equals("1") || line.equals("2"))) {
-          throw new Daikon.UserError("Bad modbit '" + line + "'", data_trace_state);
+      boolean more = true;
+      while (more && !source.line_is_empty() && !var_included(source)) {
+        source.next_line(); // value (discard it)
+        boolean has_modbit = source.next_line(); // modbit
+        if (!has_modbit || source.modbit() == -1) {
+          throw new Daikon.UserError(
+              "Bad modbit '" + (has_modbit ? source.line() : null) + "'", data_trace_state);
         }
-        line = reader.readLine(); // next variable name
+        more = source.next_line(); // next variable name
       }
-      if (line == null) {
+      if (!more) {
         throw new Daikon.UserError(
             "Unexpected end of file at "
                 + data_trace_state.filename
@@ -2083,18 +2606,17 @@ public final class FileIO {
                 + ppt.name());
       }
 
-      if (!unescape_decl(line.trim()).equals(vi.str_name())) {
+      if (!source.line_names(vi.str_name())) {
         throw new Daikon.UserError(
             "Mismatch between declaration and trace.  Expected variable "
                 + vi.name()
                 + ", got "
-                + line
+                + source.line()
                 + " for program point "
                 + ppt.name(),
             data_trace_state);
       }
-      line = reader.readLine();
-      if (line == null) {
+      if (!source.next_line()) {
         throw new Daikon.UserError(
             "Unexpected end of file at "
                 + data_trace_state.filename
@@ -2108,9 +2630,8 @@ public final class FileIO {
                 + " for program point "
                 + ppt.name());
       }
-      String value_rep = line;
-      line = reader.readLine();
-      if (line == null) {
+      source.mark_value();
+      if (!source.next_line()) {
         throw new Daikon.UserError(
             "Unexpected end of file at "
                 + data_trace_state.filename
@@ -2124,10 +2645,10 @@ public final class FileIO {
                 + " for program point "
                 + ppt.name());
       }
-      if (!(line.equals("0") || line.equals("1") || line.equals("2"))) {
-        throw new Daikon.UserError("Bad modbit `" + line + "'", data_trace_state);
+      int mod = source.modbit();
+      if (mod == -1) {
+        throw new Daikon.UserError("Bad modbit `" + source.line() + "'", data_trace_state);
       }
-      int mod = ValueTuple.parseModified(line);
 
       // System.out.println("Mod is " + mod + " at " + data_trace_state.filename + " line " +
       // reader.getLineNumber());
@@ -2137,10 +2658,11 @@ public final class FileIO {
       // MISSING_FLOW is only found during flow algorithm
       assert mod != ValueTuple.MISSING_FLOW : "Data trace value can't be missing due to flow";
 
+      boolean unchanged = source.value_unchanged(val_index);
       if (mod != ValueTuple.MISSING_NONSENSICAL) {
         // Set the modbit now, depending on whether the value of the variable
         // has been changed or not.
-        if (value_rep.equals(oldvalue_reps[val_index])) {
+        if (unchanged) {
           if (!dkconfig_add_changed) {
             mod = ValueTuple.UNMODIFIED;
           }
@@ -2150,24 +2672,24 @@ public final class FileIO {
       }
 
       mods[val_index] = mod;
-      oldvalue_reps[val_index] = value_rep;
+      source.save_value(val_index, unchanged);
 
       if (Global.debugPrintDtrace) {
         assert Global.dtraceWriter != null
             : "@AssumeAssertion(nullness): dependent: set if debugPrintDtrace is true";
         Global.dtraceWriter.println(vi.name());
-        Global.dtraceWriter.println(value_rep);
+        Global.dtraceWriter.println(source.value());
         Global.dtraceWriter.println(mod);
       }
       Debug dbg = Debug.newDebug(FileIO.class, ppt, Debug.vis(vi));
       if (dbg != null) {
-        dbg.log("Var " + vi.name() + " has value " + value_rep + " mod " + mod);
+        dbg.log("Var " + vi.name() + " has value " + source.value() + " mod " + mod);
       }
 
       // Both uninit and nonsensical mean missing modbit 2, because
       // it doesn't make sense to look at x.y when x is uninitialized.
       if (ValueTuple.modIsMissingNonsensical(mod)) {
-        if (!(value_rep.equals("nonsensical")
+        if (!(source.value_is("nonsensical")
             // Kvasir still uses "uninit" (it distinguishes between
             // uninit and nonsensical), though the Daikon manual does not
             // officially permit "uninit" as a value and has not since at
@@ -2176,13 +2698,13 @@ public final class FileIO {
             // some point not too long after that.  Then Daikon should
             // print a warning (or even terminate execution) about uses
             // of "uninit".
-            || value_rep.equals("uninit")
-            || value_rep.equals("missing"))) {
+            || source.value_is("uninit")
+            || source.value_is("missing"))) {
           throw new Daikon.UserError(
               "Modbit indicates nonsensical value for variable "
                   + vi.name()
                   + " with value \""
-                  + value_rep
+                  + source.value()
                   + "\";"
                   + lineSep
                   + "  text of value should be \"nonsensical\"",
@@ -2204,7 +2726,7 @@ public final class FileIO {
         // "(modIsMissing=" + ValueTuple.modIsMissing(mod) + ")");
 
         try {
-          vals[val_index] = vi.rep_type.parse_value(value_rep, reader, filename);
+          vals[val_index] = source.parse_value(vi, val_index, filename);
           if (vals[val_index] == null) {
             if (debug_missing && !vi.canBeMissing) {
               System.out.printf(
@@ -2226,7 +2748,7 @@ public final class FileIO {
           throw new Daikon.UserError(
               e,
               "Error while parsing value "
-                  + value_rep
+                  + source.value()
                   + " for variable "
                   + vi.name()
                   + " of type "
@@ -2240,10 +2762,6 @@ public final class FileIO {
       val_index++;
     }
 
-    // Does oldvalue_reps now have no null elements???
-    oldvalue_reps = castNonNullDeep(oldvalue_reps); // https://tinyurl.com/cfissue/986
-    ppt_to_value_reps.put(ppt, oldvalue_reps);
-
     if (Global.debugPrintDtrace) {
       assert Global.dtraceWriter != null
           : "@AssumeAssertion(nullness): dependent: set if debugPrintDtrace is true";
@@ -2251,20 +2769,185 @@ public final class FileIO {
     }
 
     // Expecting the end of a block of values.
-    String line = reader.readLine();
+    boolean more = source.next_line();
     // First, we might get some variables that ought to be omitted.
-    while ((line != null) && !line.equals("") && !var_included(line)) {
-      line = reader.readLine(); // value
-      line = reader.readLine(); // modbit
-      line = reader.readLine(); // next variable name
+    while (more && !source.line_is_empty() && !var_included(source)) {
+      source.next_line(); // value
+      source.next_line(); // modbit
+      more = source.next_line(); // next variable name
     }
-    assert (line == null) || line.equals("")
+    assert !more || source.line_is_empty()
         : "Expected blank line in "
             + data_trace_state.filename
             + " at line "
             + reader.getLineNumber()
             + ": "
-            + line;
+            + source.line();
+  }
+
+  /**
+   * Returns true if the variable named by the current line of a record is included, according to
+   * {@link #var_included(String)}.
+   *
+   * @param source the lines of a record
+   * @return true if the variable named by the current line is included
+   */
+  private static boolean var_included(TraceRecordSource source) {
+    if (Daikon.var_omit_regexp == null && Daikon.var_regexp == null) {
+      return true;
+    }
+    return var_included(source.line());
+  }
+
+  /**
+   * The lines of a sample record, read as Strings from a LineNumberReader. The text of the values
+   * of the previous sample of each program point is kept in {@link #ppt_to_value_reps}.
+   */
+  private static final class TextRecordSource implements TraceRecordSource {
+
+    /** The reader from which the lines are read. */
+    private final LineNumberReader reader;
+
+    /** The current line, or null at the end of the file. */
+    private @Nullable String line = null;
+
+    /** The current value. */
+    private String value_rep = "";
+
+    /**
+     * The text of the values of the previous sample of the program point whose record is being
+     * read. The nulls in this array compare non-equal to whatever is in the trace file.
+     */
+    private /*NNC:@Nullable*/ String[] oldvalue_reps = new String[0];
+
+    /**
+     * Creates a source that reads lines from the given reader.
+     *
+     * @param reader the reader from which the lines are read
+     */
+    TextRecordSource(LineNumberReader reader) {
+      this.reader = reader;
+    }
+
+    @Override
+    public LineNumberReader reader() {
+      return reader;
+    }
+
+    @Override
+    public void begin_record(PptTopLevel ppt) {
+      /*NNC:@Nullable*/ String[] reps = ppt_to_value_reps.get(ppt);
+      if (reps == null) {
+        // We've not encountered this program point before.
+        reps = new /*NNC:@Nullable*/ String[ppt.num_tracevars];
+      }
+      oldvalue_reps = reps;
+    }
+
+    @Override
+    public void end_record(PptTopLevel ppt) {
+      // Does oldvalue_reps now have no null elements???
+      oldvalue_reps = castNonNullDeep(oldvalue_reps); // https://tinyurl.com/cfissue/986
+      ppt_to_value_reps.put(ppt, oldvalue_reps);
+    }
+
+    @Override
+    public boolean next_line() {
+      try {
+        line = reader.readLine();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      return line != null;
+    }
+
+    @Override
+    public boolean line_is_empty() {
+      return "".equals(line);
+    }
+
+    @Override
+    public String line() {
+      return String.valueOf(line);
+    }
+
+    @Override
+    public boolean line_names(String name) {
+      return line != null && unescape_decl(line.trim()).equals(name);
+    }
+
+    @Override
+    public int modbit() {
+      if (line == null || !(line.equals("0") || line.equals("1") || line.equals("2"))) {
+        return -1;
+      }
+      return ValueTuple.parseModified(line);
+    }
+
+    @Override
+    public void mark_value() {
+      value_rep = line();
+    }
+
+    @Override
+    public String value() {
+      return value_rep;
+    }
+
+    @Override
+    public boolean value_is(String s) {
+      return value_rep.equals(s);
+    }
+
+    @Override
+    public boolean value_unchanged(int val_index) {
+      return value_rep.equals(oldvalue_reps[val_index]);
+    }
+
+    @Override
+    public void save_value(int val_index, boolean unchanged) {
+      oldvalue_reps[val_index] = value_rep;
+    }
+
+    @Override
+    public @Nullable @Interned Object parse_value(VarInfo vi, int val_index, String filename) {
+      return vi.rep_type.parse_value(value_rep, reader, filename);
+    }
+  }
+
+  /**
+   * Records in {@link #ppt_to_value_reps} the text of the most recent value of each variable read
+   * from a memory-mapped file, so that modbits are set correctly if another file is read later.
+   *
+   * @param reader a memory-mapped file that is about to be closed
+   */
+  private static void save_previous_values(MappedTraceReader reader) {
+    for (Map.Entry<PptTopLevel, MappedTraceReader.PreviousValues> entry :
+        reader.previous_values.entrySet()) {
+      save_previous_values(entry.getKey(), entry.getValue());
+    }
+  }
+
+  /**
+   * Records in {@link #ppt_to_value_reps} the text of the most recent value of each variable of one
+   * program point read from a memory-mapped file.
+   *
+   * @param ppt a program point
+   * @param prev the values of the most recent sample of ppt in a memory-mapped file
+   */
+  private static void save_previous_values(
+      PptTopLevel ppt, MappedTraceReader.PreviousValues prev) {
+    /*NNC:@Nullable*/ String[] oldvalue_reps = ppt_to_value_reps.get(ppt);
+    if (oldvalue_reps == null) {
+      oldvalue_reps = new /*NNC:@Nullable*/ String[prev.length.length];
+    }
+    @Nullable String[] reps = prev.value_reps();
+    for (int i = 0; i < reps.length; i++) {
+      if (reps[i] != null) {
+        oldvalue_reps[i] = reps[i];
+      }
+    }
+    ppt_to_value_reps.put(ppt, oldvalue_reps);
   }
 
   /**
@@ -2320,7 +3003,7 @@ public final class FileIO {
                         : "; at "
                             + data_trace_state.filename
                             + " line "
-                            + data_trace_state.reader.getLineNumber()));
+                            + data_trace_state.get_linenum()));
             invoc = call_stack.pop();
           }
         } else {
@@ -2341,7 +3024,7 @@ public final class FileIO {
                       nonce,
                       ppt.name(),
                       data_trace_state.filename,
-                      data_trace_state.reader.getLineNumber()));
+                      data_trace_state.get_linenum()));
             }
           }
           invoc = call_hashmap.get(nonce);
@@ -2394,20 +3077,29 @@ public final class FileIO {
       PptTopLevel ppt, @Nullable Object[] vals, int[] mods) {
     // This ValueTuple is temporary:  we're temporarily suppressing interning,
     // which we will do after we have all the values available.
-    ValueTuple partial_vt = ValueTuple.makeUninterned(vals, mods);
+    compute_derived_variables(ppt, ValueTuple.makeUninterned(vals, mods));
+  }
+
+  /**
+   * Computes values of derived variables, into the arrays of an uninterned sample.
+   *
+   * @param ppt the program point of the sample
+   * @param partial_vt the sample, whose trace and orig variables have values
+   */
+  private static void compute_derived_variables(PptTopLevel ppt, ValueTuple partial_vt) {
     int filled_slots = ppt.num_orig_vars + ppt.num_tracevars + ppt.num_static_constant_vars;
     for (int i = 0; i < filled_slots; i++) {
       assert !ppt.var_infos[i].isDerived();
     }
-    int num_const = ppt.num_static_constant_vars;
-    for (int i = filled_slots; i < ppt.var_infos.length; i++) {
-      assert ppt.var_infos[i].derived != null : "variable not derived: " + ppt.var_infos[i].repr();
-      assert ppt.var_infos[i].derived != null : "@AssumeAssertion(nullness): application invariant";
-      // Add this derived variable's value
-      ValueAndModified vm = ppt.var_infos[i].derived.computeValueAndModified(partial_vt);
-      vals[i - num_const] = vm.value;
-      mods[i - num_const] = vm.modified;
+    if (filled_slots == ppt.var_infos.length) {
+      return;
+    }
+    DerivationEngine engine = ppt.derivation_engine;
+    if (engine == null || engine.var_infos != ppt.var_infos) {
+      engine = new DerivationEngine(ppt);
+      ppt.derivation_engine = engine;
     }
+    engine.compute(partial_vt);
   }
 
   ///////////////////////////////////////////////////////////////////////////
@@ -2445,18 +3137,28 @@ public final class FileIO {
    * @throws IOException if there is trouble writing the file
    */
   public static void write_serialized_pptmap(PptMap map, File file) throws IOException {
+    if (dkconfig_binary_inv_files) {
+      BinaryInv.write(map, file);
+      return;
+    }
     SerialFormat record = new SerialFormat(map, Configuration.getInstance());
     FilesPlume.writeObject(record, file);
   }
 
   /**
    * Read either a serialized PptMap or a InvMap and return a PptMap. If an InvMap is specified, it
-   * is converted to a PptMap.
+   * is converted to a PptMap. The file may also be in the binary format of {@link BinaryInv}.
    */
   @EnsuresNonNull("FileIO.new_decl_format")
   public static PptMap read_serialized_pptmap(File file, boolean use_saved_config)
       throws IOException {
 
+    if (BinaryInv.is_binary(file)) {
+      PptMap ppts = BinaryInv.read(file, use_saved_config);
+      assert FileIO.new_decl_format != null
+          : "@AssumeAssertion(nullness): BinaryInv.read() sets FileIO.new_decl_format";
+      return ppts;
+    }
     try {
       Object obj = FilesPlume.readObject(file);
       if (obj instanceof FileIO.SerialFormat) {
@@ -2577,7 +3279,7 @@ public final class FileIO {
    * Converts the declaration record version of a name into its correct version. In the declaration
    * record, blanks are encoded as \_ and backslashes as \\.
    */
-  private static String unescape_decl(String orig) {
+  static String unescape_decl(String orig) {
     StringBuilder sb = new StringBuilder(orig.length());
     // The previous escape character was seen just before this position.
     int post_esc = 0;
@@ -0,0 +1,798 @@
+package daikon;
+
+import java.io.PrintStream;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import org.checkerframework.checker.interning.qual.Interned;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.checkerframework.checker.nullness.qual.PolyNull;
+import org.checkerframework.dataflow.qual.Pure;
+
+/**
+ * Interning of sample values. Daikon code interns values through this class rather than calling
+ * {@link org.plumelib.util.Intern}, whose tables are global, unsynchronized, and unbounded. Values
+ * may be interned concurrently by the trace reader thread (see {@link
+ * FileIO#dkconfig_pipelined_read}) and by the inference worker threads (see {@link
+ * FileIO#dkconfig_inference_threads}).
+ *
+ * <p>Each type of value has its own table. A table is split into {@link #NUM_SHARDS} shards by hash
+ * code, and each shard has its own lock, so threads that intern different values rarely wait for
+ * one another. A table refers to its values weakly: a value that is no longer used elsewhere is
+ * removed from the table after it is garbage-collected. In addition, each table keeps its most
+ * recently used values (up to {@link #dkconfig_lru_size} of them) strongly reachable, so that a
+ * value that recurs in the trace is not collected and re-created between its uses.
+ *
+ * <p>The semantics are those of {@code Intern}: arrays are compared elementwise, the elements of an
+ * array of strings or objects must already be interned, and doubles that are NaN or zero (of either
+ * sign) intern to a single NaN and a single zero. Strings are interned with {@link String#intern},
+ * which is thread-safe.
+ */
+public final class InternPool {
+
+  /** Do not instantiate. */
+  private InternPool() {
+    throw new Error("do not instantiate");
+  }
+
+  // Variables starting with dkconfig_ should only be set via the
+  // daikon.config.Configuration interface.
+
+  /**
+   * Integer. The number of recently used values of each type that the intern tables keep strongly
+   * reachable. Other values are held weakly, and are dropped from the tables once nothing else
+   * refers to them. 0 means that all values are held weakly.
+   */
+  public static int dkconfig_lru_size = 4096;
+
+  /**
+   * Boolean. If true, count the lookups in each intern table that find an existing value (hits) and
+   * that add a new value (misses), and print the counts and the sizes of the tables after the trace
+   * files have been read.
+   */
+  public static boolean dkconfig_statistics = false;
+
+  /** Number of shards of each table. Must be a power of 2. */
+  private static final int NUM_SHARDS = 16;
+
+  /** The interned NaN. */
+  private static final @Interned Double internedDoubleNaN = Double.NaN;
+
+  /** The interned zero, which is also the interned negative zero. */
+  private static final @Interned Double internedDoubleZero = 0.0;
+
+  /** An entry of a shard: a weak reference to an interned value. */
+  private static final class Entry<T> extends WeakReference<T> {
+    /** The (spread) hash code of the value. */
+    final int hash;
+
+    /** The next entry in the same bucket. */
+    @Nullable Entry<T> next;
+
+    /** The value, while this entry is in the shard's recently-used list; otherwise null. */
+    @Nullable T pin;
+
+    /** The next more recently used entry, while this entry is in the recently-used list. */
+    @Nullable Entry<T> newer;
+
+    /** The next less recently used entry, while this entry is in the recently-used list. */
+    @Nullable Entry<T> older;
+
+    Entry(T value, int hash, @Nullable Entry<T> next, ReferenceQueue<T> queue) {
+      super(value, queue);
+      this.hash = hash;
+      this.next = next;
+    }
+  }
+
+  /**
+   * One shard of a table: a hash table of weak references, plus a list of the most recently used
+   * entries, whose values are kept strongly reachable. All access is synchronized on the shard.
+   */
+  private static final class Shard<T> {
+    /** Entries whose values have been garbage-collected are enqueued here. */
+    final ReferenceQueue<T> queue = new ReferenceQueue<>();
+
+    /** The buckets. The length is a power of 2. */
+    @SuppressWarnings({"unchecked", "rawtypes"}) // generic array creation
+    Entry<T>[] buckets = new Entry[16];
+
+    /** The number of entries, including ones whose values have been collected but not expunged. */
+    int size = 0;
+
+    /** The most recently used entry, or null if the recently-used list is empty. */
+    @Nullable Entry<T> newest = null;
+
+    /** The least recently used entry, or null if the recently-used list is empty. */
+    @Nullable Entry<T> oldest = null;
+
+    /** The length of the recently-used list. */
+    int num_pinned = 0;
+
+    /**
+     * Removes the entries whose values have been collected, and returns the first entry of the
+     * bucket for the given hash code.
+     */
+    @Nullable Entry<T> first(int hash) {
+      expunge();
+      return buckets[hash & (buckets.length - 1)];
+    }
+
+    /**
+     * Adds a value that is not in this shard, and marks it as most recently used.
+     *
+     * @param value the value to add
+     * @param hash the spread hash code of value
+     * @return value
+     */
+    T add(T value, int hash) {
+      if (size >= buckets.length - (buckets.length >> 2)) {
+        resize();
+      }
+      int index = hash & (buckets.length - 1);
+      Entry<T> e = new Entry<>(value, hash, buckets[index], queue);
+      buckets[index] = e;
+      size++;
+      touch(e, value);
+      return value;
+    }
+
+    /**
+     * Marks an entry as the most recently used, making its value strongly reachable. If that makes
+     * the recently-used list too long, the least recently used value is again held only weakly.
+     *
+     * @param e an entry of this shard
+     * @param value the value of e
+     */
+    void touch(Entry<T> e, T value) {
+      int capacity = (dkconfig_lru_size + NUM_SHARDS - 1) / NUM_SHARDS;
+      if (e.pin != null) {
+        if (e != newest) {
+          unlink(e);
+          link_newest(e);
+        }
+        return;
+      }
+      if (capacity <= 0) {
+        return;
+      }
+      e.pin = value;
+      link_newest(e);
+      num_pinned++;
+      while (num_pinned > capacity) {
+        Entry<T> victim = oldest;
+        assert victim != null : "@AssumeAssertion(nullness): num_pinned > 0";
+        unlink(victim);
+        victim.pin = null;
+        num_pinned--;
+      }
+    }
+
+    /** Inserts an entry at the most recently used end of the recently-used list. */
+    private void link_newest(Entry<T> e) {
+      e.newer = null;
+      e.older = newest;
+      if (newest != null) {
+        newest.newer = e;
+      } else {
+        oldest = e;
+      }
+      newest = e;
+    }
+
+    /** Removes an entry from the recently-used list. */
+    private void unlink(Entry<T> e) {
+      if (e.newer != null) {
+        e.newer.older = e.older;
+      } else {
+        newest = e.older;
+      }
+      if (e.older != null) {
+        e.older.newer = e.newer;
+      } else {
+        oldest = e.newer;
+      }
+      e.newer = null;
+      e.older = null;
+    }
+
+    /** Removes the entries whose values have been garbage-collected. */
+    @SuppressWarnings("unchecked") // the queue only holds entries of this shard
+    private void expunge() {
+      for (Reference<? extends T> ref = queue.poll(); ref != null; ref = queue.poll()) {
+        Entry<T> dead = (Entry<T>) ref;
+        int index = dead.hash & (buckets.length - 1);
+        Entry<T> prev = null;
+        for (Entry<T> e = buckets[index]; e != null; prev = e, e = e.next) {
+          if (e == dead) {
+            if (prev == null) {
+              buckets[index] = e.next;
+            } else {
+              prev.next = e.next;
+            }
+            size--;
+            break;
+          }
+        }
+      }
+    }
+
+    /** Doubles the number of buckets. */
+    @SuppressWarnings({"unchecked", "rawtypes"}) // generic array creation
+    private void resize() {
+      Entry<T>[] old_buckets = buckets;
+      Entry<T>[] new_buckets = new Entry[old_buckets.length * 2];
+      int mask = new_buckets.length - 1;
+      for (Entry<T> head : old_buckets) {
+        Entry<T> e = head;
+        while (e != null) {
+          Entry<T> next = e.next;
+          int index = e.hash & mask;
+          e.next = new_buckets[index];
+          new_buckets[index] = e;
+          e = next;
+        }
+      }
+      buckets = new_buckets;
+    }
+  }
+
+  /**
+   * A table of interned values of one type. Subclasses define equality and hashing for the type.
+   *
+   * @param <T> the type of the values
+   */
+  private abstract static class Table<T> {
+    /** The name of the type, for statistics. */
+    final String name;
+
+    /** The shards. */
+    @SuppressWarnings({"unchecked", "rawtypes"}) // generic array creation
+    final Shard<T>[] shards = new Shard[NUM_SHARDS];
+
+    /** Number of lookups that found an existing value, if {@link #dkconfig_statistics} is set. */
+    final LongAdder hits = new LongAdder();
+
+    /** Number of lookups that added a new value, if {@link #dkconfig_statistics} is set. */
+    final LongAdder misses = new LongAdder();
+
+    Table(String name) {
+      this.name = name;
+      for (int i = 0; i < NUM_SHARDS; i++) {
+        shards[i] = new Shard<>();
+      }
+    }
+
+    /** Returns the hash code of a value; values that are {@link #equal} have equal hash codes. */
+    abstract int hash(T value);
+
+    /** Returns true if two values are equal, so that they intern to the same value. */
+    abstract boolean equal(T v1, T v2);
+
+    /** Returns the shard for the given spread hash code. */
+    final Shard<T> shard(int hash) {
+      return shards[hash >>> (32 - Integer.numberOfTrailingZeros(NUM_SHARDS))];
+    }
+
+    /**
+     * Returns the interned value that is equal to the argument, adding the argument to the table
+     * if there is none.
+     *
+     * @param value the value to intern
+     * @return the interned value equal to value
+     */
+    final T intern(T value) {
+      int hash = spread(hash(value));
+      Shard<T> shard = shard(hash);
+      synchronized (shard) {
+        for (Entry<T> e = shard.first(hash); e != null; e = e.next) {
+          if (e.hash == hash) {
+            T candidate = e.get();
+            if (candidate != null && equal(candidate, value)) {
+              return hit(shard, e, candidate);
+            }
+          }
+        }
+        return miss(shard, value, hash);
+      }
+    }
+
+    /** Records a lookup that found an existing entry, and returns its value. */
+    final T hit(Shard<T> shard, Entry<T> e, T value) {
+      if (dkconfig_statistics) {
+        hits.increment();
+      }
+      shard.touch(e, value);
+      return value;
+    }
+
+    /** Records a lookup that found no entry, adds the value, and returns it. */
+    final T miss(Shard<T> shard, T value, int hash) {
+      if (dkconfig_statistics) {
+        misses.increment();
+      }
+      return shard.add(value, hash);
+    }
+
+    /**
+     * Returns the number of values in the table. Includes values that have been garbage-collected
+     * but whose entries have not yet been removed.
+     */
+    final int size() {
+      int result = 0;
+      for (Shard<T> shard : shards) {
+        synchronized (shard) {
+          result += shard.size;
+        }
+      }
+      return result;
+    }
+  }
+
+  /**
+   * Scrambles a hash code, so that both its high bits (which choose the shard) and its low bits
+   * (which choose the bucket) depend on all of its bits.
+   */
+  private static int spread(int h) {
+    h *= 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  /** The interned Longs. */
+  private static final Table<@Interned Long> longs =
+      new Table<@Interned Long>("Long") {
+        @Override
+        int hash(@Interned Long value) {
+          return value.hashCode();
+        }
+
+        @Override
+        boolean equal(@Interned Long v1, @Interned Long v2) {
+          return v1.longValue() == v2.longValue();
+        }
+      };
+
+  /** The interned Integers. */
+  private static final Table<@Interned Integer> integers =
+      new Table<@Interned Integer>("Integer") {
+        @Override
+        int hash(@Interned Integer value) {
+          return value.hashCode();
+        }
+
+        @Override
+        boolean equal(@Interned Integer v1, @Interned Integer v2) {
+          return v1.intValue() == v2.intValue();
+        }
+      };
+
+  /** The interned Doubles, other than NaN and zero. */
+  private static final Table<@Interned Double> doubles =
+      new Table<@Interned Double>("Double") {
+        @Override
+        int hash(@Interned Double value) {
+          return value.hashCode();
+        }
+
+        @Override
+        boolean equal(@Interned Double v1, @Interned Double v2) {
+          return v1.doubleValue() == v2.doubleValue();
+        }
+      };
+
+  /** The interned int arrays. */
+  private static final Table<int @Interned []> int_arrays =
+      new Table<int @Interned []>("int[]") {
+        @Override
+        int hash(int @Interned [] value) {
+          return Arrays.hashCode(value);
+        }
+
+        @Override
+        boolean equal(int @Interned [] v1, int @Interned [] v2) {
+          return Arrays.equals(v1, v2);
+        }
+      };
+
+  /** The interned long arrays. */
+  private static final Table<long @Interned []> long_arrays =
+      new Table<long @Interned []>("long[]") {
+        @Override
+        int hash(long @Interned [] value) {
+          return Arrays.hashCode(value);
+        }
+
+        @Override
+        boolean equal(long @Interned [] v1, long @Interned [] v2) {
+          return Arrays.equals(v1, v2);
+        }
+      };
+
+  /**
+   * The interned double arrays. As in {@code Intern}, elements are equal if they are {@code ==} or
+   * are both NaN.
+   */
+  private static final Table<double @Interned []> double_arrays =
+      new Table<double @Interned []>("double[]") {
+        @Override
+        int hash(double @Interned [] value) {
+          int result = 1;
+          for (double d : value) {
+            // NaN, 0.0, and -0.0 must hash alike.
+            long bits = (d == 0.0 || Double.isNaN(d)) ? 0 : Double.doubleToLongBits(d);
+            result = 31 * result + (int) (bits ^ (bits >>> 32));
+          }
+          return result;
+        }
+
+        @Override
+        boolean equal(double @Interned [] v1, double @Interned [] v2) {
+          if (v1.length != v2.length) {
+            return false;
+          }
+          for (int i = 0; i < v1.length; i++) {
+            if (v1[i] != v2[i] && !(Double.isNaN(v1[i]) && Double.isNaN(v2[i]))) {
+              return false;
+            }
+          }
+          return true;
+        }
+      };
+
+  /** The interned String arrays. */
+  private static final Table<@Nullable @Interned String @Interned []> string_arrays =
+      new Table<@Nullable @Interned String @Interned []>("String[]") {
+        @Override
+        int hash(@Nullable @Interned String @Interned [] value) {
+          return Arrays.hashCode(value);
+        }
+
+        @Override
+        boolean equal(
+            @Nullable @Interned String @Interned [] v1,
+            @Nullable @Interned String @Interned [] v2) {
+          return Arrays.equals(v1, v2);
+        }
+      };
+
+  /** The interned Object arrays. */
+  private static final Table<@Nullable @Interned Object @Interned []> object_arrays =
+      new Table<@Nullable @Interned Object @Interned []>("Object[]") {
+        @Override
+        int hash(@Nullable @Interned Object @Interned [] value) {
+          return Arrays.hashCode(value);
+        }
+
+        @Override
+        boolean equal(
+            @Nullable @Interned Object @Interned [] v1,
+            @Nullable @Interned Object @Interned [] v2) {
+          return Arrays.equals(v1, v2);
+        }
+      };
+
+  /** All the tables, for statistics. */
+  private static final Table<?>[] tables = {
+    longs, integers, doubles, int_arrays, long_arrays, double_arrays, string_arrays, object_arrays
+  };
+
+  /**
+   * Returns true if the argument is interned. As with {@code Intern.isInterned}, a value of an
+   * internable type that is not yet in its table is added to it, and is then considered interned.
+   *
+   * @param value the value to test
+   * @return true if value is interned
+   */
+  @Pure
+  public static boolean isInterned(@Nullable Object value) {
+    if (value == null || value instanceof String) {
+      return value == intern((String) value);
+    } else if (value instanceof String[]
+        || value instanceof Integer
+        || value instanceof Long
+        || value instanceof int[]
+        || value instanceof long[]
+        || value instanceof Double
+        || value instanceof double[]
+        || value instanceof Object[]) {
+      return value == intern(value);
+    } else {
+      return true;
+    }
+  }
+
+  /**
+   * Returns the interned version of a String.
+   *
+   * @param a the string to intern
+   * @return an interned version of the argument
+   */
+  public static @Interned @PolyNull String intern(@PolyNull String a) {
+    return (a == null) ? null : a.intern();
+  }
+
+  /**
+   * Returns the interned Long with the given value.
+   *
+   * @param i the value
+   * @return an interned Long with value i
+   */
+  public static @Interned Long internedLong(long i) {
+    // Look the value up without boxing it; most lookups find an existing value.
+    int hash = spread(Long.hashCode(i));
+    Shard<@Interned Long> shard = longs.shard(hash);
+    synchronized (shard) {
+      for (Entry<@Interned Long> e = shard.first(hash); e != null; e = e.next) {
+        if (e.hash == hash) {
+          @Interned Long candidate = e.get();
+          if (candidate != null && candidate.longValue() == i) {
+            return longs.hit(shard, e, candidate);
+          }
+        }
+      }
+      @SuppressWarnings("interning") // a new value is added to the table
+      @Interned Long boxed = Long.valueOf(i);
+      return longs.miss(shard, boxed, hash);
+    }
+  }
+
+  /**
+   * Returns the interned Double with the given value.
+   *
+   * @param d the value
+   * @return an interned Double with value d
+   */
+  public static @Interned Double internedDouble(double d) {
+    if (Double.isNaN(d)) {
+      return internedDoubleNaN;
+    }
+    if (d == 0) {
+      return internedDoubleZero;
+    }
+    // Look the value up without boxing it; most lookups find an existing value.
+    int hash = spread(Double.hashCode(d));
+    Shard<@Interned Double> shard = doubles.shard(hash);
+    synchronized (shard) {
+      for (Entry<@Interned Double> e = shard.first(hash); e != null; e = e.next) {
+        if (e.hash == hash) {
+          @Interned Double candidate = e.get();
+          if (candidate != null && candidate.doubleValue() == d) {
+            return doubles.hit(shard, e, candidate);
+          }
+        }
+      }
+      @SuppressWarnings("interning") // a new value is added to the table
+      @Interned Double boxed = Double.valueOf(d);
+      return doubles.miss(shard, boxed, hash);
+    }
+  }
+
+  /**
+   * Returns the interned Double whose value is given by a String.
+   *
+   * @param s a string that parses to a double
+   * @return an interned Double with value parsed from s
+   */
+  public static @Interned Double internedDouble(String s) {
+    return internedDouble(Double.parseDouble(s));
+  }
+
+  /**
+   * Returns the argument; primitive values need no interning. Exists so that generated code can
+   * call {@code intern} uniformly.
+   *
+   * @param l a long value
+   * @return the argument
+   */
+  public static long intern(long l) {
+    return l;
+  }
+
+  /**
+   * Returns the argument; primitive values need no interning. Exists so that generated code can
+   * call {@code intern} uniformly.
+   *
+   * @param d a double value
+   * @return the argument
+   */
+  public static double intern(double d) {
+    return d;
+  }
+
+  /**
+   * Returns the interned version of an int array.
+   *
+   * @param a the array to intern
+   * @return an interned version of the argument
+   */
+  @SuppressWarnings("interning") // the argument is added to the table if it is new
+  public static int @Interned [] intern(int[] a) {
+    return int_arrays.intern(a);
+  }
+
+  /**
+   * Returns the interned version of a long array.
+   *
+   * @param a the array to intern
+   * @return an interned version of the argument
+   */
+  @SuppressWarnings("interning") // the argument is added to the table if it is new
+  public static long @Interned [] intern(long[] a) {
+    return long_arrays.intern(a);
+  }
+
+  /**
+   * Returns the interned version of a double array.
+   *
+   * @param a the array to intern
+   * @return an interned version of the argument
+   */
+  @SuppressWarnings("interning") // the argument is added to the table if it is new
+  public static double @Interned [] intern(double[] a) {
+    return double_arrays.intern(a);
+  }
+
+  /**
+   * Returns the interned version of a String array, whose elements must already be interned.
+   *
+   * @param a the array to intern
+   * @return an interned version of the argument
+   */
+  @SuppressWarnings("interning") // the argument is added to the table if it is new
+  public static @PolyNull @Interned String @Interned [] intern(
+      @PolyNull @Interned String[] a) {
+    assert elements_interned(a);
+    return string_arrays.intern(a);
+  }
+
+  /** Returns true if every element of the array is an interned String or null. */
+  private static boolean elements_interned(@Nullable String[] a) {
+    for (String s : a) {
+      if (s != null && s != s.intern()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the interned version of an Object array, whose elements must already be interned.
+   *
+   * @param a the array to intern
+   * @return an interned version of the argument
+   */
+  @SuppressWarnings("interning") // the argument is added to the table if it is new
+  public static @PolyNull @Interned Object @Interned [] intern(
+      @PolyNull @Interned Object[] a) {
+    return object_arrays.intern(a);
+  }
+
+  /**
+   * Returns the interned version of a value of any of the types that this class can intern.
+   *
+   * @param a the value to intern
+   * @return an interned version of the argument
+   */
+  @SuppressWarnings("interning") // the argument is added to a table if it is new
+  public static @Interned @PolyNull Object intern(@PolyNull Object a) {
+    if (a == null) {
+      return null;
+    } else if (a instanceof String) {
+      return intern((String) a);
+    } else if (a instanceof String[]) {
+      return intern((@Interned String[]) a);
+    } else if (a instanceof Integer) {
+      return integers.intern((Integer) a);
+    } else if (a instanceof Long) {
+      return longs.intern((Long) a);
+    } else if (a instanceof int[]) {
+      return intern((int[]) a);
+    } else if (a instanceof long[]) {
+      return intern((long[]) a);
+    } else if (a instanceof Double) {
+      double d = (Double) a;
+      if (Double.isNaN(d)) {
+        return internedDoubleNaN;
+      } else if (d == 0) {
+        return internedDoubleZero;
+      }
+      return doubles.intern((Double) a);
+    } else if (a instanceof double[]) {
+      return intern((double[]) a);
+    } else if (a instanceof Object[]) {
+      return intern((@Interned Object[]) a);
+    } else {
+      throw new IllegalArgumentException(
+          "Arguments of type " + a.getClass() + " cannot be interned");
+    }
+  }
+
+  /**
+   * Interns each element of a String array, in place.
+   *
+   * @param a the array whose elements to intern
+   * @return the argument, whose elements are now interned
+   */
+  @SuppressWarnings("interning") // the elements have been interned
+  public static @Interned String[] internStrings(String[] a) {
+    for (int i = 0; i < a.length; i++) {
+      if (a[i] != null) {
+        a[i] = a[i].intern();
+      }
+    }
+    return a;
+  }
+
+  /**
+   * Returns an interned subsequence of a long array.
+   *
+   * @param seq an interned array
+   * @param start the index of the first element of the subsequence (inclusive)
+   * @param end the index of the last element of the subsequence (exclusive)
+   * @return an interned array containing {@code seq[start..end-1]}
+   */
+  public static long @Interned [] internSubsequence(long @Interned [] seq, int start, int end) {
+    if (start == 0 && end == seq.length) {
+      return seq;
+    }
+    return intern(Arrays.copyOfRange(seq, start, end));
+  }
+
+  /**
+   * Returns an interned subsequence of a double array.
+   *
+   * @param seq an interned array
+   * @param start the index of the first element of the subsequence (inclusive)
+   * @param end the index of the last element of the subsequence (exclusive)
+   * @return an interned array containing {@code seq[start..end-1]}
+   */
+  public static double @Interned [] internSubsequence(
+      double @Interned [] seq, int start, int end) {
+    if (start == 0 && end == seq.length) {
+      return seq;
+    }
+    return intern(Arrays.copyOfRange(seq, start, end));
+  }
+
+  /**
+   * Returns an interned subsequence of a String array.
+   *
+   * @param seq an interned array
+   * @param start the index of the first element of the subsequence (inclusive)
+   * @param end the index of the last element of the subsequence (exclusive)
+   * @return an interned array containing {@code seq[start..end-1]}
+   */
+  public static @PolyNull @Interned String @Interned [] internSubsequence(
+      @PolyNull @Interned String @Interned [] seq, int start, int end) {
+    if (start == 0 && end == seq.length) {
+      return seq;
+    }
+    return intern(Arrays.copyOfRange(seq, start, end));
+  }
+
+  /**
+   * Prints, for each table, its size and the number of lookups that found an existing value (hits)
+   * and that added a new value (misses). The lookups are counted only while {@link
+   * #dkconfig_statistics} is set.
+   *
+   * @param out where to print the statistics
+   */
+  public static void print_statistics(PrintStream out) {
+    out.println("Intern table statistics:");
+    out.printf("  %-10s %10s %12s %12s %8s%n", "type", "size", "hits", "misses", "hit rate");
+    for (Table<?> table : tables) {
+      long hits = table.hits.sum();
+      long misses = table.misses.sum();
+      long lookups = hits + misses;
+      out.printf(
+          "  %-10s %10d %12d %12d %7.2f%%%n",
+          table.name,
+          table.size(),
+          hits,
+          misses,
+          (lookups == 0) ? 0.0 : (100.0 * hits / lookups));
+    }
+  }
+}
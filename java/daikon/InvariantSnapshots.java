@@ -0,0 +1,229 @@
+package daikon;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.PrintWriter;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.checkerframework.checker.nullness.qual.RequiresNonNull;
+
+/**
+ * Writes snapshots of the invariants while Daikon is still reading its data trace files, so that
+ * the invariants over a long trace (or over a program that Chicory is still running) can be
+ * examined before the trace ends. A snapshot is taken every {@link #dkconfig_sample_interval}
+ * samples or every {@link #dkconfig_time_interval} seconds, whichever comes first.
+ *
+ * <p>Merging invariants up the program point hierarchy, and the other steps of {@link
+ * Daikon#postprocess_ppts}, change the program points in ways that prevent them from processing
+ * more samples. A snapshot therefore copies the program points (by serializing and deserializing
+ * them) and post-processes the copy; the program points that are processing samples are not
+ * changed. The copy takes about as much memory as the program points themselves.
+ *
+ * <p>A snapshot reflects every sample read before it was taken: samples held back by {@link
+ * SampleCoalescer} are applied first, and inference threads (see {@link
+ * FileIO#dkconfig_inference_threads}) are waited for.
+ */
+public final class InvariantSnapshots {
+
+  /** This class is a collection of methods; it does not represent anything. */
+  private InvariantSnapshots() {
+    throw new Error("do not instantiate");
+  }
+
+  /**
+   * Integer. If positive, Daikon writes a snapshot of the invariants each time it has read this
+   * many more samples, while it reads the data trace files. See {@link #dkconfig_file}.
+   */
+  public static int dkconfig_sample_interval = 0;
+
+  /**
+   * Integer. If positive, Daikon writes a snapshot of the invariants when this many seconds have
+   * passed since the previous snapshot (or since it started reading samples), while it reads the
+   * data trace files. See {@link #dkconfig_file}.
+   */
+  public static int dkconfig_time_interval = 0;
+
+  /**
+   * String. The file to which snapshots of the invariants are written; each snapshot replaces the
+   * previous one. If the name ends in ".inv" or ".inv.gz", the snapshot is a serialized invariant
+   * file, like the one Daikon writes at the end; otherwise it is a textual report. If null, the
+   * name of the .inv file with ".snapshot" inserted before ".inv" is used, or
+   * "daikon.snapshot.inv.gz" if no .inv file is written.
+   */
+  public static @Nullable String dkconfig_file = null;
+
+  /** The value of {@link FileIO#samples_processed} when the last snapshot was taken. */
+  private static long last_samples = 0;
+
+  /** When the last snapshot was taken (or when the first sample was read), per System.nanoTime. */
+  private static long last_nanos = 0;
+
+  /** The number of snapshots written. */
+  private static int snapshots_written = 0;
+
+  /** Forgets the previous snapshots. Called when Daikon starts. */
+  static void reset() {
+    last_samples = 0;
+    last_nanos = 0;
+    snapshots_written = 0;
+  }
+
+  /**
+   * Called after each sample is read. Takes a snapshot if one is due.
+   *
+   * @param state the state of the data trace file being read
+   */
+  @RequiresNonNull("FileIO.data_trace_state")
+  static void sample_processed(FileIO.ParseState state) {
+    if (!Daikon.isInferencing || state.is_decl_file) {
+      return;
+    }
+    boolean due = false;
+    if (dkconfig_sample_interval > 0
+        && FileIO.samples_processed - last_samples >= dkconfig_sample_interval) {
+      due = true;
+    }
+    if (dkconfig_time_interval > 0) {
+      long now = System.nanoTime();
+      if (last_nanos == 0) {
+        last_nanos = now;
+      } else if (now - last_nanos >= TimeUnit.SECONDS.toNanos(dkconfig_time_interval)) {
+        due = true;
+      }
+    }
+    if (due) {
+      take(state);
+    }
+  }
+
+  /**
+   * Writes a snapshot of the invariants over the samples read so far.
+   *
+   * @param state the state of the data trace file being read
+   */
+  @RequiresNonNull("FileIO.data_trace_state")
+  private static void take(FileIO.ParseState state) {
+    long start = System.nanoTime();
+
+    // Apply every sample read so far.
+    SampleCoalescer coalescer = state.coalescer;
+    if (coalescer != null) {
+      coalescer.flush();
+    }
+    ParallelInference inference = state.inference;
+    if (inference != null) {
+      inference.await_idle();
+    }
+
+    File file = snapshot_file();
+    try {
+      PptMap copy = copy(state.all_ppts);
+      // Post-processing checks that no samples are being processed.
+      Daikon.isInferencing = false;
+      try {
+        Daikon.postprocess_ppts(copy);
+        write(copy, file);
+      } finally {
+        Daikon.isInferencing = true;
+      }
+    } catch (IOException e) {
+      throw new Daikon.UserError(e, "Error while writing snapshot of invariants to " + file);
+    }
+
+    snapshots_written++;
+    last_samples = FileIO.samples_processed;
+    last_nanos = System.nanoTime();
+    if (!Daikon.dkconfig_quiet) {
+      System.out.printf(
+          "%nWrote snapshot %d (%d samples) to %s in %d ms%n",
+          snapshots_written,
+          FileIO.samples_processed,
+          file,
+          TimeUnit.NANOSECONDS.toMillis(last_nanos - start));
+    }
+  }
+
+  /**
+   * Returns the file to which snapshots are written.
+   *
+   * @return the file to which snapshots are written
+   */
+  static File snapshot_file() {
+    if (dkconfig_file != null) {
+      return new File(dkconfig_file);
+    }
+    File inv_file = Daikon.inv_file;
+    if (inv_file == null) {
+      return new File("daikon.snapshot.inv.gz");
+    }
+    String name = inv_file.getName();
+    String snapshot_name = name.replaceFirst("\\.inv(\\.gz)?$", ".snapshot.inv$1");
+    if (snapshot_name.equals(name)) {
+      snapshot_name = name + ".snapshot.inv.gz";
+    }
+    return new File(inv_file.getParentFile(), snapshot_name);
+  }
+
+  /**
+   * Returns a deep copy of the given program points and their invariants.
+   *
+   * @param ppts the program points to copy
+   * @return a copy of ppts that shares no mutable state with it
+   * @throws IOException if the program points cannot be serialized
+   */
+  static PptMap copy(PptMap ppts) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(ppts);
+    }
+    try (ObjectInputStream in =
+        new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+      return (PptMap) in.readObject();
+    } catch (ClassNotFoundException e) {
+      throw new Error("Cannot deserialize a class that was just serialized", e);
+    }
+  }
+
+  /**
+   * Writes post-processed program points to a file, replacing it once the snapshot is complete, so
+   * that a reader of the file never sees a partial snapshot.
+   *
+   * @param ppts the program points of the snapshot
+   * @param file the file to write
+   * @throws IOException if the file cannot be written
+   */
+  @RequiresNonNull("FileIO.new_decl_format")
+  private static void write(PptMap ppts, File file) throws IOException {
+    // Keep the file's extension, which determines whether it is compressed.
+    File tmp = new File(file.getAbsoluteFile().getParentFile(), "tmp-" + file.getName());
+    String name = file.getName();
+    if (name.endsWith(".inv") || name.endsWith(".inv.gz")) {
+      FileIO.write_serialized_pptmap(ppts, tmp);
+    } else {
+      try (PrintWriter pw =
+          new PrintWriter(new BufferedWriter(Files.newBufferedWriter(tmp.toPath(), UTF_8)))) {
+        pw.printf("Snapshot of the invariants after %d samples%n", FileIO.samples_processed);
+        PrintInvariants.print_invariants(ppts, pw);
+      }
+    }
+    try {
+      Files.move(
+          tmp.toPath(),
+          file.toPath(),
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+}
@@ -0,0 +1,258 @@
+package daikon;
+
+import daikon.config.Configuration;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.logging.Logger;
+import org.checkerframework.checker.nullness.qual.EnsuresNonNull;
+import org.checkerframework.checker.nullness.qual.KeyFor;
+import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.checkerframework.dataflow.qual.Pure;
+import org.checkerframework.dataflow.qual.SideEffectFree;
+
+/**
+ * A PptMap whose program points are read from a binary invariant file (see {@link BinaryInv}) when
+ * they are first requested by {@link #get}, rather than when the file is opened. A tool that looks
+ * at a few program points of a large file reads only those program points and their ancestors.
+ *
+ * <p>When the heap is nearly full after a program point is read (see {@link
+ * #dkconfig_max_heap_fraction}), the least recently requested program points are evicted, and are
+ * read again if they are requested again. A program point that was evicted is no longer connected
+ * to the program points in the map, so a caller should not keep program points between calls of
+ * {@link #get}, except for the ancestors of the program point it just got.
+ *
+ * <p>The methods that return or iterate over every program point, such as {@link #pptIterable()}
+ * and {@link #all_ppts()}, read the whole file and then close it; after that, nothing is evicted.
+ * {@link #sorted_names()} and {@link #nameStringSet()} do not read any program points.
+ *
+ * <p>A LazyPptMap cannot be modified: {@link #add}, {@link #addAll}, and {@link #removeUnsampled}
+ * throw UnsupportedOperationException. The tools that open invariant files with {@link #open},
+ * PrintInvariants and Diff, only read the program points. Call {@link #close} when done with the
+ * map; {@link #close(PptMap)} does so for a map returned by {@link #open}.
+ */
+public class LazyPptMap extends PptMap implements Closeable {
+  /** If you add or remove fields, change this number to the current date. */
+  static final long serialVersionUID = 20261018L;
+
+  /** Debug tracer. */
+  public static final Logger debug = Logger.getLogger("daikon.LazyPptMap");
+
+  /**
+   * Double. When more than this fraction of the maximum heap size is in use after a LazyPptMap
+   * reads a program point, it evicts the least recently requested half of its program points.
+   */
+  public static double dkconfig_max_heap_fraction = 0.75;
+
+  /** The file from which program points are read. */
+  private final transient BinaryInv.Reader reader;
+
+  /** The names of the program points in the file. */
+  private final List<String> names;
+
+  /** All the program points, once the whole file has been read. */
+  private transient @MonotonicNonNull PptMap all = null;
+
+  /** If true, the rep invariant of each program point is checked when it is read. */
+  private boolean check_reads = false;
+
+  /**
+   * Creates a map that reads program points from the given reader.
+   *
+   * @param reader a binary invariant file
+   */
+  public LazyPptMap(BinaryInv.Reader reader) {
+    this.reader = reader;
+    this.names = reader.ppt_names();
+  }
+
+  /**
+   * Opens an invariant file. Returns a LazyPptMap if the file is in the binary format, as the
+   * files that Daikon writes are by default (see {@link FileIO#dkconfig_binary_inv_files}), and
+   * otherwise reads the whole file, as {@link FileIO#read_serialized_pptmap} does.
+   *
+   * @param file an invariant file
+   * @param use_saved_config if true, the configuration saved in the file is applied
+   * @return the program points in the file
+   * @throws IOException if there is trouble reading the file
+   */
+  @EnsuresNonNull("FileIO.new_decl_format")
+  public static PptMap open(File file, boolean use_saved_config) throws IOException {
+    if (!BinaryInv.is_binary(file)) {
+      return FileIO.read_serialized_pptmap(file, use_saved_config);
+    }
+    BinaryInv.Reader reader = new BinaryInv.Reader(file);
+    if (use_saved_config) {
+      Configuration.getInstance().overlap(reader.config());
+    }
+    FileIO.new_decl_format = reader.new_decl_format();
+    return new LazyPptMap(reader);
+  }
+
+  /**
+   * Closes the file of a map returned by {@link #open}, if it is a LazyPptMap.
+   *
+   * @param ppts a map returned by {@link #open}
+   * @throws IOException if there is trouble closing the file
+   */
+  public static void close(PptMap ppts) throws IOException {
+    if (ppts instanceof LazyPptMap) {
+      ((LazyPptMap) ppts).close();
+    }
+  }
+
+  /**
+   * Closes the file. Program points that have not been read can no longer be read, unless the
+   * whole file has already been read.
+   *
+   * @throws IOException if there is trouble closing the file
+   */
+  @Override
+  public void close() throws IOException {
+    reader.close();
+  }
+
+  /**
+   * Returns a PptMap that contains every program point, reading the whole file and closing it the
+   * first time it is called.
+   */
+  private PptMap all() {
+    if (all == null) {
+      try {
+        all = reader.read_all();
+        reader.close();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    return all;
+  }
+
+  /**
+   * Throws an exception; a LazyPptMap cannot be modified.
+   *
+   * @param ppt a program point
+   */
+  @Override
+  public void add(PptTopLevel ppt) {
+    throw new UnsupportedOperationException("A LazyPptMap cannot be modified");
+  }
+
+  @Override
+  public void addAll(List<PptTopLevel> ppts) {
+    throw new UnsupportedOperationException("A LazyPptMap cannot be modified");
+  }
+
+  /**
+   * Returns the program point with the given name, reading it and its ancestors if they have not
+   * been read. May evict other program points.
+   */
+  @Override
+  @SuppressWarnings("purity.invalid.overriding") // reads and evicts program points
+  public @Nullable PptTopLevel get(String name) {
+    if (all != null) {
+      return all.get(name);
+    }
+    PptTopLevel ppt;
+    try {
+      ppt = reader.get_with_ancestors(name);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    if (ppt != null && check_reads) {
+      ppt.repCheck();
+    }
+    Runtime runtime = Runtime.getRuntime();
+    long used = runtime.totalMemory() - runtime.freeMemory();
+    if (used > dkconfig_max_heap_fraction * runtime.maxMemory()) {
+      int evicted = reader.evict(reader.loaded_chunks() / 2);
+      debug.fine("Evicted " + evicted + " chunks after reading " + name);
+    }
+    return ppt;
+  }
+
+  @Pure
+  @Override
+  @SuppressWarnings("nullness") // postcondition: get() reads any ppt that the file contains
+  public boolean containsName(String name) {
+    return reader.contains(name);
+  }
+
+  @Override
+  public Collection<PptTopLevel> all_ppts() {
+    return all().all_ppts();
+  }
+
+  @Override
+  public Collection<PptTopLevel> asCollection() {
+    return all().asCollection();
+  }
+
+  @Override
+  @SuppressWarnings("keyfor") // the names are the keys of the map that all() returns
+  public Collection<@KeyFor("nameToPpt") String> nameStringSet() {
+    return Collections.unmodifiableList(names);
+  }
+
+  @Override
+  public List<String> sorted_names() {
+    return sort_names(names);
+  }
+
+  @Override
+  public Iterator<PptTopLevel> pptIterator() {
+    return all().pptIterator();
+  }
+
+  @Override
+  public Iterator<PptTopLevel> ppt_all_iterator() {
+    return all().ppt_all_iterator();
+  }
+
+  @Override
+  public void trimToSize() {
+    all().trimToSize();
+  }
+
+  /**
+   * Checks the rep invariant of the program points that have been read, and of those that are read
+   * later, when they are read.
+   */
+  @Override
+  public void repCheck() {
+    if (all != null) {
+      all.repCheck();
+      return;
+    }
+    check_reads = true;
+    for (String name : names) {
+      PptTopLevel ppt = reader.get_if_loaded(name);
+      if (ppt != null) {
+        ppt.repCheck();
+      }
+    }
+  }
+
+  @Pure
+  @Override
+  public int size() {
+    return names.size();
+  }
+
+  @SideEffectFree
+  @Override
+  public String toString() {
+    return "LazyPptMap: " + names.size() + " program points";
+  }
+
+  @Override
+  public void removeUnsampled() {
+    throw new UnsupportedOperationException("A LazyPptMap cannot be modified");
+  }
+}
@@ -0,0 +1,800 @@
+package daikon;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.LineNumberReader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import org.checkerframework.checker.interning.qual.Interned;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Reads an uncompressed data trace file that has been memory-mapped. See {@link
+ * FileIO#dkconfig_mapped_read}.
+ *
+ * <p>This is a {@link LineNumberReader}, so that declarations and other records are read as usual.
+ * In addition, it is a {@link TraceRecordSource} whose lines are not Strings: {@link #next_line}
+ * steps through the file a line at a time, the current line is the byte range from {@link
+ * #line_start} to {@link #line_end}, and variable names, modbits, and integer values are compared
+ * and parsed from such byte ranges directly.
+ *
+ * <p>The file is mapped in windows of {@link #window_size} bytes. When a line runs past the end of
+ * the window, the file is mapped again in a window that starts at the line, or at the sample record
+ * that contains it, so that every line of the record being read stays mapped.
+ *
+ * <p>The file is decoded as UTF-8, as {@code FilesPlume.newLineNumberFileReader} does. Lines end
+ * in "\n", "\r", or "\r\n". Line numbers are maintained exactly as by LineNumberReader.readLine.
+ */
+final class MappedTraceReader extends LineNumberReader implements TraceRecordSource {
+
+  /**
+   * The number of bytes mapped at a time. Not final, so that tests can map a small file in many
+   * windows.
+   */
+  static long window_size = 1L << 30;
+
+  /** The name of the file. */
+  private final String filename;
+
+  /** The file. */
+  private final FileChannel channel;
+
+  /** The size of the file. */
+  private long size;
+
+  /** The mapped window of the file. */
+  private ByteBuffer buf;
+
+  /** A view of {@link #buf} whose position is set for bulk reads. */
+  private ByteBuffer bulk;
+
+  /** The position in the file of the first byte of {@link #buf}. */
+  private long base = 0;
+
+  /** The position of the next line. */
+  private long pos = 0;
+
+  /** The number of lines read so far. */
+  private int line_number = 0;
+
+  /** The start of the line most recently read by {@link #next_line}. */
+  private long line_start = 0;
+
+  /** The end of the line most recently read by {@link #next_line}, excluding the terminator. */
+  private long line_end = 0;
+
+  /**
+   * The start of the values of the sample record being read, which must stay mapped, or -1 if no
+   * record is being read.
+   */
+  private long record_start = -1;
+
+  /** The start of the current value. */
+  private long value_start = 0;
+
+  /** The end of the current value. */
+  private long value_end = 0;
+
+  /** The previous values of the program point whose record is being read. */
+  private @Nullable PreviousValues prev = null;
+
+  /**
+   * The remainder of a line partly read by {@link #read(char[], int, int)}, including its
+   * terminator, or null if no line is partly read.
+   */
+  private @Nullable String pending = null;
+
+  /** The index in {@link #pending} of the next character to read. */
+  private int pending_pos = 0;
+
+  /** The value of {@link #pos} when {@link #mark} was called. */
+  private long mark_pos = 0;
+
+  /** The value of {@link #line_number} when {@link #mark} was called. */
+  private int mark_line_number = 0;
+
+  /** The value of {@link #pending} when {@link #mark} was called. */
+  private @Nullable String mark_pending = null;
+
+  /** The value of {@link #pending_pos} when {@link #mark} was called. */
+  private int mark_pending_pos = 0;
+
+  /** Scratch space for decoding byte ranges to Strings. */
+  private byte[] scratch = new byte[256];
+
+  /**
+   * The values of the previous sample of each program point in this file. Used to set modbits, and
+   * to avoid parsing a value that has not changed.
+   */
+  final Map<PptTopLevel, PreviousValues> previous_values = new HashMap<>();
+
+  /** The values of the most recent sample of one program point. */
+  static final class PreviousValues {
+    /** The text of each value, encoded as UTF-8, or null if no value has been read. */
+    final byte[] @Nullable [] text;
+
+    /** The length of each value's text, in its element of {@link #text}. */
+    final int[] length;
+
+    /**
+     * The parsed value of each variable, or {@link #NOT_PARSED} if the value has not been parsed
+     * since its text changed.
+     */
+    final @Nullable Object[] vals;
+
+    /**
+     * Creates a set of previous values.
+     *
+     * @param num_vals the number of values in a sample
+     * @param value_reps the text of the values of the previous sample, read from another file, or
+     *     null if there was none
+     */
+    PreviousValues(int num_vals, @Nullable String @Nullable [] value_reps) {
+      text = new byte[num_vals][];
+      length = new int[num_vals];
+      vals = new Object[num_vals];
+      for (int i = 0; i < num_vals; i++) {
+        vals[i] = NOT_PARSED;
+        String rep = (value_reps == null) ? null : value_reps[i];
+        if (rep != null) {
+          text[i] = rep.getBytes(UTF_8);
+          length[i] = text[i].length;
+        }
+      }
+    }
+
+    /**
+     * Returns the text of each value, or null for a value that has not been read.
+     *
+     * @return the text of each value
+     */
+    @Nullable String[] value_reps() {
+      @Nullable String[] result = new String[text.length];
+      for (int i = 0; i < text.length; i++) {
+        byte[] t = text[i];
+        if (t != null) {
+          result[i] = new String(t, 0, length[i], UTF_8);
+        }
+      }
+      return result;
+    }
+  }
+
+  /** Marks a value in {@link PreviousValues#vals} that was not parsed. */
+  static final Object NOT_PARSED = new Object();
+
+  /**
+   * Returns true if the given file can be memory-mapped: it is not compressed, and not empty.
+   *
+   * @param filename the name of a file
+   * @param length the size of the file
+   * @return true if the file can be read by a MappedTraceReader
+   */
+  static boolean can_map(String filename, long length) {
+    return !filename.endsWith(".gz") && length > 0;
+  }
+
+  /**
+   * Maps the first window of the given file.
+   *
+   * @param filename the name of an uncompressed file
+   * @throws IOException if the file cannot be mapped
+   */
+  MappedTraceReader(String filename) throws IOException {
+    super(new StringReader(""));
+    this.filename = filename;
+    Path path = Paths.get(filename);
+    channel = FileChannel.open(path, StandardOpenOption.READ);
+    try {
+      size = channel.size();
+      buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, window_size));
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+    bulk = buf.duplicate();
+  }
+
+  /**
+   * Returns the number of lines in the file, as counted by {@code FilesPlume.countLines}.
+   *
+   * @return the number of lines in the file
+   * @throws IOException if the file cannot be read
+   */
+  long count_lines() throws IOException {
+    long lines = 0;
+    ByteBuffer chunk = ByteBuffer.allocate(1 << 16);
+    byte prev_byte = 0;
+    for (long offset = 0; offset < size; ) {
+      chunk.clear();
+      int len = channel.read(chunk, offset);
+      if (len <= 0) {
+        break;
+      }
+      for (int i = 0; i < len; i++) {
+        byte b = chunk.get(i);
+        // "\r\n" is one line terminator.
+        if (b == '\r' || (b == '\n' && prev_byte != '\r')) {
+          lines++;
+        }
+        prev_byte = b;
+      }
+      offset += len;
+    }
+    if (size > 0 && prev_byte != '\n' && prev_byte != '\r') {
+      lines++;
+    }
+    return lines;
+  }
+
+  /**
+   * Maps a window of the file that starts at {@code from} and contains the byte at {@code p}. The
+   * window is {@link #window_size} bytes long, or longer if that is needed to reach {@code p}.
+   *
+   * @param from the position of the first byte to map
+   * @param p the position of a byte that must be mapped, at least from
+   */
+  private void map(long from, long p) {
+    long needed = p - from + 1;
+    if (needed > Integer.MAX_VALUE) {
+      throw new Daikon.UserError(
+          "A record of more than 2GB at line " + line_number + " cannot be memory-mapped",
+          this,
+          filename);
+    }
+    long length =
+        Math.min(size - from, Math.max(window_size, Math.min(2 * needed, Integer.MAX_VALUE)));
+    try {
+      buf = channel.map(FileChannel.MapMode.READ_ONLY, from, length);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    bulk = buf.duplicate();
+    base = from;
+  }
+
+  /**
+   * Returns the byte at the given position, which must be mapped.
+   *
+   * @param p a position in the current window
+   * @return the byte at p
+   */
+  private byte get(long p) {
+    return buf.get((int) (p - base));
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  /// Byte-range access
+  ///
+
+  /**
+   * Reads the next line, setting {@link #line_start} and {@link #line_end}. May be used only when
+   * no line has been partly read by {@link #read(char[], int, int)}.
+   *
+   * @return false if the end of the file has been reached
+   */
+  @Override
+  public boolean next_line() {
+    assert pending == null;
+    if (pos >= size) {
+      return false;
+    }
+    // The bytes from here on must be mapped until the line is read.
+    long from = (record_start != -1 && record_start <= pos) ? record_start : pos;
+    long i = pos;
+    byte b = 0;
+    scan:
+    while (i < size) {
+      if (i < base || i >= base + buf.limit()) {
+        map(from, i);
+      }
+      int index = (int) (i - base);
+      int limit = buf.limit();
+      for (; index < limit; index++) {
+        b = buf.get(index);
+        if (b == '\n' || b == '\r') {
+          i = base + index;
+          break scan;
+        }
+      }
+      i = base + limit;
+    }
+    line_start = pos;
+    line_end = i;
+    if (i < size) {
+      i++;
+      if (b == '\r' && i < size) {
+        if (i >= base + buf.limit()) {
+          map(from, i);
+        }
+        if (get(i) == '\n') {
+          i++;
+        }
+      }
+    }
+    pos = i;
+    line_number++;
+    return true;
+  }
+
+  /**
+   * Returns true if no line has been partly read by {@link #read(char[], int, int)}, so that {@link
+   * #next_line} may be used.
+   *
+   * @return true if {@link #next_line} may be used
+   */
+  boolean at_line_start() {
+    return pending == null;
+  }
+
+  /**
+   * Returns the start of the line most recently read by {@link #next_line}.
+   *
+   * @return the position of the first byte of the line
+   */
+  long line_start() {
+    return line_start;
+  }
+
+  /**
+   * Returns the end of the line most recently read by {@link #next_line}.
+   *
+   * @return the position just after the last byte of the line, excluding its terminator
+   */
+  long line_end() {
+    return line_end;
+  }
+
+  /**
+   * Returns the text of the given byte range.
+   *
+   * @param start the start of the range
+   * @param end the end of the range
+   * @return the text of the range, decoded as UTF-8
+   */
+  private String string(long start, long end) {
+    int len = (int) (end - start);
+    if (scratch.length < len) {
+      scratch = new byte[Math.max(len, 2 * scratch.length)];
+    }
+    bulk.position((int) (start - base));
+    bulk.get(scratch, 0, len);
+    return new String(scratch, 0, len, UTF_8);
+  }
+
+  /**
+   * Returns true if the text of the given byte range equals the given string.
+   *
+   * @param start the start of the range
+   * @param end the end of the range
+   * @param s a string
+   * @return true if the range, decoded as UTF-8, equals s
+   */
+  private boolean equals(long start, long end, @Nullable String s) {
+    if (s == null) {
+      return false;
+    }
+    int len = (int) (end - start);
+    int s_len = s.length();
+    // Compare ASCII text byte by byte; fall back to decoding otherwise.
+    for (int i = 0; i < len && i < s_len; i++) {
+      byte b = get(start + i);
+      char c = s.charAt(i);
+      if (b < 0 || c >= 0x80) {
+        return string(start, end).equals(s);
+      }
+      if (b != c) {
+        return false;
+      }
+    }
+    if (len == s_len) {
+      return true;
+    }
+    // One is a prefix of the other.  If the longer one continues with a non-ASCII character, the
+    // lengths in bytes and in chars differ, so decode.
+    if (len > s_len) {
+      return get(start + s_len) < 0 && string(start, end).equals(s);
+    } else {
+      return s.charAt(len) >= 0x80 && string(start, end).equals(s);
+    }
+  }
+
+  /**
+   * Returns true if the given byte range contains the given bytes.
+   *
+   * @param start the start of the range
+   * @param end the end of the range
+   * @param text an array that starts with the bytes
+   * @param length the number of bytes
+   * @return true if the range contains the first length bytes of text
+   */
+  private boolean equals(long start, long end, byte[] text, int length) {
+    if (end - start != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (get(start + i) != text[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns true if the given byte range needs neither trimming nor unescaping (see {@code
+   * FileIO.unescape_decl}) to be compared to a variable name: it is non-empty, does not begin or
+   * end with whitespace, and contains no backslash.
+   *
+   * @param start the start of the range
+   * @param end the end of the range
+   * @return true if the range can be compared to a variable name as is
+   */
+  private boolean is_plain_name(long start, long end) {
+    if (start == end || (get(start) & 0xff) <= ' ' || (get(end - 1) & 0xff) <= ' ') {
+      return false;
+    }
+    for (long i = start; i < end; i++) {
+      if (get(i) == '\\') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * The largest number of digits that {@link #parse_int} accepts, so that the value fits in 32
+   * bits and is treated identically however {@code ProglangType.dkconfig_convert_to_signed} is set.
+   */
+  private static final int MAX_DIGITS = 9;
+
+  /**
+   * Parses the integer in the given byte range, if it is written in the simplest way: an optional
+   * minus sign followed by at most {@link #MAX_DIGITS} decimal digits, or "null", "false", or
+   * "true" (which {@code ProglangType.parse_value} treats as 0, 0, and 1).
+   *
+   * @param start the start of the range
+   * @param end the end of the range
+   * @return the integer, or Long.MIN_VALUE if the range does not contain an integer written in the
+   *     simplest way
+   */
+  private long parse_int(long start, long end) {
+    if (end > start) {
+      byte first = get(start);
+      if (first == 'n' || first == 'f') {
+        return (equals(start, end, "null") || equals(start, end, "false")) ? 0 : Long.MIN_VALUE;
+      } else if (first == 't') {
+        return equals(start, end, "true") ? 1 : Long.MIN_VALUE;
+      }
+    }
+    boolean negative = (start < end && get(start) == '-');
+    long i = negative ? start + 1 : start;
+    long digits = end - i;
+    if (digits == 0 || digits > MAX_DIGITS) {
+      return Long.MIN_VALUE;
+    }
+    long value = 0;
+    for (; i < end; i++) {
+      int d = get(i) - '0';
+      if (d < 0 || d > 9) {
+        return Long.MIN_VALUE;
+      }
+      value = value * 10 + d;
+    }
+    return negative ? -value : value;
+  }
+
+  /**
+   * Parses the array of integers in the given byte range, if each element is written in the
+   * simplest way (see {@link #parse_int}): "[", elements separated by spaces or tabs, and "]",
+   * possibly surrounded by whitespace.
+   *
+   * @param start the start of the range
+   * @param end the end of the range
+   * @return the array, or null if the range does not contain an array of integers written in the
+   *     simplest way
+   */
+  private long @Nullable [] parse_int_array(long start, long end) {
+    while (start < end && (get(start) & 0xff) <= ' ') {
+      start++;
+    }
+    while (end > start && (get(end - 1) & 0xff) <= ' ') {
+      end--;
+    }
+    if (end - start < 2 || get(start) != '[' || get(end - 1) != ']') {
+      return null;
+    }
+    start++;
+    end--;
+    // Count the elements.
+    int count = 0;
+    boolean in_elt = false;
+    for (long i = start; i < end; i++) {
+      byte b = get(i);
+      if (b == ' ' || b == '\t') {
+        in_elt = false;
+      } else if (!in_elt) {
+        in_elt = true;
+        count++;
+      }
+    }
+    long[] result = new long[count];
+    int elt = 0;
+    long i = start;
+    while (elt < count) {
+      byte b = get(i);
+      if (b == ' ' || b == '\t') {
+        i++;
+        continue;
+      }
+      long elt_end = i;
+      while (elt_end < end && get(elt_end) != ' ' && get(elt_end) != '\t') {
+        elt_end++;
+      }
+      long value = parse_int(i, elt_end);
+      if (value == Long.MIN_VALUE) {
+        return null;
+      }
+      result[elt++] = value;
+      i = elt_end;
+    }
+    return result;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  /// TraceRecordSource methods
+  ///
+
+  @Override
+  public LineNumberReader reader() {
+    return this;
+  }
+
+  @Override
+  public void begin_record(PptTopLevel ppt) {
+    PreviousValues p = previous_values.get(ppt);
+    if (p == null) {
+      p = new PreviousValues(ppt.num_tracevars, FileIO.ppt_to_value_reps.get(ppt));
+      previous_values.put(ppt, p);
+    }
+    prev = p;
+    record_start = pos;
+  }
+
+  @Override
+  public void end_record(PptTopLevel ppt) {
+    prev = null;
+    record_start = -1;
+  }
+
+  @Override
+  public boolean line_is_empty() {
+    return line_start == line_end;
+  }
+
+  @Override
+  public String line() {
+    return string(line_start, line_end);
+  }
+
+  @Override
+  public boolean line_names(String name) {
+    if (is_plain_name(line_start, line_end)) {
+      return equals(line_start, line_end, name);
+    }
+    return FileIO.unescape_decl(line().trim()).equals(name);
+  }
+
+  @Override
+  public int modbit() {
+    if (line_end - line_start != 1) {
+      return -1;
+    }
+    byte b = get(line_start);
+    if (b < '0' || b > '2') {
+      return -1;
+    }
+    return b - '0';
+  }
+
+  @Override
+  public void mark_value() {
+    value_start = line_start;
+    value_end = line_end;
+  }
+
+  @Override
+  public String value() {
+    return string(value_start, value_end);
+  }
+
+  @Override
+  public boolean value_is(String s) {
+    return equals(value_start, value_end, s);
+  }
+
+  @Override
+  public boolean value_unchanged(int val_index) {
+    assert prev != null : "@AssumeAssertion(nullness): set by begin_record";
+    byte[] text = prev.text[val_index];
+    return text != null && equals(value_start, value_end, text, prev.length[val_index]);
+  }
+
+  @Override
+  public void save_value(int val_index, boolean unchanged) {
+    assert prev != null : "@AssumeAssertion(nullness): set by begin_record";
+    if (unchanged) {
+      return;
+    }
+    int len = (int) (value_end - value_start);
+    byte[] text = prev.text[val_index];
+    if (text == null || text.length < len) {
+      text = new byte[Math.max(len, 16)];
+      prev.text[val_index] = text;
+    }
+    bulk.position((int) (value_start - base));
+    bulk.get(text, 0, len);
+    prev.length[val_index] = len;
+    prev.vals[val_index] = NOT_PARSED;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Integers and arrays of integers are parsed directly from the file's bytes. A value whose
+   * text is the same as in the previous sample of the program point is not parsed again.
+   */
+  @Override
+  public @Nullable @Interned Object parse_value(VarInfo vi, int val_index, String filename) {
+    assert prev != null : "@AssumeAssertion(nullness): set by begin_record";
+    Object cached = prev.vals[val_index];
+    if (cached != NOT_PARSED) {
+      @SuppressWarnings("interning") // only parsed values, which are interned, are cached
+      @Interned Object result = cached;
+      return result;
+    }
+    @Interned Object result = null;
+    if (vi.rep_type == ProglangType.INT) {
+      long value = parse_int(value_start, value_end);
+      if (value != Long.MIN_VALUE) {
+        result = InternPool.internedLong(value);
+      }
+    } else if (vi.rep_type == ProglangType.INT_ARRAY) {
+      long[] value = parse_int_array(value_start, value_end);
+      if (value != null) {
+        result = InternPool.intern(value);
+      }
+    }
+    if (result == null) {
+      result = vi.rep_type.parse_value(value(), this, filename);
+    }
+    prev.vals[val_index] = result;
+    return result;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  /// Reader methods
+  ///
+
+  @Override
+  public @Nullable String readLine() {
+    String partial = pending;
+    if (partial != null) {
+      // The line was counted when it was begun.
+      pending = null;
+      int end = partial.length();
+      if (end > pending_pos && partial.charAt(end - 1) == '\n') {
+        end--;
+      }
+      if (end > pending_pos && partial.charAt(end - 1) == '\r') {
+        end--;
+      }
+      return partial.substring(Math.min(pending_pos, end), end);
+    }
+    if (!next_line()) {
+      return null;
+    }
+    return string(line_start, line_end);
+  }
+
+  @Override
+  public int read() {
+    char[] c = new char[1];
+    return (read(c, 0, 1) == -1) ? -1 : c[0];
+  }
+
+  @Override
+  public int read(char[] cbuf, int off, int len) {
+    if (len == 0) {
+      return 0;
+    }
+    String partial = pending;
+    if (partial == null) {
+      long start = pos;
+      if (!next_line()) {
+        return -1;
+      }
+      partial = string(start, pos);
+      pending = partial;
+      pending_pos = 0;
+    }
+    int n = Math.min(len, partial.length() - pending_pos);
+    partial.getChars(pending_pos, pending_pos + n, cbuf, off);
+    pending_pos += n;
+    if (pending_pos == partial.length()) {
+      pending = null;
+    }
+    return n;
+  }
+
+  @Override
+  public long skip(long n) {
+    char[] skipped = new char[(int) Math.min(n, 8192)];
+    long remaining = n;
+    while (remaining > 0) {
+      int r = read(skipped, 0, (int) Math.min(remaining, skipped.length));
+      if (r == -1) {
+        break;
+      }
+      remaining -= r;
+    }
+    return n - remaining;
+  }
+
+  @Override
+  public boolean ready() {
+    return pending != null || pos < size;
+  }
+
+  @Override
+  public boolean markSupported() {
+    return true;
+  }
+
+  @Override
+  public void mark(int readAheadLimit) {
+    mark_pos = pos;
+    mark_line_number = line_number;
+    mark_pending = pending;
+    mark_pending_pos = pending_pos;
+  }
+
+  @Override
+  public void reset() {
+    pos = mark_pos;
+    line_number = mark_line_number;
+    pending = mark_pending;
+    pending_pos = mark_pending_pos;
+  }
+
+  @Override
+  public int getLineNumber() {
+    return line_number;
+  }
+
+  @Override
+  public void setLineNumber(int lineNumber) {
+    line_number = lineNumber;
+  }
+
+  @Override
+  public void close() throws IOException {
+    // The mapping is released when the buffer is garbage-collected.
+    buf = ByteBuffer.allocate(0);
+    bulk = buf;
+    base = 0;
+    size = 0;
+    pos = 0;
+    pending = null;
+    prev = null;
+    previous_values.clear();
+    channel.close();
+  }
+}
@@ -12,10 +12,16 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.OptionalDataException;
 import java.io.StreamCorruptedException;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 import org.checkerframework.checker.nullness.qual.Nullable;
@@ -45,6 +51,21 @@ public final class MergeInvariants {
   /** The file in which to produce output; if null, the results are printed. */
   public static @Nullable File output_inv_file;
 
+  /** The command-line option that sets {@link #threads}. */
+  private static final String threads_SWITCH = "threads";
+
+  /**
+   * If greater than 1, the files are merged in pairs, this many pairs at a time, and the results
+   * are merged in pairs in turn, until one map remains. See {@link #tree_merge}.
+   */
+  public static int threads = 1;
+
+  /**
+   * Held while reading or writing a file in {@link #tree_merge}, because reading a file sets global
+   * state such as the configuration.
+   */
+  private static final Object io_lock = new Object();
+
   /** The usage message for this program. */
   private static String usage =
       StringsPlume.joinLines(
@@ -58,6 +79,9 @@ public final class MergeInvariants {
           "  --" + Daikon.track_SWITCH,
           "      Specify a class, varinfos, and ppt to debug track.  Format"
               + "is class<var1,var2,var3>@ppt",
+          "  --" + threads_SWITCH + " N",
+          "      Merge the files in pairs, on N threads, then merge the results in pairs,",
+          "      and so on, keeping intermediate results in temporary files",
           "   -o ",
           "      Specify an output inv file.  If not specified, the results are printed");
 
@@ -96,6 +120,7 @@ public final class MergeInvariants {
           new LongOpt(Daikon.debugAll_SWITCH, LongOpt.NO_ARGUMENT, null, 0),
           new LongOpt(Daikon.debug_SWITCH, LongOpt.REQUIRED_ARGUMENT, null, 0),
           new LongOpt(Daikon.track_SWITCH, LongOpt.REQUIRED_ARGUMENT, null, 0),
+          new LongOpt(threads_SWITCH, LongOpt.REQUIRED_ARGUMENT, null, 0),
         };
 
     Getopt g = new Getopt("daikon.MergeInvariants", args, "ho:", longopts);
@@ -126,6 +151,16 @@ public final class MergeInvariants {
               throw new Daikon.UserError(
                   "Error parsing track argument '" + Daikon.getOptarg(g) + "' - " + error);
             }
+          } else if (threads_SWITCH.equals(option_name)) {
+            String threads_string = Daikon.getOptarg(g);
+            try {
+              threads = Integer.parseInt(threads_string);
+            } catch (NumberFormatException e) {
+              throw new Daikon.UserError("Bad number of threads: " + threads_string);
+            }
+            if (threads < 1) {
+              throw new Daikon.UserError("Bad number of threads: " + threads_string);
+            }
           } else {
             throw new Daikon.UserError("Unknown long option received: " + option_name);
           }
@@ -203,11 +238,53 @@ public final class MergeInvariants {
     Daikon.setup_proto_invs();
     NIS.init_ni_suppression();
 
+    if (decl_file == null) {
+      if (splitter_files.size() > 0) {
+        throw new Daikon.UserError(".spinfo files may only be specified along with a .decls file");
+      }
+    } else {
+      Daikon.create_splitters(splitter_files);
+    }
+
+    PptMap merge_ppts;
+    if (threads > 1 && inv_files.size() > 2) {
+      merge_ppts = tree_merge(inv_files, decl_file);
+    } else {
+      merge_ppts = merge(inv_files, decl_file);
+    }
+
+    // Write serialized output
+    debugProgress.fine("Writing Output");
+    if (output_inv_file != null) {
+      try {
+        FileIO.write_serialized_pptmap(merge_ppts, output_inv_file);
+      } catch (IOException e) {
+        throw new RuntimeException(
+            "Error while writing .inv file '" + output_inv_file + "': " + e.toString());
+      }
+    } else {
+      // Print the invariants
+      PrintInvariants.print_invariants(merge_ppts);
+    }
+  }
+
+  /**
+   * Merges the invariants in the given files, using the normal hierarchy merging code.
+   *
+   * @param inv_files the invariant files to merge; at least two
+   * @param decl_file the declaration file that gives the program points of the result, or null to
+   *     use the program points of the invariant files
+   * @return the merged program points
+   * @throws IOException if there is trouble reading a file
+   */
+  @SuppressWarnings("nullness:contracts.precondition") // private field
+  static PptMap merge(List<File> inv_files, @Nullable File decl_file) throws IOException {
+
     // Read in each of the specified maps
     List<PptMap> pptmaps = new ArrayList<>();
     for (File file : inv_files) {
       debugProgress.fine("Processing " + file);
-      PptMap ppts = FileIO.read_serialized_pptmap(file, true);
+      PptMap ppts = read_pptmap(file);
       ppts.repCheck();
       pptmaps.add(ppts);
       Debug.check(ppts, "After initial reading of " + file);
@@ -218,18 +295,14 @@ public final class MergeInvariants {
 
     // if no decls file was specified
     if (decl_file == null) {
-      if (splitter_files.size() > 0) {
-        throw new Daikon.UserError(".spinfo files may only be specified along with a .decls file");
-      }
-
       // Read in each of the maps again to build a template that contains all
       // of the program points from each map.
       for (File file : inv_files) {
         debugProgress.fine("Reading " + file + " as merge template");
         if (merge_ppts == null) {
-          merge_ppts = FileIO.read_serialized_pptmap(file, true);
+          merge_ppts = read_pptmap(file);
         } else {
-          PptMap pmap = FileIO.read_serialized_pptmap(file, true);
+          PptMap pmap = read_pptmap(file);
           for (PptTopLevel ppt : pmap.pptIterable()) {
             if (merge_ppts.containsName(ppt.name())) {
               // System.out.printf("Not adding ppt %s from %s%n", ppt, file);
@@ -263,10 +336,11 @@ public final class MergeInvariants {
 
       // Build the result pptmap from the specific decls file
       debugProgress.fine("Building result ppt map from decls file");
-      Daikon.create_splitters(splitter_files);
       List<File> decl_files = new ArrayList<>();
       decl_files.add(decl_file);
-      merge_ppts = FileIO.read_declaration_files(decl_files);
+      synchronized (io_lock) {
+        merge_ppts = FileIO.read_declaration_files(decl_files);
+      }
       merge_ppts.trimToSize();
       PptRelation.init_hierarchy(merge_ppts);
     }
@@ -391,8 +465,10 @@ public final class MergeInvariants {
     long duration = System.nanoTime() - startTime;
     debugProgress.fine("Time spent in implications: " + TimeUnit.NANOSECONDS.toSeconds(duration));
 
-    // Remove the PptRelation links so that when the file is written
-    // out it only includes the new information
+    // Remove the PptRelation links to the input maps so that when the
+    // file is written out it only includes the new information.  Keep the
+    // links from an exit point to its conditional points, as Daikon writes
+    // them, so that the result can itself be merged.
     for (PptTopLevel ppt : merge_ppts.pptIterable()) {
       if (!ppt.ppt_name.isExitPoint()) {
         continue;
@@ -400,24 +476,115 @@ public final class MergeInvariants {
       if (ppt.ppt_name.isCombinedExitPoint()) {
         continue;
       }
-      ppt.children.clear();
+      ppt.children.removeIf(MergeInvariants::is_merge_child);
       for (PptConditional cond : ppt.cond_iterable()) {
-        cond.children.clear();
+        cond.children.removeIf(MergeInvariants::is_merge_child);
       }
     }
 
-    // Write serialized output
-    debugProgress.fine("Writing Output");
-    if (output_inv_file != null) {
-      try {
-        FileIO.write_serialized_pptmap(merge_ppts, output_inv_file);
-      } catch (IOException e) {
-        throw new RuntimeException(
-            "Error while writing .inv file '" + output_inv_file + "': " + e.toString());
+    return merge_ppts;
+  }
+
+  /**
+   * Returns true if the relation links a program point of the merged map to the same program point
+   * in one of the maps being merged.
+   *
+   * @param rel a relation
+   * @return true if rel was created by {@link PptRelation#newMergeChildRel}
+   */
+  private static boolean is_merge_child(PptRelation rel) {
+    return rel.getRelationType() == PptRelation.PptRelationType.MERGE_CHILD;
+  }
+
+  /**
+   * Reads an invariant file, applying the configuration saved in it.
+   *
+   * @param file an invariant file
+   * @return the program points in the file
+   * @throws IOException if there is trouble reading the file
+   */
+  private static PptMap read_pptmap(File file) throws IOException {
+    synchronized (io_lock) {
+      return FileIO.read_serialized_pptmap(file, true);
+    }
+  }
+
+  /**
+   * Merges the invariants in the given files by tree reduction: merges the files in pairs,
+   * concurrently on {@link #threads} threads, writing each result to a temporary file; then merges
+   * those results in pairs; and so on, until two files remain, which are merged into the returned
+   * map. At most {@link #threads} merges, each of which holds the program points of two files (and
+   * a template built from them), are in memory at once, rather than the program points of every
+   * file.
+   *
+   * @param inv_files the invariant files to merge; more than two
+   * @param decl_file the declaration file that gives the program points of the result, or null to
+   *     use the program points of the invariant files
+   * @return the merged program points
+   * @throws IOException if there is trouble reading or writing a file
+   */
+  private static PptMap tree_merge(List<File> inv_files, @Nullable File decl_file)
+      throws IOException {
+    File temp_dir = Files.createTempDirectory("daikon-merge").toFile();
+    Set<File> temp_files = new HashSet<>();
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try {
+      List<File> level = inv_files;
+      for (int round = 1; level.size() > 2; round++) {
+        debugProgress.fine("Merging " + level.size() + " files in pairs, round " + round);
+        List<Future<File>> merged = new ArrayList<>();
+        for (int i = 0; i + 1 < level.size(); i += 2) {
+          List<File> pair = level.subList(i, i + 2);
+          File out = new File(temp_dir, "merge-" + round + "-" + (i / 2) + ".inv.gz");
+          merged.add(
+              pool.submit(
+                  () -> {
+                    PptMap ppts = merge(pair, decl_file);
+                    synchronized (io_lock) {
+                      FileIO.write_serialized_pptmap(ppts, out);
+                    }
+                    return out;
+                  }));
+        }
+        List<File> next_level = new ArrayList<>();
+        for (Future<File> future : merged) {
+          File out;
+          try {
+            out = future.get();
+          } catch (InterruptedException e) {
+            throw new Daikon.UserError(e, "Interrupted while merging invariants");
+          } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+              throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+              throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+              throw (Error) cause;
+            }
+            throw new Error("Error while merging invariants", cause);
+          }
+          temp_files.add(out);
+          next_level.add(out);
+        }
+        if (level.size() % 2 == 1) {
+          next_level.add(level.get(level.size() - 1));
+        }
+        // The files of this level are no longer needed.
+        for (File file : level) {
+          if (temp_files.remove(file)) {
+            file.delete();
+          }
+        }
+        level = next_level;
       }
-    } else {
-      // Print the invariants
-      PrintInvariants.print_invariants(merge_ppts);
+      return merge(level, decl_file);
+    } finally {
+      pool.shutdownNow();
+      for (File file : temp_files) {
+        file.delete();
+      }
+      temp_dir.delete();
     }
   }
 
@@ -0,0 +1,258 @@
+package daikon;
+
+import daikon.FileIO.ParseState;
+import daikon.suppress.NIS;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Applies the samples of one dtrace file to their program points on several worker threads. See
+ * {@link FileIO#dkconfig_inference_threads}.
+ *
+ * <p>Each program point is pinned to one worker, which applies that point's samples in file order,
+ * so the invariants of every program point evolve exactly as they do when samples are processed
+ * serially. Different program points proceed concurrently. Samples are assigned to workers by the
+ * thread that reads the file, after it has computed the orig variables (which depend on ENTER/EXIT
+ * matching and so must be done in file order); the worker computes the derived variables.
+ *
+ * <p>When the dataflow hierarchy is not used, a numbered exit also adds its samples to the combined
+ * exit (see {@link PptTopLevel#add_bottom_up}), so all exits of a procedure share a worker.
+ *
+ * <p>Records other than samples may change the program points; before one of those is processed,
+ * and at the end of the file, the reader waits (via {@link #await_idle}) until the workers have
+ * applied every sample handed to them.
+ */
+final class ParallelInference implements AutoCloseable {
+
+  /** Number of samples that may be queued for one worker before the reader blocks. */
+  private static final int QUEUE_SIZE = 256;
+
+  /** One sample to be applied by a worker. */
+  private static final class Task {
+    /** The program point. Null only for {@link #SHUTDOWN}. */
+    final @Nullable PptTopLevel ppt;
+
+    /** The sample, including orig variables. */
+    final @Nullable ValueTuple vt;
+
+    /** The number of samples that {@link #vt} represents. */
+    final int count;
+
+    /** The line number of the sample, for error messages. */
+    final int linenum;
+
+    /** Position of the sample among those handed to this pool. */
+    final long seq;
+
+    Task(@Nullable PptTopLevel ppt, @Nullable ValueTuple vt, int count, int linenum, long seq) {
+      this.ppt = ppt;
+      this.vt = vt;
+      this.count = count;
+      this.linenum = linenum;
+      this.seq = seq;
+    }
+  }
+
+  /** Tells a worker to exit. */
+  private static final Task SHUTDOWN = new Task(null, null, 0, 0, -1);
+
+  /** The parse state of the file whose samples are processed. */
+  private final ParseState state;
+
+  /** The worker threads. */
+  private final Thread[] workers;
+
+  /** The queue of each worker. */
+  private final BlockingQueue<Task>[] queues;
+
+  /** Maps each program point (or combined exit) seen so far to the index of its worker. */
+  private final Map<PptTopLevel, Integer> worker_of = new HashMap<>();
+
+  /** Number of samples handed to the workers. */
+  private long dispatched = 0;
+
+  /** Number of samples handed to the workers that they have not finished applying. */
+  private int pending = 0;
+
+  /** The first failure of any worker, as an exception to be thrown by the reader. */
+  private @Nullable RuntimeException failure = null;
+
+  /** Position of the last sample applied so far. */
+  private long last_seq = -1;
+
+  /** The value of {@link NIS#antecedent_method} after the sample at {@link #last_seq}. */
+  private boolean last_antecedent_method;
+
+  /**
+   * Creates a pool of worker threads for the given file.
+   *
+   * @param state the parse state of the dtrace file being read
+   * @param num_threads the number of worker threads
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"}) // generic array creation
+  ParallelInference(ParseState state, int num_threads) {
+    this.state = state;
+    this.workers = new Thread[num_threads];
+    this.queues = new BlockingQueue[num_threads];
+    this.last_antecedent_method = NIS.antecedent_method.get();
+    for (int i = 0; i < num_threads; i++) {
+      BlockingQueue<Task> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+      queues[i] = queue;
+      Thread worker = new Thread(() -> run_worker(queue), "inference worker " + i);
+      worker.setDaemon(true);
+      workers[i] = worker;
+      worker.start();
+    }
+  }
+
+  /**
+   * Hands a sample to the worker of its program point. Blocks if that worker is far behind.
+   *
+   * @param ppt the program point of the sample
+   * @param vt the sample, including orig variables
+   * @param count the number of samples that vt represents
+   */
+  void add_sample(PptTopLevel ppt, ValueTuple vt, int count) {
+    check_failure();
+    PptTopLevel key = FileIO.sample_group(ppt);
+    Integer index = worker_of.get(key);
+    if (index == null) {
+      // Assign program points to workers round-robin, in order of first appearance.
+      index = worker_of.size() % workers.length;
+      worker_of.put(key, index);
+    }
+    synchronized (this) {
+      pending++;
+    }
+    try {
+      queues[index].put(new Task(ppt, vt, count, state.get_linenum(), dispatched++));
+    } catch (InterruptedException e) {
+      throw new Daikon.UserError(e, "Interrupted while processing " + state.filename);
+    }
+  }
+
+  /** Body of a worker thread: applies samples until told to exit. */
+  private void run_worker(BlockingQueue<Task> queue) {
+    while (true) {
+      Task task;
+      try {
+        task = queue.take();
+      } catch (InterruptedException e) {
+        return;
+      }
+      if (task == SHUTDOWN) {
+        return;
+      }
+      PptTopLevel ppt = task.ppt;
+      ValueTuple vt = task.vt;
+      assert ppt != null && vt != null : "@AssumeAssertion(nullness): only SHUTDOWN has nulls";
+      try {
+        if (!has_failed()) {
+          FileIO.apply_sample(ppt, vt, task.count);
+        }
+      } catch (Throwable e) {
+        worker_failed(task, e);
+      }
+      synchronized (this) {
+        if (task.seq > last_seq) {
+          last_seq = task.seq;
+          last_antecedent_method = NIS.antecedent_method.get();
+        }
+        pending--;
+        if (pending == 0) {
+          notifyAll();
+        }
+      }
+    }
+  }
+
+  /** Returns true if a worker has failed. */
+  private synchronized boolean has_failed() {
+    return failure != null;
+  }
+
+  /**
+   * Records that a worker threw an exception while applying a sample. Errors are reported, as for
+   * serial processing, with the file and line of the sample (or ignored, if {@link
+   * FileIO#dkconfig_continue_after_file_exception} is set).
+   */
+  private void worker_failed(Task task, Throwable e) {
+    if (e instanceof Error && FileIO.dkconfig_continue_after_file_exception) {
+      synchronized (System.out) {
+        System.out.println();
+        System.out.println(
+            "WARNING: Error while processing trace file; subsequent records ignored.");
+        System.out.print("Ignored backtrace:");
+        e.printStackTrace(System.out);
+        System.out.println();
+      }
+      return;
+    }
+    RuntimeException rethrow;
+    if (e instanceof RuntimeException) {
+      rethrow = (RuntimeException) e;
+    } else {
+      rethrow =
+          new Daikon.UserError(
+              e, Daikon.UserError.error_at_line_file(task.linenum, state.filename, e));
+    }
+    synchronized (this) {
+      if (failure == null) {
+        failure = rethrow;
+      }
+    }
+  }
+
+  /** Rethrows, on the calling thread, the first exception thrown by any worker. */
+  private synchronized void check_failure() {
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  /** Blocks until the workers have applied every sample handed to them so far. */
+  synchronized void await_idle() {
+    while (pending > 0) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+
+  /**
+   * Waits for the workers to apply every sample, then rethrows any exception that a worker threw.
+   * Also gives the calling thread the suppression-processing state that it would have had if it had
+   * applied the samples itself.
+   */
+  void finish() {
+    await_idle();
+    check_failure();
+    synchronized (this) {
+      NIS.antecedent_method.set(last_antecedent_method);
+    }
+  }
+
+  /** Stops the worker threads and waits for them to exit. */
+  @Override
+  public void close() {
+    for (int i = 0; i < workers.length; i++) {
+      if (!queues[i].offer(SHUTDOWN)) {
+        workers[i].interrupt();
+      }
+    }
+    for (Thread worker : workers) {
+      try {
+        worker.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+}
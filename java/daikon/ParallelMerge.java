@@ -0,0 +1,203 @@
+package daikon;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Merges invariants up the program point hierarchy on several threads. See {@link
+ * Daikon#dkconfig_merge_threads}.
+ *
+ * <p>{@link PptTopLevel#mergeInvs} merges the children of a program point, recursively, before the
+ * program point itself. Merging a program point reads its children, and also changes them for a
+ * while: it adds the invariants that are NI-suppressed in each child, and removes them when it is
+ * done. So two program points may be merged concurrently only if neither is a child of the other
+ * and they have no child in common.
+ *
+ * <p>This class first computes the order in which {@link Daikon#createUpperPpts} would merge the
+ * program points serially. A program point is then merged (by calling {@link
+ * PptTopLevel#mergeInvs}, which finds that its children are already merged) once every program
+ * point that precedes it in that order and that it conflicts with has been merged. Conflicting
+ * program points are therefore merged in the same order as serially, and the results are the same.
+ * Each program point's {@code in_merge} and {@code invariants_merged} fields are written only by
+ * the thread that merges it, before any program point that reads them is scheduled.
+ *
+ * <p>Merging also uses state that is shared by all program points:
+ *
+ * <ul>
+ *   <li>{@link daikon.suppress.NIS}: the suppression tables ({@code all_suppressions} and {@code
+ *       suppressor_map}) are built before any sample is read and only read afterward, and the
+ *       suppressors keep no state between checks, so checking whether an invariant is suppressed
+ *       in a child has no effect on other threads. The statistics of NIS are updated only while
+ *       samples are processed. {@code NIS.antecedent_method} is per thread; the merging threads
+ *       are started by the thread that calls {@link #merge}, and inherit its value.
+ *   <li>{@link DynamicConstants}: each merged program point creates its own, which it fills from
+ *       its children's, and those are only read.
+ *   <li>{@link InternPool}: interning (of variable names, for example) locks the table that it
+ *       uses.
+ * </ul>
+ */
+final class ParallelMerge {
+
+  /** This class is a collection of methods; it does not represent anything. */
+  private ParallelMerge() {
+    throw new Error("do not instantiate");
+  }
+
+  /**
+   * Merges the invariants of every program point in the map that has children, as {@link
+   * Daikon#createUpperPpts} does, on the given number of threads. Does nothing and returns false if
+   * the merge must be done serially: if merging removes the children's invariants ({@link
+   * PptTopLevel#dkconfig_remove_merged_invs}), or if the hierarchy has a cycle.
+   *
+   * @param all_ppts the program points
+   * @param num_threads the number of threads
+   * @return true if the invariants were merged, false if the caller must merge them serially
+   */
+  static boolean merge(PptMap all_ppts, int num_threads) {
+    if (PptTopLevel.dkconfig_remove_merged_invs) {
+      return false;
+    }
+
+    // The program points in the order in which they would be merged serially.
+    List<PptTopLevel> order = new ArrayList<>();
+    Set<PptTopLevel> in_progress = new HashSet<>();
+    Set<PptTopLevel> merged = new HashSet<>();
+    for (PptTopLevel ppt : all_ppts.pptIterable()) {
+      if (ppt.parents.size() == 0) {
+        serial_order(ppt, in_progress, merged, order);
+      }
+    }
+    Map<PptTopLevel, Integer> index = new HashMap<>();
+    for (int i = 0; i < order.size(); i++) {
+      index.put(order.get(i), i);
+    }
+
+    // For each program point, the later program points that must wait for it, and the number of
+    // earlier program points that it must wait for.
+    List<List<Integer>> successors = new ArrayList<>(order.size());
+    int[] pending = new int[order.size()];
+    for (int i = 0; i < order.size(); i++) {
+      successors.add(new ArrayList<>());
+    }
+    for (int i = 0; i < order.size(); i++) {
+      PptTopLevel ppt = order.get(i);
+      Set<PptTopLevel> conflicts = new LinkedHashSet<>();
+      for (PptRelation rel : ppt.children) {
+        Integer child = index.get(rel.child);
+        if (child != null && child > i) {
+          // A cycle: serially, this is merged while the child is only partly merged.
+          return false;
+        }
+        conflicts.add(rel.child);
+        for (PptRelation sibling : rel.child.parents) {
+          conflicts.add(sibling.parent);
+        }
+      }
+      for (PptTopLevel other : conflicts) {
+        Integer j = index.get(other);
+        if (j != null && j < i) {
+          successors.get(j).add(i);
+          pending[i]++;
+        }
+      }
+    }
+
+    AtomicInteger thread_count = new AtomicInteger();
+    ExecutorService pool =
+        Executors.newFixedThreadPool(
+            num_threads,
+            r -> {
+              Thread worker = new Thread(r, "merge worker " + thread_count.getAndIncrement());
+              worker.setDaemon(true);
+              return worker;
+            });
+    try {
+      CompletionService<Integer> done = new ExecutorCompletionService<>(pool);
+      for (int i = 0; i < order.size(); i++) {
+        if (pending[i] == 0) {
+          submit(done, order, i);
+        }
+      }
+      for (int finished = 0; finished < order.size(); finished++) {
+        int i;
+        try {
+          i = done.take().get();
+        } catch (InterruptedException e) {
+          throw new Daikon.UserError(e, "Interrupted while merging invariants");
+        } catch (ExecutionException e) {
+          Throwable cause = e.getCause();
+          if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+          } else if (cause instanceof Error) {
+            throw (Error) cause;
+          }
+          throw new Error("Error while merging invariants", cause);
+        }
+        for (int successor : successors.get(i)) {
+          pending[successor]--;
+          if (pending[successor] == 0) {
+            submit(done, order, successor);
+          }
+        }
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+    return true;
+  }
+
+  /**
+   * Submits the merge of a program point whose children have been merged.
+   *
+   * @param done the pool
+   * @param order the program points
+   * @param i the index in order of the program point to merge
+   */
+  private static void submit(CompletionService<Integer> done, List<PptTopLevel> order, int i) {
+    PptTopLevel ppt = order.get(i);
+    done.submit(
+        () -> {
+          ppt.mergeInvs();
+          return i;
+        });
+  }
+
+  /**
+   * Appends to order the program points that {@link PptTopLevel#mergeInvs} merges when it is called
+   * on ppt, in the order in which it merges them, without merging them.
+   *
+   * @param ppt the program point at which the merge starts
+   * @param in_progress the program points whose merge has started but not finished
+   * @param merged the program points already appended to order
+   * @param order the program points in the order in which they are merged
+   */
+  private static void serial_order(
+      PptTopLevel ppt,
+      Set<PptTopLevel> in_progress,
+      Set<PptTopLevel> merged,
+      List<PptTopLevel> order) {
+    if (ppt.children.size() == 0 || ppt.invariants_merged || merged.contains(ppt)) {
+      return;
+    }
+    in_progress.add(ppt);
+    for (PptRelation rel : ppt.children) {
+      if (!rel.child.in_merge && !in_progress.contains(rel.child)) {
+        serial_order(rel.child, in_progress, merged, order);
+      }
+    }
+    in_progress.remove(ppt);
+    merged.add(ppt);
+    order.add(ppt);
+  }
+}
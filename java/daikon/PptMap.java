@@ -1,8 +1,11 @@
 package daikon;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -32,10 +35,21 @@ public class PptMap implements Serializable {
   @SuppressWarnings("serial")
   private final Map<String, PptTopLevel> nameToPpt = new LinkedHashMap<>();
 
+  /**
+   * Adds a program point to the map, replacing any program point of the same name. A {@link
+   * LazyPptMap} cannot be modified, and throws UnsupportedOperationException.
+   *
+   * @param ppt the program point to add
+   */
   public void add(PptTopLevel ppt) {
     nameToPpt.put(ppt.name(), ppt);
   }
 
+  /**
+   * Adds program points to the map, as {@link #add} does.
+   *
+   * @param ppts the program points to add
+   */
   public void addAll(List<PptTopLevel> ppts) {
     for (PptTopLevel ppt : ppts) {
       add(ppt);
@@ -96,6 +110,34 @@ public class PptMap implements Serializable {
     return Collections.unmodifiableSet(nameToPpt.keySet());
   }
 
+  /**
+   * Returns the names of the PptTopLevels in this, in the order of {@link #pptIterator()}. Unlike
+   * iterating over the PptTopLevels, this does not read the program points of a {@link
+   * LazyPptMap}.
+   *
+   * @return the names of the PptTopLevels in this, sorted as by Ppt.NameComparator
+   */
+  public List<String> sorted_names() {
+    return sort_names(nameToPpt.keySet());
+  }
+
+  /**
+   * Returns the given program point names, sorted as Ppt.NameComparator sorts the program points.
+   *
+   * @param names program point names
+   * @return a sorted list of the names
+   */
+  @SuppressWarnings("nullness") // every name is a key of keys
+  static List<String> sort_names(Collection<String> names) {
+    Map<String, String> keys = new HashMap<>();
+    for (String name : names) {
+      keys.put(name, Ppt.NameComparator.swap(name, '.', ':'));
+    }
+    List<String> result = new ArrayList<>(names);
+    result.sort(Comparator.comparing(keys::get));
+    return result;
+  }
+
   /**
    * Returns an iterator over the PptTopLevels in this, sorted by Ppt.NameComparator on their names.
    * The sorting makes the iterator deterministic.
@@ -250,7 +292,10 @@ public class PptMap implements Serializable {
     return "PptMap: " + nameToPpt.toString();
   }
 
-  /** Blow away any PptTopLevels that never saw any samples (to reclaim space). */
+  /**
+   * Blow away any PptTopLevels that never saw any samples (to reclaim space). A {@link LazyPptMap}
+   * cannot be modified, and throws UnsupportedOperationException.
+   */
   public void removeUnsampled() {
     Iterator<PptTopLevel> iter = nameToPpt.values().iterator();
     while (iter.hasNext()) {
@@ -106,6 +106,16 @@ public class PptRelation implements Serializable {
    * the child.
    */
   private PptRelation(PptTopLevel parent, PptTopLevel child, PptRelationType rel_type) {
+    this(parent, child, rel_type, true);
+  }
+
+  /**
+   * Create a relation between the specified parent and child. The actual variable relations are
+   * filled in by the caller. If connect is true, the constructed PptRelation is stored in both the
+   * parent and the child.
+   */
+  private PptRelation(
+      PptTopLevel parent, PptTopLevel child, PptRelationType rel_type, boolean connect) {
 
     this.parent = parent;
     this.child = child;
@@ -114,7 +124,19 @@ public class PptRelation implements Serializable {
     // rel_type is one of the above relationship types because this is a
     // private constructor, called only within this file.
     relationship = rel_type;
-    connect();
+    if (connect) {
+      connect();
+    }
+  }
+
+  /**
+   * Returns a relation of the given type between parent and child, with empty variable maps, that
+   * is not in the parent's children list or the child's parent list. The caller fills in the maps
+   * and the lists. Used when reading invariant files; see {@link BinaryInv}.
+   */
+  static PptRelation newUnconnectedRel(
+      PptTopLevel parent, PptTopLevel child, PptRelationType rel_type) {
+    return new PptRelation(parent, child, rel_type, false);
   }
 
   /** Adds this relation to its child's parent list and its parent's children list. */
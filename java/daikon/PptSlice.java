@@ -2,6 +2,8 @@ package daikon;
 
 import daikon.inv.DiscardInfo;
 import daikon.inv.Invariant;
+import daikon.inv.InvariantStatus;
+import daikon.inv.SampleEnvelope;
 import daikon.suppress.NIS;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -48,6 +50,15 @@ public abstract class PptSlice extends Ppt {
 
   public static final Logger debugGuarding = Logger.getLogger("daikon.guard");
 
+  /**
+   * Integer. After this many consecutive samples that change none of the invariants of a unary or
+   * binary slice over integral scalars, the slice builds a {@link SampleEnvelope} from the state of
+   * its invariants. Later samples in the envelope are presented only to the invariants that must
+   * see every sample, such as those that count samples; the results are the same as if every
+   * invariant saw them. If 0, every sample is presented to every invariant.
+   */
+  public static int dkconfig_stable_samples = 10;
+
   // A better name would perhaps be "container", as this has nothing to do
   // with the program point hierarchy.
   /** This is a slice of the 'parent' ppt. */
@@ -63,6 +74,18 @@ public abstract class PptSlice extends Ppt {
   @SuppressWarnings("serial")
   public List<Invariant> invs;
 
+  /** The number of consecutive samples that changed none of the invariants in this slice. */
+  transient int stable_samples = 0;
+
+  /** The envelope of this slice, once it is stable; see {@link #dkconfig_stable_samples}. */
+  transient @Nullable SampleEnvelope envelope = null;
+
+  /**
+   * The position of this slice among the views of its parent: slices added to the views later have
+   * greater positions. 0 if not yet known. See {@link PptTopLevel#remove_falsified_invariants}.
+   */
+  transient int view_order = 0;
+
   PptSlice(PptTopLevel parent, VarInfo[] var_infos) {
     super(var_infos);
     this.parent = parent;
@@ -175,6 +198,87 @@ public abstract class PptSlice extends Ppt {
    */
   abstract List<Invariant> add(ValueTuple full_vt, int count);
 
+  /**
+   * Returns the index just past the run of invariants in {@link #invs} that starts at start and
+   * whose elements all have the same class. The invariants of a slice are instantiated in the order
+   * of {@link Daikon#proto_invs}, so invariants of the same class are adjacent, and {@link #add}
+   * decides once per run how to present the sample to them.
+   *
+   * @param start the index of the first invariant of the run
+   * @return the index of the first invariant after the run
+   */
+  final int class_run_end(int start) {
+    Class<?> run_class = invs.get(start).getClass();
+    int end = start + 1;
+    while (end < invs.size() && invs.get(end).getClass() == run_class) {
+      end++;
+    }
+    return end;
+  }
+
+  /**
+   * Returns the envelope of this slice, or null if it has none or if invariants are being logged.
+   * Discards the envelope if the invariants of the slice have changed since it was built.
+   *
+   * @return the envelope of this slice, or null
+   */
+  final @Nullable SampleEnvelope valid_envelope() {
+    SampleEnvelope env = envelope;
+    if (env == null || Invariant.logOn()) {
+      return null;
+    }
+    if (!env.is_for(invs)) {
+      envelope = null;
+      stable_samples = 0;
+      return null;
+    }
+    return env;
+  }
+
+  /**
+   * Records whether a sample changed any of the invariants in this slice. Discards the envelope if
+   * it did, and builds one if the slice has just become stable.
+   *
+   * @param weakened the invariants that the sample falsified or weakened
+   */
+  final void note_stability(List<Invariant> weakened) {
+    if (!weakened.isEmpty()) {
+      stable_samples = 0;
+      envelope = null;
+    } else if (stable_samples < dkconfig_stable_samples
+        && ++stable_samples == dkconfig_stable_samples) {
+      envelope = build_envelope();
+    }
+  }
+
+  /**
+   * Returns an envelope built from the current state of the invariants in this slice, or null if
+   * none of them can describe the samples it accepts without changing. This implementation
+   * returns null.
+   *
+   * @return an envelope for this slice, or null
+   */
+  @Nullable SampleEnvelope build_envelope() {
+    return null;
+  }
+
+  /**
+   * Records the effect of a sample on an invariant: falsifies it if the sample falsified it, and
+   * adds it to weakened if the sample falsified or weakened it.
+   *
+   * @param inv the invariant to which the sample was presented
+   * @param status the result of presenting the sample
+   * @param weakened the invariants that were falsified or weakened by the sample
+   */
+  static void record_status(Invariant inv, InvariantStatus status, List<Invariant> weakened) {
+    if (status == InvariantStatus.FALSIFIED) {
+      inv.falsify();
+      weakened.add(inv);
+    } else if (status == InvariantStatus.WEAKENED) {
+      weakened.add(inv);
+    }
+  }
+
   /** Removes any falsified invariants from our list. */
   @RequiresNonNull("daikon.suppress.NIS.suppressor_map")
   protected void remove_falsified() {
@@ -6,6 +6,7 @@ import daikon.inv.Equality;
 import daikon.inv.Invariant;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -18,6 +19,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.checkerframework.checker.initialization.qual.UnknownInitialization;
 import org.checkerframework.checker.lock.qual.GuardSatisfied;
+import org.checkerframework.checker.nullness.qual.EnsuresNonNull;
 import org.checkerframework.checker.nullness.qual.EnsuresNonNullIf;
 import org.checkerframework.checker.nullness.qual.KeyFor;
 import org.checkerframework.checker.nullness.qual.Nullable;
@@ -235,15 +237,164 @@ public class PptSliceEquality extends PptSlice {
     invs.addAll(newInvs);
   }
 
+  // The equality sets as a partition of the variables, by varinfo_index, which add refines.  Built
+  // from invs before the first sample, and again whenever invs has changed since.
+
+  /** The leader of each equality set, in the order of {@link #invs}. */
+  private transient VarInfo @Nullable [] leaders = null;
+
+  /** The members of each equality set, other than its leader, in the order of {@link #invs}. */
+  private transient BitSet @Nullable [] members = null;
+
+  /** The members of all of the equality sets, other than their leaders. */
+  private transient @Nullable BitSet followers = null;
+
+  /** For each variable, the index in {@link #invs} of its equality set, or -1. */
+  private transient int @Nullable [] set_of = null;
+
+  /** For each equality set, the value of its leader in the current sample (null if missing). */
+  private transient @Nullable Object @Nullable [] leader_values = null;
+
+  /** For each equality set, the modbit of its leader in the current sample. */
+  private transient int @Nullable [] leader_mods = null;
+
+  /**
+   * For each equality set, whether every other member falls out of it on the current sample,
+   * because the leader is out of bounds or NaN.
+   */
+  private transient boolean @Nullable [] leader_alone = null;
+
+  /** The variables that fall out of their equality sets on the current sample. */
+  private transient @Nullable BitSet split = null;
+
+  /** Builds the partition of the variables from {@link #invs}, unless it is up to date. */
+  @EnsuresNonNull({
+    "leaders",
+    "members",
+    "followers",
+    "set_of",
+    "leader_values",
+    "leader_mods",
+    "leader_alone",
+    "split"
+  })
+  private void partition() {
+    if (leaders != null
+        && members != null
+        && followers != null
+        && set_of != null
+        && leader_values != null
+        && leader_mods != null
+        && leader_alone != null
+        && split != null
+        && leaders.length == invs.size()) {
+      boolean current = true;
+      for (int k = 0; k < leaders.length; k++) {
+        Equality eq = (Equality) invs.get(k);
+        if (eq.leader() != leaders[k] || eq.size() != members[k].cardinality() + 1) {
+          current = false;
+          break;
+        }
+      }
+      if (current) {
+        return;
+      }
+    }
+    int num_sets = invs.size();
+    leaders = new VarInfo[num_sets];
+    members = new BitSet[num_sets];
+    followers = new BitSet(parent.var_infos.length);
+    set_of = new int[parent.var_infos.length];
+    Arrays.fill(set_of, -1);
+    for (int k = 0; k < num_sets; k++) {
+      Equality eq = (Equality) invs.get(k);
+      VarInfo leader = eq.leader();
+      leaders[k] = leader;
+      members[k] = new BitSet(parent.var_infos.length);
+      for (VarInfo vi : eq.getVars()) {
+        set_of[vi.varinfo_index] = k;
+        if (vi != leader) {
+          members[k].set(vi.varinfo_index);
+        }
+      }
+      followers.or(members[k]);
+    }
+    leader_values = new Object[num_sets];
+    leader_mods = new int[num_sets];
+    leader_alone = new boolean[num_sets];
+    split = new BitSet(parent.var_infos.length);
+  }
+
+  /**
+   * Returns the variables that do not fit into their equality sets anymore, because their values or
+   * modbits differ from their leaders' in the given sample, or null if there are none. Compares
+   * each variable with its leader in a single pass over the variables. Does not change the sets.
+   *
+   * <p>Originally (8/14/2003), this did not check for the modified bits. It seems however, quite
+   * wrong to leave variables in the same equality set when one is missing and the other is not.
+   * It's possible we should go farther and break out of the equality set any variable that is
+   * missingOutOfBounds (JHP).
+   *
+   * @param vt a sample
+   * @return the varinfo_index of each variable that falls out of its set, or null if none does
+   */
+  private @Nullable BitSet split_vars(ValueTuple vt) {
+    partition();
+    for (int k = 0; k < leaders.length; k++) {
+      VarInfo leader = leaders[k];
+      Object value = leader.getValueOrNull(vt);
+      leader_values[k] = value;
+      leader_mods[k] = leader.getModified(vt);
+      // If the values are NaN, treat them as different.
+      leader_alone[k] =
+          leader.missingOutOfBounds() || ((value instanceof Double) && ((Double) value).isNaN());
+    }
+    BitSet result = null;
+    VarInfo[] vis = parent.var_infos;
+    for (int i = followers.nextSetBit(0); i >= 0; i = followers.nextSetBit(i + 1)) {
+      int k = set_of[i];
+      VarInfo vi = vis[i];
+      // The following is possible because values are interned.  The test also takes into
+      // account missing values, since they are null.
+      if (leader_alone[k]
+          || vi.getValueOrNull(vt) != leader_values[k]
+          || vi.getModified(vt) != leader_mods[k]
+          || vi.missingOutOfBounds()) {
+        if (result == null) {
+          result = split;
+          result.clear();
+        }
+        result.set(i);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns true if {@link #add} would split some equality set on the given sample. Does not
+   * change the equality sets.
+   *
+   * @param vt a sample
+   * @return true if some equality set splits on the sample
+   */
+  public boolean splits(ValueTuple vt) {
+    return split_vars(vt) != null;
+  }
+
   /**
    * Returns a List of Invariants that have been weakened/destroyed. However, this handles the
    * creation of new Equality invariants and the instantiation of other invariants.
    *
+   * <p>If the sample splits some equality set, count must be 1: the new sets would see the rest of
+   * the samples, and might split again on them. {@link PptTopLevel#add_bottom_up} applies such a
+   * sample once by itself.
+   *
    * @return a List of invariants that have been weakened
    */
   // The basic approach is as follows:
-  //    - Loop through each equality set
-  //        - look for any variables that are no longer equal
+  //    - Find the variables that are no longer equal to their leaders (call split_vars)
+  //    - Loop through each equality set that has such variables
+  //        - remove them from the set
   //        - Create new equality sets (call createEqualityInvs)
   //        - Get the new leaders
   //        - Create new slices and invariants (call CopyInvsFromLeader)
@@ -251,53 +402,67 @@ public class PptSliceEquality extends PptSlice {
   @Override
   public List<Invariant> add(ValueTuple vt, int count) {
 
-    ArrayList<Equality> allNewInvs = new ArrayList<>();
-    ArrayList<Invariant> weakenedInvs = new ArrayList<>();
+    // Add this sample to each equality invariant
+    for (Invariant inv : invs) {
+      ((Equality) inv).add(vt, count);
+    }
 
-    // Loop through each existing equality invariant
-    for (Invariant invar : invs) {
-      Equality inv = (Equality) invar;
+    // Most samples split no set, and allocate nothing.
+    BitSet split_vis = split_vars(vt);
+    if (split_vis == null) {
+      return Collections.emptyList();
+    }
 
-      // Add this sample to the invariant and track any vars that fall
-      // out of the set.
-      List<VarInfo> nonEqualVis = inv.add(vt, count);
+    ArrayList<Equality> allNewInvs = new ArrayList<>();
+    ArrayList<Invariant> weakenedInvs = new ArrayList<>();
+    VarInfo[] vis = parent.var_infos;
 
-      // If some vars fell out
-      if (nonEqualVis.size() > 0) {
+    // Loop through each existing equality invariant that some vars fall out of
+    for (int k = 0; k < leaders.length; k++) {
+      if (!members[k].intersects(split_vis)) {
+        continue;
+      }
+      Equality inv = (Equality) invs.get(k);
+      List<VarInfo> nonEqualVis = new ArrayList<>();
+      for (int i = members[k].nextSetBit(0); i >= 0; i = members[k].nextSetBit(i + 1)) {
+        if (split_vis.get(i)) {
+          nonEqualVis.add(vis[i]);
+        }
+      }
+      inv.removeVars(nonEqualVis, vt);
 
-        // Create new equality sets for all of the non-equal vars
-        List<Equality> newInvs = createEqualityInvs(nonEqualVis, vt, inv, count);
+      // Create new equality sets for all of the non-equal vars
+      List<Equality> newInvs = createEqualityInvs(nonEqualVis, vt, inv, count);
 
-        // Get a list of all of the new non-missing leaders
-        List<VarInfo> newInvsLeaders = new ArrayList<>(newInvs.size());
-        for (Equality eq : newInvs) {
-          if ((parent.constants == null) || !parent.constants.is_missing(eq.leader())) {
-            newInvsLeaders.add(eq.leader());
-          }
+      // Get a list of all of the new non-missing leaders
+      List<VarInfo> newInvsLeaders = new ArrayList<>(newInvs.size());
+      for (Equality eq : newInvs) {
+        if ((parent.constants == null) || !parent.constants.is_missing(eq.leader())) {
+          newInvsLeaders.add(eq.leader());
         }
+      }
 
-        // Debug print the new leaders
-        if (Debug.logOn()) {
-          for (VarInfo nileader : newInvsLeaders) {
-            Debug.log(
-                getClass(),
-                parent,
-                Debug.vis(nileader),
-                "Split off from previous leader "
-                    + inv.leader().name()
-                    + ": new set = "
-                    + nileader.equalitySet
-                    + ": old set = "
-                    + inv);
-          }
+      // Debug print the new leaders
+      if (Debug.logOn()) {
+        for (VarInfo nileader : newInvsLeaders) {
+          Debug.log(
+              getClass(),
+              parent,
+              Debug.vis(nileader),
+              "Split off from previous leader "
+                  + inv.leader().name()
+                  + ": new set = "
+                  + nileader.equalitySet
+                  + ": old set = "
+                  + inv);
         }
+      }
 
-        // Create new slices and invariants for each new leader
-        weakenedInvs.addAll(copyInvsFromLeader(inv.leader(), newInvsLeaders));
+      // Create new slices and invariants for each new leader
+      weakenedInvs.addAll(copyInvsFromLeader(inv.leader(), newInvsLeaders));
 
-        // Keep track of all of the new invariants created.
-        allNewInvs.addAll(newInvs);
-      }
+      // Keep track of all of the new invariants created.
+      allNewInvs.addAll(newInvs);
     }
 
     // Add all of the new equality sets to our list
@@ -85,6 +85,7 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
@@ -161,9 +162,11 @@ public class PptTopLevel extends Ppt {
   /**
    * Boolean. Needed by the NIS.falsified method when keeping stats to figure out how many falsified
    * invariants are antecedents. Only the first pass of processing with the sample is counted toward
-   * the stats.
+   * the stats. Per-thread, because samples of different program points may be processed
+   * concurrently.
    */
-  public static boolean first_pass_with_sample = true;
+  public static final ThreadLocal<Boolean> first_pass_with_sample =
+      ThreadLocal.withInitial(() -> true);
 
   /** Ppt attributes (specified in decl records) */
   public enum PptFlags {
@@ -254,6 +257,12 @@ public class PptTopLevel extends Ppt {
   public int num_orig_vars; // number of _orig vars
   public int num_static_constant_vars; // these don't appear in the trace file
 
+  /**
+   * Computes the derived variables of the samples of this program point, or null if none has been
+   * computed since its variables last changed.
+   */
+  transient @Nullable DerivationEngine derivation_engine = null;
+
   private int values_num_samples;
 
   /** Keep track of which variables are valid (not missing) on each sample. */
@@ -272,6 +281,19 @@ public class PptTopLevel extends Ppt {
   @SuppressWarnings("serial")
   private Map<List<Integer>, PptSlice> views;
 
+  /** The greatest {@link PptSlice#view_order} given to a slice of this program point. */
+  private transient int last_view_order = 0;
+
+  /**
+   * The invariants of this program point that have been falsified while the current sample is
+   * added (see {@link #add_bottom_up}), in the order in which they were falsified. Some of them may
+   * no longer be in a slice of this program point. Null until the first sample.
+   */
+  private transient @Nullable List<Invariant> falsified_queue = null;
+
+  /** True while a sample is added, when falsified invariants are recorded in falsified_queue. */
+  private transient boolean tracking_falsified = false;
+
   /** List of all of the splitters for this ppt. */
   // Not List because List doesn't support the trimToSize() method.
   public @MonotonicNonNull ArrayList<PptSplitter> splitters = null;
@@ -1065,12 +1087,51 @@ public class PptTopLevel extends Ppt {
       }
     }
 
+    // Set of invariants weakened by this sample
+    Set<Invariant> weakened_invs = new LinkedHashSet<>();
+
+    // A sample that splits an equality set is applied by itself: the rest of the samples then see
+    // the new sets (and their slices), as they would if they had not been coalesced.
+    while (count > 1
+        && Daikon.use_equality_optimization
+        && equality_view != null
+        && equality_view.splits(vt)) {
+      add_sample(vt, 1, weakened_invs);
+      count--;
+    }
+    add_sample(vt, count, weakened_invs);
+    return weakened_invs;
+  }
+
+  /**
+   * Add the sample to the equality sets, dynamic constants, and invariants at this program point.
+   * Helper method for {@link #add_bottom_up}, which has already passed the sample on to the
+   * conditional program points and the combined exit.
+   *
+   * @param vt the set of values for this to see
+   * @param count the number of samples that vt represents
+   * @param weakened_invs the set to which to add the invariants weakened or falsified by this
+   *     sample
+   */
+  @RequiresNonNull({
+    "daikon.suppress.NIS.suppressor_map",
+    "daikon.suppress.NIS.suppressor_map_suppression_count",
+    "daikon.suppress.NIS.all_suppressions",
+    "daikon.suppress.NIS.suppressor_proto_invs"
+  })
+  private void add_sample(ValueTuple vt, int count, Set<Invariant> weakened_invs) {
     if (debugNISStats.isLoggable(Level.FINE)) {
       NIS.clear_stats();
     }
 
-    // Set of invariants weakened by this sample
-    Set<Invariant> weakened_invs = new LinkedHashSet<>();
+    // Record the invariants that this sample falsifies
+    List<Invariant> queue = falsified_queue;
+    if (queue == null) {
+      queue = new ArrayList<>();
+      falsified_queue = queue;
+    }
+    queue.clear();
+    tracking_falsified = true;
 
     // Instantiate slices and invariants if this is the first sample
     if (values_num_samples == 0) {
@@ -1191,22 +1252,19 @@ public class PptTopLevel extends Ppt {
     // the NIS.newly_falsified list will be empty.
 
     do {
-      // Remove any falsified invariants.  Make a copy of the original slices
-      // since NISuppressions will add new slices/invariants as others are
-      // falsified.
-      PptSlice[] slices = views.values().toArray(new @Nullable PptSlice[views.values().size()]);
-      for (int i = 0; i < slices.length; i++) {
-        slices[i].remove_falsified();
-      }
+      // Remove any falsified invariants.
+      remove_falsified_invariants();
 
       // Apply the sample to any invariants created by non-instantiating
       // suppressions. This must happen before we remove slices without
       // invariants below.
       NIS.apply_samples(vt, count);
-      first_pass_with_sample = false;
-    } while (NIS.newly_falsified.size() != 0);
+      first_pass_with_sample.set(false);
+    } while (NIS.newly_falsified.get().size() != 0);
 
-    first_pass_with_sample = true;
+    first_pass_with_sample.set(true);
+    tracking_falsified = false;
+    queue.clear();
 
     // Remove slices from the list if all of their invariants have died.
     // (Removal requires use of old-style for loop and Iterator.)
@@ -1239,8 +1297,6 @@ public class PptTopLevel extends Ppt {
         }
       }
     }
-
-    return weakened_invs;
   }
 
   /**
@@ -1595,9 +1651,123 @@ public class PptTopLevel extends Ppt {
     // slice.repCheck();
 
     views.put(sliceIndex(slice.var_infos), slice);
+    slice.view_order = ++last_view_order;
     if (Debug.logOn()) slice.log("Adding slice");
   }
 
+  /**
+   * Records that an invariant of a slice of this program point has been falsified, if a sample is
+   * being added. Called by {@link Invariant#falsify}.
+   *
+   * @param inv an invariant that has just been falsified
+   */
+  public void note_falsified(Invariant inv) {
+    if (tracking_falsified) {
+      assert falsified_queue != null : "@AssumeAssertion(nullness): set when tracking starts";
+      falsified_queue.add(inv);
+    }
+  }
+
+  /**
+   * Returns the falsified invariants that are in the slices of this program point (including the
+   * implications), each once, while a sample is being added. Takes time proportional to the number
+   * of invariants falsified by the sample rather than to the number of invariants. Returns null if
+   * no sample is being added, when the falsified invariants must be found by examining every
+   * invariant (see {@link #invariants_iterator}).
+   *
+   * @return the falsified invariants of this program point, or null if they are not tracked
+   */
+  public @Nullable List<Invariant> falsified_invariants() {
+    List<Invariant> queue = falsified_queue;
+    if (!tracking_falsified || queue == null) {
+      return null;
+    }
+    List<Invariant> result = new ArrayList<>();
+    Set<Invariant> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+    for (Invariant inv : queue) {
+      if (inv.is_false() && seen.add(inv) && is_live(inv)) {
+        result.add(inv);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns true if the invariant is in a slice of this program point (including the implications).
+   *
+   * @param inv an invariant
+   * @return true if inv is an invariant of this program point
+   */
+  private boolean is_live(Invariant inv) {
+    PptSlice slice = inv.ppt;
+    if (slice.parent != this || (slice != joiner_view && !is_view(slice))) {
+      return false;
+    }
+    for (Invariant slice_inv : slice.invs) {
+      if (slice_inv == inv) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns true if the slice is one of the views of this program point.
+   *
+   * @param slice a slice of this program point
+   * @return true if slice is in the views of this program point
+   */
+  private boolean is_view(PptSlice slice) {
+    return views.get(sliceIndex(slice.var_infos)) == slice;
+  }
+
+  /**
+   * Removes the falsified invariants from the views of this program point, and passes each to
+   * {@link NIS#falsified}, in the order of the views and of the invariants in each view.
+   *
+   * <p>While a sample is being added, only the views that contain an invariant falsified since the
+   * last call are visited, so the cost is proportional to the number of such invariants rather
+   * than to the number of invariants. Otherwise every view is visited.
+   */
+  @RequiresNonNull("daikon.suppress.NIS.suppressor_map")
+  void remove_falsified_invariants() {
+    List<Invariant> queue = falsified_queue;
+    if (!tracking_falsified || queue == null) {
+      // Make a copy of the original slices since NISuppressions will add new slices/invariants
+      // as others are falsified.
+      PptSlice[] slices = views.values().toArray(new @Nullable PptSlice[views.values().size()]);
+      for (int i = 0; i < slices.length; i++) {
+        slices[i].remove_falsified();
+      }
+      return;
+    }
+    if (queue.isEmpty()) {
+      return;
+    }
+    List<PptSlice> slices = new ArrayList<>();
+    Set<PptSlice> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+    boolean order_known = true;
+    for (Invariant inv : queue) {
+      PptSlice slice = inv.ppt;
+      if (slice.parent == this && seen.add(slice) && is_view(slice)) {
+        slices.add(slice);
+        order_known &= (slice.view_order != 0);
+      }
+    }
+    queue.clear();
+    if (!order_known) {
+      // The views were read from a file; number them in their order.
+      last_view_order = 0;
+      for (PptSlice view : views.values()) {
+        view.view_order = ++last_view_order;
+      }
+    }
+    slices.sort(Comparator.comparingInt(slice -> slice.view_order));
+    for (PptSlice slice : slices) {
+      slice.remove_falsified();
+    }
+  }
+
   /** Remove a slice from this PptTopLevel. */
   public void removeSlice(PptSlice slice) {
     Object o = views.remove(sliceIndex(slice.var_infos));
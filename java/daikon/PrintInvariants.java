@@ -448,38 +448,39 @@ public final class PrintInvariants {
 
     // Read in the invariants
     String filename = args[fileIndex];
-    PptMap ppts =
-        FileIO.read_serialized_pptmap(
-            new File(filename), true // use saved config
-            );
-    // Setup the list of prototype invariants and initialize NIS suppressions
-    Daikon.setup_proto_invs();
-    Daikon.setup_NISuppression();
-
-    // Make sure ppts' rep invariants hold
-    ppts.repCheck();
-
-    // If requested, just print the number of true invariants
-    if (dkconfig_true_inv_cnt) {
-      print_true_inv_cnt(ppts);
-      return;
-    }
+    PptMap ppts = LazyPptMap.open(new File(filename), true); // use saved config
+    try {
+      // Setup the list of prototype invariants and initialize NIS suppressions
+      Daikon.setup_proto_invs();
+      Daikon.setup_NISuppression();
 
-    validateGuardNulls();
-    //     if ((Daikon.dkconfig_guardNulls == "always") // interned
-    //         || (Daikon.dkconfig_guardNulls == "missing")) { // interned
-    //       Daikon.guardInvariants(ppts);
-    //     }
+      // Make sure ppts' rep invariants hold
+      ppts.repCheck();
 
-    // Debug print the hierarchy is a more readable manner
-    if (debug.isLoggable(FINE)) {
-      debug.fine("Printing PPT Hierarchy");
-      for (PptTopLevel my_ppt : ppts.pptIterable()) {
-        if (my_ppt.parents.size() == 0) my_ppt.debug_print_tree(debug, 0, null);
+      // If requested, just print the number of true invariants
+      if (dkconfig_true_inv_cnt) {
+        print_true_inv_cnt(ppts);
+        return;
+      }
+
+      validateGuardNulls();
+      //     if ((Daikon.dkconfig_guardNulls == "always") // interned
+      //         || (Daikon.dkconfig_guardNulls == "missing")) { // interned
+      //       Daikon.guardInvariants(ppts);
+      //     }
+
+      // Debug print the hierarchy is a more readable manner
+      if (debug.isLoggable(FINE)) {
+        debug.fine("Printing PPT Hierarchy");
+        for (PptTopLevel my_ppt : ppts.pptIterable()) {
+          if (my_ppt.parents.size() == 0) my_ppt.debug_print_tree(debug, 0, null);
+        }
       }
-    }
 
-    print_invariants(ppts);
+      print_invariants(ppts);
+    } finally {
+      LazyPptMap.close(ppts);
+    }
 
     // Close the output stream if --output was specified.
     if (out_stream != null) {
@@ -735,32 +736,51 @@ public final class PrintInvariants {
       pw.println("<INVARIANTS>");
     }
 
-    PptTopLevel combined_exit = null;
-    boolean enable_exit_swap = true; // !Daikon.dkconfig_df_bottom_up;
-
     if (Daikon.no_text_output) {
       return;
     }
 
-    // Retrieve Ppt objects in sorted order.  Put them in an array list
-    // so that it is easier to look behind and ahead.
-    PptTopLevel[] ppts = new PptTopLevel[all_ppts.size()];
-    int ii = 0;
-    for (PptTopLevel ppt : all_ppts.pptIterable()) {
-      ppts[ii++] = ppt;
-      // System.out.printf("considering ppt %s%n", ppts[ii-1].name());
+    print_invariants(all_ppts, pw);
+
+    if (wrap_xml) {
+      pw.println("</INVARIANTS>");
     }
 
-    for (int i = 0; i < ppts.length; i++) {
-      PptTopLevel ppt = ppts[i];
+    pw.flush();
+  }
+
+  /**
+   * Prints the invariants of every program point that is worth printing, in the order described
+   * above, to the given stream.
+   *
+   * @param all_ppts the program points
+   * @param pw where to print the invariants
+   */
+  @RequiresNonNull("FileIO.new_decl_format")
+  public static void print_invariants(PptMap all_ppts, PrintWriter pw) {
+
+    String combined_exit = null;
+    boolean enable_exit_swap = true; // !Daikon.dkconfig_df_bottom_up;
+
+    // Retrieve the names in sorted order, so that it is easier to look
+    // behind and ahead.  Each Ppt object is retrieved only when it is
+    // printed, so that a LazyPptMap reads only the ppts that are printed.
+    List<String> names = all_ppts.sorted_names();
+    PptName[] ppt_names = new PptName[names.size()];
+    for (int i = 0; i < ppt_names.length; i++) {
+      ppt_names[i] = new PptName(names.get(i));
+    }
+
+    for (int i = 0; i < ppt_names.length; i++) {
+      PptName ppt_name = ppt_names[i];
 
       if (debug.isLoggable(FINE)) {
-        debug.fine("Looking at point " + ppt.name());
+        debug.fine("Looking at point " + names.get(i));
       }
 
       // If this point is not an exit point, print out any retained combined
       // exit point
-      if (enable_exit_swap && !ppt.ppt_name.isExitPoint()) {
+      if (enable_exit_swap && !ppt_name.isExitPoint()) {
         if (combined_exit != null) {
           print_invariants_maybe(combined_exit, pw, all_ppts);
         }
@@ -769,8 +789,8 @@ public final class PrintInvariants {
 
       // Just cache the combined exit point for now, print it after the
       // EXITnn points.
-      if (enable_exit_swap && ppt.ppt_name.isCombinedExitPoint()) {
-        combined_exit = ppt;
+      if (enable_exit_swap && ppt_name.isCombinedExitPoint()) {
+        combined_exit = names.get(i);
         continue;
       }
 
@@ -779,9 +799,9 @@ public final class PrintInvariants {
       // point if it is an EXITnn point and the previous point was a combined
       // exit point and the next one is not an EXITnn point.  But don't skip
       // any conditional ppts attached to the skipped ppt.
-      if (enable_exit_swap && (i > 0) && ppt.ppt_name.isExitPoint()) {
-        if (ppts[i - 1].ppt_name.isCombinedExitPoint()) {
-          if (((i + 1) >= ppts.length) || !ppts[i + 1].ppt_name.isExitPoint()) {
+      if (enable_exit_swap && (i > 0) && ppt_name.isExitPoint()) {
+        if (ppt_names[i - 1].isCombinedExitPoint()) {
+          if (((i + 1) >= ppt_names.length) || !ppt_names[i + 1].isExitPoint()) {
             //             if (Daikon.dkconfig_output_conditionals
             //                 && Daikon.output_format == OutputFormat.DAIKON) {
             //               for (PptConditional pcond : ppt.cond_iterable()) {
@@ -793,28 +813,28 @@ public final class PrintInvariants {
         }
       }
 
-      if (false) {
-        VarInfo v = ppt.find_var_by_name("size(/map.tiles[])");
-        System.out.printf("Found variable %s%n", v);
-        if (v != null) {
-          List<Invariant> invs = ppt.find_assignment_inv(v);
-          System.out.printf("assignment invs = %s%n", invs);
-        }
-      }
-
-      print_invariants_maybe(ppt, pw, all_ppts);
+      print_invariants_maybe(names.get(i), pw, all_ppts);
     }
 
     // print a last remaining combined exit point (if any)
     if (enable_exit_swap && combined_exit != null) {
       print_invariants_maybe(combined_exit, pw, all_ppts);
     }
+  }
 
-    if (wrap_xml) {
-      pw.println("</INVARIANTS>");
+  /**
+   * Print invariants for the program point with the given name and its conditionals, if its name
+   * matches the ppt regular expression. Does not retrieve the program point from all_ppts
+   * otherwise.
+   */
+  @RequiresNonNull("FileIO.new_decl_format")
+  private static void print_invariants_maybe(String ppt_name, PrintWriter out, PptMap all_ppts) {
+    if ((ppt_regexp != null) && !ppt_regexp.matcher(ppt_name).find()) {
+      return;
     }
-
-    pw.flush();
+    PptTopLevel ppt = all_ppts.get(ppt_name);
+    assert ppt != null : "@AssumeAssertion(nullness): ppt_name is a key in all_ppts";
+    print_invariants_maybe(ppt, out, all_ppts);
   }
 
   /**
@@ -16,7 +16,6 @@ import org.checkerframework.checker.nullness.qual.Nullable;
 import org.checkerframework.checker.signedness.qual.Signed;
 import org.checkerframework.dataflow.qual.Pure;
 import org.checkerframework.dataflow.qual.SideEffectFree;
-import org.plumelib.util.Intern;
 import org.plumelib.util.StringsPlume;
 
 /**
@@ -280,16 +279,16 @@ public final @Interned class ProglangType implements Serializable {
 
   // avoid duplicate allocations
   // No need for the Integer versions; use Long instead.
-  // static final @Interned Integer IntegerZero = Intern.internedInteger(0);
-  // static final @Interned Integer IntegerOne = Intern.internedInteger(1);
-  static final @Interned Long LongZero = Intern.internedLong(0);
-  static final @Interned Long LongOne = Intern.internedLong(1);
-  static final @Interned Double DoubleZero = Intern.internedDouble(0);
-  static final @Interned Double DoubleNaN = Intern.internedDouble(Double.NaN);
+  // static final @Interned Integer IntegerZero = InternPool.internedInteger(0);
+  // static final @Interned Integer IntegerOne = InternPool.internedInteger(1);
+  static final @Interned Long LongZero = InternPool.internedLong(0);
+  static final @Interned Long LongOne = InternPool.internedLong(1);
+  static final @Interned Double DoubleZero = InternPool.internedDouble(0);
+  static final @Interned Double DoubleNaN = InternPool.internedDouble(Double.NaN);
   static final @Interned Double DoublePositiveInfinity =
-      Intern.internedDouble(Double.POSITIVE_INFINITY);
+      InternPool.internedDouble(Double.POSITIVE_INFINITY);
   static final @Interned Double DoubleNegativeInfinity =
-      Intern.internedDouble(Double.NEGATIVE_INFINITY);
+      InternPool.internedDouble(Double.NEGATIVE_INFINITY);
 
   /*
    *  Now that all other static initialisers are done, it is safe to
@@ -430,11 +429,11 @@ public final @Interned class ProglangType implements Serializable {
         c = StringsPlume.unescapeJava(value).charAt(0);
       } else if ((value.length() == 4) && (value.charAt(0) == '\\')) {
         Byte b = Byte.decode("0" + value.substring(1));
-        return Intern.internedLong(b.longValue());
+        return InternPool.internedLong(b.longValue());
       } else {
         throw new IllegalArgumentException("Bad character: " + value);
       }
-      return Intern.internedLong((int) c);
+      return InternPool.internedLong((int) c);
     }
     // When parse_value is called from FileIO.read_ppt_decl, we have
     // not set file_rep_type. Hence, rep_type is still file_rep_type
@@ -455,7 +454,7 @@ public final @Interned class ProglangType implements Serializable {
       if (value.equals("null")) {
         return LongZero;
       }
-      return Intern.internedLong(myParseLong(value));
+      return InternPool.internedLong(myParseLong(value));
     } else if (base == BASE_DOUBLE) {
       // Must ignore case, because dfej outputs "NaN", while dfec
       // outputs "nan".  dfec outputs "nan", because this string
@@ -469,7 +468,7 @@ public final @Interned class ProglangType implements Serializable {
       if (value.equalsIgnoreCase("-Infinity") || value.equals("-inf")) {
         return DoubleNegativeInfinity;
       }
-      return Intern.internedDouble(value);
+      return InternPool.internedDouble(value);
     } else if ((base == BASE_HASHCODE)
         || (base == BASE_LONG)
         || (base == BASE_LONG_LONG)
@@ -565,7 +564,7 @@ public final @Interned class ProglangType implements Serializable {
           result[i] = myParseLong(value_strings[i]);
         }
       }
-      return Intern.intern(result);
+      return InternPool.intern(result);
     } else if (base == BASE_DOUBLE) {
       double[] result = new double[len];
       for (int i = 0; i < len; i++) {
@@ -582,12 +581,12 @@ public final @Interned class ProglangType implements Serializable {
           result[i] = Double.parseDouble(value_strings[i]);
         }
       }
-      return Intern.intern(result);
+      return InternPool.intern(result);
     } else if (base == BASE_STRING) {
       // First, intern each String in the array ...
-      @Interned String[] value_strings_elts_interned = Intern.internStrings(value_strings);
+      @Interned String[] value_strings_elts_interned = InternPool.internStrings(value_strings);
       // ... then, intern the entire array, and return it
-      return Intern.intern(value_strings_elts_interned);
+      return InternPool.intern(value_strings_elts_interned);
     } else {
       throw new Error("Can't yet parse array of base type " + base);
     }
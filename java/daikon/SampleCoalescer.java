@@ -0,0 +1,127 @@
+package daikon;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Combines runs of identical samples at a program point into a single sample with a count, so
+ * that the invariants see each distinct sample of a run once. See {@link
+ * FileIO#dkconfig_coalesce_samples}.
+ *
+ * <p>A sample is held back until a sample with different values arrives at the same program point
+ * (or at another exit of the same procedure, if the dataflow hierarchy is not used; see {@link
+ * FileIO#sample_group}), until the run reaches the maximum count, or until the end of the file.
+ * The samples of each group are therefore applied in file order. Samples of different groups may
+ * be applied in a different order than in the file, as when there are several inference threads.
+ *
+ * <p>Samples are combined after their orig variables have been computed, so two samples of an exit
+ * are combined only if the values at the matching entries were identical too.
+ */
+final class SampleCoalescer {
+
+  /** A sample that has been held back, and the number of identical samples that it stands for. */
+  private static final class Run {
+    /** The program point of the sample. */
+    final PptTopLevel ppt;
+
+    /** The sample, including orig variables. */
+    final ValueTuple vt;
+
+    /** The number of identical samples seen. */
+    int count = 1;
+
+    Run(PptTopLevel ppt, ValueTuple vt) {
+      this.ppt = ppt;
+      this.vt = vt;
+    }
+  }
+
+  /** The maximum number of samples that a run may stand for. */
+  private final int max_count;
+
+  /** The current run of each sample group, in order of first appearance. */
+  private final Map<PptTopLevel, Run> runs = new LinkedHashMap<>();
+
+  /** Number of samples passed to {@link #add}. */
+  private long samples_added = 0;
+
+  /** Number of samples applied (each with a count) by this. */
+  private long samples_applied = 0;
+
+  /**
+   * Creates a coalescer.
+   *
+   * @param max_count the maximum number of samples that one applied sample may stand for
+   */
+  SampleCoalescer(int max_count) {
+    this.max_count = max_count;
+  }
+
+  /**
+   * Adds a sample. Applies the held-back sample of the same group first, if this sample differs
+   * from it.
+   *
+   * @param ppt the program point of the sample
+   * @param vt the sample, including orig variables
+   */
+  void add(PptTopLevel ppt, ValueTuple vt) {
+    samples_added++;
+    PptTopLevel group = FileIO.sample_group(ppt);
+    Run run = runs.get(group);
+    if (run != null) {
+      if (run.ppt == ppt && same_values(run.vt, vt)) {
+        run.count++;
+        if (run.count >= max_count) {
+          runs.remove(group);
+          apply(run);
+        }
+        return;
+      }
+      apply(run);
+    }
+    runs.put(group, new Run(ppt, vt));
+  }
+
+  /** Applies every held-back sample. Called at the end of a file. */
+  void flush() {
+    for (Run run : runs.values()) {
+      apply(run);
+    }
+    runs.clear();
+  }
+
+  /** Applies a held-back sample, with the count of its run. */
+  private void apply(Run run) {
+    samples_applied++;
+    FileIO.dispatch_sample(run.ppt, run.vt, run.count);
+  }
+
+  /**
+   * Returns the number of samples that were added, divided by the number that were applied.
+   *
+   * @return the average number of samples that each applied sample stands for
+   */
+  double average_count() {
+    return (samples_applied == 0) ? 1.0 : ((double) samples_added) / samples_applied;
+  }
+
+  /**
+   * Returns true if two samples, whose values (but not yet their arrays) are interned, are the
+   * same.
+   */
+  private static boolean same_values(ValueTuple vt1, ValueTuple vt2) {
+    Object[] vals1 = vt1.vals;
+    Object[] vals2 = vt2.vals;
+    int[] mods1 = vt1.mods;
+    int[] mods2 = vt2.mods;
+    if (vals1.length != vals2.length) {
+      return false;
+    }
+    for (int i = 0; i < vals1.length; i++) {
+      if (vals1[i] != vals2[i] || mods1[i] != mods2[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
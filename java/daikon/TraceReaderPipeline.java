@@ -0,0 +1,212 @@
+package daikon;
+
+import daikon.FileIO.ParseState;
+import daikon.FileIO.RecordType;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Reads the samples of one dtrace file on a separate thread, so that reading, decompressing, and
+ * parsing records overlaps with inference on the thread that consumes them. See {@link
+ * FileIO#dkconfig_pipelined_read}.
+ *
+ * <p>A single reader thread calls {@link FileIO#read_data_trace_record} and hands each sample to
+ * the consuming thread through a bounded queue, so samples are consumed in file order and
+ * ENTER/EXIT nonce matching is unaffected. Records other than samples (declarations, comparability,
+ * and so on) modify global state such as the PptMap; before processing one of those, the reader
+ * waits (via {@link #await_idle}) until every sample queued so far has been fully processed.
+ *
+ * <p>Both threads intern values, which is safe because interning goes through {@link InternPool}.
+ */
+final class TraceReaderPipeline implements AutoCloseable {
+
+  /** One record passed from the reader thread to the consumer. */
+  static final class Record {
+    /** SAMPLE, EOF, or TRUNCATED. Null if reading failed; see {@link #error}. */
+    final @Nullable RecordType rtype;
+
+    /** The program point of a sample. */
+    final @Nullable PptTopLevel ppt;
+
+    /** The nonce of a sample; may be null even for a sample. */
+    final @Nullable Integer nonce;
+
+    /** The values of a sample. */
+    final @Nullable ValueTuple vt;
+
+    /** The line number at which the record ended. */
+    final int linenum;
+
+    /** The exception thrown while reading, if any. */
+    final @Nullable Throwable error;
+
+    Record(
+        @Nullable RecordType rtype,
+        @Nullable PptTopLevel ppt,
+        @Nullable Integer nonce,
+        @Nullable ValueTuple vt,
+        int linenum,
+        @Nullable Throwable error) {
+      this.rtype = rtype;
+      this.ppt = ppt;
+      this.nonce = nonce;
+      this.vt = vt;
+      this.linenum = linenum;
+      this.error = error;
+    }
+  }
+
+  /** The parse state shared by the reader thread and the consumer. */
+  private final ParseState state;
+
+  /** Records read but not yet taken by the consumer. */
+  private final BlockingQueue<Record> queue;
+
+  /** The thread that reads the file. */
+  private final Thread reader_thread;
+
+  /** Number of records enqueued that the consumer has not finished processing. */
+  private int pending = 0;
+
+  /** Set when the consumer is done, so that the reader stops. */
+  private volatile boolean closed = false;
+
+  /** Line number of the record the consumer is currently processing. */
+  private volatile int current_linenum = 0;
+
+  /**
+   * Creates a pipeline for the given file and starts its reader thread.
+   *
+   * @param state the parse state of an open dtrace file
+   * @param capacity the maximum number of samples that may be read ahead of the consumer
+   */
+  TraceReaderPipeline(ParseState state, int capacity) {
+    this.state = state;
+    this.queue = new ArrayBlockingQueue<>(Math.max(capacity, 1));
+    this.reader_thread = new Thread(this::read_records, "dtrace reader: " + state.filename);
+    reader_thread.setDaemon(true);
+    state.pipeline = this;
+    reader_thread.start();
+  }
+
+  /** Body of the reader thread: reads records until end of file, an error, or close. */
+  @SuppressWarnings("nullness:contracts.precondition") // data_trace_state is set by the caller
+  private void read_records() {
+    try {
+      while (!closed) {
+        FileIO.read_data_trace_record(state);
+        RecordType rtype = state.rtype;
+        if (rtype == RecordType.SAMPLE) {
+          put(new Record(rtype, state.ppt, state.nonce, state.vt, state.get_linenum(), null));
+        } else if (rtype == RecordType.EOF || rtype == RecordType.TRUNCATED) {
+          put(new Record(rtype, null, null, null, state.get_linenum(), null));
+          return;
+        }
+      }
+    } catch (InterruptedException e) {
+      // The consumer closed the pipeline.
+    } catch (Throwable e) {
+      try {
+        put(new Record(null, null, null, null, state.get_linenum(), e));
+      } catch (InterruptedException e2) {
+        // The consumer closed the pipeline.
+      }
+    }
+  }
+
+  /** Enqueues a record, blocking while the queue is full. */
+  private void put(Record record) throws InterruptedException {
+    synchronized (this) {
+      pending++;
+    }
+    queue.put(record);
+  }
+
+  /**
+   * Returns the next record, blocking until one is available. Exceptions thrown by the reader
+   * thread are rethrown here, on the consumer's thread. Every record returned must be followed by
+   * a call to {@link #done}.
+   *
+   * @return the next SAMPLE, EOF, or TRUNCATED record
+   * @throws IOException if the reader thread threw an IOException
+   */
+  Record take() throws IOException {
+    Record record;
+    try {
+      record = queue.take();
+    } catch (InterruptedException e) {
+      throw new Daikon.UserError(e, "Interrupted while reading " + state.filename);
+    }
+    current_linenum = record.linenum;
+    Throwable error = record.error;
+    if (error != null) {
+      done();
+      if (error instanceof IOException) {
+        throw (IOException) error;
+      } else if (error instanceof RuntimeException) {
+        throw (RuntimeException) error;
+      } else if (error instanceof Error) {
+        throw (Error) error;
+      } else {
+        throw new Daikon.BugInDaikon(error);
+      }
+    }
+    return record;
+  }
+
+  /** Indicates that the consumer has finished processing the record most recently taken. */
+  synchronized void done() {
+    pending--;
+    if (pending == 0) {
+      notifyAll();
+    }
+  }
+
+  /**
+   * Called on the reader thread before it modifies state that the consumer may use. Blocks until
+   * every record enqueued so far has been processed.
+   */
+  synchronized void await_idle() {
+    while (pending > 0 && !closed) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        // close() interrupts the reader; leave the flag set so the next put() notices.
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+
+  /** Returns true if the current thread is the reader thread. */
+  boolean is_reader_thread() {
+    return Thread.currentThread() == reader_thread;
+  }
+
+  /**
+   * Returns the line number of the record that the consumer is processing.
+   *
+   * @return the line number of the record that the consumer is processing
+   */
+  int consumer_linenum() {
+    return current_linenum;
+  }
+
+  /** Stops the reader thread and waits for it to finish. */
+  @Override
+  public void close() {
+    closed = true;
+    synchronized (this) {
+      notifyAll();
+    }
+    reader_thread.interrupt();
+    try {
+      reader_thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    state.pipeline = null;
+  }
+}
@@ -0,0 +1,122 @@
+package daikon;
+
+import java.io.LineNumberReader;
+import org.checkerframework.checker.interning.qual.Interned;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * The lines of the sample records of a textual data trace file. {@link FileIO} reads the variable
+ * names, values, and modbits of a sample through this interface, so that the same code checks
+ * them whether the lines are Strings read from a {@link LineNumberReader} or byte ranges of a
+ * memory-mapped file (see {@link MappedTraceReader}).
+ *
+ * <p>Besides the current line, a source holds the current value: the line most recently marked by
+ * {@link #mark_value}. It also holds the text of each value of the previous sample of the program
+ * point, which determines the modbits.
+ */
+interface TraceRecordSource {
+
+  /**
+   * Returns the reader from which the lines are read, for messages.
+   *
+   * @return the reader from which the lines are read
+   */
+  LineNumberReader reader();
+
+  /**
+   * Starts reading the values of a sample of the given program point.
+   *
+   * @param ppt the program point of the sample
+   */
+  void begin_record(PptTopLevel ppt);
+
+  /**
+   * Finishes reading the values of a sample of the given program point.
+   *
+   * @param ppt the program point of the sample
+   */
+  void end_record(PptTopLevel ppt);
+
+  /**
+   * Reads the next line, which becomes the current line.
+   *
+   * @return false if the end of the file has been reached
+   */
+  boolean next_line();
+
+  /**
+   * Returns true if the current line is empty.
+   *
+   * @return true if the current line is empty
+   */
+  boolean line_is_empty();
+
+  /**
+   * Returns the text of the current line.
+   *
+   * @return the text of the current line
+   */
+  String line();
+
+  /**
+   * Returns true if the current line, trimmed and unescaped as in a declaration, is the given
+   * variable name.
+   *
+   * @param name the name of a variable, as returned by {@link VarInfo#str_name}
+   * @return true if the current line names the variable
+   */
+  boolean line_names(String name);
+
+  /**
+   * Returns the modbit on the current line, or -1 if it is not "0", "1", or "2".
+   *
+   * @return the modbit on the current line, or -1
+   */
+  int modbit();
+
+  /** Makes the current line the current value. */
+  void mark_value();
+
+  /**
+   * Returns the text of the current value.
+   *
+   * @return the text of the current value
+   */
+  String value();
+
+  /**
+   * Returns true if the text of the current value is the given string.
+   *
+   * @param s a string
+   * @return true if the current value is s
+   */
+  boolean value_is(String s);
+
+  /**
+   * Returns true if the current value is the same as the value of the same variable in the previous
+   * sample of the program point. A variable that had no previous value is changed.
+   *
+   * @param val_index the index of the variable's value in the sample
+   * @return true if the current value is unchanged
+   */
+  boolean value_unchanged(int val_index);
+
+  /**
+   * Records the current value as the previous value of a variable, for the next sample of the
+   * program point.
+   *
+   * @param val_index the index of the variable's value in the sample
+   * @param unchanged the result of {@link #value_unchanged} for the current value
+   */
+  void save_value(int val_index, boolean unchanged);
+
+  /**
+   * Parses the current value, as {@link ProglangType#parse_value} does.
+   *
+   * @param vi the variable whose value it is
+   * @param val_index the index of the variable's value in the sample
+   * @param filename the name of the file, for messages
+   * @return the value, or null if it is nonsensical
+   */
+  @Nullable @Interned Object parse_value(VarInfo vi, int val_index, String filename);
+}
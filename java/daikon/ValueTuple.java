@@ -11,7 +11,6 @@ import org.checkerframework.checker.nullness.qual.Nullable;
 import org.checkerframework.dataflow.qual.Pure;
 import org.checkerframework.dataflow.qual.SideEffectFree;
 import org.plumelib.util.ArraysPlume;
-import org.plumelib.util.Intern;
 import org.plumelib.util.MathPlume;
 
 /**
@@ -335,8 +334,8 @@ public final class ValueTuple implements Cloneable {
 
   /** Default constructor that interns its argument. */
   public ValueTuple(@Nullable @Interned Object[] vals, int[] mods) {
-    this.vals = Intern.intern(vals);
-    this.mods = Intern.intern(mods);
+    this.vals = InternPool.intern(vals);
+    this.mods = InternPool.intern(mods);
     checkRep();
   }
 
@@ -349,8 +348,8 @@ public final class ValueTuple implements Cloneable {
    */
   @SuppressWarnings("interning") // interning constructor
   private ValueTuple(@Nullable Object[] vals, int[] mods, boolean check) {
-    assert !check || Intern.isInterned(vals);
-    assert !check || Intern.isInterned(mods);
+    assert !check || InternPool.isInterned(vals);
+    assert !check || InternPool.isInterned(mods);
     this.vals = vals;
     this.mods = mods;
     checkRep();
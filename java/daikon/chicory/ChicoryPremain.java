@@ -110,6 +110,7 @@ public class ChicoryPremain {
     Runtime.ppt_omit_pattern = Chicory.ppt_omit_pattern;
     Runtime.ppt_select_pattern = Chicory.ppt_select_pattern;
     Runtime.sample_start = Chicory.sample_start;
+    Runtime.sample_novelty = Chicory.sample_novelty;
     DaikonVariableInfo.std_visibility = Chicory.std_visibility;
     DaikonVariableInfo.debug_vars.enabled = Chicory.debug_decl_print;
     if (Chicory.comparability_file != null) {
@@ -180,7 +181,10 @@ public class ChicoryPremain {
     // so they don't need to be handled here.
     // (It looks like these can be called even if Runtime.dtrace is null...)
     Runtime.decl_writer = new DeclWriter(Runtime.dtrace);
-    Runtime.dtrace_writer = new DTraceWriter(Runtime.dtrace);
+    Runtime.dtrace_writer = new DTraceWriter(Runtime.dtrace, Runtime.binary_dtrace);
+    if (Chicory.thread_buffers) {
+      Runtime.trace_buffers = new TraceBuffers(Runtime.dtrace);
+    }
   }
 
   /**
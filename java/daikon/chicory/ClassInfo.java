@@ -40,6 +40,12 @@ public class ClassInfo {
   /** DaikonVariables for the class program point (static variables only). */
   public @MonotonicNonNull RootInfo traversalClass;
 
+  /**
+   * True once the traversal patterns of the methods have been created and the declarations of the
+   * class have been written; set by {@link Runtime#process_new_classes}.
+   */
+  public volatile boolean decls_written = false;
+
   /** Whether or not any methods in this class were instrumented. */
   public boolean shouldInclude = false;
 
@@ -1,7 +1,13 @@
 package daikon.chicory;
 
+import daikon.BinaryDtrace;
 import daikon.Chicory;
+import daikon.plumelib.util.StringsPlume;
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.StreamTokenizer;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
 import java.lang.reflect.Array;
 import java.lang.reflect.Field;
 import java.lang.reflect.Member;
@@ -40,17 +46,44 @@ public class DTraceWriter extends DaikonWriter {
   /** Where to print output. */
   private PrintWriter outFile;
 
+  /** Where to write samples in the binary format, or null to print them to outFile. */
+  private BinaryDtrace.@Nullable Writer binaryFile;
+
+  /** The type code of each variable of each program point in binaryFile, by id. */
+  private List<int[]> binaryTypeCodes = new ArrayList<>();
+
+  /** The variables of the sample being written to binaryFile. */
+  private List<DaikonVariableInfo> sampleVars = new ArrayList<>();
+
+  /** The value strings (as printed to a textual file) of the sample being written to binaryFile. */
+  private List<String> sampleValues = new ArrayList<>();
+
   /** debug information about daikon variables */
   private boolean debug_vars = false;
 
+  /** Scratch space for {@link #printLong}: enough for the sign and the digits of any long. */
+  private final char[] digits = new char[20];
+
   /**
    * Initializes the DTraceWriter.
    *
    * @param writer stream to write to
    */
   public DTraceWriter(PrintWriter writer) {
+    this(writer, null);
+  }
+
+  /**
+   * Initializes the DTraceWriter.
+   *
+   * @param writer stream to write to
+   * @param binary_writer if non-null, samples are written to it in the binary format rather than
+   *     to writer; writer must write to its text
+   */
+  public DTraceWriter(PrintWriter writer, BinaryDtrace.@Nullable Writer binary_writer) {
     super();
     outFile = writer;
+    binaryFile = binary_writer;
   }
 
   /** Prints the method entry program point in the dtrace file. */
@@ -79,6 +112,13 @@ public class DTraceWriter extends DaikonWriter {
       stack.fillInStackTrace();
       stack.printStackTrace(System.out);
     }
+    if (binaryFile != null) {
+      traverse(mi, root, args, obj, nonsenseValue);
+      writeBinarySample(DaikonWriter.methodEntryName(member), nonceVal);
+      Runtime.incrementRecords();
+      return;
+    }
+
     outFile.println(DaikonWriter.methodEntryName(member));
     printNonce(nonceVal);
     traverse(mi, root, args, obj, nonsenseValue);
@@ -94,6 +134,11 @@ public class DTraceWriter extends DaikonWriter {
     if (Runtime.dtrace_closed) {
       return;
     }
+    if (binaryFile != null) {
+      writeBinarySample(pptname, nonceVal);
+      Runtime.incrementRecords();
+      return;
+    }
     outFile.println(pptname);
     printNonce(nonceVal);
     outFile.println();
@@ -134,6 +179,13 @@ public class DTraceWriter extends DaikonWriter {
               + "No exit locations found in exit_locations set!");
     }
 
+    if (binaryFile != null) {
+      traverse(mi, root, args, obj, ret_val);
+      writeBinarySample(DaikonWriter.methodExitName(member, lineNum), nonceVal);
+      Runtime.incrementRecords();
+      return;
+    }
+
     outFile.println(DaikonWriter.methodExitName(member, lineNum));
     printNonce(nonceVal);
     traverse(mi, root, args, obj, ret_val);
@@ -149,6 +201,11 @@ public class DTraceWriter extends DaikonWriter {
     if (Runtime.dtrace_closed) {
       return;
     }
+    if (binaryFile != null) {
+      writeBinarySample(pptname, nonceVal);
+      Runtime.incrementRecords();
+      return;
+    }
     outFile.println(pptname);
     printNonce(nonceVal);
     outFile.println();
@@ -161,6 +218,183 @@ public class DTraceWriter extends DaikonWriter {
     outFile.println(val);
   }
 
+  /**
+   * Writes the variables collected in sampleVars and sampleValues to binaryFile as one sample.
+   * Before the first sample of a program point, also writes its variable list.
+   *
+   * @param pptname the name of the program point
+   * @param nonceVal the invocation nonce
+   */
+  private void writeBinarySample(@GuardSatisfied DTraceWriter this, String pptname, int nonceVal) {
+    BinaryDtrace.Writer binary = binaryFile;
+    assert binary != null : "@AssumeAssertion(nullness): called only when writing binary";
+    int num_vars = sampleVars.size();
+    try {
+      int id = binary.ppt_id(pptname);
+      if (id == -1) {
+        String[] names = new String[num_vars];
+        int[] type_codes = new int[num_vars];
+        for (int i = 0; i < num_vars; i++) {
+          DaikonVariableInfo var = sampleVars.get(i);
+          names[i] = var.getName();
+          type_codes[i] = BinaryDtrace.type_code(var.getRepTypeNameOnly());
+          if (type_codes[i] == -1) {
+            throw new RuntimeException(
+                "Variable "
+                    + names[i]
+                    + " of type "
+                    + var.getRepTypeNameOnly()
+                    + " cannot be written in the binary format, at program point "
+                    + pptname);
+          }
+        }
+        id = binary.declare_ppt(pptname, names, type_codes);
+        binaryTypeCodes.add(type_codes);
+      }
+
+      int[] type_codes = binaryTypeCodes.get(id);
+      if (type_codes.length != num_vars) {
+        throw new RuntimeException(
+            "Program point "
+                + pptname
+                + " has "
+                + num_vars
+                + " variables, but its first sample had "
+                + type_codes.length);
+      }
+      @Nullable Object[] vals = new @Nullable Object[num_vars];
+      int[] mods = new int[num_vars];
+      for (int i = 0; i < num_vars; i++) {
+        // The value and the modbit, on separate lines
+        String value_mod = sampleValues.get(i);
+        int sep = value_mod.lastIndexOf(DaikonWriter.lineSep);
+        String value = value_mod.substring(0, sep);
+        mods[i] = Integer.parseInt(value_mod.substring(sep + DaikonWriter.lineSep.length()));
+        if (mods[i] != 2) { // 2 means missing
+          vals[i] = parseValue(type_codes[i], value);
+        }
+      }
+      binary.write_sample(id, nonceVal, vals, mods);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      sampleVars.clear();
+      sampleValues.clear();
+    }
+  }
+
+  /**
+   * Parses a value printed by {@link DaikonVariableInfo#getDTraceValueString}, as Daikon does when
+   * it reads a textual dtrace file (see {@code daikon.ProglangType.parse_value}, which cannot be
+   * used here because Chicory must not load the rest of Daikon).
+   *
+   * @param type_code the type code of the variable
+   * @param value the text of the value
+   * @return the value: a Long, Double, String, long[], double[], or String[]; or null if the value
+   *     is null or nonsensical
+   */
+  private static @Nullable Object parseValue(int type_code, String value) {
+    switch (type_code) {
+      case BinaryDtrace.INT:
+        return parseLong(value);
+      case BinaryDtrace.DOUBLE:
+        return parseDouble(value);
+      case BinaryDtrace.STRING:
+        if (value.equals("null")) {
+          return null;
+        }
+        if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+          value = value.substring(1, value.length() - 1);
+        }
+        return StringsPlume.unescapeJava(value);
+      default:
+        break;
+    }
+
+    value = value.trim();
+    if (!(value.startsWith("[") && value.endsWith("]"))) {
+      // "null" or "nonsensical"
+      return null;
+    }
+    value = value.substring(1, value.length() - 1).trim();
+    if (type_code == BinaryDtrace.STRING_ARRAY) {
+      List<@Nullable String> elts = new ArrayList<>();
+      StreamTokenizer parser = new StreamTokenizer(new StringReader(value));
+      parser.quoteChar('\"');
+      try {
+        while (parser.nextToken() != StreamTokenizer.TT_EOF) {
+          if (parser.ttype == '\"') {
+            elts.add(parser.sval);
+          } else if (parser.ttype == StreamTokenizer.TT_WORD && parser.sval.equals("nonsensical")) {
+            return null;
+          } else if (parser.ttype == StreamTokenizer.TT_NUMBER) {
+            elts.add(Integer.toString((int) parser.nval));
+          } else {
+            elts.add(null);
+          }
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      return elts.toArray(new @Nullable String[0]);
+    }
+
+    String[] elts = value.isEmpty() ? new String[0] : value.split("[ \t]+");
+    if (type_code == BinaryDtrace.INT_ARRAY) {
+      long[] result = new long[elts.length];
+      for (int i = 0; i < elts.length; i++) {
+        Long elt = parseLong(elts[i]);
+        if (elt == null) {
+          return null;
+        }
+        result[i] = elt;
+      }
+      return result;
+    } else {
+      double[] result = new double[elts.length];
+      for (int i = 0; i < elts.length; i++) {
+        Double elt = parseDouble(elts[i]);
+        if (elt == null) {
+          return null;
+        }
+        result[i] = elt;
+      }
+      return result;
+    }
+  }
+
+  /** Parses an integer value, or returns null if it is nonsensical. */
+  private static @Nullable Long parseLong(String value) {
+    switch (value) {
+      case "nonsensical":
+        return null;
+      case "null":
+      case "false":
+        return 0L;
+      case "true":
+        return 1L;
+      default:
+        return Long.parseLong(value);
+    }
+  }
+
+  /** Parses a floating-point value, or returns null if it is nonsensical. */
+  private static @Nullable Double parseDouble(String value) {
+    if (value.equals("nonsensical")) {
+      return null;
+    } else if (value.equals("null")) {
+      return 0.0;
+    } else if (value.equalsIgnoreCase("NaN")) {
+      return Double.NaN;
+    } else if (value.equalsIgnoreCase("Infinity") || value.equals("inf")) {
+      return Double.POSITIVE_INFINITY;
+    } else if (value.equalsIgnoreCase("-Infinity") || value.equals("-inf")) {
+      return Double.NEGATIVE_INFINITY;
+    } else {
+      return Double.parseDouble(value);
+    }
+  }
+
   /**
    * Prints the method's return value and all relevant variables. Uses the tree of
    * DaikonVariableInfo objects.
@@ -218,8 +452,13 @@ public class DTraceWriter extends DaikonWriter {
 
     if (curInfo.dTraceShouldPrint()) {
       if (!(curInfo instanceof StaticObjInfo)) {
-        outFile.println(curInfo.getName());
-        outFile.println(curInfo.getDTraceValueString(val));
+        if (binaryFile != null) {
+          sampleVars.add(curInfo);
+          sampleValues.add(curInfo.getDTraceValueString(val));
+        } else {
+          outFile.println(curInfo.getName());
+          outFile.println(curInfo.getDTraceValueString(val));
+        }
       }
 
       if (debug_vars) {
@@ -234,12 +473,119 @@ public class DTraceWriter extends DaikonWriter {
     // and recurse on their values
     if (curInfo.dTraceShouldPrintChildren()) {
       for (DaikonVariableInfo child : curInfo) {
+        // Print primitive fields without creating a wrapper object for each value
+        if (child instanceof FieldInfo
+            && binaryFile == null
+            && !debug_vars
+            && child.dTraceShouldPrint()
+            && child.children.isEmpty()) {
+          FieldAccessor accessor = ((FieldInfo) child).primitive_accessor();
+          if (accessor != null) {
+            outFile.println(child.getName());
+            printFieldValue(accessor, child.isArray, val);
+            continue;
+          }
+        }
         Object childVal = child.getMyValFromParentVal(val);
         traverseValue(mi, child, childVal);
       }
     }
   }
 
+  /**
+   * Prints the value of a primitive field and its modified bit, as {@link
+   * DaikonVariableInfo#getDTraceValueString} would print the value returned by {@link
+   * FieldInfo#getMyValFromParentVal}.
+   *
+   * @param accessor reads the field
+   * @param isArray true if parentVal is a list of objects, each of which has the field
+   * @param parentVal the object that has the field, or a list of them
+   */
+  @SuppressWarnings("unchecked")
+  private void printFieldValue(
+      @GuardSatisfied DTraceWriter this,
+      FieldAccessor accessor,
+      boolean isArray,
+      @Nullable Object parentVal) {
+    if (parentVal == null
+        || parentVal instanceof NonsensicalObject
+        || parentVal instanceof NonsensicalList) {
+      outFile.print("nonsensical");
+      outFile.print(DaikonWriter.lineSep);
+      outFile.println('2');
+      return;
+    }
+    if (isArray) {
+      outFile.print('[');
+      boolean first = true;
+      for (Object elt : (List<Object>) parentVal) { // unchecked cast
+        if (!first) {
+          outFile.print(' ');
+        }
+        first = false;
+        if (elt == null || elt instanceof NonsensicalObject) {
+          outFile.print("nonsensical");
+        } else {
+          printPrimitiveValue(accessor, elt);
+        }
+      }
+      outFile.print(']');
+    } else {
+      printPrimitiveValue(accessor, parentVal);
+    }
+    outFile.print(DaikonWriter.lineSep);
+    outFile.println('1');
+  }
+
+  /**
+   * Prints the value of a primitive field of an object, as the toString method of its {@link
+   * Runtime.PrimitiveWrapper} would.
+   *
+   * @param accessor reads the field
+   * @param obj the object
+   */
+  private void printPrimitiveValue(
+      @GuardSatisfied DTraceWriter this, FieldAccessor accessor, Object obj) {
+    switch (accessor.kind) {
+      case FieldAccessor.INTEGRAL:
+        printLong(accessor.get_long(obj));
+        break;
+      case FieldAccessor.BOOLEAN:
+        outFile.print(accessor.get_boolean(obj));
+        break;
+      case FieldAccessor.FLOAT:
+        outFile.print(accessor.get_float(obj));
+        break;
+      case FieldAccessor.DOUBLE:
+        outFile.print(accessor.get_double(obj));
+        break;
+      default:
+        throw new Error("Unknown field kind " + accessor.kind);
+    }
+  }
+
+  /**
+   * Prints a long in decimal, without creating a String.
+   *
+   * @param value the value to print
+   */
+  private void printLong(@GuardSatisfied DTraceWriter this, long value) {
+    if (value == Long.MIN_VALUE) {
+      outFile.print(value);
+      return;
+    }
+    int pos = digits.length;
+    long rest = Math.abs(value);
+    do {
+      digits[--pos] = (char) ('0' + (rest % 10));
+      rest /= 10;
+    } while (rest != 0);
+    if (value < 0) {
+      digits[--pos] = '-';
+    }
+    outFile.write(digits, pos, digits.length - pos);
+  }
+
   /**
    * Returns a list of values of the field for each Object in theObjects.
    *
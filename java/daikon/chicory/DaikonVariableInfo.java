@@ -53,6 +53,12 @@ public abstract class DaikonVariableInfo
   /** The variable name. Sensible for all subtypes except RootInfo. */
   private final @Interned String name;
 
+  /**
+   * The name as returned by {@link #getName}, with the first "[]" replaced by "[..]". Computed once,
+   * because the name of each variable is printed in every dtrace record.
+   */
+  private final String printedName;
+
   /** The child nodes. */
   public List<DaikonVariableInfo> children;
 
@@ -152,6 +158,11 @@ public abstract class DaikonVariableInfo
     // same variable names at different program points within
     // the same class.
     name = theName.intern();
+    int brackets = name.indexOf("[]");
+    printedName =
+        (brackets < 0)
+            ? name
+            : name.substring(0, brackets) + "[..]" + name.substring(brackets + 2);
     this.typeName = typeName.intern();
     this.repTypeName = repTypeName.intern();
 
@@ -169,10 +180,7 @@ public abstract class DaikonVariableInfo
 
   /** Returns the name of this variable. */
   public @Nullable String getName(@GuardSatisfied DaikonVariableInfo this) {
-    if (name == null) {
-      return null;
-    }
-    return name.replaceFirst("\\[\\]", "[..]");
+    return printedName;
   }
 
   /**
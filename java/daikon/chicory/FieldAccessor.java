@@ -0,0 +1,145 @@
+package daikon.chicory;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Reads a primitive instance field of traced objects without creating a {@link
+ * Runtime.PrimitiveWrapper} for its value. Each accessor is created once, for a {@link FieldInfo},
+ * and holds a MethodHandle for the field, adapted to return the field's value as one of four
+ * primitive types. See {@link DTraceWriter#traverseValue}.
+ */
+final class FieldAccessor {
+
+  /** The kind of a field whose value is read as a long: byte, short, char, int, or long. */
+  static final int INTEGRAL = 0;
+
+  /** The kind of a boolean field. */
+  static final int BOOLEAN = 1;
+
+  /** The kind of a float field. */
+  static final int FLOAT = 2;
+
+  /** The kind of a double field. */
+  static final int DOUBLE = 3;
+
+  /** The kind of the field: {@link #INTEGRAL}, {@link #BOOLEAN}, {@link #FLOAT}, or {@link #DOUBLE}. */
+  final int kind;
+
+  /**
+   * Reads the field. Takes an Object and returns long, boolean, float, or double, according to
+   * {@link #kind}.
+   */
+  private final MethodHandle getter;
+
+  /**
+   * Creates an accessor.
+   *
+   * @param kind the kind of the field
+   * @param getter reads the field; its type must be as given by the kind
+   */
+  private FieldAccessor(int kind, MethodHandle getter) {
+    this.kind = kind;
+    this.getter = getter;
+  }
+
+  /**
+   * Returns an accessor for a field, or null if the field is static, is not primitive, or cannot be
+   * made accessible.
+   *
+   * @param field a field
+   * @return an accessor for the field, or null
+   */
+  static @Nullable FieldAccessor of(Field field) {
+    Class<?> type = field.getType();
+    if (!type.isPrimitive() || Modifier.isStatic(field.getModifiers())) {
+      return null;
+    }
+    int kind;
+    Class<?> result_type;
+    if (type == boolean.class) {
+      kind = BOOLEAN;
+      result_type = boolean.class;
+    } else if (type == float.class) {
+      kind = FLOAT;
+      result_type = float.class;
+    } else if (type == double.class) {
+      kind = DOUBLE;
+      result_type = double.class;
+    } else {
+      kind = INTEGRAL;
+      result_type = long.class;
+    }
+    try {
+      field.setAccessible(true);
+      MethodHandle getter =
+          MethodHandles.lookup()
+              .unreflectGetter(field)
+              .asType(MethodType.methodType(result_type, Object.class));
+      return new FieldAccessor(kind, getter);
+    } catch (IllegalAccessException | RuntimeException e) {
+      // Use reflection, as DTraceWriter.getValue does.
+      return null;
+    }
+  }
+
+  /**
+   * Returns the value of an integral field.
+   *
+   * @param obj an object that has the field
+   * @return the value of the field in obj
+   */
+  long get_long(Object obj) {
+    try {
+      return (long) getter.invokeExact(obj);
+    } catch (Throwable e) {
+      throw new Error(e);
+    }
+  }
+
+  /**
+   * Returns the value of a boolean field.
+   *
+   * @param obj an object that has the field
+   * @return the value of the field in obj
+   */
+  boolean get_boolean(Object obj) {
+    try {
+      return (boolean) getter.invokeExact(obj);
+    } catch (Throwable e) {
+      throw new Error(e);
+    }
+  }
+
+  /**
+   * Returns the value of a float field.
+   *
+   * @param obj an object that has the field
+   * @return the value of the field in obj
+   */
+  float get_float(Object obj) {
+    try {
+      return (float) getter.invokeExact(obj);
+    } catch (Throwable e) {
+      throw new Error(e);
+    }
+  }
+
+  /**
+   * Returns the value of a double field.
+   *
+   * @param obj an object that has the field
+   * @return the value of the field in obj
+   */
+  double get_double(Object obj) {
+    try {
+      return (double) getter.invokeExact(obj);
+    } catch (Throwable e) {
+      throw new Error(e);
+    }
+  }
+}
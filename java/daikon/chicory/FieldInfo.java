@@ -39,6 +39,12 @@ public class FieldInfo extends DaikonVariableInfo {
    */
   public DCRuntime.@MonotonicNonNull FieldTag field_tag = null;
 
+  /** Reads the field without wrapping its value; see {@link #primitive_accessor}. */
+  private @Nullable FieldAccessor accessor = null;
+
+  /** True once {@link #accessor} has been set. */
+  private boolean accessor_set = false;
+
   public FieldInfo(
       String theName, Field field, String typeName, String repTypeName, boolean isArr) {
     super(theName, typeName, repTypeName, isArr);
@@ -119,6 +125,22 @@ public class FieldInfo extends DaikonVariableInfo {
     }
   }
 
+  /**
+   * Returns an accessor that reads this field from its parent's value(s) without wrapping it, or
+   * null if this is not a non-static field of primitive type (or the field cannot be accessed that
+   * way). The accessor is created on the first call.
+   *
+   * @return an accessor for the field, or null
+   */
+  @Nullable FieldAccessor primitive_accessor() {
+    if (!accessor_set) {
+      // If several threads get here, each creates an equivalent accessor.
+      accessor = is_primitive ? FieldAccessor.of(field) : null;
+      accessor_set = true;
+    }
+    return accessor;
+  }
+
   public Field getField() {
     return field;
   }
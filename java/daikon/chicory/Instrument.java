@@ -1189,6 +1189,9 @@ public class Instrument extends InstructionListUtils implements ClassFileTransfo
     if (classname.equals("daikon/PptTopLevel$PptType")) {
       return true;
     }
+    if (classname.startsWith("daikon/BinaryDtrace")) {
+      return true;
+    }
     if (classname.startsWith("daikon/plumelib")) {
       return true;
     }
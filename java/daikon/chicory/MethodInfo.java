@@ -6,8 +6,10 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.checkerframework.checker.lock.qual.GuardSatisfied;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
 import org.checkerframework.checker.nullness.qual.RequiresNonNull;
 import org.checkerframework.checker.signature.qual.ClassGetName;
 import org.checkerframework.dataflow.qual.Pure;
@@ -68,11 +70,20 @@ public class MethodInfo {
    */
   public @MonotonicNonNull RootInfo traversalExit = null;
 
-  /** The number of times this method has been called. */
-  public int call_cnt = 0;
+  /**
+   * The number of times this method has been called. Atomic because, when Chicory buffers the
+   * records of each thread, threads that call the method do not hold a common lock.
+   */
+  public final AtomicInteger call_cnt = new AtomicInteger();
 
   /** The number of times we have captured the output for this method. */
-  public int capture_cnt = 0;
+  public final AtomicInteger capture_cnt = new AtomicInteger();
+
+  /**
+   * Selects the calls to record when sampling by value novelty, or null if not doing so. Set by
+   * Runtime along with the traversal patterns.
+   */
+  @Nullable NoveltyFilter novelty_filter = null;
 
   /**
    * Whether or not the method is pure (has no side-effects). Will only be set to true if the {@code
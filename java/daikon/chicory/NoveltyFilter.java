@@ -0,0 +1,199 @@
+package daikon.chicory;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Decides which calls of a method are recorded when sampling by value novelty (see Chicory's
+ * {@code --sample-novelty} option). A call is novel if the fingerprint of its scalar arguments and
+ * of the scalar fields of its receiver differs from the fingerprints of the recent calls of the
+ * method.
+ *
+ * <p>The fingerprint is a hash of the values of primitive and String arguments and fields. Other
+ * references only contribute whether they are null and, for arrays, their length; their contents
+ * are not examined, so that computing the fingerprint costs much less than writing a record.
+ */
+final class NoveltyFilter {
+
+  /** The number of fingerprints in a bucket of {@link #recent}. */
+  private static final int WAYS = 4;
+
+  /**
+   * Fingerprints of recent calls, in buckets of {@link #WAYS} consecutive elements. The low bits of
+   * a fingerprint select its bucket. Within a bucket, the most recently inserted fingerprint is
+   * first, and the oldest is dropped when another is inserted. 0 means empty.
+   */
+  private final long[] recent;
+
+  /** The mask that selects the first index of a bucket of {@link #recent} from a fingerprint. */
+  private final int mask;
+
+  /** The non-static scalar fields of the class that declares the method. */
+  private final Field[] receiver_fields;
+
+  /**
+   * Creates a filter for a method.
+   *
+   * @param mi the method, whose class has been initialized via reflection
+   * @param size the approximate number of recent distinct calls to remember
+   */
+  NoveltyFilter(MethodInfo mi, int size) {
+    // Twice as many slots as fingerprints to remember, so that few buckets overflow.
+    int length = Math.max(WAYS, Integer.highestOneBit(Math.max(1, size - 1)) << 2);
+    recent = new long[length];
+    mask = (length - 1) & ~(WAYS - 1);
+
+    List<Field> fields = new ArrayList<>();
+    Class<?> clazz = mi.class_info.clazz;
+    if (clazz != null) {
+      for (Field field : clazz.getDeclaredFields()) {
+        if (Modifier.isStatic(field.getModifiers())) {
+          continue;
+        }
+        Class<?> type = field.getType();
+        if (!type.isPrimitive() && type != String.class) {
+          continue;
+        }
+        try {
+          field.setAccessible(true);
+        } catch (RuntimeException e) {
+          // Not accessible (e.g., SecurityException); leave it out of the fingerprint.
+          continue;
+        }
+        fields.add(field);
+      }
+    }
+    receiver_fields = fields.toArray(new Field[0]);
+  }
+
+  /**
+   * Returns true if the given call is novel, and remembers it.
+   *
+   * @param obj receiver of the call, or null if the method is static or a constructor
+   * @param args arguments of the call
+   * @return true if no recent call had the same fingerprint
+   */
+  synchronized boolean is_novel(@Nullable Object obj, Object[] args) {
+    long fp = fingerprint(obj, args);
+    int bucket = (int) fp & mask;
+    for (int i = bucket; i < bucket + WAYS; i++) {
+      if (recent[i] == fp) {
+        return false;
+      }
+    }
+    System.arraycopy(recent, bucket, recent, bucket + 1, WAYS - 1);
+    recent[bucket] = fp;
+    return true;
+  }
+
+  /**
+   * Returns the fingerprint of a call. Never returns 0.
+   *
+   * @param obj receiver of the call, or null
+   * @param args arguments of the call
+   * @return the fingerprint of the call
+   */
+  private long fingerprint(@Nullable Object obj, Object[] args) {
+    long h = args.length;
+    for (Object arg : args) {
+      h = mix(h, value_hash(arg));
+    }
+    if (obj != null) {
+      for (Field field : receiver_fields) {
+        h = mix(h, field_hash(field, obj));
+      }
+    }
+    // Final avalanche (from MurmurHash3's fmix64), so that the low bits depend on every value.
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return (h == 0) ? 1 : h;
+  }
+
+  /**
+   * Combines a hash with another value.
+   *
+   * @param h the hash so far
+   * @param v the value to add to it
+   * @return the combined hash
+   */
+  private static long mix(long h, long v) {
+    return (h ^ v) * 0x9e3779b97f4a7c15L + 0x632be59bd9b4e019L;
+  }
+
+  /**
+   * Returns a hash of an argument, as passed to {@link Runtime#enter}.
+   *
+   * @param arg an argument; primitive values are wrapped in a {@link Runtime.PrimitiveWrapper}
+   * @return a hash of the argument's scalar value
+   */
+  private static long value_hash(@Nullable Object arg) {
+    if (arg == null) {
+      return 0;
+    } else if (arg instanceof Runtime.IntWrap) {
+      return ((Runtime.IntWrap) arg).val;
+    } else if (arg instanceof Runtime.LongWrap) {
+      return ((Runtime.LongWrap) arg).val;
+    } else if (arg instanceof Runtime.DoubleWrap) {
+      return Double.doubleToLongBits(((Runtime.DoubleWrap) arg).val);
+    } else if (arg instanceof Runtime.FloatWrap) {
+      return Float.floatToIntBits(((Runtime.FloatWrap) arg).val);
+    } else if (arg instanceof Runtime.BooleanWrap) {
+      return ((Runtime.BooleanWrap) arg).val ? 1 : 2;
+    } else if (arg instanceof Runtime.CharWrap) {
+      return ((Runtime.CharWrap) arg).val;
+    } else if (arg instanceof Runtime.ByteWrap) {
+      return ((Runtime.ByteWrap) arg).val;
+    } else if (arg instanceof Runtime.ShortWrap) {
+      return ((Runtime.ShortWrap) arg).val;
+    } else if (arg instanceof String) {
+      return arg.hashCode();
+    } else if (arg.getClass().isArray()) {
+      return 3 + Array.getLength(arg);
+    } else {
+      return 4;
+    }
+  }
+
+  /**
+   * Returns a hash of a scalar field of an object.
+   *
+   * @param field a non-static primitive or String field
+   * @param obj the object
+   * @return a hash of the field's value
+   */
+  private static long field_hash(Field field, Object obj) {
+    try {
+      Class<?> type = field.getType();
+      if (type == int.class) {
+        return field.getInt(obj);
+      } else if (type == long.class) {
+        return field.getLong(obj);
+      } else if (type == double.class) {
+        return Double.doubleToLongBits(field.getDouble(obj));
+      } else if (type == float.class) {
+        return Float.floatToIntBits(field.getFloat(obj));
+      } else if (type == boolean.class) {
+        return field.getBoolean(obj) ? 1 : 2;
+      } else if (type == char.class) {
+        return field.getChar(obj);
+      } else if (type == byte.class) {
+        return field.getByte(obj);
+      } else if (type == short.class) {
+        return field.getShort(obj);
+      } else {
+        Object value = field.get(obj);
+        return (value == null) ? 0 : value.hashCode();
+      }
+    } catch (IllegalAccessException | IllegalArgumentException e) {
+      // The receiver is of an unexpected class; ignore the field.
+      return 0;
+    }
+  }
+}
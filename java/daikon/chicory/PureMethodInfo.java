@@ -65,12 +65,11 @@ public class PureMethodInfo extends DaikonVariableInfo {
   public @Nullable Object getMyValFromParentVal(Object parentVal) {
     @SuppressWarnings("nullness") // not a class initializer, so meth != null
     @NonNull Method meth = (Method) minfo.member;
-    boolean changedAccess = false;
     Object retVal;
 
-    // we want to access all methods...
+    // we want to access all methods...  Access is not reset afterward, as in
+    // DTraceWriter.getValue, because other threads may be using the method.
     if (!meth.isAccessible()) {
-      changedAccess = true;
       meth.setAccessible(true);
     }
 
@@ -100,10 +99,6 @@ public class PureMethodInfo extends DaikonVariableInfo {
       }
     }
 
-    if (changedAccess) {
-      meth.setAccessible(false);
-    }
-
     return retVal;
   }
 
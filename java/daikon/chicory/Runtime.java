@@ -2,6 +2,8 @@ package daikon.chicory;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
+import daikon.BinaryDtrace;
+import daikon.Chicory;
 import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
 import java.io.File;
@@ -17,15 +19,17 @@ import java.net.SocketAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.ConcurrentModificationException;
 import java.util.Deque;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 import java.util.zip.GZIPOutputStream;
 import org.checkerframework.checker.lock.qual.GuardSatisfied;
@@ -95,7 +99,7 @@ public class Runtime {
   static long dtraceLimit = Long.MAX_VALUE;
 
   /** Number of records printed to date. */
-  static long printedRecords = 0;
+  static final AtomicLong printedRecords = new AtomicLong();
 
   /** Terminate the program when the dtrace limit is reached. */
   static boolean dtraceLimitTerminate = false;
@@ -107,8 +111,19 @@ public class Runtime {
   )
   static @Owning @GuardedBy("<self>") PrintWriter dtrace;
 
+  /**
+   * The binary writer to whose text {@link #dtrace} writes, if the dtrace file is in binary format.
+   */
+  static BinaryDtrace.@Nullable Writer binary_dtrace = null;
+
   /** Set to true when the dtrace stream is closed. */
-  static boolean dtrace_closed = false;
+  static volatile boolean dtrace_closed = false;
+
+  /**
+   * The per-thread trace buffers, if Chicory's {@code --thread-buffers} option was given. If null,
+   * each record is written directly to {@link #dtrace} while holding the lock on Runtime.class.
+   */
+  static @Nullable TraceBuffers trace_buffers = null;
 
   /** True if no dtrace is being generated. */
   static boolean no_dtrace = false;
@@ -131,7 +146,7 @@ public class Runtime {
    * Which static initializers have been run. Each element of the Set is a fully qualified class
    * name.
    */
-  private static Set<String> initSet = new HashSet<>();
+  private static Set<String> initSet = Collections.newSetFromMap(new ConcurrentHashMap<>());
 
   /** Class of information about each active call. */
   private static class CallInfo {
@@ -140,7 +155,6 @@ public class Runtime {
     /** whether or not the call was captured on enter */
     boolean captured;
 
-    @Holding("Runtime.class")
     public CallInfo(int nonce, boolean captured) {
       this.nonce = nonce;
       this.captured = captured;
@@ -151,6 +165,15 @@ public class Runtime {
   private static @GuardedBy("Runtime.class") Map<Thread, Deque<CallInfo>> thread_to_callstack =
       new LinkedHashMap<>();
 
+  /** Stack of active methods of the current thread, when {@link #trace_buffers} is used. */
+  private static final ThreadLocal<Deque<CallInfo>> buffered_callstack =
+      new ThreadLocal<Deque<CallInfo>>() {
+        @Override
+        protected Deque<CallInfo> initialValue() {
+          return new ArrayDeque<CallInfo>();
+        }
+      };
+
   /**
    * Sample count at a call site to begin sampling. All previous calls will be recorded. Sampling
    * starts at 10% and decreases by a factor of 10 each time another sample_start samples have been
@@ -158,6 +181,14 @@ public class Runtime {
    */
   public static int sample_start = 0;
 
+  /**
+   * If positive, a call is recorded only if its scalar arguments and receiver fields differ from
+   * those of the recent calls of the method; this many recent distinct calls are remembered (see
+   * {@link NoveltyFilter}). Calls that are not novel are then sampled as given by {@link
+   * #sample_start}, or not recorded at all if it is 0.
+   */
+  public static int sample_novelty = 0;
+
   // Constructor
   private Runtime() {
     throw new Error("Do not create instances of Runtime");
@@ -197,12 +228,22 @@ public class Runtime {
 
   @Holding("Runtime.class")
   public static void startPure() {
-    invokingPure = true;
+    TraceBuffers buffers = trace_buffers;
+    if (buffers != null) {
+      buffers.state().invoking_pure = true;
+    } else {
+      invokingPure = true;
+    }
   }
 
   @Holding("Runtime.class")
   public static void endPure() {
-    invokingPure = false;
+    TraceBuffers buffers = trace_buffers;
+    if (buffers != null) {
+      buffers.state().invoking_pure = false;
+    } else {
+      invokingPure = false;
+    }
   }
 
   /**
@@ -213,7 +254,27 @@ public class Runtime {
    * @param mi_index index in methods of the MethodInfo for this method
    * @param args array of arguments to method
    */
-  public static synchronized void enter(
+  public static void enter(@Nullable Object obj, int nonce, int mi_index, Object[] args) {
+    TraceBuffers buffers = trace_buffers;
+    if (buffers != null) {
+      enter_buffered(buffers, obj, nonce, mi_index, args);
+      return;
+    }
+    synchronized (Runtime.class) {
+      enter_serialized(obj, nonce, mi_index, args);
+    }
+  }
+
+  /**
+   * Implements {@link #enter} when records are written directly to {@link #dtrace}.
+   *
+   * @param obj receiver of the method that was entered, or null if method is static
+   * @param nonce nonce identifying which enter/exit pair this is
+   * @param mi_index index in methods of the MethodInfo for this method
+   * @param args array of arguments to method
+   */
+  @Holding("Runtime.class")
+  private static void enter_serialized(
       @Nullable Object obj, int nonce, int mi_index, Object[] args) {
 
     MethodInfo mi = null;
@@ -252,22 +313,12 @@ public class Runtime {
       synchronized (SharedData.methods) {
         mi = SharedData.methods.get(mi_index);
       }
-      mi.call_cnt++;
+      int call_cnt = mi.call_cnt.incrementAndGet();
 
       // If sampling, check to see if we are capturing this sample
       boolean capture = true;
-      if (sample_start > 0) {
-        if (mi.call_cnt <= sample_start) {
-          // nothing to do
-        } else if (mi.call_cnt <= (sample_start * 10)) {
-          capture = (mi.call_cnt % 10) == 0;
-        } else if (mi.call_cnt <= (sample_start * 100)) {
-          capture = (mi.call_cnt % 100) == 0;
-        } else if (mi.call_cnt <= (sample_start * 1000)) {
-          capture = (mi.call_cnt % 1000) == 0;
-        } else {
-          capture = (mi.call_cnt % 10000) == 0;
-        }
+      if (is_sampling()) {
+        capture = should_capture(mi, call_cnt, obj, args);
         Thread t = Thread.currentThread();
         @SuppressWarnings("lock:method.invocation") // CF bug: inference failed
         Deque<CallInfo> callstack =
@@ -276,7 +327,7 @@ public class Runtime {
       }
 
       if (capture) {
-        mi.capture_cnt++;
+        mi.capture_cnt.incrementAndGet();
         // long start = System.currentTimeMillis();
         if (mi.member == null) {
           dtrace_writer.clinitEntry(mi.class_info.class_name + ".<clinit>:::ENTER", nonce);
@@ -305,7 +356,35 @@ public class Runtime {
    * @param ret_val return value of method, or null if method is void
    * @param exitLineNum the line number at which this method exited
    */
-  public static synchronized void exit(
+  public static void exit(
+      @Nullable Object obj,
+      int nonce,
+      int mi_index,
+      Object[] args,
+      Object ret_val,
+      int exitLineNum) {
+    TraceBuffers buffers = trace_buffers;
+    if (buffers != null) {
+      exit_buffered(buffers, obj, nonce, mi_index, args, ret_val, exitLineNum);
+      return;
+    }
+    synchronized (Runtime.class) {
+      exit_serialized(obj, nonce, mi_index, args, ret_val, exitLineNum);
+    }
+  }
+
+  /**
+   * Implements {@link #exit} when records are written directly to {@link #dtrace}.
+   *
+   * @param obj receiver of the method that was entered, or null if method is static
+   * @param nonce nonce identifying which enter/exit pair this is
+   * @param mi_index index in methods of the MethodInfo for this method
+   * @param args array of arguments to method
+   * @param ret_val return value of method, or null if method is void
+   * @param exitLineNum the line number at which this method exited
+   */
+  @Holding("Runtime.class")
+  private static void exit_serialized(
       @Nullable Object obj,
       int nonce,
       int mi_index,
@@ -348,7 +427,7 @@ public class Runtime {
       }
 
       // Skip this call if it was not sampled at entry to the method
-      if (sample_start > 0) {
+      if (is_sampling()) {
         CallInfo ci = null;
         @SuppressWarnings("nullness") // map: key was put in map by enter()
         @NonNull Deque<CallInfo> callstack = thread_to_callstack.get(Thread.currentThread());
@@ -387,6 +466,195 @@ public class Runtime {
     }
   }
 
+  /**
+   * Implements {@link #enter} when each thread buffers its own records. The lock on Runtime.class
+   * is only taken to process new classes.
+   *
+   * @param buffers the trace buffers
+   * @param obj receiver of the method that was entered, or null if method is static
+   * @param nonce nonce identifying which enter/exit pair this is
+   * @param mi_index index in methods of the MethodInfo for this method
+   * @param args array of arguments to method
+   */
+  private static void enter_buffered(
+      TraceBuffers buffers, @Nullable Object obj, int nonce, int mi_index, Object[] args) {
+    TraceBuffers.ThreadState state = buffers.state();
+    if (state.invoking_pure || state.in_dtrace) {
+      return;
+    }
+
+    state.in_dtrace = true;
+    try {
+      MethodInfo mi = buffered_method_info(mi_index);
+      int call_cnt = mi.call_cnt.incrementAndGet();
+
+      boolean capture = true;
+      if (is_sampling()) {
+        capture = should_capture(mi, call_cnt, obj, args);
+        buffered_callstack.get().push(new CallInfo(nonce, capture));
+      }
+
+      if (capture) {
+        mi.capture_cnt.incrementAndGet();
+        if (mi.member == null) {
+          buffers.clinit_entry(state, mi.class_info.class_name + ".<clinit>:::ENTER", nonce);
+        } else {
+          buffers.method_entry(state, mi, nonce, obj, args);
+        }
+      }
+    } finally {
+      state.in_dtrace = false;
+    }
+
+    if (buffers.limit_reached) {
+      noMoreOutput();
+    }
+  }
+
+  /**
+   * Implements {@link #exit} when each thread buffers its own records. The lock on Runtime.class is
+   * only taken to process new classes.
+   *
+   * @param buffers the trace buffers
+   * @param obj receiver of the method that was entered, or null if method is static
+   * @param nonce nonce identifying which enter/exit pair this is
+   * @param mi_index index in methods of the MethodInfo for this method
+   * @param args array of arguments to method
+   * @param ret_val return value of method, or null if method is void
+   * @param exitLineNum the line number at which this method exited
+   */
+  private static void exit_buffered(
+      TraceBuffers buffers,
+      @Nullable Object obj,
+      int nonce,
+      int mi_index,
+      Object[] args,
+      Object ret_val,
+      int exitLineNum) {
+    TraceBuffers.ThreadState state = buffers.state();
+    if (state.invoking_pure || state.in_dtrace) {
+      return;
+    }
+
+    state.in_dtrace = true;
+    try {
+      MethodInfo mi = buffered_method_info(mi_index);
+
+      // Skip this call if it was not sampled at entry to the method
+      if (is_sampling()) {
+        CallInfo ci = null;
+        Deque<CallInfo> callstack = buffered_callstack.get();
+        while (!callstack.isEmpty()) {
+          ci = callstack.pop();
+          if (ci.nonce == nonce) {
+            break;
+          }
+        }
+        if (ci == null) {
+          System.out.printf("no enter for exit %s%n", mi);
+          return;
+        } else if (!ci.captured) {
+          return;
+        }
+      }
+
+      if (mi.member == null) {
+        buffers.clinit_exit(
+            state, mi.class_info.class_name + ".<clinit>:::EXIT" + exitLineNum, nonce);
+      } else {
+        buffers.method_exit(state, mi, nonce, obj, args, ret_val, exitLineNum);
+      }
+    } finally {
+      state.in_dtrace = false;
+    }
+
+    if (buffers.limit_reached) {
+      noMoreOutput();
+    }
+  }
+
+  /**
+   * Returns the MethodInfo with the given index, after processing any new classes. The
+   * declarations of the method's class have been written when this returns.
+   *
+   * @param mi_index index in methods of the MethodInfo
+   * @return the MethodInfo with the given index
+   */
+  @SuppressWarnings("StaticGuardedByInstance")
+  private static MethodInfo buffered_method_info(int mi_index) {
+    int num_new_classes = 0;
+    synchronized (SharedData.new_classes) {
+      num_new_classes = SharedData.new_classes.size();
+    }
+    MethodInfo mi;
+    synchronized (SharedData.methods) {
+      mi = SharedData.methods.get(mi_index);
+    }
+    if (num_new_classes > 0 || !mi.class_info.decls_written) {
+      // Declarations are written directly to dtrace, between the buffers of records that the
+      // writer thread appends.
+      final @GuardedBy("<self>") PrintWriter dtrace = Runtime.dtrace;
+      synchronized (Runtime.class) {
+        synchronized (dtrace) {
+          process_new_classes();
+        }
+      }
+    }
+    return mi;
+  }
+
+  /**
+   * Returns true if only some calls are recorded.
+   *
+   * @return true if sample_start or sample_novelty is set
+   */
+  private static boolean is_sampling() {
+    return sample_start > 0 || sample_novelty > 0;
+  }
+
+  /**
+   * Returns true if the current call of a method should be recorded, when sampling.
+   *
+   * @param mi the method
+   * @param call_cnt the number of calls of the method, including the current call
+   * @param obj receiver of the method, or null if method is static
+   * @param args arguments to the method
+   * @return true if the current call should be recorded
+   */
+  private static boolean should_capture(
+      MethodInfo mi, int call_cnt, @Nullable Object obj, Object[] args) {
+    if (sample_novelty > 0) {
+      // Class initializers have no filter; they are called once.
+      NoveltyFilter filter = mi.novelty_filter;
+      if (filter == null || filter.is_novel(obj, args)) {
+        return true;
+      }
+      return sample_start > 0 && is_sampled(call_cnt);
+    }
+    return is_sampled(call_cnt);
+  }
+
+  /**
+   * Returns true if the current call of a method should be recorded, when sampling by call count.
+   * All of the first sample_start calls are recorded, then every 10th call, and so on.
+   *
+   * @param call_cnt the number of calls of the method, including the current call
+   * @return true if the current call should be recorded
+   */
+  private static boolean is_sampled(int call_cnt) {
+    if (call_cnt <= sample_start) {
+      return true;
+    } else if (call_cnt <= (sample_start * 10)) {
+      return (call_cnt % 10) == 0;
+    } else if (call_cnt <= (sample_start * 100)) {
+      return (call_cnt % 100) == 0;
+    } else if (call_cnt <= (sample_start * 1000)) {
+      return (call_cnt % 1000) == 0;
+    } else {
+      return (call_cnt % 10000) == 0;
+    }
+  }
+
   /**
    * Called by classes when they have finished initialization (i.e., their static initializer has
    * completed).
@@ -449,15 +717,19 @@ public class Runtime {
       for (MethodInfo mi : class_info.method_infos) {
         mi.traversalEnter = RootInfo.enter_process(mi, Runtime.nesting_depth);
         mi.traversalExit = RootInfo.exit_process(mi, Runtime.nesting_depth);
+        if (sample_novelty > 0) {
+          mi.novelty_filter = new NoveltyFilter(mi, sample_novelty);
+        }
       }
 
       decl_writer.printDeclClass(class_info, comp_info);
+      class_info.decls_written = true;
     }
   }
 
   /** Increment the number of records that have been printed. */
   public static void incrementRecords() {
-    printedRecords++;
+    long printed = printedRecords.incrementAndGet();
 
     // This should only print a percentage if dtraceLimit is not its
     // default value.
@@ -465,8 +737,15 @@ public class Runtime {
     //     System.out.printf("printed=%d, percent printed=%f%n", printedRecords,
     //                       (float)(100.0*(float)printedRecords/(float)dtraceLimit));
 
-    if (printedRecords >= dtraceLimit) {
-      noMoreOutput();
+    if (printed >= dtraceLimit) {
+      TraceBuffers buffers = trace_buffers;
+      if (buffers != null) {
+        // The record is being written while holding the lock on the thread's buffer, and
+        // noMoreOutput needs the locks on all of the buffers; the caller calls it after writing.
+        buffers.limit_reached = true;
+      } else {
+        noMoreOutput();
+      }
     }
   }
 
@@ -490,10 +769,21 @@ public class Runtime {
     // is not effectively final, this would unfortunately mask that error.
     final @GuardedBy("<self>") PrintWriter dtrace = Runtime.dtrace;
 
+    TraceBuffers buffers = trace_buffers;
+    if (buffers != null) {
+      buffers.close();
+    }
+
     synchronized (dtrace) {
+      if (dtrace_closed) {
+        // Another thread reached the limit at the same time.
+        return;
+      }
       // The shutdown hook is synchronized on this, so close it up
       // ourselves, lest the call to System.exit cause deadlock.
       dtrace.println();
+      // As in the shutdown hook, which does nothing once the file is closed here.
+      print_suppressed_calls(dtrace);
       dtrace.println("# EOF (added by no_more_output)");
       dtrace.close();
 
@@ -504,9 +794,10 @@ public class Runtime {
       dtrace_closed = true;
 
       if (dtraceLimitTerminate) {
-        System.out.println("Printed " + printedRecords + " records to dtrace file.  Exiting.");
+        System.out.println(
+            "Printed " + printedRecords.get() + " records to dtrace file.  Exiting.");
         throw new TerminationMessage(
-            "Printed " + printedRecords + " records to dtrace file.  Exiting.");
+            "Printed " + printedRecords.get() + " records to dtrace file.  Exiting.");
         // System.exit(1);
       } else {
         // By default, no special output if the system continues to run.
@@ -593,7 +884,18 @@ public class Runtime {
 
       // 8192 is the buffer size in BufferedReader
       BufferedOutputStream bos = new BufferedOutputStream(os, 8192);
-      dtrace = new PrintWriter(new BufferedWriter(new OutputStreamWriter(bos, UTF_8)));
+      if (Chicory.binary_dtrace) {
+        if (append) {
+          throw new Error(
+              "DTRACEAPPEND environment variable is set, "
+                  + "Cannot append to binary dtrace file "
+                  + filename);
+        }
+        binary_dtrace = new BinaryDtrace.Writer(bos);
+        dtrace = new PrintWriter(binary_dtrace.text());
+      } else {
+        dtrace = new PrintWriter(new BufferedWriter(new OutputStreamWriter(bos, UTF_8)));
+      }
     } catch (Exception e) {
       if (os != null) {
         try {
@@ -644,6 +946,39 @@ public class Runtime {
     }
   }
 
+  /**
+   * If sampling, writes a comment to the dtrace file for each method of which some calls were not
+   * recorded, giving the number of calls that were not recorded and the total number of calls. For
+   * example:
+   *
+   * <pre>
+   * # suppressed 19880 of 20000 calls: M.square(int):::ENTER
+   * </pre>
+   *
+   * @param dtrace the dtrace file
+   */
+  private static void print_suppressed_calls(PrintWriter dtrace) {
+    if (!is_sampling()) {
+      return;
+    }
+    synchronized (SharedData.methods) {
+      for (MethodInfo mi : SharedData.methods) {
+        int call_cnt = mi.call_cnt.get();
+        int capture_cnt = mi.capture_cnt.get();
+        if (call_cnt <= capture_cnt) {
+          continue;
+        }
+        String ppt_name =
+            (mi.member == null)
+                ? mi.class_info.class_name + ".<clinit>:::ENTER"
+                : DaikonWriter.methodEntryName(mi.member);
+        dtrace.printf(
+            "# suppressed %d of %d calls: %s%n",
+            call_cnt - capture_cnt, call_cnt, ppt_name);
+      }
+    }
+  }
+
   /** Add a shutdown hook to close the PrintWriter when the program exits. */
   private static void addShutdownHook() {
     java.lang.Runtime.getRuntime()
@@ -653,12 +988,17 @@ public class Runtime {
               @SuppressWarnings("lock") // non-final field
               public void run() {
                 if (!dtrace_closed) {
+                  TraceBuffers buffers = trace_buffers;
+                  if (buffers != null) {
+                    buffers.close();
+                  }
                   // When the program being instrumented exits, the buffers
                   // of the "dtrace" (PrintWriter) object are not flushed,
                   // so we miss the tail of the file.
 
                   synchronized (Runtime.dtrace) {
                     dtrace.println();
+                    print_suppressed_calls(dtrace);
                     // These are for debugging, I assume. -MDE
                     for (Pattern p : ppt_omit_pattern) {
                       dtrace.println("# ppt-omit-pattern: " + p);
@@ -680,7 +1020,7 @@ public class Runtime {
                     System.out.println(
                         "Check the --ppt-select-pattern and --ppt-omit-pattern options");
                   }
-                } else if (printedRecords == 0) {
+                } else if (printedRecords.get() == 0) {
                   System.out.println("Chicory warning: no records were printed");
                 }
               }
@@ -0,0 +1,420 @@
+package daikon.chicory;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import org.checkerframework.checker.lock.qual.GuardedBy;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * The trace buffers of Chicory's {@code --thread-buffers} mode. Each thread of the target program
+ * formats its dtrace records into a buffer of its own, without taking a global lock. Full buffers
+ * are handed to a daemon thread, which appends them to {@link Runtime#dtrace}.
+ *
+ * <p>The records of one thread appear in the dtrace file in the order in which they were written,
+ * but the records of different threads are interleaved in larger blocks than when records are
+ * written while holding the lock on Runtime.class. Daikon pairs the ENTER and EXIT records of a
+ * call by their nonce, so the interleaving does not matter to it. Declarations are still written
+ * directly to {@link Runtime#dtrace} (see {@link Runtime#process_new_classes}); they are written
+ * before any record of the class's program points is buffered, so they precede those records in
+ * the file.
+ *
+ * <p>The only lock on the dtrace stream is that of {@link Runtime#dtrace} itself. A thread that is
+ * writing a record holds only the lock of its own {@link ThreadState}.
+ */
+final class TraceBuffers {
+
+  /** A thread's buffer is handed to the writer thread once it holds this many characters. */
+  private static final int CHUNK_SIZE = 1 << 16;
+
+  /**
+   * If more than this many characters are waiting for the writer thread, threads that write
+   * records pause to let it catch up.
+   */
+  private static final long MAX_PENDING = 64L * CHUNK_SIZE;
+
+  /** The longest that a thread pauses for the writer thread, after writing one record. */
+  private static final long MAX_PAUSE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+  /** How long a thread that waits for the writer thread sleeps at a time. */
+  private static final long PAUSE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  /**
+   * How often the writer thread collects partially filled buffers. The writer thread is woken
+   * earlier when a full buffer is queued.
+   */
+  private static final long COLLECT_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+  /** Characters to be appended to the dtrace stream. */
+  private static final class Chunk {
+    /** The characters; only the first {@link #length} are used. */
+    final char[] chars;
+
+    /** The number of characters in the chunk. */
+    final int length;
+
+    /**
+     * Creates a chunk.
+     *
+     * @param chars the characters
+     * @param length the number of characters used
+     */
+    Chunk(char[] chars, int length) {
+      this.chars = chars;
+      this.length = length;
+    }
+  }
+
+  /**
+   * A Writer that appends to an array of characters that can be taken away from it. A char array
+   * is used rather than a StringBuilder, so that the characters are not copied again to be encoded.
+   */
+  private static final class RecordBuffer extends Writer {
+    /** The characters written since the buffer was last taken. */
+    char[] chars = new char[CHUNK_SIZE + CHUNK_SIZE / 4];
+
+    /** The number of characters in {@link #chars}. */
+    int length = 0;
+
+    /**
+     * Makes room for more characters.
+     *
+     * @param more the number of characters about to be written
+     */
+    private void reserve(int more) {
+      if (length + more > chars.length) {
+        chars = Arrays.copyOf(chars, Math.max(2 * chars.length, length + more));
+      }
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) {
+      reserve(len);
+      System.arraycopy(cbuf, off, chars, length, len);
+      length += len;
+    }
+
+    @Override
+    public void write(String str, int off, int len) {
+      reserve(len);
+      str.getChars(off, off + len, chars, length);
+      length += len;
+    }
+
+    @Override
+    public void write(int c) {
+      reserve(1);
+      chars[length++] = (char) c;
+    }
+
+    @Override
+    public void flush() {}
+
+    @Override
+    public void close() {}
+
+    /**
+     * Returns the characters written so far, and starts a new, empty buffer.
+     *
+     * @return the characters written since the last call
+     */
+    Chunk take() {
+      Chunk result = new Chunk(chars, length);
+      chars = new char[CHUNK_SIZE + CHUNK_SIZE / 4];
+      length = 0;
+      return result;
+    }
+  }
+
+  /**
+   * The tracing state of one thread of the target program. The fields that are not final are only
+   * accessed by that thread. The buffer is written by that thread and taken by the writer thread,
+   * both while holding the lock on the ThreadState.
+   */
+  static final class ThreadState {
+    /** The thread whose records are buffered here. */
+    final Thread thread;
+
+    /** The buffer that the thread's records are written to. */
+    private final @GuardedBy("<self>") RecordBuffer buffer = new RecordBuffer();
+
+    /** Formats the thread's records into {@link #buffer}. */
+    final DTraceWriter writer;
+
+    /** Like {@link Runtime#in_dtrace}, but for this thread only. */
+    boolean in_dtrace = false;
+
+    /** True while this thread calls a pure method to compute a value for a record. */
+    boolean invoking_pure = false;
+
+    /**
+     * Creates the state of a thread.
+     *
+     * @param thread the thread
+     */
+    @SuppressWarnings("lock:argument") // the PrintWriter is only used while holding this
+    ThreadState(Thread thread) {
+      this.thread = thread;
+      writer = new DTraceWriter(new PrintWriter(buffer));
+    }
+  }
+
+  /** The stream that records are written to; also the lock that protects it. */
+  private final @GuardedBy("<self>") PrintWriter dtrace;
+
+  /** The state of the current thread. */
+  private final ThreadLocal<ThreadState> current_state =
+      new ThreadLocal<ThreadState>() {
+        @Override
+        protected ThreadState initialValue() {
+          ThreadState state = new ThreadState(Thread.currentThread());
+          all_states.add(state);
+          return state;
+        }
+      };
+
+  /** The state of every thread that has written a record and is alive or has unwritten records. */
+  private final ConcurrentLinkedQueue<ThreadState> all_states = new ConcurrentLinkedQueue<>();
+
+  /**
+   * Buffers that are ready to be appended to the dtrace stream. The buffers of one thread are
+   * queued in the order they were filled, and are removed and written while holding the lock on
+   * {@link #dtrace}, so they are written in that order.
+   */
+  private final ConcurrentLinkedQueue<Chunk> chunks = new ConcurrentLinkedQueue<>();
+
+  /** The number of characters in {@link #chunks}. */
+  private final AtomicLong pending_chars = new AtomicLong();
+
+  /** Set when the dtrace record limit has been reached; see {@link Runtime#incrementRecords}. */
+  volatile boolean limit_reached = false;
+
+  /** Set by {@link #close}. No records are buffered after this. */
+  private volatile boolean closed = false;
+
+  /** The thread that appends the buffers to the dtrace stream. */
+  private final Thread writer_thread;
+
+  /**
+   * Creates the trace buffers and starts the writer thread.
+   *
+   * @param dtrace the stream to which records are written
+   */
+  TraceBuffers(@GuardedBy("<self>") PrintWriter dtrace) {
+    this.dtrace = dtrace;
+    writer_thread = new Thread(this::run_writer, "Chicory trace writer");
+    writer_thread.setDaemon(true);
+    writer_thread.start();
+  }
+
+  /**
+   * Returns the tracing state of the current thread.
+   *
+   * @return the tracing state of the current thread
+   */
+  ThreadState state() {
+    return current_state.get();
+  }
+
+  /**
+   * Writes a method entry record for the current thread.
+   *
+   * @param state the state of the current thread
+   * @param mi the method
+   * @param nonce the nonce of the call
+   * @param obj receiver of the method, or null if the method is static
+   * @param args arguments to the method
+   */
+  void method_entry(
+      ThreadState state, MethodInfo mi, int nonce, @Nullable Object obj, Object[] args) {
+    boolean pause;
+    synchronized (state) {
+      if (closed) {
+        return;
+      }
+      state.writer.methodEntry(mi, nonce, obj, args);
+      pause = end_record(state);
+    }
+    if (pause) {
+      pause();
+    }
+  }
+
+  /**
+   * Writes a method exit record for the current thread.
+   *
+   * @param state the state of the current thread
+   * @param mi the method
+   * @param nonce the nonce of the call
+   * @param obj receiver of the method, or null if the method is static
+   * @param args arguments to the method
+   * @param ret_val return value of the method, or null if the method is void
+   * @param exitLineNum the line number at which the method exited
+   */
+  void method_exit(
+      ThreadState state,
+      MethodInfo mi,
+      int nonce,
+      @Nullable Object obj,
+      Object[] args,
+      Object ret_val,
+      int exitLineNum) {
+    boolean pause;
+    synchronized (state) {
+      if (closed) {
+        return;
+      }
+      state.writer.methodExit(mi, nonce, obj, args, ret_val, exitLineNum);
+      pause = end_record(state);
+    }
+    if (pause) {
+      pause();
+    }
+  }
+
+  /**
+   * Writes the entry record of a static initializer for the current thread.
+   *
+   * @param state the state of the current thread
+   * @param pptname the name of the program point
+   * @param nonce the nonce of the call
+   */
+  void clinit_entry(ThreadState state, String pptname, int nonce) {
+    synchronized (state) {
+      if (closed) {
+        return;
+      }
+      state.writer.clinitEntry(pptname, nonce);
+      end_record(state);
+    }
+  }
+
+  /**
+   * Writes the exit record of a static initializer for the current thread.
+   *
+   * @param state the state of the current thread
+   * @param pptname the name of the program point
+   * @param nonce the nonce of the call
+   */
+  void clinit_exit(ThreadState state, String pptname, int nonce) {
+    synchronized (state) {
+      if (closed) {
+        return;
+      }
+      state.writer.clinitExit(pptname, nonce);
+      end_record(state);
+    }
+  }
+
+  /**
+   * Hands the thread's buffer to the writer thread if it is full.
+   *
+   * @param state the state of the current thread, whose lock is held
+   * @return true if the writer thread is far behind, and the current thread should pause
+   */
+  private boolean end_record(ThreadState state) {
+    if (state.buffer.length < CHUNK_SIZE) {
+      return false;
+    }
+    enqueue(state.buffer.take());
+    return pending_chars.get() > MAX_PENDING;
+  }
+
+  /**
+   * Queues a buffer to be written.
+   *
+   * @param chunk the characters to write
+   */
+  private void enqueue(Chunk chunk) {
+    pending_chars.addAndGet(chunk.length);
+    chunks.add(chunk);
+    LockSupport.unpark(writer_thread);
+  }
+
+  /**
+   * Waits, for a limited time, for the writer thread to catch up. The time is limited because the
+   * writer thread may be waiting for the lock on the dtrace stream, which is held while classes are
+   * processed, which may in turn wait for this thread (for example, to initialize a class).
+   */
+  private void pause() {
+    long deadline = System.nanoTime() + MAX_PAUSE_NANOS;
+    while (pending_chars.get() > MAX_PENDING / 2 && System.nanoTime() < deadline && !closed) {
+      LockSupport.parkNanos(PAUSE_NANOS);
+    }
+  }
+
+  /** The body of the writer thread. */
+  private void run_writer() {
+    long last_collect = System.nanoTime();
+    while (!closed) {
+      boolean wrote = write_chunks();
+      long now = System.nanoTime();
+      if (now - last_collect >= COLLECT_NANOS) {
+        collect();
+        last_collect = now;
+      }
+      if (!wrote) {
+        LockSupport.parkNanos(COLLECT_NANOS);
+      }
+    }
+  }
+
+  /**
+   * Appends the queued buffers to the dtrace stream.
+   *
+   * @return true if any buffers were written
+   */
+  private boolean write_chunks() {
+    boolean wrote = false;
+    synchronized (dtrace) {
+      Chunk chunk;
+      while ((chunk = chunks.poll()) != null) {
+        dtrace.write(chunk.chars, 0, chunk.length);
+        pending_chars.addAndGet(-chunk.length);
+        wrote = true;
+      }
+    }
+    return wrote;
+  }
+
+  /**
+   * Queues the partially filled buffer of every thread, so that the records of a thread that
+   * writes few of them are not held back indefinitely. Forgets threads that have terminated.
+   */
+  private void collect() {
+    for (Iterator<ThreadState> itor = all_states.iterator(); itor.hasNext(); ) {
+      ThreadState state = itor.next();
+      boolean alive = state.thread.isAlive();
+      synchronized (state) {
+        if (state.buffer.length > 0) {
+          enqueue(state.buffer.take());
+        }
+      }
+      if (!alive) {
+        itor.remove();
+      }
+    }
+  }
+
+  /**
+   * Writes all buffered records to the dtrace stream. No records are buffered afterward. Must not
+   * be called while holding the lock on the dtrace stream.
+   */
+  void close() {
+    closed = true;
+    for (ThreadState state : all_states) {
+      synchronized (state) {
+        if (state.buffer.length > 0) {
+          enqueue(state.buffer.take());
+        }
+      }
+    }
+    write_chunks();
+    LockSupport.unpark(writer_thread);
+  }
+}
@@ -1170,7 +1170,7 @@ public final class DCRuntime implements ComparabilityProvider {
     }
 
     MethodInfo mi = methods.get(mi_index);
-    mi.call_cnt++;
+    mi.call_cnt.incrementAndGet();
     ClassInfo ci = mi.class_info;
     if (ci.clazz == null) {
       ci.initViaReflection();
@@ -1622,7 +1622,7 @@ public final class DCRuntime implements ComparabilityProvider {
           continue;
         }
         method_cnt++;
-        System.out.printf("  Processing method %s [%d calls]%n", mi, mi.call_cnt);
+        System.out.printf("  Processing method %s [%d calls]%n", mi, mi.call_cnt.get());
         if (mi.traversalEnter == null) {
           System.out.printf("  Skipping method %s%n", mi);
           continue;
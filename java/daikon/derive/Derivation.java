@@ -162,6 +162,18 @@ public abstract class Derivation implements Serializable, Cloneable {
    */
   public abstract boolean canBeMissing();
 
+  /**
+   * Returns true if computing this derivation takes time proportional to the length of a sequence.
+   * This is true of every derivation whose value is a sequence (such as a subsequence or an
+   * intersection). The results of such derivations are cached (see {@link
+   * daikon.FileIO#dkconfig_cache_derivations}); others are cheaper to compute than to look up.
+   *
+   * @return true if computing this derivation scans a sequence
+   */
+  public boolean isExpensive() {
+    return getVarInfo().rep_type.isArray();
+  }
+
   /**
    * Returns the lower bound of a slice. Throws an error if this is not a slice. Slices should
    * override.
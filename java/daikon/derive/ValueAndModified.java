@@ -1,9 +1,9 @@
 package daikon.derive;
 
+import daikon.InternPool;
 import daikon.ValueTuple;
 import org.checkerframework.checker.interning.qual.Interned;
 import org.checkerframework.checker.nullness.qual.Nullable;
-import org.plumelib.util.Intern;
 
 /**
  * This is a temporary structure for grouping elements to be returned from computeValueAndModified,
@@ -21,7 +21,7 @@ public final class ValueAndModified {
       new ValueAndModified(null, ValueTuple.MISSING_FLOW);
 
   public ValueAndModified(@Nullable @Interned Object val, int mod) {
-    assert Intern.isInterned(val);
+    assert InternPool.isInterned(val);
     // Type should be Long, not Integer
     assert !(val instanceof Integer);
     value = val;
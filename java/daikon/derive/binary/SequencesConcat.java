@@ -1,5 +1,6 @@
 package daikon.derive.binary;
 
+import daikon.InternPool;
 import daikon.ProglangType;
 import daikon.ValueTuple;
 import daikon.VarInfo;
@@ -11,7 +12,6 @@ import org.checkerframework.checker.lock.qual.GuardSatisfied;
 import org.checkerframework.dataflow.qual.Pure;
 import org.checkerframework.dataflow.qual.SideEffectFree;
 import org.plumelib.util.ArraysPlume;
-import org.plumelib.util.Intern;
 
 /**
  * Represents the concatenation of two base variables. This derived variable works for both
@@ -75,12 +75,12 @@ public final class SequencesConcat extends BinaryDerivation {
       long[] result =
           ArraysPlume.concat(
               val1 == null ? null : (long[]) val1, val2 == null ? null : (long[]) val2);
-      return new ValueAndModified(Intern.intern(result), mod);
+      return new ValueAndModified(InternPool.intern(result), mod);
     } else if (var1().rep_type == ProglangType.DOUBLE_ARRAY) {
       double[] result =
           ArraysPlume.concat(
               val1 == null ? null : (double[]) val1, val2 == null ? null : (double[]) val2);
-      return new ValueAndModified(Intern.intern(result), mod);
+      return new ValueAndModified(InternPool.intern(result), mod);
 
     } else if (var1().rep_type == ProglangType.STRING_ARRAY) {
       // val1 instanceof String[] || val2 instanceof String[]
@@ -88,7 +88,7 @@ public final class SequencesConcat extends BinaryDerivation {
           ArraysPlume.concat(
               val1 == null ? null : (@Interned String[]) val1,
               val2 == null ? null : (@Interned String[]) val2);
-      return new ValueAndModified(Intern.intern(result), mod);
+      return new ValueAndModified(InternPool.intern(result), mod);
     } else {
       throw new Error("Attempted to concatenate unknown arrays");
     }
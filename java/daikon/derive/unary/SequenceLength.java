@@ -1,5 +1,6 @@
 package daikon.derive.unary;
 
+import daikon.InternPool;
 import daikon.ProglangType;
 import daikon.Quantify;
 import daikon.ValueTuple;
@@ -24,7 +25,6 @@ import daikon.derive.ternary.SequenceFloatArbitrarySubsequence;
 import daikon.derive.ternary.SequenceScalarArbitrarySubsequence;
 import org.checkerframework.dataflow.qual.Pure;
 import org.checkerframework.dataflow.qual.SideEffectFree;
-import org.plumelib.util.Intern;
 
 // originally from pass1.
 public final class SequenceLength extends UnaryDerivation {
@@ -106,7 +106,7 @@ public final class SequenceLength extends UnaryDerivation {
     } else {
       len = ((Object[]) val).length;
     }
-    return new ValueAndModified(Intern.internedLong(len + shift), source_mod);
+    return new ValueAndModified(InternPool.internedLong(len + shift), source_mod);
   }
 
   @Override
@@ -1,11 +1,11 @@
 package daikon.derive.unary;
 
+import daikon.InternPool;
 import daikon.ValueTuple;
 import daikon.VarInfo;
 import daikon.derive.Derivation;
 import daikon.derive.ValueAndModified;
 import org.checkerframework.dataflow.qual.Pure;
-import org.plumelib.util.Intern;
 
 public final class SequenceSum extends UnaryDerivation {
   // We are Serializable, so we specify a version to allow changes to
@@ -38,14 +38,14 @@ public final class SequenceSum extends UnaryDerivation {
       for (int i = 0; i < val_array.length; i++) {
         result += val_array[i];
       }
-      return new ValueAndModified(Intern.internedLong(result), source_mod);
+      return new ValueAndModified(InternPool.internedLong(result), source_mod);
     } else if (val instanceof double[]) {
       double[] val_array = (double[]) val;
       double result = 0;
       for (int i = 0; i < val_array.length; i++) {
         result += val_array[i];
       }
-      return new ValueAndModified(Intern.internedDouble(result), source_mod);
+      return new ValueAndModified(InternPool.internedDouble(result), source_mod);
 
     } else {
       return ValueAndModified.MISSING_NONSENSICAL;
@@ -62,4 +62,10 @@ public final class SequenceSum extends UnaryDerivation {
   public boolean isSameFormula(Derivation other) {
     return (other instanceof SequenceSum);
   }
+
+  @Pure
+  @Override
+  public boolean isExpensive() {
+    return true;
+  }
 }
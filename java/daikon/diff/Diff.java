@@ -3,8 +3,10 @@ package daikon.diff;
 import static java.util.logging.Level.FINE;
 import static java.util.logging.Level.INFO;
 
+import daikon.BinaryInv;
 import daikon.Daikon;
 import daikon.FileIO;
+import daikon.LazyPptMap;
 import daikon.Ppt;
 import daikon.PptConditional;
 import daikon.PptMap;
@@ -23,9 +25,8 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
-import java.util.NavigableSet;
-import java.util.TreeSet;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
 import org.checkerframework.checker.initialization.qual.UnknownInitialization;
 import org.checkerframework.checker.nullness.qual.EnsuresNonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
@@ -34,6 +35,7 @@ import org.plumelib.util.CollectionsPlume;
 import org.plumelib.util.FilesPlume;
 import org.plumelib.util.OrderedPairIterator;
 import org.plumelib.util.Pair;
+import org.plumelib.util.RegexUtil;
 import org.plumelib.util.StringsPlume;
 
 /**
@@ -92,6 +94,12 @@ public final class Diff {
   private boolean examineAllPpts;
   private boolean ignoreNumberedExits;
 
+  /**
+   * If non-null, only the program points whose names match this pattern are read and compared.
+   * Set by the {@code --ppt-select-pattern} command-line option.
+   */
+  private @Nullable Pattern pptSelectPattern = null;
+
   public Diff() {
     this(false, false);
   }
@@ -170,6 +178,7 @@ public final class Diff {
     @ClassGetName String invSortComparator1Classname = null;
     @ClassGetName String invSortComparator2Classname = null;
     @ClassGetName String invPairComparatorClassname = null;
+    Pattern pptSelectPattern = null;
 
     boolean optionSelected = false;
 
@@ -184,6 +193,7 @@ public final class Diff {
           new LongOpt(INV_PAIR_COMPARATOR_SWITCH, LongOpt.REQUIRED_ARGUMENT, null, 0),
           new LongOpt(IGNORE_UNJUSTIFIED_SWITCH, LongOpt.NO_ARGUMENT, null, 0),
           new LongOpt(IGNORE_NUMBERED_EXITS_SWITCH, LongOpt.NO_ARGUMENT, null, 0),
+          new LongOpt(Daikon.ppt_regexp_SWITCH, LongOpt.REQUIRED_ARGUMENT, null, 0),
         };
 
     Getopt g =
@@ -236,6 +246,25 @@ public final class Diff {
           } else if (IGNORE_NUMBERED_EXITS_SWITCH.equals(optionName)) {
             ignoreNumberedExits = true;
             break;
+          } else if (Daikon.ppt_regexp_SWITCH.equals(optionName)) {
+            if (pptSelectPattern != null) {
+              throw new Error(
+                  "multiple --"
+                      + Daikon.ppt_regexp_SWITCH
+                      + " regular expressions supplied on command line");
+            }
+            String regexp_string = Daikon.getOptarg(g);
+            if (!RegexUtil.isRegex(regexp_string)) {
+              throw new Daikon.UserError(
+                  "Bad regexp "
+                      + regexp_string
+                      + " for "
+                      + Daikon.ppt_regexp_SWITCH
+                      + ": "
+                      + RegexUtil.regexError(regexp_string));
+            }
+            regexp_string = RegexUtil.asRegex(regexp_string);
+            pptSelectPattern = Pattern.compile(regexp_string);
           } else {
             throw new RuntimeException("Unknown long option received: " + optionName);
           }
@@ -343,6 +372,7 @@ public final class Diff {
             invSortComparator2Classname,
             invPairComparatorClassname,
             defaultComparator);
+    diff.pptSelectPattern = pptSelectPattern;
 
     if (!diff.invSortComparator1
             .getClass()
@@ -498,12 +528,17 @@ public final class Diff {
    * @throws ClassNotFoundException if an object in the serialized file has an unloadable class
    */
   private InvMap readInvMap(File file) throws IOException, ClassNotFoundException {
-    Object o = FilesPlume.readObject(file);
-    if (o instanceof InvMap) {
-      return (InvMap) o;
-    } else {
-      PptMap pptMap = FileIO.read_serialized_pptmap(file, false);
+    if (!BinaryInv.is_binary(file)) {
+      Object o = FilesPlume.readObject(file);
+      if (o instanceof InvMap) {
+        return (InvMap) o;
+      }
+    }
+    PptMap pptMap = LazyPptMap.open(file, false);
+    try {
       return convertToInvMap(pptMap);
+    } finally {
+      LazyPptMap.close(pptMap);
     }
   }
 
@@ -513,17 +548,20 @@ public final class Diff {
    * and it allows us to more easily manipulate the contents. The InvMap contains exactly the
    * elements contained in the PptMap. Conditional program points are also added as keys. Filtering
    * is done when creating the pair tree. The ppts in the InvMap must be sorted, but the invariants
-   * need not be sorted.
+   * need not be sorted. If {@code --ppt-select-pattern} was given, only the matching ppts are
+   * retrieved from the pptMap.
    */
   public InvMap convertToInvMap(PptMap pptMap) {
     InvMap map = new InvMap();
 
-    // Created sorted set of top level ppts, possibly including
-    // conditional ppts
-    NavigableSet<PptTopLevel> ppts = new TreeSet<>(PPT_COMPARATOR);
-    ppts.addAll(pptMap.asCollection());
-
-    for (PptTopLevel ppt : ppts) {
+    // Iterate over the ppt names in sorted order, and retrieve only the
+    // ppts that are compared, so that a LazyPptMap reads only those.
+    for (String pptName : pptMap.sorted_names()) {
+      if (pptSelectPattern != null && !pptSelectPattern.matcher(pptName).find()) {
+        continue;
+      }
+      PptTopLevel ppt = pptMap.get(pptName);
+      assert ppt != null : "@AssumeAssertion(nullness): pptName is a key in pptMap";
       if (ignoreNumberedExits && ppt.ppt_name.isNumberedExitPoint()) {
         continue;
       }
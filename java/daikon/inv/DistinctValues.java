@@ -0,0 +1,360 @@
+package daikon.inv;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import org.checkerframework.checker.lock.qual.GuardSatisfied;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.checkerframework.dataflow.qual.Pure;
+import org.checkerframework.dataflow.qual.SideEffectFree;
+
+/**
+ * The number of distinct values of a variable, given the 64-bit fingerprints of the values. Used by
+ * {@link ValueSet} when {@link ValueSet#dkconfig_exact_counts} is true.
+ *
+ * <p>Up to a limit, the distinct fingerprints themselves are stored, so the count is exact unless
+ * two distinct values have the same 64-bit fingerprint. (The fingerprint of a long or double is a
+ * bijection of its bits, so distinct scalars never collide.) Beyond the limit, the fingerprints are
+ * summarized by a HyperLogLog sketch of {@link #REGISTERS} one-byte registers, whose count is an
+ * estimate with a relative standard error of about 13%. Two counts are merged by adding the
+ * fingerprints of one to the other, or by taking the maximum of each register of their sketches.
+ */
+final class DistinctValues implements Serializable, Cloneable {
+  // We are Serializable, so we specify a version to allow changes to
+  // method signatures without breaking serialization.  If you add or
+  // remove fields, you should change this number to the current date.
+  static final long serialVersionUID = 20261018L;
+
+  /** The base-2 logarithm of the number of registers of a sketch. */
+  private static final int LOG_REGISTERS = 6;
+
+  /** The number of registers of a sketch. */
+  static final int REGISTERS = 1 << LOG_REGISTERS;
+
+  /** The bias correction of the HyperLogLog estimate for {@link #REGISTERS} registers. */
+  private static final double ALPHA = 0.709;
+
+  /** The number of fingerprints that are stored before they are summarized by a sketch. */
+  private final int limit;
+
+  /** The distinct fingerprints, in the first num_fingerprints elements; null for a sketch. */
+  private long @Nullable [] fingerprints = new long[4];
+
+  /** The number of distinct fingerprints, while they are stored. */
+  private int num_fingerprints = 0;
+
+  /**
+   * For a sketch, for each register, the largest rank of any fingerprint that selects it; null
+   * while fingerprints are stored.
+   */
+  private byte @Nullable [] registers = null;
+
+  /**
+   * Creates an empty count.
+   *
+   * @param limit the number of distinct fingerprints to store before using a sketch
+   */
+  DistinctValues(int limit) {
+    this.limit = limit;
+  }
+
+  /**
+   * Returns the number of fingerprints that are stored before they are summarized by a sketch.
+   *
+   * @return the number of fingerprints that are stored before they are summarized by a sketch
+   */
+  @Pure
+  int limit() {
+    return limit;
+  }
+
+  /**
+   * Returns true if the count is estimated by a sketch rather than exact.
+   *
+   * @return true if the count is estimated by a sketch
+   */
+  @Pure
+  boolean is_sketch() {
+    return registers != null;
+  }
+
+  /**
+   * Adds a value, given its fingerprint.
+   *
+   * @param fingerprint the fingerprint of the value
+   */
+  void add(long fingerprint) {
+    long[] fps = fingerprints;
+    if (fps != null) {
+      for (int i = 0; i < num_fingerprints; i++) {
+        if (fps[i] == fingerprint) {
+          return;
+        }
+      }
+      if (num_fingerprints < limit) {
+        if (num_fingerprints == fps.length) {
+          fps = Arrays.copyOf(fps, Math.min(limit, 2 * fps.length));
+          fingerprints = fps;
+        }
+        fps[num_fingerprints++] = fingerprint;
+        return;
+      }
+      to_sketch();
+    }
+    add_to_sketch(fingerprint);
+  }
+
+  /**
+   * Returns true if a value with the given fingerprint may have been added. The answer is exact
+   * while the fingerprints are stored. For a sketch, it is false only if the register that the
+   * fingerprint selects holds a smaller rank than the fingerprint's, so that the fingerprint was
+   * certainly never added.
+   *
+   * @param fingerprint the fingerprint of a value
+   * @return true if a value with the fingerprint may have been added
+   */
+  @Pure
+  boolean contains(long fingerprint) {
+    long[] fps = fingerprints;
+    if (fps != null) {
+      for (int i = 0; i < num_fingerprints; i++) {
+        if (fps[i] == fingerprint) {
+          return true;
+        }
+      }
+      return false;
+    }
+    byte[] regs = registers;
+    assert regs != null : "@AssumeAssertion(nullness): a count without fingerprints";
+    return regs[register(fingerprint)] >= rank(fingerprint);
+  }
+
+  /**
+   * Adds the values of another count to this one.
+   *
+   * @param other the count to add
+   */
+  void add_all(DistinctValues other) {
+    long[] other_fps = other.fingerprints;
+    if (other_fps != null) {
+      for (int i = 0; i < other.num_fingerprints; i++) {
+        add(other_fps[i]);
+      }
+      return;
+    }
+    byte[] other_registers = other.registers;
+    assert other_registers != null : "@AssumeAssertion(nullness): a count without fingerprints";
+    if (fingerprints != null) {
+      to_sketch();
+    }
+    byte[] regs = registers;
+    assert regs != null : "@AssumeAssertion(nullness): set by to_sketch()";
+    for (int i = 0; i < REGISTERS; i++) {
+      if (other_registers[i] > regs[i]) {
+        regs[i] = other_registers[i];
+      }
+    }
+  }
+
+  /**
+   * Returns the number of distinct values: exactly, or estimated by the sketch. The estimate is
+   * always more than the limit, since the sketch is used only after that many distinct values have
+   * been seen.
+   *
+   * @return the number of distinct values
+   */
+  @Pure
+  int size() {
+    byte[] regs = registers;
+    if (regs == null) {
+      return num_fingerprints;
+    }
+    double sum = 0;
+    int zeros = 0;
+    for (byte rank : regs) {
+      sum += Math.scalb(1.0, -rank);
+      if (rank == 0) {
+        zeros++;
+      }
+    }
+    double estimate = ALPHA * REGISTERS * REGISTERS / sum;
+    if (estimate <= 2.5 * REGISTERS && zeros > 0) {
+      // Linear counting is more accurate for small counts.
+      estimate = REGISTERS * Math.log((double) REGISTERS / zeros);
+    }
+    return (int) Math.max(limit + 1, Math.min(Integer.MAX_VALUE, Math.round(estimate)));
+  }
+
+  /** Replaces the stored fingerprints by a sketch of them. */
+  private void to_sketch() {
+    long[] fps = fingerprints;
+    registers = new byte[REGISTERS];
+    fingerprints = null;
+    if (fps != null) {
+      for (int i = 0; i < num_fingerprints; i++) {
+        add_to_sketch(fps[i]);
+      }
+    }
+    num_fingerprints = 0;
+  }
+
+  /**
+   * Adds a fingerprint to the sketch.
+   *
+   * @param fingerprint the fingerprint of a value
+   */
+  private void add_to_sketch(long fingerprint) {
+    byte[] regs = registers;
+    assert regs != null : "@AssumeAssertion(nullness): only called for a sketch";
+    int index = register(fingerprint);
+    int rank = rank(fingerprint);
+    if (rank > regs[index]) {
+      regs[index] = (byte) rank;
+    }
+  }
+
+  /**
+   * Returns the register of a sketch that a fingerprint selects: the one given by its high bits.
+   *
+   * @param fingerprint the fingerprint of a value
+   * @return the index of the register that the fingerprint selects
+   */
+  @Pure
+  private static int register(long fingerprint) {
+    return (int) (fingerprint >>> (64 - LOG_REGISTERS));
+  }
+
+  /**
+   * Returns the rank of a fingerprint: one more than the number of leading zeros of the bits that
+   * do not select its register.
+   *
+   * @param fingerprint the fingerprint of a value
+   * @return the rank of the fingerprint
+   */
+  @Pure
+  private static int rank(long fingerprint) {
+    return Long.numberOfLeadingZeros((fingerprint << LOG_REGISTERS) | (1L << (LOG_REGISTERS - 1)))
+        + 1;
+  }
+
+  @SideEffectFree
+  @Override
+  public DistinctValues clone(@GuardSatisfied DistinctValues this) {
+    DistinctValues result;
+    try {
+      result = (DistinctValues) super.clone();
+    } catch (CloneNotSupportedException e) {
+      throw new Error(e); // can't happen
+    }
+    if (fingerprints != null) {
+      result.fingerprints = fingerprints.clone();
+    }
+    if (registers != null) {
+      result.registers = registers.clone();
+    }
+    return result;
+  }
+
+  @SideEffectFree
+  @Override
+  public String toString(@GuardSatisfied DistinctValues this) {
+    if (registers != null) {
+      return "about " + size() + " distinct values";
+    }
+    return num_fingerprints + " distinct values";
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  /// Fingerprints
+  ///
+
+  /** The fingerprint of a null element of an array. */
+  private static final long NULL_FINGERPRINT = 0x9e3779b97f4a7c15L;
+
+  /**
+   * Scrambles the bits of a long, so that similar longs have dissimilar results. This is the
+   * finalizer of the SplitMix64 generator, which is a bijection.
+   *
+   * @param h a long
+   * @return the scrambled bits of h
+   */
+  @Pure
+  private static long mix(long h) {
+    h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+    h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+    return h ^ (h >>> 31);
+  }
+
+  /**
+   * Returns the fingerprint of a long (or of the bits of a double). Distinct longs have distinct
+   * fingerprints.
+   *
+   * @param v a long
+   * @return the fingerprint of v
+   */
+  @Pure
+  static long fingerprint(long v) {
+    return mix(v);
+  }
+
+  /**
+   * Returns the fingerprint of an array of longs.
+   *
+   * @param a an array
+   * @return the fingerprint of a
+   */
+  @Pure
+  static long fingerprint(long[] a) {
+    long h = a.length;
+    for (long elt : a) {
+      h = mix(h ^ elt);
+    }
+    return mix(h);
+  }
+
+  /**
+   * Returns the fingerprint of an array of doubles. As for {@link Arrays#equals(double[],
+   * double[])}, elements are compared by their bits, with all NaNs the same.
+   *
+   * @param a an array
+   * @return the fingerprint of a
+   */
+  @Pure
+  static long fingerprint(double[] a) {
+    long h = a.length;
+    for (double elt : a) {
+      h = mix(h ^ Double.doubleToLongBits(elt));
+    }
+    return mix(h);
+  }
+
+  /**
+   * Returns the fingerprint of a String.
+   *
+   * @param s a String
+   * @return the fingerprint of s
+   */
+  @Pure
+  static long fingerprint(String s) {
+    // 64-bit FNV-1a over the characters, then scrambled.
+    long h = 0xcbf29ce484222325L;
+    for (int i = 0; i < s.length(); i++) {
+      h = (h ^ s.charAt(i)) * 0x100000001b3L;
+    }
+    return mix(h ^ s.length());
+  }
+
+  /**
+   * Returns the fingerprint of an array of Strings, some of which may be null.
+   *
+   * @param a an array
+   * @return the fingerprint of a
+   */
+  @Pure
+  static long fingerprint(@Nullable String[] a) {
+    long h = a.length;
+    for (String elt : a) {
+      h = mix(h ^ (elt == null ? NULL_FINGERPRINT : fingerprint(elt)));
+    }
+    return mix(h);
+  }
+}
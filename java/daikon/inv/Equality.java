@@ -11,7 +11,6 @@ import daikon.VarInfo;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
@@ -132,6 +131,7 @@ public final /*(at)Interned*/ class Equality extends Invariant {
   // Accessors
 
   private @Nullable VarInfo leaderCache = null;
+
   /**
    * Return the canonical VarInfo of this. Note that the leader never changes.
    *
@@ -382,59 +382,36 @@ public final /*(at)Interned*/ class Equality extends Invariant {
   /// Processing of data
 
   /**
-   * Return a List of VarInfos that do not fit into this set anymore.
-   *
-   * <p>Originally (8/14/2003), this did not check for the modified bits. It seems however, quite
-   * wrong to leave variables in the same equality set when one is missing and the other is not.
-   * It's possible we should go farther and break out of the equality set any variable that is
-   * missingOutOfBounds (JHP).
+   * Counts a sample, if the leader is present in it. Does not check whether the variables still fit
+   * into this set: {@link daikon.PptSliceEquality#add} checks that for all of the sets at once, and
+   * calls {@link #removeVars} on the variables that do not.
    *
    * @param vt the newly-observed sample
    * @param count the number of times the sample is seen
-   * @return a List of VarInfos that do not fit into this set anymore
    */
-  public List<VarInfo> add(ValueTuple vt, int count) {
+  public void add(ValueTuple vt, int count) {
     // Need to handle specially if leader is missing.
-    VarInfo leader = leader();
-    Object leaderValue = leader.getValueOrNull(vt);
-    int leaderMod = leader.getModified(vt);
-    boolean leaderOutOfBounds = leader.missingOutOfBounds();
-    if (leader.isMissing(vt)) {
-    } else {
+    if (!leader().isMissing(vt)) {
       numSamples += count;
     }
 
-    List<VarInfo> result = new ArrayList<>();
     if (debug.isLoggable(Level.FINE)) {
       debug.fine("Doing add at " + this.ppt.parent.name() + " for " + this);
     }
-    for (Iterator<VarInfo> i = vars.iterator(); i.hasNext(); ) {
-      VarInfo vi = i.next();
-      if (vi == leader) {
-        continue;
-      }
-      assert vi.comparableNWay(leader);
-      Object viValue = vi.getValueOrNull(vt);
-      int viMod = vi.getModified(vt);
-      // The following is possible because values are interned.  The
-      // test also takes into account missing values, since they are
-      // null.
-      if ((leaderValue == viValue)
-          && (leaderMod == viMod)
-          && !leaderOutOfBounds
-          && !vi.missingOutOfBounds()
-          // If the values are NaN, treat them as different.
-          && !((leaderValue instanceof Double) && ((Double) leaderValue).isNaN())) {
-        // The values are the same.
-        continue;
-      }
-      // The values differ.  Remove this from the equality set.
+  }
 
-      //       if (debug.isLoggable(Level.FINE)) {
-      //         debug.fine ("  vi name: " + vi.name.name());
-      //         debug.fine ("  vi value: " + viValue);
-      //         debug.fine ("  le value: " + leaderValue);
-      //       }
+  /**
+   * Removes from this set variables that do not fit into it anymore, because their values or
+   * modbits differ from the leader's in the given sample.
+   *
+   * @param vis the variables to remove; does not include the leader
+   * @param vt the newly-observed sample
+   */
+  public void removeVars(List<VarInfo> vis, ValueTuple vt) {
+    VarInfo leader = leader();
+    for (VarInfo vi : vis) {
+      assert vi != leader;
+      assert vi.comparableNWay(leader);
       if (Debug.logOn()) {
         Debug.log(
             getClass(),
@@ -443,23 +420,20 @@ public final /*(at)Interned*/ class Equality extends Invariant {
             "Var "
                 + vi.name()
                 + " ["
-                + viValue
+                + vi.getValueOrNull(vt)
                 + ","
-                + viMod
+                + vi.getModified(vt)
                 + "] split from leader "
                 + leader.name()
                 + " ["
-                + Debug.toString(leaderValue)
+                + Debug.toString(leader.getValueOrNull(vt))
                 + ","
-                + leaderMod
+                + leader.getModified(vt)
                 + "]");
       }
-
-      result.add(vi);
-      i.remove();
+      boolean removed = vars.remove(vi);
+      assert removed : vi.name() + " is not in " + this;
     }
-
-    return result;
   }
 
   //  This method isn't going to be called, but it's declared abstract in Invariant.
@@ -21,6 +21,10 @@ import daikon.inv.unary.UnaryInvariant;
 import daikon.simplify.LemmaStack;
 import daikon.simplify.SimpUtil;
 import daikon.suppress.NISuppressionSet;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InvalidClassException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -480,6 +484,9 @@ public abstract class Invariant implements Serializable, Cloneable // but don't
    * that we can track when this happens.
    */
   public void falsify(@NonPrototype Invariant this) {
+    if (!falsified) {
+      ppt.parent.note_falsified(this);
+    }
     falsified = true;
     if (logOn()) log("Destroyed %s", format());
   }
@@ -511,6 +518,64 @@ public abstract class Invariant implements Serializable, Cloneable // but don't
     }
   }
 
+  /**
+   * Returns the version of the layout in which {@link #write_state} writes the state of invariants
+   * of this class, or 0 if the class has none, in which case binary invariant files (see {@link
+   * daikon.BinaryInv}) hold serialized invariants of this class. Unlike a serialized invariant, one
+   * written in a layout can be read after fields are added to or removed from its class.
+   *
+   * <p>A class that overrides this method must override {@link #write_state} and {@link
+   * #read_state} too. When it changes the fields that they write, it increments the version, and
+   * {@link #read_state} keeps reading the earlier versions. A subclass of such a class that adds
+   * state must override all three methods again.
+   *
+   * @return the version of the layout of this class's state, or 0
+   */
+  @Pure
+  public int state_version(@Prototype Invariant this) {
+    return 0;
+  }
+
+  /**
+   * Writes the state of this invariant that is particular to its class, in the layout whose version
+   * {@link #state_version} returns. The fields of Invariant itself, including the slice, are not
+   * written.
+   *
+   * @param out where to write the state
+   * @throws IOException if there is trouble writing
+   */
+  public void write_state(@NonPrototype Invariant this, DataOutput out) throws IOException {
+    throw new UnsupportedOperationException(getClass().getName() + " has no state layout");
+  }
+
+  /**
+   * Creates an invariant of the same class as this prototype, with the state that {@link
+   * #write_state} wrote. The result has no slice; the caller must set its {@link #ppt} before using
+   * it.
+   *
+   * @param version the version of the layout in which the state was written
+   * @param in where to read the state
+   * @return the new invariant
+   * @throws IOException if there is trouble reading, or if this class cannot read the version
+   */
+  public @NonPrototype Invariant read_state(@Prototype Invariant this, int version, DataInput in)
+      throws IOException {
+    throw new UnsupportedOperationException(getClass().getName() + " has no state layout");
+  }
+
+  /**
+   * Returns an exception saying that this invariant's class cannot read a version of its layout,
+   * for {@link #read_state} to throw.
+   *
+   * @param version the version that was read
+   * @return an exception that says that the version is unknown
+   */
+  protected final InvalidClassException unknown_state_version(
+      @Prototype Invariant this, int version) {
+    return new InvalidClassException(
+        getClass().getName(), "unknown version " + version + " of the state layout");
+  }
+
   /**
    * Make a copy of this invariant and transfer it into a new PptSlice.
    *
@@ -0,0 +1,211 @@
+package daikon.inv;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * A description, by bounds that are cheap to check, of the samples that some of the invariants of
+ * a slice accept without changing: presenting such a sample to them returns {@link
+ * InvariantStatus#NO_CHANGE} and leaves their state as it was. The invariants that cannot describe
+ * such samples, such as those that count samples, are listed in {@link #must_see()}.
+ *
+ * <p>A slice whose invariants have not changed for a while (see {@link
+ * daikon.PptSlice#dkconfig_stable_samples}) builds an envelope from the current state of its
+ * invariants. While the envelope is valid, a sample in it is presented only to the invariants in
+ * {@link #must_see()}; any other sample is presented to every invariant. The result is the same as
+ * presenting every sample to every invariant.
+ *
+ * <p>The bounds on the value of a unary slice's variable are a range, a set of bits that must be
+ * clear, whether the value must be nonzero, and a set of values. The bound on the values of a
+ * binary slice's variables is the set of orders ({@link #LT}, {@link #EQ}, {@link #GT})
+ * that the first value may have relative to the second.
+ */
+public final class SampleEnvelope {
+
+  /** The first value is less than the second. */
+  public static final int LT = 1;
+
+  /** The first value equals the second. */
+  public static final int EQ = 2;
+
+  /** The first value is greater than the second. */
+  public static final int GT = 4;
+
+  /** The invariants of the slice when the envelope was built. */
+  private final Invariant[] invs;
+
+  /** The invariants to which every sample must be presented. */
+  private final List<Invariant> must_see = new ArrayList<>();
+
+  /** The least value in the envelope. */
+  private long min = Long.MIN_VALUE;
+
+  /** The greatest value in the envelope. */
+  private long max = Long.MAX_VALUE;
+
+  /** The bits that are clear in every value in the envelope. */
+  private long zero_bits = 0;
+
+  /** If true, zero is not in the envelope. */
+  private boolean nonzero = false;
+
+  /** If non-null, the envelope contains only these values. */
+  private long @Nullable [] values = null;
+
+  /** The orders of the first value relative to the second that are in the envelope. */
+  private int orders = LT | EQ | GT;
+
+  /**
+   * Creates an envelope that contains every sample, for a slice with the given invariants. The
+   * invariants narrow it, or add themselves to {@link #must_see()}.
+   *
+   * @param invs the invariants of the slice
+   */
+  public SampleEnvelope(List<Invariant> invs) {
+    this.invs = invs.toArray(new Invariant[0]);
+  }
+
+  /**
+   * Returns true if the given invariants are those for which this envelope was built, in the same
+   * order.
+   *
+   * @param slice_invs the current invariants of the slice
+   * @return true if this envelope describes slice_invs
+   */
+  public boolean is_for(List<Invariant> slice_invs) {
+    if (slice_invs.size() != invs.length) {
+      return false;
+    }
+    for (int i = 0; i < invs.length; i++) {
+      if (slice_invs.get(i) != invs[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Records that every sample must be presented to the given invariant.
+   *
+   * @param inv an invariant that cannot describe the samples it accepts without changing
+   */
+  public void add_must_see(Invariant inv) {
+    must_see.add(inv);
+  }
+
+  /**
+   * Returns the invariants to which every sample must be presented.
+   *
+   * @return the invariants to which every sample must be presented
+   */
+  public List<Invariant> must_see() {
+    return must_see;
+  }
+
+  /**
+   * Removes from the envelope the values outside the given range.
+   *
+   * @param lo the least value to keep
+   * @param hi the greatest value to keep
+   */
+  public void restrict_range(long lo, long hi) {
+    min = Math.max(min, lo);
+    max = Math.min(max, hi);
+  }
+
+  /**
+   * Removes from the envelope the values in which any of the given bits is set.
+   *
+   * @param bits the bits that must be clear
+   */
+  public void restrict_zero_bits(long bits) {
+    zero_bits |= bits;
+  }
+
+  /** Removes zero from the envelope. */
+  public void restrict_nonzero() {
+    nonzero = true;
+  }
+
+  /**
+   * Removes from the envelope the values that are not among the given ones.
+   *
+   * @param elts the values to keep
+   * @param num_elts the number of elements of elts to use
+   */
+  public void restrict_values(long[] elts, int num_elts) {
+    long[] kept = new long[num_elts];
+    int num_kept = 0;
+    for (int i = 0; i < num_elts; i++) {
+      if (values == null || contains_value(values, elts[i])) {
+        kept[num_kept++] = elts[i];
+      }
+    }
+    values = (num_kept == kept.length) ? kept : Arrays.copyOf(kept, num_kept);
+  }
+
+  /**
+   * Removes from the envelope the pairs of values whose order is not one of the given ones.
+   *
+   * @param allowed a combination of {@link #LT}, {@link #EQ}, and {@link #GT}
+   */
+  public void restrict_orders(int allowed) {
+    orders &= allowed;
+  }
+
+  /**
+   * Returns the given combination of orders with {@link #LT} and {@link #GT} exchanged: the
+   * orders of the second value relative to the first.
+   *
+   * @param orders a combination of {@link #LT}, {@link #EQ}, and {@link #GT}
+   * @return the converse orders
+   */
+  public static int converse(int orders) {
+    return (orders & EQ)
+        | (((orders & LT) != 0) ? GT : 0)
+        | (((orders & GT) != 0) ? LT : 0);
+  }
+
+  /**
+   * Returns true if the value of a unary slice's variable is in the envelope.
+   *
+   * @param v the value
+   * @return true if v is in the envelope
+   */
+  public boolean contains(long v) {
+    if (v < min || v > max || (v & zero_bits) != 0 || (nonzero && v == 0)) {
+      return false;
+    }
+    return values == null || contains_value(values, v);
+  }
+
+  /**
+   * Returns true if the values of a binary slice's variables are in the envelope.
+   *
+   * @param v1 the value of the first variable
+   * @param v2 the value of the second variable
+   * @return true if the pair is in the envelope
+   */
+  public boolean contains(long v1, long v2) {
+    int order = (v1 < v2) ? LT : ((v1 == v2) ? EQ : GT);
+    return (orders & order) != 0;
+  }
+
+  /**
+   * Returns true if the given array contains the given value.
+   *
+   * @param a an array
+   * @param v a value
+   * @return true if v is an element of a
+   */
+  private static boolean contains_value(long[] a, long v) {
+    for (long elt : a) {
+      if (elt == v) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -4,6 +4,10 @@ import daikon.ProglangType;
 import daikon.VarInfo;
 import java.io.Serializable;
 import java.util.Arrays;
+import org.checkerframework.checker.lock.qual.GuardSatisfied;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.checkerframework.dataflow.qual.Pure;
+import org.checkerframework.dataflow.qual.SideEffectFree;
 import org.plumelib.util.LimitedSizeLongSet;
 
 // It is a thin wrapper around LimitedSizeLongSet.
@@ -44,15 +48,39 @@ import org.plumelib.util.LimitedSizeLongSet;
  *   <li>use a HashSet that stores wrappers, where the wrappers redefine hashCode. (That is
  *       necessary because arrays don't override {@code Object.hashCode}.
  * </ul>
+ *
+ * <p>If {@link #dkconfig_exact_counts} is true, a ValueSet instead stores 64-bit fingerprints of
+ * its values (see {@link DistinctValues}), which in practice never collide, and it continues to
+ * estimate the number of distinct values once the limit is exceeded.
  */
 public abstract class ValueSet extends LimitedSizeLongSet implements Serializable, Cloneable {
   // We are Serializable, so we specify a version to allow changes to
   // method signatures without breaking serialization.  If you add or
   // remove fields, you should change this number to the current date.
-  static final long serialVersionUID = 20020122L;
+  static final long serialVersionUID = 20261018L;
+
+  // Variables starting with dkconfig_ should only be set via the
+  // daikon.config.Configuration interface.
+  /**
+   * Boolean. If true, each ValueSet counts the distinct values of its variable by 64-bit
+   * fingerprints of the values, rather than by their 32-bit hash codes, which collide for values
+   * such as the arrays {0} and {-1}. The count is exact up to 44 distinct values; beyond that, it
+   * is estimated by a small HyperLogLog sketch, rather than stopping at 45. A ValueSet whose
+   * variable has few distinct values also uses less memory. ValueSets created with different values
+   * of this option cannot be merged.
+   */
+  public static boolean dkconfig_exact_counts = false;
+
+  /**
+   * The distinct values, if {@link #dkconfig_exact_counts} was true when this was created;
+   * otherwise null, and the hash codes of the values are stored by LimitedSizeLongSet.
+   */
+  private @Nullable DistinctValues distinct;
 
   protected ValueSet(int max_values) {
-    super(max_values);
+    // The superclass's array is unused if the counts are exact.
+    super(dkconfig_exact_counts ? 1 : max_values);
+    distinct = dkconfig_exact_counts ? new DistinctValues(max_values) : null;
   }
 
   // There is one ValueSet per variable (not one per slice or invariant),
@@ -100,10 +128,121 @@ public abstract class ValueSet extends LimitedSizeLongSet implements Serializabl
     if (this.getClass() != other.getClass()) {
       throw new Error("ValueSet type mismatch: " + this.getClass() + " " + other.getClass());
     }
-    addAll(other);
+    DistinctValues other_distinct = other.distinct;
+    if ((distinct == null) != (other_distinct == null)) {
+      throw new Error("ValueSet mismatch: only one of the sets has exact counts");
+    }
+    if (distinct != null && other_distinct != null) {
+      distinct.add_all(other_distinct);
+    } else {
+      addAll(other);
+    }
     add_stats(other);
   }
 
+  /**
+   * Adds a value, given its hash code, or (if the counts are exact) the bits of a long or double.
+   *
+   * @param v the hash code or the bits of a value
+   */
+  @Override
+  public void add(long v) {
+    if (distinct != null) {
+      distinct.add(DistinctValues.fingerprint(v));
+    } else {
+      super.add(v);
+    }
+  }
+
+  /**
+   * Returns true if this set stores fingerprints of its values (see {@link #dkconfig_exact_counts})
+   * rather than hash codes.
+   *
+   * @return true if the counts of this set are exact
+   */
+  @Pure
+  protected boolean exact_counts() {
+    return distinct != null;
+  }
+
+  /**
+   * Adds a value, given its fingerprint. May be called only if the counts are exact.
+   *
+   * @param fingerprint the fingerprint of the value (see {@link DistinctValues})
+   */
+  protected void add_fingerprint(long fingerprint) {
+    assert distinct != null : "@AssumeAssertion(nullness): only called if counts are exact";
+    distinct.add(fingerprint);
+  }
+
+  /**
+   * Returns the number of distinct values. If the counts are not exact, this is at most one more
+   * than the maximum size; if they are exact, it is estimated beyond the maximum size.
+   *
+   * @return the number of distinct values
+   */
+  @Pure
+  @Override
+  public int size(@GuardSatisfied ValueSet this) {
+    if (distinct != null) {
+      return distinct.size();
+    }
+    return super.size();
+  }
+
+  @Pure
+  @Override
+  public int maxSize(@GuardSatisfied ValueSet this) {
+    if (distinct != null) {
+      return distinct.limit();
+    }
+    return super.maxSize();
+  }
+
+  @Pure
+  @Override
+  public boolean repNulled(@GuardSatisfied ValueSet this) {
+    if (distinct != null) {
+      return distinct.is_sketch();
+    }
+    return super.repNulled();
+  }
+
+  /**
+   * {@inheritDoc} If the counts are exact, the argument is a value as given to {@link #add(long)}.
+   * The answer is exact while the fingerprints of the values are stored; once they are estimated
+   * by a sketch, it is conservative: false only if the value was certainly never added. A set of
+   * arrays or strings with exact counts stores fingerprints of its values rather than their hash
+   * codes, so it contains only values given to {@link #add(long)}.
+   */
+  @Pure
+  @Override
+  public boolean contains(long val) {
+    if (distinct != null) {
+      return distinct.contains(DistinctValues.fingerprint(val));
+    }
+    return super.contains(val);
+  }
+
+  @SideEffectFree
+  @Override
+  public ValueSet clone(@GuardSatisfied ValueSet this) {
+    ValueSet result = (ValueSet) super.clone();
+    if (distinct != null) {
+      result.distinct = distinct.clone();
+    }
+    return result;
+  }
+
+  @SideEffectFree
+  @Override
+  public String toString(@GuardSatisfied ValueSet this) {
+    if (distinct != null) {
+      return distinct.toString();
+    }
+    return super.toString();
+  }
+
   public static class ValueSetScalar extends ValueSet {
     // We are Serializable, so we specify a version to allow changes to
     // method signatures without breaking serialization.  If you add or
@@ -255,7 +394,11 @@ public abstract class ValueSet extends LimitedSizeLongSet implements Serializabl
       elem_cnt += val.length;
       if (val.length > 1) nonsingleton_arr_cnt++;
       if (val.length > max_length) max_length = val.length;
-      add(Arrays.hashCode((long[]) v1));
+      if (exact_counts()) {
+        add_fingerprint(DistinctValues.fingerprint(val));
+      } else {
+        add(Arrays.hashCode(val));
+      }
     }
 
     @Override
@@ -333,7 +476,11 @@ public abstract class ValueSet extends LimitedSizeLongSet implements Serializabl
       elem_cnt += val.length;
       if (val.length > 1) nonsingleton_arr_cnt++;
       if (val.length > max_length) max_length = val.length;
-      add(Arrays.hashCode(val));
+      if (exact_counts()) {
+        add_fingerprint(DistinctValues.fingerprint(val));
+      } else {
+        add(Arrays.hashCode(val));
+      }
     }
 
     @Override
@@ -401,7 +548,12 @@ public abstract class ValueSet extends LimitedSizeLongSet implements Serializabl
     @Override
     public void add(Object v1) {
       assert v1 != null;
-      add(((String) v1).hashCode());
+      String val = (String) v1;
+      if (exact_counts()) {
+        add_fingerprint(DistinctValues.fingerprint(val));
+      } else {
+        add(val.hashCode());
+      }
     }
 
     @Override
@@ -432,7 +584,11 @@ public abstract class ValueSet extends LimitedSizeLongSet implements Serializabl
       String[] val = (String[]) v1;
       elem_cnt += val.length;
       if (val.length > 1) nonsingleton_arr_cnt++;
-      add(Arrays.deepHashCode(val));
+      if (exact_counts()) {
+        add_fingerprint(DistinctValues.fingerprint(val));
+      } else {
+        add(Arrays.deepHashCode(val));
+      }
     }
 
     @Override
@@ -1,5 +1,6 @@
 package daikon.inv.unary.scalar;
 
+import daikon.InternPool;
 import daikon.PptSlice;
 import daikon.VarInfo;
 import daikon.inv.Invariant;
@@ -10,7 +11,6 @@ import java.util.TreeSet;
 import org.checkerframework.checker.lock.qual.GuardSatisfied;
 import org.checkerframework.dataflow.qual.Pure;
 import org.checkerframework.dataflow.qual.SideEffectFree;
-import org.plumelib.util.Intern;
 import org.plumelib.util.MathPlume;
 import typequals.prototype.qual.Prototype;
 
@@ -170,7 +170,7 @@ public class NonModulus extends SingleScalar {
   // XXX have to deal with flowing this; maybe it should live at all ppts?
   @Override
   public InvariantStatus add_modified(long value, int count) {
-    if (elements.add(Intern.internedLong(value))
+    if (elements.add(InternPool.internedLong(value))
         && results_accurate
         && !no_result_yet
         && (MathPlume.modNonnegative(value, modulus) == remainder)) results_accurate = false;
@@ -39,9 +39,17 @@ public abstract class SingleFloat extends UnaryInvariant {
   // just implement {@link add_modified(Object,int)}.
   @Override
   public InvariantStatus add(@Interned Object val, int mod_index, int count) {
+    return add(((Double) val).doubleValue(), mod_index, count);
+  }
+
+  /**
+   * Like {@link #add(Object, int, int)}, but takes the value unboxed. {@link
+   * daikon.PptSlice1#add_val_bu} unboxes the sample's value once, and passes it to every
+   * invariant of the slice.
+   */
+  public InvariantStatus add(double value, int mod_index, int count) {
     assert !falsified;
     assert (mod_index >= 0) && (mod_index < 2);
-    double value = ((Double) val).doubleValue();
     if (mod_index == 0) {
       return add_unmodified(value, count);
     } else {
@@ -51,9 +59,17 @@ public abstract class SingleFloat extends UnaryInvariant {
 
   @Override
   public InvariantStatus check(@Interned Object val, int mod_index, int count) {
+    return check(((Double) val).doubleValue(), mod_index, count);
+  }
+
+  /**
+   * Like {@link #check(Object, int, int)}, but takes the value unboxed. {@link
+   * daikon.PptSlice1#add_val_bu} unboxes the sample's value once, and passes it to every
+   * invariant of the slice.
+   */
+  public InvariantStatus check(double value, int mod_index, int count) {
     assert !falsified;
     assert (mod_index >= 0) && (mod_index < 2);
-    double value = ((Double) val).doubleValue();
     if (mod_index == 0) {
       return check_unmodified(value, count);
     } else {
@@ -3,6 +3,7 @@ package daikon.inv.unary.scalar;
 import daikon.PptSlice;
 import daikon.VarInfo;
 import daikon.inv.InvariantStatus;
+import daikon.inv.SampleEnvelope;
 import daikon.inv.unary.UnaryInvariant;
 import org.checkerframework.checker.initialization.qual.UnknownInitialization;
 import org.checkerframework.checker.interning.qual.Interned;
@@ -49,9 +50,17 @@ public abstract class SingleScalar extends UnaryInvariant {
   // just implement {@link #add_modified(Object,int)}.
   @Override
   public InvariantStatus add(@Interned Object val, int mod_index, int count) {
+    return add(((Long) val).longValue(), mod_index, count);
+  }
+
+  /**
+   * Like {@link #add(Object, int, int)}, but takes the value unboxed. {@link
+   * daikon.PptSlice1#add_val_bu} unboxes the sample's value once, and passes it to every
+   * invariant of the slice.
+   */
+  public InvariantStatus add(long value, int mod_index, int count) {
     assert !falsified;
     assert (mod_index >= 0) && (mod_index < 2);
-    long value = ((Long) val).longValue();
     if (mod_index == 0) {
       return add_unmodified(value, count);
     } else {
@@ -61,9 +70,17 @@ public abstract class SingleScalar extends UnaryInvariant {
 
   @Override
   public InvariantStatus check(@Interned Object val, int mod_index, int count) {
+    return check(((Long) val).longValue(), mod_index, count);
+  }
+
+  /**
+   * Like {@link #check(Object, int, int)}, but takes the value unboxed. {@link
+   * daikon.PptSlice1#add_val_bu} unboxes the sample's value once, and passes it to every
+   * invariant of the slice.
+   */
+  public InvariantStatus check(long value, int mod_index, int count) {
     assert !falsified;
     assert (mod_index >= 0) && (mod_index < 2);
-    long value = ((Long) val).longValue();
     if (mod_index == 0) {
       return check_unmodified(value, count);
     } else {
@@ -85,6 +102,19 @@ public abstract class SingleScalar extends UnaryInvariant {
     return InvariantStatus.NO_CHANGE;
   }
 
+  /**
+   * Narrows env to values that {@link #add(long, int, int)} accepts without changing this
+   * invariant, whether or not the variable was modified, and returns true. Returns false, leaving
+   * env unchanged, if this invariant cannot describe such values and must see every sample. This
+   * implementation returns false.
+   *
+   * @param env the envelope of a stable slice
+   * @return true if env was narrowed, false if this invariant must see every sample
+   */
+  public boolean restrict_envelope(SampleEnvelope env) {
+    return false;
+  }
+
   /**
    * Presents a sample to the invariant. Returns whether the sample is consistent with the
    * invariant. Does not change the state of the invariant.
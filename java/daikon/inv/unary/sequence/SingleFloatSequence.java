@@ -1,10 +1,10 @@
 package daikon.inv.unary.sequence;
 
+import daikon.InternPool;
 import daikon.PptSlice;
 import daikon.VarInfo;
 import daikon.inv.InvariantStatus;
 import org.checkerframework.checker.interning.qual.Interned;
-import org.plumelib.util.Intern;
 import typequals.prototype.qual.Prototype;
 
 /** Abstract base class for invariants over one variable of type {@code double[]}. */
@@ -37,7 +37,7 @@ public abstract class SingleFloatSequence extends SingleSequence {
   public InvariantStatus add(@Interned Object val, int mod_index, int count) {
     assert !falsified;
     assert (mod_index >= 0) && (mod_index < 2);
-    assert Intern.isInterned(val);
+    assert InternPool.isInterned(val);
     // System.out.println("SingleFloatSequence.add(" + Arrays.toString(value) + ", " + modified + ",
     // " + count + ")");
     double[] value = (double[]) val;
@@ -54,7 +54,7 @@ public abstract class SingleFloatSequence extends SingleSequence {
   public InvariantStatus check(@Interned Object val, int mod_index, int count) {
     assert !falsified;
     assert (mod_index >= 0) && (mod_index < 2);
-    assert Intern.isInterned(val);
+    assert InternPool.isInterned(val);
     double[] value = (double[]) val;
     if (value == null) {
     } else if (mod_index == 0) {
@@ -0,0 +1,766 @@
+package daikon.perf;
+
+import daikon.Daikon;
+import daikon.DynamicConstants;
+import daikon.FileIO;
+import daikon.PptMap;
+import daikon.PptRelation;
+import daikon.PptSlice;
+import daikon.PptSlice1;
+import daikon.PptSlice2;
+import daikon.PptSlice3;
+import daikon.PptTopLevel;
+import daikon.PrintInvariants;
+import daikon.ValueTuple;
+import daikon.inv.Invariant;
+import daikon.suppress.NIS;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.plumelib.options.Option;
+import org.plumelib.options.Options;
+
+/**
+ * Microbenchmarks of the parts of Daikon whose cost grows with the size of a trace: reading
+ * records, adding samples to program points and slices, processing suppressions, merging
+ * invariants up the program point hierarchy, and printing invariants. The workloads are synthetic
+ * traces written by {@link SyntheticTrace}, so the results can be reproduced offline and compared
+ * between versions of Daikon.
+ *
+ * <p>Each benchmark is run for some warmup iterations and then for some measured iterations. Every
+ * iteration starts from fresh program points, prepared without being timed, because adding samples
+ * changes the state that the next sample sees. The result is the mean time per operation over the
+ * measured iterations, where an operation is whatever the benchmark's name says (for example, one
+ * record read, or one sample added), and the mean number of bytes allocated per operation, if the
+ * JVM can count the bytes allocated by a thread.
+ *
+ * <p>Usage: {@code java daikon.perf.Benchmarks [options]}. Use {@code --include} to run only some
+ * of the benchmarks.
+ */
+public class Benchmarks {
+
+  /** Run only the benchmarks whose name contains a match of this regular expression. */
+  @Option("Run only the benchmarks whose name matches this regular expression")
+  public static @Nullable String include = null;
+
+  /** The number of unmeasured iterations of each benchmark. */
+  @Option("Number of warmup iterations")
+  public static int warmup = 3;
+
+  /** The number of measured iterations of each benchmark. */
+  @Option("Number of measured iterations")
+  public static int iterations = 5;
+
+  /** The number of calls of each method in the synthetic traces. */
+  @Option("Number of calls per method in the synthetic traces")
+  public static int calls = 500;
+
+  /** The seed of the synthetic traces. */
+  @Option("Seed for the synthetic traces")
+  public static long seed = 0;
+
+  /** The directory for the synthetic traces; a temporary directory if null. */
+  @Option("Directory in which to write the synthetic traces")
+  public static @Nullable File dir = null;
+
+  /** The usage message for this program. */
+  private static final String usage = "java daikon.perf.Benchmarks [options]";
+
+  /**
+   * Counts the bytes allocated by each thread, or null if the JVM cannot. Benchmarks run on the
+   * main thread, so this is the allocation of the measured code unless it starts threads.
+   */
+  private static final com.sun.management.@Nullable ThreadMXBean allocation = allocation_counter();
+
+  /**
+   * Returns the bean that counts the bytes allocated by each thread, with counting enabled, or null
+   * if the JVM cannot count them.
+   *
+   * @return the bean that counts allocated bytes, or null
+   */
+  private static com.sun.management.@Nullable ThreadMXBean allocation_counter() {
+    java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+      return null;
+    }
+    com.sun.management.ThreadMXBean counter = (com.sun.management.ThreadMXBean) bean;
+    if (!counter.isThreadAllocatedMemorySupported()) {
+      return null;
+    }
+    counter.setThreadAllocatedMemoryEnabled(true);
+    return counter;
+  }
+
+  /**
+   * Returns the number of bytes allocated so far by this thread, or 0 if that cannot be counted.
+   *
+   * @return the number of bytes allocated by this thread
+   */
+  private static long allocated_bytes() {
+    return (allocation == null)
+        ? 0
+        : allocation.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  /** Accumulates the time spent, and the bytes allocated, in the measured parts of an iteration. */
+  private static final class Timer {
+    /** The total time measured so far, in nanoseconds. */
+    long elapsed = 0;
+
+    /** The total number of bytes allocated by this thread in the measurements so far. */
+    long allocated = 0;
+
+    /** When the current measurement started, per {@link System#nanoTime}. */
+    private long start;
+
+    /** The number of bytes this thread had allocated when the current measurement started. */
+    private long start_allocated;
+
+    /** Starts a measurement. */
+    void start() {
+      start_allocated = allocated_bytes();
+      start = System.nanoTime();
+    }
+
+    /** Ends a measurement. */
+    void stop() {
+      elapsed += System.nanoTime() - start;
+      allocated += allocated_bytes() - start_allocated;
+    }
+  }
+
+  /** A benchmark: something done repeatedly, in iterations whose setup is not timed. */
+  private abstract static class Benchmark {
+    /** The name of the benchmark. */
+    final String name;
+
+    /**
+     * Creates a benchmark.
+     *
+     * @param name the name of the benchmark
+     */
+    Benchmark(String name) {
+      this.name = name;
+    }
+
+    /**
+     * Runs one iteration. Only the work between calls to timer.start() and timer.stop() is timed.
+     *
+     * @param timer the timer of the iteration
+     * @return the number of operations performed
+     * @throws IOException if a trace file cannot be read
+     */
+    abstract long iteration(Timer timer) throws IOException;
+  }
+
+  /** A synthetic trace, and the program points and samples read from it. */
+  private static final class Workload {
+    /** The declaration file. */
+    final File decls;
+
+    /** The data trace file. */
+    final File dtrace;
+
+    /**
+     * The samples at the leaves of the program point hierarchy, with their orig and derived
+     * variables computed and their values interned, in the order of the data trace file.
+     */
+    final List<Sample> samples = new ArrayList<>();
+
+    /**
+     * Creates a workload by writing a synthetic trace and reading its samples.
+     *
+     * @param name the prefix of the trace files
+     * @param trace the synthetic trace to write
+     * @throws IOException if the trace cannot be written or read
+     */
+    Workload(String name, SyntheticTrace trace) throws IOException {
+      decls = new File(dir, name + ".decls");
+      dtrace = new File(dir, name + ".dtrace");
+      trace.calls = calls;
+      trace.seed = seed;
+      trace.write(decls, dtrace);
+      FileIO.resetNewDeclFormat();
+      PptMap ppts = FileIO.read_declaration_files(Collections.singletonList(decls));
+      Daikon.all_ppts = ppts;
+      FileIO.read_data_trace_file(
+          dtrace.getPath(), ppts, new SampleCollector(samples), false, false);
+    }
+
+    /**
+     * Returns fresh program points for the trace, with no samples.
+     *
+     * @return the program points of the trace
+     * @throws IOException if the declarations cannot be read
+     */
+    PptMap fresh_ppts() throws IOException {
+      FileIO.resetNewDeclFormat();
+      PptMap ppts = FileIO.read_declaration_files(Collections.singletonList(decls));
+      Daikon.all_ppts = ppts;
+      return ppts;
+    }
+
+    /**
+     * Adds samples to the leaves of fresh program points, as Daikon does when it reads the trace.
+     *
+     * @param ppts fresh program points for this trace, from {@link #fresh_ppts}
+     * @param count the number of samples to add, from the start of {@link #samples}
+     */
+    void add_samples(PptMap ppts, int count) {
+      for (Sample sample : samples.subList(0, count)) {
+        sample.ppt_in(ppts).add_bottom_up(sample.vt, 1);
+      }
+    }
+
+    /**
+     * Returns fresh program points for the trace, to which all samples have been added and whose
+     * hierarchy has been initialized, but whose upper program points have not been computed.
+     *
+     * @return the program points of the trace, ready for {@link Daikon#createUpperPpts}
+     * @throws IOException if the declarations cannot be read
+     */
+    PptMap leaves_done() throws IOException {
+      PptMap ppts = fresh_ppts();
+      add_samples(ppts, samples.size());
+      Daikon.create_combined_exits(ppts);
+      if (DynamicConstants.dkconfig_use_dynamic_constant_optimization) {
+        for (PptTopLevel ppt : ppts.ppt_all_iterable()) {
+          if (ppt.constants != null) {
+            ppt.constants.post_process();
+          }
+        }
+      }
+      PptRelation.init_hierarchy_new(ppts);
+      return ppts;
+    }
+  }
+
+  /** A sample, and the program point to which it is added. */
+  private static final class Sample {
+    /** The name of the program point. */
+    final String ppt_name;
+
+    /** The sample, including orig and derived variables. */
+    final ValueTuple vt;
+
+    /**
+     * Creates a sample.
+     *
+     * @param ppt_name the name of the program point
+     * @param vt the sample
+     */
+    Sample(String ppt_name, ValueTuple vt) {
+      this.ppt_name = ppt_name;
+      this.vt = vt;
+    }
+
+    /**
+     * Returns the program point of this sample in the given map.
+     *
+     * @param ppts program points read from the sample's trace
+     * @return the program point of the sample
+     */
+    PptTopLevel ppt_in(PptMap ppts) {
+      PptTopLevel ppt = ppts.get(ppt_name);
+      if (ppt == null) {
+        throw new Error("No program point " + ppt_name);
+      }
+      return ppt;
+    }
+  }
+
+  /**
+   * Records the samples of a data trace file, instead of adding them to the program points. Does
+   * what {@link FileIO#process_sample} and {@link FileIO#apply_sample} do up to the call to {@link
+   * PptTopLevel#add_bottom_up}.
+   */
+  private static final class SampleCollector extends FileIO.Processor {
+    /** Where the samples are recorded. */
+    private final List<Sample> samples;
+
+    /**
+     * Creates a collector.
+     *
+     * @param samples where the samples are recorded
+     */
+    SampleCollector(List<Sample> samples) {
+      this.samples = samples;
+    }
+
+    @Override
+    @SuppressWarnings("nullness:contracts.precondition") // set while a trace file is read
+    public void process_sample(
+        PptMap all_ppts, PptTopLevel ppt, ValueTuple vt, @Nullable Integer nonce) {
+      boolean ignore = FileIO.compute_orig_variables(ppt, vt.vals, vt.mods, nonce);
+      if (ignore || !ppt.ppt_name.isNumberedExitPoint()) {
+        return;
+      }
+      FileIO.compute_derived_variables(ppt, vt.vals, vt.mods);
+      samples.add(new Sample(ppt.name(), new ValueTuple(vt.vals, vt.mods)));
+    }
+  }
+
+  /**
+   * Runs the benchmarks selected by the command line.
+   *
+   * @param args command-line arguments
+   * @throws IOException if a synthetic trace cannot be written or read
+   */
+  public static void main(String[] args) throws IOException {
+    Options options = new Options(usage, Benchmarks.class);
+    String[] remaining = options.parse(true, args);
+    if (remaining.length != 0) {
+      options.printUsage();
+      System.exit(1);
+    }
+    if (dir == null) {
+      File tmp = Files.createTempDirectory("daikon-benchmarks").toFile();
+      tmp.deleteOnExit();
+      dir = tmp;
+    }
+    Pattern filter = (include == null) ? null : Pattern.compile(include);
+
+    Daikon.dkconfig_quiet = true;
+    Daikon.setup_proto_invs();
+    Daikon.setup_NISuppression();
+
+    System.out.printf(
+        "%-40s %5s %14s %12s  %-5s %12s  %s%n",
+        "Benchmark", "Cnt", "Score", "Error", "Units", "Alloc", "Units");
+    for (Benchmark benchmark : benchmarks()) {
+      if (filter != null && !filter.matcher(benchmark.name).find()) {
+        continue;
+      }
+      run(benchmark);
+    }
+  }
+
+  /**
+   * Runs a benchmark and prints its mean time per operation, the standard deviation over the
+   * measured iterations, and its mean allocation per operation ("-" if it cannot be counted).
+   *
+   * @param benchmark the benchmark to run
+   * @throws IOException if a trace file cannot be read
+   */
+  private static void run(Benchmark benchmark) throws IOException {
+    for (int i = 0; i < warmup; i++) {
+      benchmark.iteration(new Timer());
+    }
+    double[] scores = new double[iterations];
+    double sum = 0;
+    double alloc_sum = 0;
+    for (int i = 0; i < iterations; i++) {
+      Timer timer = new Timer();
+      long ops = benchmark.iteration(timer);
+      scores[i] = ((double) timer.elapsed) / Math.max(1, ops);
+      sum += scores[i];
+      alloc_sum += ((double) timer.allocated) / Math.max(1, ops);
+    }
+    double mean = sum / Math.max(1, iterations);
+    double variance = 0;
+    for (double score : scores) {
+      variance += (score - mean) * (score - mean);
+    }
+    double error = (iterations > 1) ? Math.sqrt(variance / (iterations - 1)) : Double.NaN;
+    String alloc =
+        (allocation == null)
+            ? "-"
+            : String.format("%.1f", alloc_sum / Math.max(1, iterations));
+    System.out.printf(
+        "%-40s %5d %14.1f %12.1f  ns/op %12s  B/op%n",
+        benchmark.name, iterations, mean, error, alloc);
+  }
+
+  /**
+   * Returns every benchmark. The workloads are created when first needed.
+   *
+   * @return the benchmarks, in the order in which they are run
+   */
+  private static List<Benchmark> benchmarks() {
+    List<Benchmark> result = new ArrayList<>();
+    result.add(read_data_trace_record());
+    result.add(read_data_trace_file());
+    for (int vars : new int[] {10, 100, 500}) {
+      result.add(add_bottom_up(vars));
+    }
+    result.add(compute_derived_variables());
+    result.add(constants_add());
+    result.add(slice_add(1));
+    result.add(slice_add(2));
+    result.add(slice_add(3));
+    result.add(process_falsified_invs());
+    result.add(merge_invs());
+    result.add(print_invariants());
+    return result;
+  }
+
+  /** The workloads created so far, by name. */
+  private static final Map<String, Workload> workloads = new LinkedHashMap<>();
+
+  /**
+   * Returns a workload of a single method with the given number of variables.
+   *
+   * @param vars the number of int variables of the method
+   * @return the workload
+   * @throws IOException if the trace cannot be written or read
+   */
+  private static Workload method_workload(int vars) throws IOException {
+    String name = "method" + vars;
+    Workload workload = workloads.get(name);
+    if (workload == null) {
+      SyntheticTrace trace = new SyntheticTrace();
+      trace.classes = 1;
+      trace.methods = 1;
+      trace.vars = vars;
+      workload = new Workload(name, trace);
+      workloads.put(name, workload);
+    }
+    return workload;
+  }
+
+  /**
+   * Returns a workload of several classes with several methods each, with the default dimensions of
+   * {@link SyntheticTrace}.
+   *
+   * @return the workload
+   * @throws IOException if the trace cannot be written or read
+   */
+  private static Workload classes_workload() throws IOException {
+    Workload workload = workloads.get("classes");
+    if (workload == null) {
+      workload = new Workload("classes", new SyntheticTrace());
+      workloads.put("classes", workload);
+    }
+    return workload;
+  }
+
+  /**
+   * Reading the records of a data trace file, without processing the samples. One operation is one
+   * record.
+   */
+  private static Benchmark read_data_trace_record() {
+    return new Benchmark("FileIO.read_data_trace_record") {
+      @Override
+      long iteration(Timer timer) throws IOException {
+        Workload workload = classes_workload();
+        PptMap ppts = workload.fresh_ppts();
+        long records = 0;
+        timer.start();
+        try (FileIO.ParseState state =
+            new FileIO.ParseState(workload.dtrace.getPath(), false, false, ppts)) {
+          while (true) {
+            FileIO.read_data_trace_record_setstate(state);
+            if (state.rtype == FileIO.RecordType.EOF
+                || state.rtype == FileIO.RecordType.TRUNCATED) {
+              break;
+            }
+            records++;
+          }
+        }
+        timer.stop();
+        return records;
+      }
+    };
+  }
+
+  /**
+   * Reading a data trace file and processing its samples as Daikon does, from parsing each record
+   * to adding it to the leaves of the program point hierarchy. One operation is one sample.
+   */
+  private static Benchmark read_data_trace_file() {
+    return new Benchmark("FileIO.read_data_trace_file") {
+      @Override
+      long iteration(Timer timer) throws IOException {
+        Workload workload = classes_workload();
+        PptMap ppts = workload.fresh_ppts();
+        int before = FileIO.samples_processed;
+        timer.start();
+        FileIO.read_data_trace_file(
+            workload.dtrace.getPath(), ppts, new FileIO.Processor(), false, false);
+        timer.stop();
+        return FileIO.samples_processed - before;
+      }
+    };
+  }
+
+  /**
+   * Adding every sample of a trace to fresh program points whose samples have the given number of
+   * variables, before orig and derived variables are added. This includes instantiating the
+   * invariants at the first sample. One operation is one sample.
+   */
+  private static Benchmark add_bottom_up(int vars) {
+    return new Benchmark("PptTopLevel.add_bottom_up:" + vars + "vars") {
+      @Override
+      long iteration(Timer timer) throws IOException {
+        Workload workload = method_workload(vars);
+        PptMap ppts = workload.fresh_ppts();
+        PptTopLevel[] targets = new PptTopLevel[workload.samples.size()];
+        for (int i = 0; i < targets.length; i++) {
+          targets[i] = workload.samples.get(i).ppt_in(ppts);
+        }
+        timer.start();
+        for (int i = 0; i < targets.length; i++) {
+          targets[i].add_bottom_up(workload.samples.get(i).vt, 1);
+        }
+        timer.stop();
+        return targets.length;
+      }
+    };
+  }
+
+  /**
+   * Computing the derived variables of every sample of a trace, at program points with 500
+   * variables whose derived variables have already been computed for earlier samples. One operation
+   * is one sample.
+   */
+  private static Benchmark compute_derived_variables() {
+    return new Benchmark("FileIO.compute_derived_variables") {
+      @Override
+      long iteration(Timer timer) throws IOException {
+        Workload workload = method_workload(500);
+        PptMap ppts = workload.fresh_ppts();
+        int size = workload.samples.size();
+        PptTopLevel[] targets = new PptTopLevel[size];
+        @Nullable Object[][] vals = new @Nullable Object[size][];
+        int[][] mods = new int[size][];
+        for (int i = 0; i < size; i++) {
+          Sample sample = workload.samples.get(i);
+          targets[i] = sample.ppt_in(ppts);
+          vals[i] = sample.vt.vals.clone();
+          mods[i] = sample.vt.mods.clone();
+        }
+        timer.start();
+        for (int i = 0; i < size; i++) {
+          FileIO.compute_derived_variables(targets[i], vals[i], mods[i]);
+        }
+        timer.stop();
+        return size;
+      }
+    };
+  }
+
+  /**
+   * Adding samples to the dynamic constants of a program point with 500 variables, after every
+   * sample has been added to it, so that only variables that are constant for the whole trace
+   * remain constant. One operation is one sample.
+   */
+  private static Benchmark constants_add() {
+    return new Benchmark("DynamicConstants.add") {
+      @Override
+      long iteration(Timer timer) throws IOException {
+        Workload workload = method_workload(500);
+        PptMap ppts = workload.fresh_ppts();
+        workload.add_samples(ppts, workload.samples.size());
+        @Nullable DynamicConstants[] targets = new DynamicConstants[workload.samples.size()];
+        for (int i = 0; i < targets.length; i++) {
+          targets[i] = workload.samples.get(i).ppt_in(ppts).constants;
+        }
+        long ops = 0;
+        timer.start();
+        for (int i = 0; i < targets.length; i++) {
+          DynamicConstants constants = targets[i];
+          if (constants != null) {
+            constants.add(workload.samples.get(i).vt, 1);
+            ops++;
+          }
+        }
+        timer.stop();
+        return ops;
+      }
+    };
+  }
+
+  /**
+   * Adding samples to the slices of the given arity at a program point, after every sample has been
+   * added to it, so that only invariants that hold for the samples remain. One operation is one
+   * sample added to one slice.
+   */
+  private static Benchmark slice_add(int arity) {
+    String[] kinds = {"unary", "binary", "ternary"};
+    return new Benchmark("PptSlice.add:" + kinds[arity - 1]) {
+      @Override
+      long iteration(Timer timer) throws IOException {
+        Workload workload = method_workload(10);
+        PptMap ppts = workload.fresh_ppts();
+        workload.add_samples(ppts, workload.samples.size());
+        long ops = 0;
+        for (Sample sample : workload.samples) {
+          PptTopLevel ppt = sample.ppt_in(ppts);
+          List<PptSlice> slices = new ArrayList<>();
+          for (PptSlice slice : ppt.views_iterable()) {
+            if (slice.invs.size() > 0 && arity(slice) == arity) {
+              slices.add(slice);
+            }
+          }
+          timer.start();
+          for (PptSlice slice : slices) {
+            add(slice, sample.vt);
+          }
+          timer.stop();
+          ops += slices.size();
+        }
+        return ops;
+      }
+    };
+  }
+
+  /**
+   * Returns the number of variables of a slice.
+   *
+   * @param slice a slice
+   * @return 1, 2, or 3 for a unary, binary, or ternary slice; 0 otherwise
+   */
+  private static int arity(PptSlice slice) {
+    if (slice instanceof PptSlice1) {
+      return 1;
+    } else if (slice instanceof PptSlice2) {
+      return 2;
+    } else if (slice instanceof PptSlice3) {
+      return 3;
+    } else {
+      return 0;
+    }
+  }
+
+  /**
+   * Adds a sample to a unary, binary, or ternary slice. ({@code PptSlice.add} is public only in the
+   * subclasses.)
+   *
+   * @param slice a slice
+   * @param vt the sample
+   */
+  private static void add(PptSlice slice, ValueTuple vt) {
+    if (slice instanceof PptSlice1) {
+      ((PptSlice1) slice).add(vt, 1);
+    } else if (slice instanceof PptSlice2) {
+      ((PptSlice2) slice).add(vt, 1);
+    } else if (slice instanceof PptSlice3) {
+      ((PptSlice3) slice).add(vt, 1);
+    }
+  }
+
+  /**
+   * Creating the invariants that are no longer suppressed after a sample falsifies others. The
+   * first half of the samples are added normally. Each sample of the second half is then added in
+   * the steps of {@link PptTopLevel#add_bottom_up}, and only the call to {@link
+   * NIS#process_falsified_invs} is timed. One operation is one sample.
+   */
+  private static Benchmark process_falsified_invs() {
+    return new Benchmark("NIS.process_falsified_invs") {
+      @Override
+      @SuppressWarnings("nullness:contracts.precondition") // NIS is set up in main
+      long iteration(Timer timer) throws IOException {
+        Workload workload = method_workload(100);
+        PptMap ppts = workload.fresh_ppts();
+        int half = workload.samples.size() / 2;
+        workload.add_samples(ppts, half);
+        for (Sample sample : workload.samples.subList(half, workload.samples.size())) {
+          PptTopLevel ppt = sample.ppt_in(ppts);
+          ValueTuple vt = sample.vt;
+          if (ppt.equality_view != null) {
+            ppt.equality_view.add(vt, 1);
+          }
+          if (ppt.constants != null) {
+            ppt.constants.add(vt, 1);
+          }
+          for (PptSlice slice : ppt.views_iterable()) {
+            if (slice.invs.size() > 0) {
+              add(slice, vt);
+            }
+          }
+
+          timer.start();
+          NIS.process_falsified_invs(ppt, vt);
+          timer.stop();
+
+          do {
+            List<PptSlice> slices = new ArrayList<>();
+            for (PptSlice slice : ppt.views_iterable()) {
+              slices.add(slice);
+            }
+            for (PptSlice slice : slices) {
+              for (Iterator<Invariant> i = slice.invs.iterator(); i.hasNext(); ) {
+                Invariant inv = i.next();
+                if (inv.is_false()) {
+                  i.remove();
+                  NIS.falsified(inv);
+                }
+              }
+            }
+            NIS.apply_samples(vt, 1);
+            PptTopLevel.first_pass_with_sample.set(false);
+          } while (NIS.newly_falsified.get().size() != 0);
+          PptTopLevel.first_pass_with_sample.set(true);
+        }
+        return workload.samples.size() - half;
+      }
+    };
+  }
+
+  /**
+   * Computing the invariants of the upper program points of the hierarchy (the OBJECT program
+   * points, the ENTER program points, and the combined exits) from those of the leaves. One
+   * operation is one merge of the whole hierarchy.
+   */
+  private static Benchmark merge_invs() {
+    return new Benchmark("PptTopLevel.mergeInvs") {
+      @Override
+      long iteration(Timer timer) throws IOException {
+        PptMap ppts = classes_workload().leaves_done();
+        timer.start();
+        Daikon.createUpperPpts(ppts);
+        timer.stop();
+        return 1;
+      }
+    };
+  }
+
+  /**
+   * Formatting the invariants of every program point, after inference, to a stream that discards
+   * them. One operation is one program point.
+   */
+  private static Benchmark print_invariants() {
+    return new Benchmark("PrintInvariants.print_invariants") {
+      @Override
+      @SuppressWarnings("nullness:contracts.precondition") // new_decl_format is set by reading
+      long iteration(Timer timer) throws IOException {
+        PptMap ppts = classes_workload().leaves_done();
+        Daikon.createUpperPpts(ppts);
+        for (PptTopLevel ppt : ppts.ppt_all_iterable()) {
+          ppt.postProcessEquality();
+        }
+        List<PptTopLevel> targets = new ArrayList<>();
+        for (PptTopLevel ppt : ppts.pptIterable()) {
+          targets.add(ppt);
+        }
+        PrintWriter out =
+            new PrintWriter(
+                new OutputStream() {
+                  @Override
+                  public void write(int b) {}
+
+                  @Override
+                  public void write(byte[] b, int off, int len) {}
+                });
+        timer.start();
+        for (PptTopLevel ppt : targets) {
+          PrintInvariants.print_invariants(ppt, out, ppts);
+        }
+        out.flush();
+        timer.stop();
+        return targets.size();
+      }
+    };
+  }
+}
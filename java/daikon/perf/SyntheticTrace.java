@@ -0,0 +1,358 @@
+package daikon.perf;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.plumelib.options.Option;
+import org.plumelib.options.Options;
+
+/**
+ * Writes a synthetic declaration file and data trace file, for measuring Daikon's performance
+ * without a traced program. The output depends only on the options, so a benchmark that reads it
+ * gives the same workload on every machine.
+ *
+ * <p>The traces describe classes {@code synthetic.C0}, {@code synthetic.C1}, ..., each with int
+ * fields and methods whose parameters are ints and int arrays. Each method has an ENTER program
+ * point and two numbered exits, and the fields are declared at the class's OBJECT program point, so
+ * that Daikon builds its usual hierarchy of program points. The values are random, but follow
+ * fixed patterns (ranges, constants, linear relationships, and sorted arrays), so that some
+ * invariants survive and others are falsified.
+ *
+ * <p>Usage: {@code java daikon.perf.SyntheticTrace [options] prefix} writes {@code prefix.decls}
+ * and {@code prefix.dtrace}.
+ */
+public class SyntheticTrace {
+
+  /** The number of classes. */
+  @Option("Number of classes")
+  public int classes = 4;
+
+  /** The number of methods of each class. */
+  @Option("Number of methods per class")
+  public int methods = 4;
+
+  /**
+   * The number of int variables at each program point of a method. Half of them are fields of the
+   * receiver and the rest are parameters.
+   */
+  @Option("Number of int fields and parameters per method")
+  public int vars = 10;
+
+  /** The number of int array parameters of each method. */
+  @Option("Number of int[] parameters per method")
+  public int arrays = 1;
+
+  /** The number of calls of each method. */
+  @Option("Number of calls per method")
+  public int calls = 1000;
+
+  /**
+   * The number of consecutive int variables that are comparable to one another. Without
+   * comparability, the number of ternary slices is cubic in the number of variables.
+   */
+  @Option("Number of int variables per comparability set")
+  public int group = 5;
+
+  /** The seed of the random values. */
+  @Option("Seed for the random values")
+  public long seed = 0;
+
+  /** The number of receivers of each class; calls are spread among them. */
+  private static final int RECEIVERS = 4;
+
+  /** The usage message for this program. */
+  private static final String usage = "java daikon.perf.SyntheticTrace [options] prefix";
+
+  /**
+   * Writes the trace files named by the command line.
+   *
+   * @param args command-line arguments
+   * @throws IOException if a file cannot be written
+   */
+  public static void main(String[] args) throws IOException {
+    SyntheticTrace trace = new SyntheticTrace();
+    Options options = new Options(usage, trace);
+    String[] prefixes = options.parse(true, args);
+    if (prefixes.length != 1) {
+      options.printUsage();
+      System.exit(1);
+    }
+    trace.write(new File(prefixes[0] + ".decls"), new File(prefixes[0] + ".dtrace"));
+  }
+
+  /**
+   * Writes the declarations and the samples.
+   *
+   * @param decls_file the file to which the declarations are written
+   * @param dtrace_file the file to which the samples are written
+   * @throws IOException if a file cannot be written
+   */
+  public void write(File decls_file, File dtrace_file) throws IOException {
+    if (classes < 1 || methods < 1 || vars < 1 || arrays < 0 || calls < 0 || group < 1) {
+      throw new IllegalArgumentException("invalid synthetic trace dimensions");
+    }
+    try (PrintWriter decls =
+        new PrintWriter(new BufferedWriter(Files.newBufferedWriter(decls_file.toPath(), UTF_8)))) {
+      write_header(decls);
+      for (int c = 0; c < classes; c++) {
+        write_decls(decls, c);
+      }
+    }
+    try (PrintWriter dtrace =
+        new PrintWriter(new BufferedWriter(Files.newBufferedWriter(dtrace_file.toPath(), UTF_8)))) {
+      write_header(dtrace);
+      write_samples(dtrace);
+    }
+  }
+
+  /** Returns the number of int fields of each class. */
+  private int fields() {
+    return vars / 2;
+  }
+
+  /** Returns the name of class c. */
+  private static String class_name(int c) {
+    return "synthetic.C" + c;
+  }
+
+  /** Returns the name of method m of class c, without a program point suffix. */
+  private String method_name(int c, int m) {
+    StringBuilder sb = new StringBuilder();
+    sb.append(class_name(c)).append(".m").append(m).append('(');
+    for (int i = fields(); i < vars; i++) {
+      sb.append((i == fields()) ? "int" : ",int");
+    }
+    for (int a = 0; a < arrays; a++) {
+      sb.append(",int[]");
+    }
+    return sb.append(')').toString();
+  }
+
+  /** Returns the name of int variable i: a field for the first {@link #fields()} ones. */
+  private String var_name(int i) {
+    return (i < fields()) ? "this.f" + i : "p" + i;
+  }
+
+  /** Returns the comparability of int variable i. */
+  private int comparability(int i) {
+    return 2 + i / group;
+  }
+
+  /** Writes the first lines of a file, which give its format. */
+  private static void write_header(PrintWriter out) {
+    out.println("decl-version 2.0");
+    out.println("var-comparability implicit");
+    out.println();
+  }
+
+  /** Writes the declarations of the program points of class c. */
+  private void write_decls(PrintWriter out, int c) {
+    String object = class_name(c) + ":::OBJECT";
+    out.println("ppt " + object);
+    out.println("ppt-type object");
+    write_receiver_decls(out, c, null);
+    out.println();
+    for (int m = 0; m < methods; m++) {
+      String method = method_name(c, m);
+      for (String point : new String[] {"ENTER", "EXIT1", "EXIT2"}) {
+        out.println("ppt " + method + ":::" + point);
+        out.println("ppt-type " + (point.equals("ENTER") ? "enter" : "subexit"));
+        out.println("parent parent " + object + " 1");
+        write_receiver_decls(out, c, object);
+        for (int i = fields(); i < vars; i++) {
+          write_var_decl(
+              out, var_name(i), "variable", null, "int", "int", "is_param", comparability(i));
+        }
+        for (int a = 0; a < arrays; a++) {
+          int comp = 2 + vars / group + 2 * a;
+          write_var_decl(out, "a" + a, "variable", null, "int[]", "hashcode", "is_param", comp);
+          out.println("variable a" + a + "[..]");
+          out.println("  var-kind array");
+          out.println("  enclosing-var a" + a);
+          out.println("  array 1");
+          out.println("  dec-type int[]");
+          out.println("  rep-type int[]");
+          out.println("  comparability " + comparability(0) + "[" + (comp + 1) + "]");
+        }
+        if (!point.equals("ENTER")) {
+          write_var_decl(out, "return", "return", null, "int", "int", null, comparability(0));
+        }
+        out.println();
+      }
+    }
+  }
+
+  /**
+   * Writes the declarations of the receiver, of class c, and its fields, with the given parent if
+   * non-null.
+   */
+  private void write_receiver_decls(PrintWriter out, int c, @Nullable String parent) {
+    out.println("variable this");
+    out.println("  var-kind variable");
+    out.println("  dec-type " + class_name(c));
+    out.println("  rep-type hashcode");
+    out.println("  flags is_param non_null");
+    out.println("  comparability 1");
+    if (parent != null) {
+      out.println("  parent " + parent + " 1");
+    }
+    for (int i = 0; i < fields(); i++) {
+      write_var_decl(out, var_name(i), "field f" + i, parent, "int", "int", null, comparability(i));
+    }
+  }
+
+  /** Writes the declaration of a variable. The flags and the parent may be null. */
+  private static void write_var_decl(
+      PrintWriter out,
+      String name,
+      String kind,
+      @Nullable String parent,
+      String dec_type,
+      String rep_type,
+      @Nullable String flags,
+      int comparability) {
+    out.println("variable " + name);
+    out.println("  var-kind " + kind);
+    if (kind.startsWith("field ")) {
+      out.println("  enclosing-var this");
+    }
+    out.println("  dec-type " + dec_type);
+    out.println("  rep-type " + rep_type);
+    if (flags != null) {
+      out.println("  flags " + flags);
+    }
+    out.println("  comparability " + comparability);
+    if (parent != null) {
+      out.println("  parent " + parent + " 1");
+    }
+  }
+
+  /**
+   * Returns a value for int variable i, given the values of the preceding variables. The pattern
+   * depends on i modulo 5: a small range, one more than a linear function of the previous variable,
+   * a constant, one of three values, and a large range.
+   */
+  private static int value(Random random, int[] values, int i) {
+    switch (i % 5) {
+      case 0:
+        return random.nextInt(1000);
+      case 1:
+        return values[i - 1] + i;
+      case 2:
+        return i;
+      case 3:
+        return random.nextInt(3) - 1;
+      default:
+        return random.nextInt(2_000_001) - 1_000_000;
+    }
+  }
+
+  /** Writes the ENTER and EXIT records of every call, interleaving the calls of the methods. */
+  private void write_samples(PrintWriter out) {
+    Random random = new Random(seed);
+    int[][][] receivers = new int[classes][RECEIVERS][];
+    for (int c = 0; c < classes; c++) {
+      for (int r = 0; r < RECEIVERS; r++) {
+        int[] values = new int[vars];
+        for (int i = 0; i < fields(); i++) {
+          values[i] = value(random, values, i);
+        }
+        receivers[c][r] = values;
+      }
+    }
+
+    int nonce = 0;
+    int next_hashcode = 1_000_000;
+    int[][] array_values = new int[arrays][];
+    for (int call = 0; call < calls; call++) {
+      for (int c = 0; c < classes; c++) {
+        for (int m = 0; m < methods; m++) {
+          int r = random.nextInt(RECEIVERS);
+          int[] values = receivers[c][r];
+          int receiver_hashcode = 1000 + RECEIVERS * c + r;
+          for (int i = fields(); i < vars; i++) {
+            values[i] = value(random, values, i);
+          }
+          int[] array_hashcodes = new int[arrays];
+          for (int a = 0; a < arrays; a++) {
+            int[] array = new int[random.nextInt(8)];
+            for (int j = 0; j < array.length; j++) {
+              array[j] = random.nextInt(100);
+            }
+            Arrays.sort(array);
+            array_values[a] = array;
+            array_hashcodes[a] = next_hashcode++;
+          }
+
+          String method = method_name(c, m);
+          nonce++;
+          write_record_start(out, method + ":::ENTER", nonce, receiver_hashcode, values);
+          write_arrays(out, array_hashcodes, array_values);
+          out.println();
+
+          // The body of the method: update some fields, then return.
+          int exit = ((values[vars - 1] & 1) == 0) ? 1 : 2;
+          for (int i = 0; i < fields(); i++) {
+            if (i % 5 == 0) {
+              values[i] = (values[i] + values[fields() + (i % (vars - fields()))]) % 1000;
+              if (values[i] < 0) {
+                values[i] += 1000;
+              }
+            } else if (i % 5 == 1) {
+              values[i] = values[i - 1] + i;
+            }
+          }
+          int result = values[0] + exit;
+          write_record_start(out, method + ":::EXIT" + exit, nonce, receiver_hashcode, values);
+          write_arrays(out, array_hashcodes, array_values);
+          out.println("return");
+          out.println(result);
+          out.println(1);
+          out.println();
+        }
+      }
+    }
+  }
+
+  /** Writes the program point, the nonce, and the receiver and int variables of a record. */
+  private void write_record_start(
+      PrintWriter out, String ppt, int nonce, int receiver_hashcode, int[] values) {
+    out.println(ppt);
+    out.println("this_invocation_nonce");
+    out.println(nonce);
+    out.println("this");
+    out.println(receiver_hashcode);
+    out.println(1);
+    for (int i = 0; i < vars; i++) {
+      out.println(var_name(i));
+      out.println(values[i]);
+      out.println(1);
+    }
+  }
+
+  /** Writes the array parameters of a record. */
+  private static void write_arrays(PrintWriter out, int[] hashcodes, int[][] values) {
+    for (int a = 0; a < hashcodes.length; a++) {
+      out.println("a" + a);
+      out.println(hashcodes[a]);
+      out.println(1);
+      out.println("a" + a + "[..]");
+      StringBuilder sb = new StringBuilder("[");
+      for (int j = 0; j < values[a].length; j++) {
+        if (j > 0) {
+          sb.append(' ');
+        }
+        sb.append(values[a][j]);
+      }
+      out.println(sb.append(']'));
+      out.println(1);
+    }
+  }
+}
@@ -78,8 +78,18 @@ public class NIS {
    * Boolean. If true, use antecedent method for NIS processing. If false, use falsified method for
    * processing falsified invariants for NISuppressions. Note this flag is for internal use only and
    * is controlled by NIS.dkconfig_suppression_processor.
+   *
+   * <p>The hybrid method remakes this choice for each sample, and samples of different program
+   * points may be processed concurrently (see {@link daikon.FileIO#dkconfig_inference_threads}), so
+   * the flag is per-thread. A new thread starts with the value of the thread that created it.
    */
-  public static boolean antecedent_method = true;
+  public static final ThreadLocal<Boolean> antecedent_method =
+      new InheritableThreadLocal<Boolean>() {
+        @Override
+        protected Boolean initialValue() {
+          return true;
+        }
+      };
 
   /**
    * Boolean. If true, use a combination of the falsified method for a small number of suppressions
@@ -147,17 +157,19 @@ public class NIS {
   /**
    * List of invariants that are unsuppressed by the current sample. The {@link #falsified} and
    * {@link #process_falsified_invs} methods add created invariants to this list. This list is
-   * cleared by {@link #apply_samples}.
+   * cleared by {@link #apply_samples}. Each thread that processes samples has its own list.
    */
-  public static List<Invariant> new_invs = new ArrayList<>();
+  public static final ThreadLocal<List<Invariant>> new_invs =
+      ThreadLocal.withInitial(ArrayList::new);
 
   /**
    * List of invariants that are unsuppressed and then falsified by the current sample. This list is
    * cleared at the beginning of apply_samples() and falsified invariants are added as the current
    * sample is applied to invariants in new_invs. The list is only used when the falsified method is
-   * used for processing suppressions.
+   * used for processing suppressions. Each thread that processes samples has its own list.
    */
-  public static List<Invariant> newly_falsified = new ArrayList<>();
+  public static final ThreadLocal<List<Invariant>> newly_falsified =
+      ThreadLocal.withInitial(ArrayList::new);
 
   // Statistics that are kept during processing.  Some of these are kept
   // and/or make sense for some approaches and not for others
@@ -230,6 +242,7 @@ public class NIS {
                 : "class " + inv.getClass() + " doesn't match " + ss.suppression_set[j];
           }
         }
+        ss.reset_definitions();
         all_suppressions.add(ss);
       }
     }
@@ -298,7 +311,7 @@ public class NIS {
   @RequiresNonNull("suppressor_map")
   public static void falsified(Invariant inv) {
 
-    if (!dkconfig_enabled || antecedent_method) {
+    if (!dkconfig_enabled || antecedent_method.get()) {
       return;
     }
 
@@ -329,18 +342,17 @@ public class NIS {
     // Count the number of falsified invariants that are antecedents
     if (keep_stats) {
       startTime = System.nanoTime();
-      if (PptTopLevel.first_pass_with_sample && suppressor_map.containsKey(inv.getClass())) {
+      if (PptTopLevel.first_pass_with_sample.get() && suppressor_map.containsKey(inv.getClass())) {
         false_invs++;
       }
     }
 
     // Process each suppression set
     for (NISuppressionSet ss : ss_list) {
-      ss.clear_state();
       if (debug.isLoggable(Level.FINE)) {
         debug.fine("processing suppression set " + ss + " over falsified inv " + inv.format());
       }
-      ss.falsified(inv, new_invs);
+      ss.falsified(inv, new_invs.get());
       suppressions_processed += ss.suppression_set.length;
     }
 
@@ -358,6 +370,9 @@ public class NIS {
    * newly falsified invariant is not itself a possible NI suppressor.
    */
   public static void apply_samples(ValueTuple vt, int count) {
+    List<Invariant> new_invs = NIS.new_invs.get();
+    List<Invariant> newly_falsified = NIS.newly_falsified.get();
+    boolean antecedent_method = NIS.antecedent_method.get();
     newly_falsified.clear();
 
     if (NIS.debug.isLoggable(Level.FINE)) {
@@ -387,7 +402,7 @@ public class NIS {
       if (!missing) {
         InvariantStatus result = inv.add_sample(vt, count);
         if (result == InvariantStatus.FALSIFIED) {
-          if (NIS.antecedent_method) {
+          if (antecedent_method) {
             throw new Error(
                 "inv "
                     + inv.format()
@@ -411,7 +426,7 @@ public class NIS {
         inv.log("%s added to slice", inv.format());
       }
 
-      if (NIS.antecedent_method) created_invs_cnt++;
+      if (antecedent_method) created_invs_cnt++;
     }
 
     // Make a second pass through the new invariants and make sure that
@@ -515,12 +530,16 @@ public class NIS {
   })
   public static void process_falsified_invs(PptTopLevel ppt, ValueTuple vt) {
 
+    // The invariants among which to look for falsified ones: only the falsified invariants, if the
+    // program point tracks them, and otherwise every invariant.
+    List<Invariant> falsified = ppt.falsified_invariants();
+    Iterable<Invariant> candidates = (falsified != null) ? falsified : ppt::invariants_iterator;
+
     // if using the hybrid method, need to know the number of falsified suppressor
     // invariants before deciding which method to use
     if (NIS.hybrid_method) {
       int count = 0;
-      for (Iterator<Invariant> i = ppt.invariants_iterator(); i.hasNext(); ) {
-        Invariant inv = i.next();
+      for (Invariant inv : candidates) {
 
         if (NIS.dkconfig_skip_hashcode_type) {
 
@@ -553,14 +572,10 @@ public class NIS {
         }
       }
 
-      if (count > NIS.dkconfig_hybrid_threshhold) {
-        antecedent_method = true;
-      } else {
-        antecedent_method = false;
-      }
+      antecedent_method.set(count > NIS.dkconfig_hybrid_threshhold);
     }
 
-    if (!dkconfig_enabled || !antecedent_method) {
+    if (!dkconfig_enabled || !antecedent_method.get()) {
       return;
     }
 
@@ -577,8 +592,7 @@ public class NIS {
 
     // If there are no falsified invariants that are suppressors, there is nothing to do
     int false_cnt = 0;
-    for (Iterator<Invariant> i = ppt.invariants_iterator(); i.hasNext(); ) {
-      Invariant inv = i.next();
+    for (Invariant inv : candidates) {
       if (inv.is_false() && suppressor_map.containsKey(inv.getClass())) {
         false_cnt++;
       }
@@ -702,7 +716,7 @@ public class NIS {
             throw new Error("inv " + inv.format() + " already exists in ppt " + ppt.name);
           }
         }
-        new_invs.add(inv);
+        new_invs.get().add(inv);
       }
     }
   }
@@ -87,8 +87,8 @@ public class NISuppression {
 
   /**
    * Checks this suppression. Each suppressor is checked to see if it matches inv and if not,
-   * whether or not it is valid (true). The results are saved in each suppressor. The suppressor
-   * results are used later by {@link #invalidated()}.
+   * whether or not it is valid (true). {@link #invalidated} needs the result of each suppressor,
+   * which {@link #check(PptTopLevel,VarInfo[],Invariant,NIS.SuppressState[])} records.
    *
    * @param ppt program point in which to check suppression
    * @param vis variables over which to check suppression
@@ -99,12 +99,36 @@ public class NISuppression {
    *     otherwise
    */
   public NIS.SuppressState check(PptTopLevel ppt, VarInfo[] vis, @Nullable Invariant inv) {
+    return check(ppt, vis, inv, null);
+  }
+
+  /**
+   * Like {@link #check(PptTopLevel,VarInfo[],Invariant)}, but also records the state of each
+   * suppressor that is checked in {@code states}, for {@link #invalidated}. The suppressors are
+   * shared by all program points, which may be checked on different threads, so they do not hold
+   * the results of a check themselves.
+   *
+   * @param ppt program point in which to check suppression
+   * @param vis variables over which to check suppression
+   * @param inv falsified invariant (if any)
+   * @param states if non-null, an array as long as the suppressors, into which the state of each
+   *     suppressor that is checked is stored
+   * @return the status of the suppression, as for {@link #check(PptTopLevel,VarInfo[],Invariant)}
+   */
+  public NIS.SuppressState check(
+      PptTopLevel ppt,
+      VarInfo[] vis,
+      @Nullable Invariant inv,
+      NIS.SuppressState @Nullable [] states) {
 
     NIS.SuppressState status = NIS.SuppressState.VALID;
     boolean set = false;
     for (int i = 0; i < suppressors.length; i++) {
       NISuppressor ssor = suppressors[i];
       NIS.SuppressState st = ssor.check(ppt, vis, inv);
+      if (states != null) {
+        states[i] = st;
+      }
 
       if (!set) {
         if (st == NIS.SuppressState.NONSENSICAL) {
@@ -128,11 +152,14 @@ public class NISuppression {
 
   /**
    * Determines whether or not the falsified invariant previously passed to {@link
-   * #check(PptTopLevel,VarInfo[],Invariant)} was the first suppressor to be falsified in this
-   * suppression. If the falsified invariant is not involved in this suppression, then it can't have
-   * been invalidated.
+   * #check(PptTopLevel,VarInfo[],Invariant,NIS.SuppressState[])} was the first suppressor to be
+   * falsified in this suppression. If the falsified invariant is not involved in this suppression,
+   * then it can't have been invalidated.
+   *
+   * @param states the suppressor states recorded by the check
+   * @return true if the falsified invariant was the last valid suppressor
    */
-  public boolean invalidated() {
+  public boolean invalidated(NIS.SuppressState[] states) {
 
     // We return true when every suppressor except the falsified
     // one is valid and at least one suppressor matches the falsified
@@ -142,11 +169,11 @@ public class NISuppression {
     // have never looked at a slice with nonsensical variables.
     boolean inv_match = false;
     for (int i = 0; i < suppressors.length; i++) {
-      NISuppressor ssor = suppressors[i];
-      assert ssor.state != NIS.SuppressState.NONSENSICAL;
-      if (ssor.state == NIS.SuppressState.MATCH) {
+      NIS.SuppressState state = states[i];
+      assert state != NIS.SuppressState.NONSENSICAL;
+      if (state == NIS.SuppressState.MATCH) {
         inv_match = true;
-      } else if (ssor.state != NIS.SuppressState.VALID) {
+      } else if (state != NIS.SuppressState.VALID) {
         return false;
       }
     }
@@ -585,13 +612,6 @@ public class NISuppression {
     return new_suppressions;
   }
 
-  /** Clears the suppressor state in each suppressor. */
-  public void clear_state() {
-    for (int i = 0; i < suppressors.length; i++) {
-      suppressors[i].clear_state();
-    }
-  }
-
   /** Returns {@code "suppressor && suppressor ... ==> suppressee"}. */
   @SideEffectFree
   @Override
@@ -603,6 +623,39 @@ public class NISuppression {
     return suppressorsString + " ==> " + suppressee;
   }
 
+  /**
+   * Returns {@code "suppressor [state] && suppressor [state] ... ==> suppressee"}, where each state
+   * is the one that {@link #check(PptTopLevel,VarInfo[],Invariant,NIS.SuppressState[])} recorded
+   * for the suppressor. Used for debugging output.
+   *
+   * @param states the state of each suppressor, null for those that were not checked
+   * @return a string representation of this suppression and the states of its suppressors
+   */
+  public String toString(NIS.@Nullable SuppressState[] states) {
+    String[] strs = new String[suppressors.length];
+    for (int i = 0; i < suppressors.length; i++) {
+      strs[i] = suppressors[i].toString(states[i]);
+    }
+    String suppressorsString =
+        (strs.length == 1) ? strs[0] : "(" + StringsPlume.join(" && ", strs) + ")";
+    return suppressorsString + " ==> " + suppressee;
+  }
+
+  /**
+   * Checks this suppression, and returns a string representation of it and of the state of each
+   * of its suppressors (see {@link #toString(NIS.SuppressState[])}). Used for debugging output.
+   *
+   * @param ppt program point in which to check suppression
+   * @param vis variables over which to check suppression
+   * @param inv falsified invariant (if any)
+   * @return a string representation of this suppression and the states of its suppressors
+   */
+  public String toString(PptTopLevel ppt, VarInfo[] vis, @Nullable Invariant inv) {
+    NIS.SuppressState[] states = new NIS.SuppressState[suppressors.length];
+    check(ppt, vis, inv, states);
+    return toString(states);
+  }
+
   /** Returns a string describing each of the antecedents for each suppressor. */
   public String antecedents_for_suppression(List<Invariant> antecedents[]) {
 
@@ -32,10 +32,14 @@ public class NISuppressionSet implements Iterable<NISuppression> {
 
   NISuppression[] suppression_set;
 
+  /** The suppressions with which this set was created, before recurse_definitions(). */
+  private final NISuppression[] definitions;
+
   public NISuppressionSet(NISuppression[] suppressions) {
     assert suppressions != null;
     assert suppressions.length != 0;
     suppression_set = suppressions;
+    definitions = suppressions;
   }
 
   @Override
@@ -311,12 +315,14 @@ public class NISuppressionSet implements Iterable<NISuppression> {
     // If any particular suppression is still valid, just return as there
     // is nothing to be done (the suppressee is still suppressed)
 
+    NIS.SuppressState[][] states = new NIS.SuppressState[suppression_set.length][];
     for (int i = 0; i < suppression_set.length; i++) {
 
-      NIS.SuppressState status = suppression_set[i].check(ppt, vis, inv);
+      states[i] = new NIS.SuppressState[suppression_set[i].suppressors.length];
+      NIS.SuppressState status = suppression_set[i].check(ppt, vis, inv, states[i]);
       if (status == NIS.SuppressState.VALID) {
         if (NIS.debug.isLoggable(Level.FINE)) {
-          NIS.debug.fine("suppression " + suppression_set[i] + " is valid");
+          NIS.debug.fine("suppression " + suppression_set[i].toString(states[i]) + " is valid");
         }
         return;
       }
@@ -324,7 +330,7 @@ public class NISuppressionSet implements Iterable<NISuppression> {
     }
 
     if (NIS.debug.isLoggable(Level.FINE)) {
-      NIS.debug.fine("After check, suppression set: " + this);
+      NIS.debug.fine("After check, suppression set: " + toString(states));
     }
 
     // There are no remaining valid (true) suppressions.  If inv is the
@@ -332,7 +338,7 @@ public class NISuppressionSet implements Iterable<NISuppression> {
     // falsification removed the last valid suppression.  In that case we
     // need to instantiate the suppressee.
     for (int i = 0; i < suppression_set.length; i++) {
-      if (suppression_set[i].invalidated()) {
+      if (suppression_set[i].invalidated(states[i])) {
 
         Invariant v = suppression_set[i].suppressee.instantiate(vis, ppt);
         if (v != null) new_invs.add(v);
@@ -346,7 +352,7 @@ public class NISuppressionSet implements Iterable<NISuppression> {
    * set is valid if any of its suppressions are valid. A suppression is valid if all of its
    * suppressors are true.
    *
-   * <p>Also updates the debug information in each suppressor.
+   * <p>When debugging, logs the state of each suppressor.
    *
    * @see #is_instantiate_ok(PptSlice) for a check that considers missing
    */
@@ -360,7 +366,7 @@ public class NISuppressionSet implements Iterable<NISuppression> {
    * suppression set is valid if any of its suppressions are valid. A suppression is valid if all of
    * its suppressors are true.
    *
-   * <p>Also updates the debug information in each suppressor.
+   * <p>When debugging, logs the state of each suppressor.
    *
    * @see #is_instantiate_ok(PptTopLevel,VarInfo[]) for a check that considers missing
    */
@@ -377,7 +383,7 @@ public class NISuppressionSet implements Iterable<NISuppression> {
               ppt,
               var_infos,
               "suppression "
-                  + suppression_set[i]
+                  + suppression_set[i].toString(ppt, var_infos, null)
                   + " is "
                   + status
                   + " in ppt "
@@ -396,7 +402,7 @@ public class NISuppressionSet implements Iterable<NISuppression> {
           ppt,
           var_infos,
           "suppression "
-              + this
+              + toString(ppt, var_infos)
               + " is not valid in ppt "
               + ppt
               + " with var infos "
@@ -435,7 +441,7 @@ public class NISuppressionSet implements Iterable<NISuppression> {
               ppt,
               var_infos,
               "suppression "
-                  + suppression_set[i]
+                  + suppression_set[i].toString(ppt, var_infos, null)
                   + " is "
                   + status
                   + " in ppt "
@@ -454,7 +460,7 @@ public class NISuppressionSet implements Iterable<NISuppression> {
           ppt,
           var_infos,
           "suppression "
-              + this
+              + toString(ppt, var_infos)
               + " is not valid in ppt "
               + ppt
               + " with var infos "
@@ -512,6 +518,15 @@ public class NISuppressionSet implements Iterable<NISuppression> {
     suppression_set = new_array;
   }
 
+  /**
+   * Removes the suppressions added by recurse_definitions(). The suppression sets of the
+   * invariant classes are static, so they must be reset before they are augmented again when
+   * another run of Daikon in the same JVM calls {@link NIS#init_ni_suppression}.
+   */
+  public void reset_definitions() {
+    suppression_set = definitions;
+  }
+
   /**
    * Swaps each suppressor and suppressee to the opposite variable order. Valid only on unary and
    * binary suppressors and suppressees.
@@ -537,11 +552,36 @@ public class NISuppressionSet implements Iterable<NISuppression> {
     return suppression_set[0].suppressee;
   }
 
-  /** Clears the suppressor state in each suppression. */
-  public void clear_state() {
+  /**
+   * Returns a string containing each suppression, with the state of each of its suppressors,
+   * separated by commas. Used for debugging output.
+   *
+   * @param states the states of the suppressors of each suppression, as recorded by {@link
+   *     NISuppression#check(PptTopLevel,VarInfo[],Invariant,NIS.SuppressState[])}
+   * @return a string representation of this set and the states of its suppressors
+   */
+  public String toString(NIS.SuppressState[][] states) {
+    String[] strs = new String[suppression_set.length];
+    for (int i = 0; i < suppression_set.length; i++) {
+      strs[i] = suppression_set[i].toString(states[i]);
+    }
+    return "{ " + StringsPlume.join(", ", strs) + " }";
+  }
+
+  /**
+   * Checks each suppression, and returns a string containing each suppression, with the state of
+   * each of its suppressors, separated by commas. Used for debugging output.
+   *
+   * @param ppt program point in which to check suppression
+   * @param vis variables over which to check suppression
+   * @return a string representation of this set and the states of its suppressors
+   */
+  public String toString(PptTopLevel ppt, VarInfo[] vis) {
+    String[] strs = new String[suppression_set.length];
     for (int i = 0; i < suppression_set.length; i++) {
-      suppression_set[i].clear_state();
+      strs[i] = suppression_set[i].toString(ppt, vis, null);
     }
+    return "{ " + StringsPlume.join(", ", strs) + " }";
   }
 
   /** Returns a string containing each suppression separated by commas. */
@@ -47,18 +47,6 @@ public class NISuppressor {
   /** True if invariant permutes by changing its class. */
   boolean swap_class = false;
 
-  /**
-   * State of the suppressor for the current check. The state must be one of the defined above. They
-   * can always be compared with ==.
-   */
-  NIS.SuppressState state = NIS.SuppressState.NONE;
-
-  /**
-   * information about the suppressor for the current check. This is just used for debugging
-   * purposes.
-   */
-  @Nullable String current_state_str = null;
-
   /**
    * Sample invariant - used to check the suppressor over constants. this is a prototype invariant;
    * that is, sample_inv.ppt == null.
@@ -217,7 +205,7 @@ public class NISuppressor {
 
     // If the underlying invariant is not enabled, we can't possibly be true
     if (!is_enabled()) {
-      return (state = NIS.SuppressState.INVALID);
+      return NIS.SuppressState.INVALID;
     }
 
     if (Debug.logDetail() && NIS.debug.isLoggable(Level.FINE)) {
@@ -242,15 +230,15 @@ public class NISuppressor {
       if (!instantiate_ok(new VarInfo[] {v1})) {
         // System.out.printf("suppressor %s invalid over variable %s%n",
         //                   this, v1);
-        return (state = NIS.SuppressState.INVALID);
+        return NIS.SuppressState.INVALID;
       }
 
       // Check to see if inv matches this suppressor.  The invariant class
       // and variables must match for this to be true.  This check is only
       // needed for the falsified method.
-      if (!NIS.antecedent_method) {
+      if (!NIS.antecedent_method.get()) {
         if ((inv != null) && (inv.getClass() == inv_class) && (v1 == inv.ppt.var_infos[0])) {
-          return (state = NIS.SuppressState.MATCH);
+          return NIS.SuppressState.MATCH;
         }
       }
 
@@ -267,18 +255,12 @@ public class NISuppressor {
           valid = (status == InvariantStatus.NO_CHANGE);
         }
         if (NIS.debug.isLoggable(Level.FINE)) NIS.debug.fine("constant args - " + valid);
-        if (valid) {
-          current_state_str = "true over constant " + ppt.constants.constant_value(v1);
-        } else {
-          current_state_str = "invalid over constant " + ppt.constants.constant_value(v1);
-        }
-        return (state = (valid ? NIS.SuppressState.VALID : NIS.SuppressState.INVALID));
+        return (valid ? NIS.SuppressState.VALID : NIS.SuppressState.INVALID);
       }
 
       // Check to see the variable is missing
       if (ppt.is_prev_missing(v1)) {
-        current_state_str = "nonsensical";
-        return (state = NIS.SuppressState.NONSENSICAL);
+        return NIS.SuppressState.NONSENSICAL;
       }
 
       // Check to see if this suppressor is true.  Note that we don't check
@@ -290,13 +272,11 @@ public class NISuppressor {
       if (slice != null) {
         for (Invariant slice_inv : slice.invs) {
           if (match_true(slice_inv)) {
-            current_state_str = "invariant " + slice_inv.format();
-            return (state = NIS.SuppressState.VALID);
+            return NIS.SuppressState.VALID;
           }
         }
       }
-      current_state_str = "invariant not found";
-      return (state = NIS.SuppressState.INVALID);
+      return NIS.SuppressState.INVALID;
 
     } else /* must be binary */ {
       if (v1_index >= vis.length || v2_index >= vis.length) {
@@ -315,13 +295,13 @@ public class NISuppressor {
       if (!instantiate_ok(new VarInfo[] {v1, v2})) {
         // System.out.printf("suppressor %s invalid over variables %s & %s%n",
         //                  this, v1, v2);
-        return (state = NIS.SuppressState.INVALID);
+        return NIS.SuppressState.INVALID;
       }
 
       // Check to see if inv matches this suppressor.  The invariant class,
       // variables, and swap must match for this to be true.  This check is
       // only needed in the falsified method.
-      if (!NIS.antecedent_method) {
+      if (!NIS.antecedent_method.get()) {
         if ((inv != null)
             && match(inv)
             && (v1 == inv.ppt.var_infos[0])
@@ -329,7 +309,7 @@ public class NISuppressor {
           if (NIS.debug.isLoggable(Level.FINE)) {
             NIS.debug.fine("Matches falsified inv " + inv.format());
           }
-          return (state = NIS.SuppressState.MATCH);
+          return NIS.SuppressState.MATCH;
         }
       }
 
@@ -358,18 +338,12 @@ public class NISuppressor {
                   Debug.toString(ppt.constants.constant_value(v2)),
                   valid));
         }
-        Object const1 = ppt.constants.constant_value(v1);
-        Object const2 = ppt.constants.constant_value(v2);
-        current_state_str =
-            "true over constants " + Debug.toString(const1) + " and " + Debug.toString(const2);
-        if (!valid) current_state_str = "not " + current_state_str;
-        return (state = (valid ? NIS.SuppressState.VALID : NIS.SuppressState.INVALID));
+        return (valid ? NIS.SuppressState.VALID : NIS.SuppressState.INVALID);
       }
 
       // Check to see if either variable is missing
       if (ppt.is_prev_missing(v1) || ppt.is_prev_missing(v2)) {
-        current_state_str = "nonsensical";
-        return (state = NIS.SuppressState.NONSENSICAL);
+        return NIS.SuppressState.NONSENSICAL;
       }
 
       // Check to see if this suppressor is true.  Note that we don't check
@@ -386,13 +360,12 @@ public class NISuppressor {
               NIS.debug.fine(
                   "suppressor matches inv " + slice_inv.format() + " " + !slice_inv.is_false());
             }
-            current_state_str = "invariant " + slice_inv.format();
-            return (state = NIS.SuppressState.VALID);
+            return NIS.SuppressState.VALID;
           }
         }
       }
       NIS.debug.fine("suppressor not found");
-      return (state = NIS.SuppressState.INVALID);
+      return NIS.SuppressState.INVALID;
     }
   }
 
@@ -402,7 +375,7 @@ public class NISuppressor {
    * @see #match(Invariant)
    */
   public boolean match_true(Invariant inv) {
-    if (NIS.antecedent_method) {
+    if (NIS.antecedent_method.get()) {
       return match(inv) && !inv.is_false();
     } else {
       return match(inv);
@@ -485,14 +458,26 @@ public class NISuppressor {
     return inv_class;
   }
 
-  /** clears the state of this suppressor to NIS.none */
-  public void clear_state() {
-    state = NIS.SuppressState.NONE;
-    current_state_str = null;
-  }
-
   static String[] varname = new String[] {"x", "y", "z"};
 
+  /**
+   * Returns a string representation of the suppressor, followed by the given result of checking
+   * it. The suppressors are shared by all program points, so they do not hold the results of their
+   * checks; debugging output passes the result that {@link #check} returned.
+   *
+   * @param state the result of checking this suppressor, or null if it was not checked
+   * @return a string representation of this suppressor and its state
+   */
+  public String toString(NIS.@Nullable SuppressState state) {
+    String status;
+    if (state == null || state == NIS.SuppressState.NONE) {
+      status = "";
+    } else {
+      status = state.toString().toLowerCase();
+    }
+    return this + " [" + status + "]";
+  }
+
   /**
    * Returns a string representation of the suppressor. Rather than show var indices as numbers, the
    * variables x, y, and z are shown instead with indices 0, 1, and 2 respectively.
@@ -503,29 +488,17 @@ public class NISuppressor {
 
     String cname = inv_class.getCanonicalName();
 
-    String status;
-    if (state == NIS.SuppressState.NONE) {
-      status = "";
-    } else {
-      status = state.toString().toLowerCase();
-    }
-
-    if (current_state_str != null) {
-      status = status + " [" + current_state_str + "]";
-    }
-
     if (v2_index == -1) {
-      return String.format("%s(%s) [%s]", cname, varname[v1_index], status);
+      return String.format("%s(%s)", cname, varname[v1_index]);
     } else if (v3_index == -1) {
       if (swap && !swap_class) {
-        return String.format("%s(%s,%s) [%s]", cname, varname[v2_index], varname[v1_index], status);
+        return String.format("%s(%s,%s)", cname, varname[v2_index], varname[v1_index]);
       } else {
-        return String.format("%s(%s,%s) [%s]", cname, varname[v1_index], varname[v2_index], status);
+        return String.format("%s(%s,%s)", cname, varname[v1_index], varname[v2_index]);
       }
     } else {
       return String.format(
-          "%s(%s,%s,%s) [%s]",
-          cname, varname[v1_index], varname[v2_index], varname[v3_index], status);
+          "%s(%s,%s,%s)", cname, varname[v1_index], varname[v2_index], varname[v3_index]);
     }
   }
 }
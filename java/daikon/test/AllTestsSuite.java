@@ -24,9 +24,25 @@ import org.junit.runners.Suite;
   daikon.test.inv.InvariantTester.class,
   daikon.test.inv.unary.scalar.OneOfScalarTester.class,
   daikon.test.inv.unary.sequence.OneOfSequenceTester.class,
+  daikon.test.BinaryInvTest.class,
+  daikon.test.DerivationCacheTest.class,
+  daikon.test.DtraceToBinaryTest.class,
+  daikon.test.DynamicConstantsTest.class,
+  daikon.test.InternPoolTest.class,
+  daikon.test.InvariantCheckerTest.class,
+  daikon.test.LazyPptMapTest.class,
   daikon.test.LinearTernaryCoreTest.class,
+  daikon.test.MappedReadTest.class,
+  daikon.test.MergeInvariantsTest.class,
   daikon.test.ModBitTrackerTest.class,
+  daikon.test.ParallelInferenceTest.class,
+  daikon.test.ParallelMergeTest.class,
+  daikon.test.PipelinedReadTest.class,
+  daikon.test.PptSliceEqualityTest.class,
   daikon.test.ProglangTypeTest.class,
+  daikon.test.SampleCoalescerTest.class,
+  daikon.test.SampleEnvelopeTest.class,
+  daikon.test.ValueSetTest.class,
   daikon.test.VarComparabilityTest.class,
   daikon.test.VarInfoNameTest.class,
   daikon.test.inv.InvariantAddAndCheckTester.class,
@@ -0,0 +1,282 @@
+package daikon.test;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import daikon.BinaryInv;
+import daikon.FileIO;
+import daikon.PptMap;
+import daikon.PptSlice;
+import daikon.PptTopLevel;
+import daikon.inv.Invariant;
+import daikon.inv.binary.twoScalar.IntEqual;
+import daikon.inv.binary.twoScalar.LinearBinary;
+import daikon.inv.unary.LowerBoundCore;
+import daikon.inv.unary.scalar.LowerBound;
+import daikon.inv.unary.scalar.NonZero;
+import daikon.inv.unary.scalar.OneOfScalar;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Tests of {@link BinaryInv}. */
+public class BinaryInvTest {
+
+  /** The directory for the trace and invariant files. */
+  @ClassRule public static TemporaryFolder tmp = new TemporaryFolder();
+
+  /** The invariants of the tcas trace, as a serialized PptMap. */
+  private static File serial_file = new File("serial.inv.gz");
+
+  /** The invariants of the tcas trace, in the binary format. */
+  private static File binary_file = new File("binary.inv.gz");
+
+  /** The name of an exit point whose program points have conditional program points. */
+  private static final String EXIT = "std.Non_Crossing_Biased_Climb()boolean:::EXIT";
+
+  /** The numbered exit point of {@link #EXIT}. */
+  private static final String EXIT4 = "std.Non_Crossing_Biased_Climb()boolean:::EXIT4";
+
+  /** The entry point of {@link #EXIT}. */
+  private static final String ENTER = "std.Non_Crossing_Biased_Climb()boolean:::ENTER";
+
+  /**
+   * Infers the invariants of the tcas trace, writing them in the binary format, and writes the
+   * program points that are read from that file as a serialized PptMap. Daikon runs only once,
+   * because a second run in the same JVM need not infer exactly the same invariants.
+   *
+   * @throws IOException if there is trouble reading or writing a file
+   */
+  @BeforeClass
+  public static void infer() throws IOException {
+    File decls = Traces.copy("tcas.decls", tmp.getRoot());
+    File dtrace = Traces.copy("tcas.dtrace.gz", tmp.getRoot());
+    binary_file = new File(tmp.getRoot(), "binary.inv.gz");
+    Traces.daikon(binary_file, decls.toString(), dtrace.toString());
+    serial_file = new File(tmp.getRoot(), "serial.inv.gz");
+    FileIO.dkconfig_binary_inv_files = false;
+    try {
+      FileIO.write_serialized_pptmap(
+          FileIO.read_serialized_pptmap(binary_file, false), serial_file);
+    } finally {
+      FileIO.dkconfig_binary_inv_files = true;
+    }
+  }
+
+  /**
+   * Returns the program points that a reader has read, in the order of the file.
+   *
+   * @param reader a reader
+   * @return the program points that have been read and not evicted
+   */
+  private static List<PptTopLevel> loaded(BinaryInv.Reader reader) {
+    List<PptTopLevel> result = new ArrayList<>();
+    for (String name : reader.ppt_names()) {
+      PptTopLevel ppt = reader.get_if_loaded(name);
+      if (ppt != null) {
+        result.add(ppt);
+      }
+    }
+    return result;
+  }
+
+  /** A binary file holds the same invariants and hierarchy as a serialized one. */
+  @Test
+  public void testRoundTrip() throws IOException {
+    assertTrue(BinaryInv.is_binary(binary_file));
+    assertFalse(BinaryInv.is_binary(serial_file));
+    PptMap serial = FileIO.read_serialized_pptmap(serial_file, false);
+    PptMap binary = FileIO.read_serialized_pptmap(binary_file, false);
+    assertEquals(Traces.invariants(serial), Traces.invariants(binary));
+    assertEquals(Traces.hierarchy(serial.all_ppts()), Traces.hierarchy(binary.all_ppts()));
+
+    // Writing what was read from the serialized file gives the same program points.
+    File rewritten = tmp.newFile("rewritten.inv.gz");
+    BinaryInv.write(serial, rewritten);
+    PptMap reread = FileIO.read_serialized_pptmap(rewritten, false);
+    assertEquals(Traces.invariants(serial), Traces.invariants(reread));
+    assertEquals(Traces.hierarchy(serial.all_ppts()), Traces.hierarchy(reread.all_ppts()));
+  }
+
+  /**
+   * Each program point is read with the other program points of its chunk, and program points
+   * that share an object are in the same chunk, so that the object is still shared when they are
+   * read.
+   */
+  @Test
+  public void testChunks() throws IOException {
+    PptMap ppts = FileIO.read_serialized_pptmap(serial_file, false);
+    try (BinaryInv.Reader reader = new BinaryInv.Reader(binary_file)) {
+      // No two program points of tcas share objects.
+      assertNotNull(reader.get(EXIT4));
+      assertEquals(1, reader.loaded_chunks());
+      assertEquals(1, loaded(reader).size());
+    }
+
+    // Make the numbered exit point share the dynamic constants of the entry point.
+    PptTopLevel enter = ppts.get(ENTER);
+    PptTopLevel exit4 = ppts.get(EXIT4);
+    assertNotNull(enter);
+    assertNotNull(exit4);
+    assertNotNull(enter.constants);
+    exit4.constants = enter.constants;
+    File shared = tmp.newFile("shared.inv.gz");
+    BinaryInv.write(ppts, shared);
+    try (BinaryInv.Reader reader = new BinaryInv.Reader(shared)) {
+      PptTopLevel exit4_read = reader.get(EXIT4);
+      assertNotNull(exit4_read);
+      assertEquals(1, reader.loaded_chunks());
+      assertEquals(2, loaded(reader).size());
+      PptTopLevel enter_read = reader.get_if_loaded(ENTER);
+      assertNotNull(enter_read);
+      assertNotNull(exit4_read.constants);
+      assertSame(enter_read.constants, exit4_read.constants);
+      assertNull(reader.get_if_loaded(EXIT));
+    }
+  }
+
+  /**
+   * Relations are restored between each program point that is read and the program points that
+   * have already been read, and removed from the remaining program points when a program point is
+   * evicted.
+   */
+  @Test
+  public void testRestoreRelations() throws IOException {
+    PptMap ppts = FileIO.read_serialized_pptmap(serial_file, false);
+    String expected = Traces.hierarchy(ppts.all_ppts());
+    try (BinaryInv.Reader reader = new BinaryInv.Reader(binary_file)) {
+      PptTopLevel exit4 = reader.get(EXIT4);
+      assertNotNull(exit4);
+      assertTrue(exit4.parents.isEmpty());
+      // The relations to the conditional program points are restored with the program point.
+      assertEquals(2, exit4.children.size());
+
+      PptTopLevel exit = reader.get(EXIT);
+      assertNotNull(exit);
+      assertEquals(1, exit4.parents.size());
+      assertSame(exit, exit4.parents.get(0).parent);
+      assertSame(exit4, exit.children.get(0).child);
+
+      // Read the rest, from the last to the first.
+      List<String> names = reader.ppt_names();
+      for (int i = names.size() - 1; i >= 0; i--) {
+        reader.get(names.get(i));
+      }
+      assertEquals(expected, Traces.hierarchy(loaded(reader)));
+
+      // Evict everything but the most recently read program point.
+      assertEquals(names.size() - 1, reader.evict(Integer.MAX_VALUE));
+      List<PptTopLevel> remaining = loaded(reader);
+      assertEquals(1, remaining.size());
+      assertEquals(names.get(0), remaining.get(0).name());
+      try (BinaryInv.Reader alone = new BinaryInv.Reader(binary_file)) {
+        alone.get(names.get(0));
+        assertEquals(Traces.hierarchy(loaded(alone)), Traces.hierarchy(remaining));
+      }
+
+      for (String name : names) {
+        reader.get(name);
+      }
+      assertEquals(expected, Traces.hierarchy(loaded(reader)));
+    }
+  }
+
+  /**
+   * Returns the internal representation of every invariant of the slices of some program points,
+   * and checks that each invariant is in the list of invariants of its slice.
+   *
+   * @param ppts program points
+   * @param classes set to the simple names of the classes of the invariants
+   * @return the name of each slice and the representation of each of its invariants
+   */
+  private static String reprs(PptMap ppts, Set<String> classes) {
+    StringBuilder result = new StringBuilder();
+    for (PptTopLevel ppt : ppts.ppt_all_iterable()) {
+      for (Iterator<PptSlice> i = ppt.views_iterator(); i.hasNext(); ) {
+        PptSlice slice = i.next();
+        result.append(slice.name()).append('\n');
+        for (Invariant inv : slice.invs) {
+          assertSame(slice, inv.ppt);
+          classes.add(inv.getClass().getSimpleName());
+          result.append("  ").append(inv.repr()).append('\n');
+        }
+      }
+    }
+    return result.toString();
+  }
+
+  /**
+   * Invariants whose classes have a layout for their state are written in that layout rather than
+   * serialized, and are read back with the same state, in their slices.
+   */
+  @Test
+  public void testEncodedInvariants() throws IOException {
+    PptMap serial = FileIO.read_serialized_pptmap(serial_file, false);
+    Set<String> classes = new TreeSet<>();
+    String expected = reprs(serial, classes);
+    for (Class<?> c :
+        new Class<?>[] {IntEqual.class, LowerBound.class, NonZero.class, OneOfScalar.class}) {
+      assertTrue(classes.toString(), classes.contains(c.getSimpleName()));
+    }
+
+    File uncompressed = tmp.newFile("uncompressed.inv");
+    BinaryInv.write(serial, uncompressed, false);
+    assertEquals(expected, reprs(FileIO.read_serialized_pptmap(uncompressed, false), classes));
+    // The core of a LowerBound is serialized only if the LowerBound is.
+    String bytes = new String(Files.readAllBytes(uncompressed.toPath()), ISO_8859_1);
+    assertFalse(bytes.contains(LowerBoundCore.class.getName()));
+  }
+
+  /**
+   * An invariant that has no layout and that refers to nothing but its slice is serialized on its
+   * own, so that if its class has changed, only the invariants of that class are lost when the file
+   * is read.
+   */
+  @Test
+  public void testChangedClass() throws IOException {
+    PptMap serial = FileIO.read_serialized_pptmap(serial_file, false);
+    Set<String> classes = new TreeSet<>();
+    String expected = reprs(serial, classes);
+    String changed = LinearBinary.class.getName();
+    assertTrue(classes.toString(), classes.contains(LinearBinary.class.getSimpleName()));
+
+    // Change the serialVersionUID in the descriptor of the class, as if the class had changed.
+    File uncompressed = tmp.newFile("changed.inv");
+    BinaryInv.write(serial, uncompressed, false);
+    byte[] bytes = Files.readAllBytes(uncompressed.toPath());
+    byte[] desc = ("\u0072\u0000" + (char) changed.length() + changed).getBytes(ISO_8859_1);
+    int changes = 0;
+    for (int i = 0; i + desc.length + 8 <= bytes.length; i++) {
+      if (Arrays.equals(desc, Arrays.copyOfRange(bytes, i, i + desc.length))) {
+        bytes[i + desc.length + 7] ^= 1;
+        changes++;
+      }
+    }
+    assertEquals(1, changes);
+    Files.write(uncompressed.toPath(), bytes);
+
+    StringBuilder kept = new StringBuilder();
+    for (String line : expected.split("\n", -1)) {
+      if (!line.startsWith("  LinearBinary(")) {
+        kept.append(line).append('\n');
+      }
+    }
+    String read = reprs(FileIO.read_serialized_pptmap(uncompressed, false), classes);
+    assertEquals(kept.toString(), read + '\n');
+  }
+}
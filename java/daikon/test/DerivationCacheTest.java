@@ -0,0 +1,220 @@
+package daikon.test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import daikon.FileIO;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.plumelib.util.StringsPlume;
+
+/**
+ * Tests that caching derived values (see {@link FileIO#dkconfig_cache_derivations}) and computing
+ * them on several threads (see {@link FileIO#dkconfig_derivation_threads}) gives the invariants
+ * that computing every derived value serially does. In the trace, one array keeps its elements for
+ * runs of calls and the other changes on every call, while the indices into them change, so some
+ * cached values are reused and others are not.
+ *
+ * <p>The derivations of a program point are computed on several threads only if it has many of
+ * them; for the tests that use threads, the least number that one thread computes is lowered so
+ * that the program points of the trace qualify.
+ */
+public class DerivationCacheTest {
+
+  /** The directory for the trace and invariant files. */
+  @ClassRule public static TemporaryFolder tmp = new TemporaryFolder();
+
+  /** The declarations of the trace. */
+  private static File decls = new File("derive.decls");
+
+  /** The samples of the trace. */
+  private static File dtrace = new File("derive.dtrace");
+
+  /** The invariants inferred without the cache, on one thread. */
+  private static String expected = "";
+
+  /** The least number of derivations that one thread computes, by default. */
+  private static int default_min_chunk = 0;
+
+  /**
+   * Restores the defaults after each test.
+   *
+   * @throws ReflectiveOperationException if DerivationEngine has no min_chunk field
+   */
+  @After
+  public void tearDown() throws ReflectiveOperationException {
+    FileIO.dkconfig_cache_derivations = true;
+    FileIO.dkconfig_derivation_threads = 1;
+    set_min_chunk(default_min_chunk);
+  }
+
+  /**
+   * Returns the least number of derivations that one thread computes, a package-private field of
+   * DerivationEngine.
+   *
+   * @return the field DerivationEngine.min_chunk
+   * @throws ReflectiveOperationException if DerivationEngine has no such field
+   */
+  private static Field min_chunk() throws ReflectiveOperationException {
+    Field result = Class.forName("daikon.DerivationEngine").getDeclaredField("min_chunk");
+    result.setAccessible(true);
+    return result;
+  }
+
+  /**
+   * Sets the least number of derivations that one thread computes.
+   *
+   * @param min_chunk the least number of derivations that one thread computes
+   * @throws ReflectiveOperationException if DerivationEngine has no such field
+   */
+  private static void set_min_chunk(int min_chunk) throws ReflectiveOperationException {
+    min_chunk().setInt(null, min_chunk);
+  }
+
+  /**
+   * Writes the trace, and infers its invariants without the cache, on one thread.
+   *
+   * @throws Exception if there is trouble reading or writing a file
+   */
+  @BeforeClass
+  public static void write_trace() throws Exception {
+    default_min_chunk = min_chunk().getInt(null);
+
+    String vars =
+        StringsPlume.joinLines(
+            "variable a",
+            "  var-kind variable",
+            "  dec-type int[]",
+            "  rep-type hashcode",
+            "variable a[..]",
+            "  var-kind array",
+            "  enclosing-var a",
+            "  array 1",
+            "  dec-type int[]",
+            "  rep-type int[]",
+            "variable b",
+            "  var-kind variable",
+            "  dec-type int[]",
+            "  rep-type hashcode",
+            "variable b[..]",
+            "  var-kind array",
+            "  enclosing-var b",
+            "  array 1",
+            "  dec-type int[]",
+            "  rep-type int[]",
+            "variable i",
+            "  var-kind variable",
+            "  dec-type int",
+            "  rep-type int",
+            "variable j",
+            "  var-kind variable",
+            "  dec-type int",
+            "  rep-type int",
+            "");
+    decls = tmp.newFile("derive.decls");
+    Files.write(
+        decls.toPath(),
+        StringsPlume.joinLines(
+                "decl-version 2.0",
+                "var-comparability none",
+                "",
+                "ppt P.m(int[],int[],int,int):::ENTER",
+                "ppt-type enter",
+                vars,
+                "ppt P.m(int[],int[],int,int):::EXIT1",
+                "ppt-type subexit",
+                vars)
+            .getBytes(UTF_8));
+
+    StringBuilder text = new StringBuilder();
+    for (int n = 0; n < 60; n++) {
+      // a changes every 10 calls, b on every call.
+      int base = n / 10;
+      String a = "[" + base + " " + (base + 2) + " " + (base + 4) + " " + (base + 6) + "]";
+      String b = "[" + (n % 7) + " " + (n % 3) + " " + (n % 5) + "]";
+      int i = n % 4;
+      int j = n % 3;
+      for (String point : new String[] {"ENTER", "EXIT1"}) {
+        text.append(
+            StringsPlume.joinLines(
+                "P.m(int[],int[],int,int):::" + point,
+                "this_invocation_nonce",
+                String.valueOf(n),
+                "a",
+                String.valueOf(1000 + base),
+                "1",
+                "a[..]",
+                a,
+                "1",
+                "b",
+                String.valueOf(2000 + n),
+                "1",
+                "b[..]",
+                b,
+                "1",
+                "i",
+                String.valueOf(i),
+                "1",
+                "j",
+                String.valueOf(j),
+                "1",
+                "",
+                ""));
+      }
+    }
+    dtrace = tmp.newFile("derive.dtrace");
+    Files.write(dtrace.toPath(), text.toString().getBytes(UTF_8));
+
+    FileIO.dkconfig_cache_derivations = false;
+    try {
+      expected = infer("uncached.inv.gz");
+    } finally {
+      FileIO.dkconfig_cache_derivations = true;
+    }
+    assertTrue(expected, expected.contains("a[i]"));
+  }
+
+  /**
+   * Infers the invariants of the trace.
+   *
+   * @param name the name of the invariant file to write
+   * @return the invariants
+   * @throws IOException if there is trouble reading or writing a file
+   */
+  private static String infer(String name) throws IOException {
+    File inv_file = new File(tmp.getRoot(), name);
+    Traces.daikon(inv_file, decls.toString(), dtrace.toString());
+    return Traces.invariants(inv_file);
+  }
+
+  /** Cached derived values are those that computing them again gives. */
+  @Test
+  public void testCache() throws IOException {
+    assertEquals(expected, infer("cached.inv.gz"));
+  }
+
+  /** Derived values computed on several threads are those that one thread computes. */
+  @Test
+  public void testThreads() throws Exception {
+    FileIO.dkconfig_cache_derivations = false;
+    FileIO.dkconfig_derivation_threads = 4;
+    set_min_chunk(2);
+    assertEquals(expected, infer("threads.inv.gz"));
+  }
+
+  /** Several threads share the cache of a program point. */
+  @Test
+  public void testCacheThreads() throws Exception {
+    FileIO.dkconfig_derivation_threads = 4;
+    set_min_chunk(2);
+    assertEquals(expected, infer("cached_threads.inv.gz"));
+  }
+}
@@ -0,0 +1,120 @@
+package daikon.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import daikon.BinaryDtrace;
+import daikon.Daikon;
+import daikon.tools.DtraceToBinary;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Tests of {@link DtraceToBinary}. */
+public class DtraceToBinaryTest {
+
+  /** The directory for the trace and invariant files. */
+  @ClassRule public static TemporaryFolder tmp = new TemporaryFolder();
+
+  /** The declarations of the tcas trace. */
+  private static File decls = new File("tcas.decls");
+
+  /** The samples of the tcas trace. */
+  private static File dtrace = new File("tcas.dtrace.gz");
+
+  /** The invariants that Daikon infers from the textual tcas trace. */
+  private static String expected = "";
+
+  /**
+   * Infers the invariants of the textual tcas trace.
+   *
+   * @throws IOException if there is trouble reading or writing a file
+   */
+  @BeforeClass
+  public static void infer() throws IOException {
+    decls = Traces.copy("tcas.decls", tmp.getRoot());
+    dtrace = Traces.copy("tcas.dtrace.gz", tmp.getRoot());
+    File inv_file = new File(tmp.getRoot(), "text.inv.gz");
+    Traces.daikon(inv_file, decls.toString(), dtrace.toString());
+    expected = Traces.invariants(inv_file);
+  }
+
+  /**
+   * Converts a trace and infers its invariants.
+   *
+   * @param name the name of the binary trace file to write
+   * @param decls_files the declaration files to give to DtraceToBinary and to Daikon
+   * @param input the textual data trace file
+   * @return the invariants of the binary trace
+   * @throws IOException if there is trouble reading or writing a file
+   */
+  private static String convert_and_infer(String name, List<File> decls_files, File input)
+      throws IOException {
+    File output = new File(tmp.getRoot(), name);
+    List<String> args = new ArrayList<>();
+    for (File file : decls_files) {
+      args.add(file.toString());
+    }
+    args.add(input.toString());
+    args.add(output.toString());
+    DtraceToBinary.mainHelper(args.toArray(new String[0]));
+    assertTrue(BinaryDtrace.is_binary(output.toString()));
+
+    // Daikon reads the binary trace in place of the textual one.
+    args.remove(args.size() - 1);
+    args.set(args.size() - 1, output.toString());
+    File inv_file = new File(tmp.getRoot(), name.replace(".dtrace", ".inv"));
+    Traces.daikon(inv_file, args.toArray(new String[0]));
+    return Traces.invariants(inv_file);
+  }
+
+  /** A trace whose declarations are in a separate file, as Kvasir writes it, can be converted. */
+  @Test
+  public void testSeparateDecls() throws IOException {
+    List<File> decls_files = Collections.singletonList(decls);
+    assertEquals(expected, convert_and_infer("separate.dtrace.gz", decls_files, dtrace));
+  }
+
+  /** A trace that contains its declarations can be converted. */
+  @Test
+  public void testDeclsInTrace() throws IOException {
+    File combined = tmp.newFile("combined.dtrace");
+    Files.copy(decls.toPath(), combined.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    try (OutputStream out = Files.newOutputStream(combined.toPath(), StandardOpenOption.APPEND);
+        GZIPInputStream in = new GZIPInputStream(Files.newInputStream(dtrace.toPath()))) {
+      byte[] buffer = new byte[8192];
+      for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+        out.write(buffer, 0, n);
+      }
+    }
+    List<File> no_decls = Collections.emptyList();
+    assertEquals(expected, convert_and_infer("combined.bin.dtrace", no_decls, combined));
+  }
+
+  /** If the conversion fails, no output file is left behind. */
+  @Test
+  public void testFailureDeletesOutput() {
+    // Without the declarations, the first sample is of an undeclared program point.
+    File output = new File(tmp.getRoot(), "undeclared.dtrace.gz");
+    try {
+      DtraceToBinary.mainHelper(new String[] {dtrace.toString(), output.toString()});
+      fail("Converted a trace without its declarations");
+    } catch (Daikon.UserError e) {
+      // expected
+    }
+    assertFalse(output.exists());
+  }
+}
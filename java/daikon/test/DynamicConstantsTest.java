@@ -0,0 +1,135 @@
+package daikon.test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import daikon.Daikon;
+import daikon.DynamicConstants;
+import daikon.FileIO;
+import daikon.InvariantSnapshots;
+import daikon.PptMap;
+import daikon.PptTopLevel;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.plumelib.util.StringsPlume;
+
+/** Tests of {@link DynamicConstants}. */
+public class DynamicConstantsTest {
+
+  /** The directory for the trace and invariant files. */
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  /** The variables of both program points of the trace. */
+  private static final String VARS =
+      StringsPlume.joinLines(
+          "variable names",
+          "  var-kind variable",
+          "  dec-type java.lang.String[]",
+          "  rep-type hashcode",
+          "variable names[..]",
+          "  var-kind array",
+          "  enclosing-var names",
+          "  array 1",
+          "  dec-type java.lang.String[]",
+          "  rep-type java.lang.String[]",
+          "variable x",
+          "  var-kind variable",
+          "  dec-type int",
+          "  rep-type int");
+
+  /**
+   * Writes a trace in which names[] is always the same array and x varies, and runs Daikon on it,
+   * taking snapshots of the invariants while it reads the trace. Each snapshot serializes and
+   * reloads the program points while names[] is a dynamic constant.
+   *
+   * @param binary whether to write the .inv files in the binary format
+   * @throws IOException if there is trouble reading or writing a file
+   */
+  private void check_snapshots(boolean binary) throws IOException {
+    File decls = tmp.newFile("constants.decls");
+    Files.write(
+        decls.toPath(),
+        StringsPlume.joinLines(
+                "decl-version 2.0",
+                "var-comparability none",
+                "",
+                "ppt P.m(java.lang.String[]):::ENTER",
+                "ppt-type enter",
+                VARS,
+                "",
+                "ppt P.m(java.lang.String[]):::EXIT1",
+                "ppt-type subexit",
+                VARS,
+                "")
+            .getBytes(UTF_8));
+    // The strings of the trace are interned when it is read, so deserialized copies of them are
+    // not.
+    StringBuilder dtrace = new StringBuilder();
+    for (int i = 1; i <= 6; i++) {
+      for (String point : new String[] {"ENTER", "EXIT1"}) {
+        dtrace.append(
+            StringsPlume.joinLines(
+                "P.m(java.lang.String[]):::" + point,
+                "this_invocation_nonce",
+                String.valueOf(i),
+                "names",
+                "17",
+                "1",
+                "names[..]",
+                "[\"dynamic-constants-test\" \"serialized-array\"]",
+                "1",
+                "x",
+                String.valueOf(i),
+                "1",
+                "",
+                ""));
+      }
+    }
+    File dtrace_file = tmp.newFile("constants.dtrace");
+    Files.write(dtrace_file.toPath(), dtrace.toString().getBytes(UTF_8));
+
+    File inv_file = new File(tmp.getRoot(), "constants.inv.gz");
+    File snapshot_file = new File(tmp.getRoot(), "constants.snapshot.inv.gz");
+    boolean saved_binary = FileIO.dkconfig_binary_inv_files;
+    boolean saved_quiet = Daikon.dkconfig_quiet;
+    FileIO.dkconfig_binary_inv_files = binary;
+    Daikon.dkconfig_quiet = true;
+    InvariantSnapshots.dkconfig_sample_interval = 4;
+    InvariantSnapshots.dkconfig_file = snapshot_file.toString();
+    // The format of the trace is determined when it is read.
+    FileIO.new_decl_format = null;
+    try {
+      Daikon.mainHelper(
+          new String[] {
+            "--no_text_output", "-o", inv_file.toString(), decls.toString(), dtrace_file.toString()
+          });
+    } finally {
+      FileIO.dkconfig_binary_inv_files = saved_binary;
+      Daikon.dkconfig_quiet = saved_quiet;
+      InvariantSnapshots.dkconfig_sample_interval = 0;
+      InvariantSnapshots.dkconfig_file = null;
+    }
+
+    for (File file : new File[] {snapshot_file, inv_file}) {
+      PptMap ppts = FileIO.read_serialized_pptmap(file, false);
+      PptTopLevel enter = ppts.get("P.m(java.lang.String[]):::ENTER");
+      assertNotNull(file.toString(), enter);
+      assertTrue(file.toString(), enter.num_samples() > 0);
+    }
+  }
+
+  @Test
+  public void testStringArrayConstant() throws IOException {
+    check_snapshots(false);
+  }
+
+  @Test
+  public void testStringArrayConstantBinary() throws IOException {
+    check_snapshots(true);
+  }
+}
@@ -6,6 +6,7 @@ import static org.junit.Assert.assertNull;
 
 import daikon.FileIO;
 import daikon.Global;
+import daikon.InternPool;
 import daikon.PptSlice;
 import daikon.PptSlice1;
 import daikon.PptSlice2;
@@ -36,7 +37,6 @@ import java.util.StringTokenizer;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.checkerframework.checker.signature.qual.BinaryName;
-import org.plumelib.util.Intern;
 import typequals.prototype.qual.Prototype;
 
 /**
@@ -926,16 +926,17 @@ class FormatTestCase {
         // interned
         if (currentClass.equals(String.class)) {
           // Intern strings
-          currentSample[j] = Intern.intern(currentSample[j]);
+          currentSample[j] = InternPool.intern(currentSample[j]);
         } else if (currentClass.isArray()) {
           // Intern arrays
           if (currentClass.getComponentType().equals(String.class)) {
             for (int k = 0; k < ((String[]) currentSample[j]).length; k++) {
               // Intern Strings that are inside arrays
-              ((String[]) currentSample[j])[k] = Intern.intern(((String[]) currentSample[j])[k]);
+              ((String[]) currentSample[j])[k] =
+                  InternPool.intern(((String[]) currentSample[j])[k]);
             }
           }
-          currentSample[j] = Intern.intern(currentSample[j]);
+          currentSample[j] = InternPool.intern(currentSample[j]);
         }
 
         params[j] = currentSample[j];
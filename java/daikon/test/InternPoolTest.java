@@ -0,0 +1,41 @@
+package daikon.test;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import daikon.InternPool;
+import org.junit.Test;
+
+/** Tests of {@link InternPool}. */
+public class InternPoolTest {
+
+  /** Equal values intern to the same object. */
+  @Test
+  public void testEqualValues() {
+    long[] longs = InternPool.intern(new long[] {19, 23});
+    assertSame(longs, InternPool.intern(new long[] {19, 23}));
+    assertNotSame(longs, InternPool.intern(new long[] {19, 23, 0}));
+    int[] ints = InternPool.intern(new int[] {7, 11});
+    assertSame(ints, InternPool.intern(new int[] {7, 11}));
+    String[] strings = InternPool.intern(new String[] {"a", "b"});
+    assertSame(strings, InternPool.intern(new String[] {"a", "b"}));
+    Long l = InternPool.internedLong(1234567);
+    assertSame(l, InternPool.intern((Object) Long.valueOf(1234567)));
+    Double d = InternPool.internedDouble(0.25);
+    assertSame(d, InternPool.internedDouble("0.25"));
+    Object[] objects = InternPool.intern(new Object[] {l, d});
+    assertSame(objects, InternPool.intern(new Object[] {l, d}));
+    assertTrue(InternPool.isInterned(objects));
+    assertTrue(!InternPool.isInterned(new Object[] {l, d}));
+  }
+
+  /** NaN and zero, of either sign, intern to a single NaN and a single zero. */
+  @Test
+  public void testNaNAndZero() {
+    assertSame(InternPool.internedDouble(Double.NaN), InternPool.internedDouble(0.0 / 0.0));
+    assertSame(InternPool.internedDouble(0.0), InternPool.internedDouble(-0.0));
+    double[] doubles = InternPool.intern(new double[] {Double.NaN, 0.0, 2.5});
+    assertSame(doubles, InternPool.intern(new double[] {Double.NaN, -0.0, 2.5}));
+  }
+}
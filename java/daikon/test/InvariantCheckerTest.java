@@ -0,0 +1,108 @@
+package daikon.test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import daikon.tools.InvariantChecker;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests that checking samples on several threads (InvariantChecker's {@code --threads} option)
+ * reports what checking them on one thread does: the same counts of errors, samples, and false
+ * positives, and the same messages about invalidated invariants, in the same order. The invariants
+ * are inferred from the first of three shards of the tcas trace, and checked against all three.
+ */
+public class InvariantCheckerTest {
+
+  /** The directory for the trace, invariant, and output files. */
+  @ClassRule public static TemporaryFolder tmp = new TemporaryFolder();
+
+  /** The invariants of the first shard. */
+  private static File inv_file = new File("shard0.inv.gz");
+
+  /** The shards of the tcas trace. */
+  private static List<File> shards = new ArrayList<>();
+
+  /** The report of checking the shards on one thread. */
+  private static String serial = "";
+
+  /**
+   * Splits the tcas trace, infers the invariants of its first shard, and checks all of the shards
+   * against them on one thread.
+   *
+   * @throws Exception if there is trouble reading or writing a file
+   */
+  @BeforeClass
+  public static void check_serially() throws Exception {
+    File decls = Traces.copy("tcas.decls", tmp.getRoot());
+    shards =
+        Traces.split("tcas.dtrace.gz", "std.main(int;char **;)int:::ENTER", 3, tmp.getRoot());
+    inv_file = new File(tmp.getRoot(), "shard0.inv.gz");
+    Traces.daikon(inv_file, decls.toString(), shards.get(0).toString());
+    serial = check(1);
+    assertTrue(serial, serial.contains("invalidated by sample"));
+  }
+
+  /**
+   * Checks the shards against the invariants of the first shard, printing every failing sample.
+   *
+   * @param threads the number of threads that check samples
+   * @return the counts that InvariantChecker printed, followed by its messages
+   * @throws Exception if there is trouble reading or writing a file
+   */
+  private static String check(int threads) throws Exception {
+    File output = new File(tmp.getRoot(), "output" + threads + ".txt");
+    List<String> args = new ArrayList<>();
+    args.add("--verbose");
+    args.add("--output");
+    args.add(output.toString());
+    args.add("--threads");
+    args.add(String.valueOf(threads));
+    args.add(inv_file.toString());
+    for (File shard : shards) {
+      args.add(shard.toString());
+    }
+
+    PrintStream saved_out = System.out;
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (PrintStream ps = new PrintStream(out, true, "UTF-8")) {
+      System.setOut(ps);
+      InvariantChecker.mainHelper(args.toArray(new String[0]));
+    } finally {
+      System.setOut(saved_out);
+    }
+
+    StringBuilder result = new StringBuilder();
+    for (String line : out.toString("UTF-8").split("\\R")) {
+      if (line.contains("errors found") || line.contains("false positives")) {
+        result.append(line).append('\n');
+      }
+    }
+    assertEquals(result.toString(), 2, result.toString().split("\n").length);
+    result.append(new String(Files.readAllBytes(output.toPath()), UTF_8));
+    return result.toString();
+  }
+
+  /** Four threads report what one thread does. */
+  @Test
+  public void testFourThreads() throws Exception {
+    assertEquals(serial, check(4));
+  }
+
+  /** Two threads report what one thread does. */
+  @Test
+  public void testTwoThreads() throws Exception {
+    assertEquals(serial, check(2));
+  }
+}
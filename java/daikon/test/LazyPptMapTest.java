@@ -0,0 +1,225 @@
+package daikon.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import daikon.BinaryInv;
+import daikon.FileIO;
+import daikon.LazyPptMap;
+import daikon.PptMap;
+import daikon.PptTopLevel;
+import daikon.inv.Invariant;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Tests of {@link LazyPptMap}. */
+public class LazyPptMapTest {
+
+  /** The directory for the trace and invariant files. */
+  @ClassRule public static TemporaryFolder tmp = new TemporaryFolder();
+
+  /** The invariants of the tcas trace, as Daikon writes them by default. */
+  private static File binary_file = new File("binary.inv.gz");
+
+  /** The program points of {@link #binary_file}, all read at once. Never printed. */
+  private static PptMap expected = new PptMap();
+
+  /** The name of an exit point whose program points have conditional program points. */
+  private static final String EXIT = "std.Non_Crossing_Biased_Climb()boolean:::EXIT";
+
+  /** The numbered exit point of {@link #EXIT}. */
+  private static final String EXIT4 = "std.Non_Crossing_Biased_Climb()boolean:::EXIT4";
+
+  /**
+   * Infers the invariants of the tcas trace, writing them in the default format.
+   *
+   * @throws IOException if there is trouble reading or writing a file
+   */
+  @BeforeClass
+  public static void infer() throws IOException {
+    File decls = Traces.copy("tcas.decls", tmp.getRoot());
+    File dtrace = Traces.copy("tcas.dtrace.gz", tmp.getRoot());
+    binary_file = new File(tmp.getRoot(), "binary.inv.gz");
+    Traces.daikon(binary_file, decls.toString(), dtrace.toString());
+    expected = FileIO.read_serialized_pptmap(binary_file, false);
+  }
+
+  /** Restores the default after each test. */
+  @After
+  public void tearDown() {
+    LazyPptMap.dkconfig_max_heap_fraction = 0.75;
+  }
+
+  /**
+   * Returns the invariants of a program point, as text. They are sorted, because the order of the
+   * invariants of a program point depends on how it was read.
+   *
+   * @param ppt a program point
+   * @return the formatted invariants of the program point, one per line
+   */
+  private static String invariants(PptTopLevel ppt) {
+    List<String> result = new ArrayList<>();
+    for (Invariant inv : ppt.getInvariants()) {
+      result.add(inv.format());
+    }
+    Collections.sort(result);
+    return String.join("\n", result);
+  }
+
+  /**
+   * Returns the program points that a reader has read, in the order of the file.
+   *
+   * @param reader a reader
+   * @return the program points that have been read and not evicted
+   */
+  private static List<PptTopLevel> loaded(BinaryInv.Reader reader) {
+    List<PptTopLevel> result = new ArrayList<>();
+    for (String name : reader.ppt_names()) {
+      PptTopLevel ppt = reader.get_if_loaded(name);
+      if (ppt != null) {
+        result.add(ppt);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * The invariant files that Daikon writes by default are read lazily; serialized ones are read at
+   * once.
+   */
+  @Test
+  public void testOpen() throws IOException {
+    PptMap opened = LazyPptMap.open(binary_file, false);
+    try {
+      assertTrue(opened instanceof LazyPptMap);
+      assertEquals(expected.sorted_names(), opened.sorted_names());
+    } finally {
+      LazyPptMap.close(opened);
+    }
+
+    File serial_file = new File(tmp.getRoot(), "serial.inv.gz");
+    FileIO.dkconfig_binary_inv_files = false;
+    try {
+      FileIO.write_serialized_pptmap(expected, serial_file);
+    } finally {
+      FileIO.dkconfig_binary_inv_files = true;
+    }
+    PptMap serial = LazyPptMap.open(serial_file, false);
+    assertFalse(serial instanceof LazyPptMap);
+    assertEquals(expected.sorted_names(), serial.sorted_names());
+  }
+
+  /** A program point is read, with its ancestors, only when it is requested. */
+  @Test
+  public void testLazyLoading() throws IOException {
+    try (BinaryInv.Reader reader = new BinaryInv.Reader(binary_file);
+        LazyPptMap lazy = new LazyPptMap(reader)) {
+      assertEquals(expected.size(), lazy.size());
+      assertEquals(expected.sorted_names(), lazy.sorted_names());
+      assertTrue(lazy.containsName(EXIT4));
+      assertEquals(0, reader.loaded_chunks());
+
+      PptTopLevel exit4 = lazy.get(EXIT4);
+      assertNotNull(exit4);
+      PptTopLevel exit4_expected = expected.get(EXIT4);
+      assertNotNull(exit4_expected);
+      assertEquals(invariants(exit4_expected), invariants(exit4));
+      PptTopLevel exit = reader.get_if_loaded(EXIT);
+      assertNotNull(exit);
+      assertEquals(1, exit4.parents.size());
+      assertSame(exit, exit4.parents.get(0).parent);
+      assertTrue(loaded(reader).size() < lazy.size());
+    }
+  }
+
+  /** Program points are evicted when the heap is full, and read again when requested again. */
+  @Test
+  public void testEvictAndReload() throws IOException {
+    // Evict after every read.
+    LazyPptMap.dkconfig_max_heap_fraction = 0;
+    try (BinaryInv.Reader reader = new BinaryInv.Reader(binary_file);
+        LazyPptMap lazy = new LazyPptMap(reader)) {
+      PptTopLevel first = lazy.get(EXIT4);
+      assertNotNull(first);
+      for (String name : lazy.sorted_names()) {
+        PptTopLevel ppt = lazy.get(name);
+        assertNotNull(ppt);
+        PptTopLevel ppt_expected = expected.get(name);
+        assertNotNull(ppt_expected);
+        assertEquals(invariants(ppt_expected), invariants(ppt));
+      }
+      assertTrue(reader.loaded_chunks() < lazy.size() / 2);
+
+      assertNull(reader.get_if_loaded(EXIT4));
+      PptTopLevel again = lazy.get(EXIT4);
+      assertNotNull(again);
+      assertNotSame(first, again);
+      assertEquals(invariants(first), invariants(again));
+      PptTopLevel exit = reader.get_if_loaded(EXIT);
+      assertNotNull(exit);
+      assertEquals(1, again.parents.size());
+      assertSame(exit, again.parents.get(0).parent);
+    }
+  }
+
+  /**
+   * The hierarchy is complete once every program point has been requested, in any order, and
+   * reading the whole file gives the same invariants and hierarchy as reading it at once.
+   */
+  @Test
+  public void testRestoreRelations() throws IOException {
+    try (BinaryInv.Reader reader = new BinaryInv.Reader(binary_file);
+        LazyPptMap lazy = new LazyPptMap(reader)) {
+      List<String> names = lazy.sorted_names();
+      for (int i = names.size() - 1; i >= 0; i--) {
+        lazy.get(names.get(i));
+      }
+      assertEquals(Traces.hierarchy(expected.all_ppts()), Traces.hierarchy(loaded(reader)));
+
+      assertEquals(Traces.hierarchy(expected.all_ppts()), Traces.hierarchy(lazy.all_ppts()));
+
+      // Printing simplifies the variable names of the program points, so print a fresh copy.
+      assertEquals(Traces.invariants(binary_file), Traces.invariants(lazy));
+    }
+  }
+
+  /**
+   * Once the whole file has been read, it is closed, and the map still holds every program point.
+   */
+  @Test
+  public void testCloseAfterReadingAll() throws IOException {
+    try (BinaryInv.Reader reader = new BinaryInv.Reader(binary_file);
+        LazyPptMap lazy = new LazyPptMap(reader)) {
+      assertEquals(expected.size(), lazy.all_ppts().size());
+      assertNotNull(lazy.get(EXIT4));
+
+      // Only the most recently used chunk is kept, so EXIT must be read again.
+      assertNotNull(reader.get_if_loaded(EXIT4));
+      reader.get(EXIT4);
+      reader.evict(Integer.MAX_VALUE);
+      assertNull(reader.get_if_loaded(EXIT));
+      try {
+        reader.get(EXIT);
+        fail("Read from a closed file");
+      } catch (ClosedChannelException e) {
+        // expected
+      }
+      assertNotNull(lazy.get(EXIT));
+    }
+  }
+}
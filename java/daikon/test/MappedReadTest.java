@@ -0,0 +1,235 @@
+package daikon.test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import daikon.Daikon;
+import daikon.FileIO;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.plumelib.util.StringsPlume;
+
+/**
+ * Tests that reading an uncompressed dtrace file that is memory-mapped (see {@link
+ * FileIO#dkconfig_mapped_read}) gives the invariants, and the errors, that reading it through a
+ * LineNumberReader does. The tcas trace is split into three uncompressed shards, so that the
+ * modbits of a later shard depend on the values of an earlier one. Some tests map the files in
+ * windows much smaller than a sample record, so that records straddle the windows.
+ */
+public class MappedReadTest {
+
+  /** The directory for the trace and invariant files. */
+  @ClassRule public static TemporaryFolder tmp = new TemporaryFolder();
+
+  /** The .decls and .dtrace files of the tcas trace. */
+  private static List<String> files = new ArrayList<>();
+
+  /** The invariants of the tcas trace, read through a LineNumberReader. */
+  private static String unmapped = "";
+
+  /** The default size of the windows in which a file is mapped. */
+  private static long default_window_size = 0;
+
+  /** Maps the traces that each test reads, unless the test says otherwise. */
+  @Before
+  public void setUp() {
+    FileIO.dkconfig_mapped_read = true;
+  }
+
+  /**
+   * Restores the defaults after each test.
+   *
+   * @throws ReflectiveOperationException if MappedTraceReader has no window_size field
+   */
+  @After
+  public void tearDown() throws ReflectiveOperationException {
+    FileIO.dkconfig_mapped_read = false;
+    window_size().setLong(null, default_window_size);
+  }
+
+  /**
+   * Returns the size of the windows in which a file is mapped, a package-private field of
+   * MappedTraceReader.
+   *
+   * @return the field MappedTraceReader.window_size
+   * @throws ReflectiveOperationException if MappedTraceReader has no such field
+   */
+  private static Field window_size() throws ReflectiveOperationException {
+    Field result = Class.forName("daikon.MappedTraceReader").getDeclaredField("window_size");
+    result.setAccessible(true);
+    return result;
+  }
+
+  /**
+   * Splits the tcas trace, and infers its invariants without mapping it.
+   *
+   * @throws Exception if there is trouble reading or writing a file
+   */
+  @BeforeClass
+  public static void infer_unmapped() throws Exception {
+    default_window_size = window_size().getLong(null);
+    files.add(Traces.copy("tcas.decls", tmp.getRoot()).toString());
+    for (File shard :
+        Traces.split("tcas.dtrace.gz", "std.main(int;char **;)int:::ENTER", 3, tmp.getRoot())) {
+      files.add(shard.toString());
+    }
+    unmapped = infer("unmapped.inv.gz", files);
+    assertTrue(unmapped, unmapped.contains("std.ALIM()int:::EXIT"));
+  }
+
+  /**
+   * Infers the invariants of a trace.
+   *
+   * @param name the name of the invariant file to write
+   * @param trace_files the .decls and .dtrace files
+   * @return the invariants
+   * @throws IOException if there is trouble reading or writing a file
+   */
+  private static String infer(String name, List<String> trace_files) throws IOException {
+    File inv_file = new File(tmp.getRoot(), name);
+    Traces.daikon(inv_file, trace_files.toArray(new String[0]));
+    return Traces.invariants(inv_file);
+  }
+
+  /** A mapped trace gives the invariants of an unmapped one. */
+  @Test
+  public void testMapped() throws IOException {
+    assertEquals(unmapped, infer("mapped.inv.gz", files));
+  }
+
+  /** Records that straddle the windows of a file are mapped again. */
+  @Test
+  public void testSmallWindows() throws Exception {
+    window_size().setLong(null, 64);
+    assertEquals(unmapped, infer("windows.inv.gz", files));
+  }
+
+  /**
+   * Writes a trace of P.f(int,int) with the given text in place of the value and modbit of y in its
+   * fourth sample. The fourth sample starts at line 39 of the file, and the modbit of its y is
+   * at line 45.
+   *
+   * @param name the name of the file
+   * @param bad_y the lines that hold the value and modbit of y in the fourth sample
+   * @param line_sep the line terminator
+   * @return the trace
+   * @throws IOException if there is trouble writing the file
+   */
+  private static File malformed(String name, String bad_y, String line_sep) throws IOException {
+    List<String> lines = new ArrayList<>();
+    lines.add("decl-version 2.0");
+    lines.add("var-comparability none");
+    lines.add("");
+    lines.add("ppt P.f(int,int):::POINT");
+    lines.add("ppt-type point");
+    for (String var : new String[] {"x", "y"}) {
+      lines.add("variable " + var);
+      lines.add("  var-kind variable");
+      lines.add("  dec-type int");
+      lines.add("  rep-type int");
+    }
+    lines.add("");
+    for (int i = 0; i < 5; i++) {
+      lines.add("P.f(int,int):::POINT");
+      lines.add("x");
+      lines.add(String.valueOf(i));
+      lines.add("1");
+      lines.add("y");
+      if (i == 3) {
+        lines.add(bad_y);
+      } else {
+        lines.add(String.valueOf(2 * i));
+        lines.add("1");
+      }
+      lines.add("");
+    }
+    File result = new File(tmp.getRoot(), name);
+    Files.write(result.toPath(), (String.join(line_sep, lines) + line_sep).getBytes(UTF_8));
+    return result;
+  }
+
+  /**
+   * Reads a malformed trace, and returns the message of the error that it causes.
+   *
+   * @param dtrace the trace
+   * @return the message of the Daikon.UserError that reading the trace throws
+   */
+  private static String error(File dtrace) {
+    try {
+      Traces.daikon(new File(tmp.getRoot(), "malformed.inv.gz"), dtrace.toString());
+    } catch (Daikon.UserError e) {
+      return String.valueOf(e.getMessage());
+    }
+    fail("No error reading " + dtrace);
+    throw new Error("unreachable");
+  }
+
+  /**
+   * Reads a malformed trace mapped and unmapped, checks that the errors are the same, and returns
+   * the message of the error.
+   *
+   * @param dtrace the trace
+   * @return the message of the error
+   */
+  private static String same_error(File dtrace) {
+    FileIO.dkconfig_mapped_read = false;
+    String expected = error(dtrace);
+    FileIO.dkconfig_mapped_read = true;
+    assertEquals(expected, error(dtrace));
+    return expected;
+  }
+
+  /** A bad modbit is reported at its line. */
+  @Test
+  public void testBadModbit() throws IOException {
+    String message = same_error(malformed("bad_modbit.dtrace", "6\n7", "\n"));
+    assertTrue(message, message.startsWith("Error at line 45 "));
+    assertTrue(message, message.contains("Bad modbit `7'"));
+  }
+
+  /** A bad modbit in a file with "\r\n" line terminators is reported at its line. */
+  @Test
+  public void testBadModbitCrlf() throws IOException {
+    String message = same_error(malformed("bad_modbit_crlf.dtrace", "6\r\n7", "\r\n"));
+    assertTrue(message, message.startsWith("Error at line 45 "));
+  }
+
+  /** A value that cannot be parsed is reported at its modbit's line. */
+  @Test
+  public void testBadValue() throws IOException {
+    String message = same_error(malformed("bad_value.dtrace", "six\n1", "\n"));
+    assertTrue(message, message.startsWith("Error at line 45 "));
+    assertTrue(message, message.contains("Error while parsing value six"));
+  }
+
+  /** A missing modbit at the end of the file is reported. */
+  @Test
+  public void testTruncated() throws IOException {
+    File dtrace = malformed("truncated.dtrace", "6", "\n");
+    List<String> lines = Files.readAllLines(dtrace.toPath(), UTF_8);
+    Files.write(dtrace.toPath(), StringsPlume.joinLines(lines.subList(0, 44)).getBytes(UTF_8));
+    String message = same_error(dtrace);
+    assertTrue(message, message.contains(" line 44" + System.lineSeparator()));
+    assertTrue(message, message.contains("Expected modbit for variable y"));
+  }
+
+  /** A record that straddles a window has its errors reported at the same line. */
+  @Test
+  public void testBadModbitSmallWindows() throws Exception {
+    window_size().setLong(null, 16);
+    String message = same_error(malformed("bad_modbit_windows.dtrace", "6\n7", "\n"));
+    assertTrue(message, message.startsWith("Error at line 45 "));
+  }
+}
@@ -0,0 +1,98 @@
+package daikon.test;
+
+import static org.junit.Assert.assertEquals;
+
+import daikon.MergeInvariants;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Tests of {@link MergeInvariants}. */
+public class MergeInvariantsTest {
+
+  /** The directory for the trace and invariant files. */
+  @ClassRule public static TemporaryFolder tmp = new TemporaryFolder();
+
+  /** The invariant files of the shards of the trace. */
+  private static List<File> shards = new ArrayList<>();
+
+  /** The invariants of the serial merge of the shards. */
+  private static String serial = "";
+
+  /** Restores the defaults after each test. */
+  @After
+  public void tearDown() {
+    MergeInvariants.output_inv_file = null;
+    MergeInvariants.threads = 1;
+  }
+
+  /**
+   * Infers the invariants of each of three shards of the tcas trace. Some exits of some procedures
+   * are reached in some shards but not in others.
+   *
+   * @throws IOException if there is trouble reading or writing a file
+   * @throws ClassNotFoundException if an invariant file contains an unknown class
+   */
+  @BeforeClass
+  public static void infer_shards() throws IOException, ClassNotFoundException {
+    File decls = Traces.copy("tcas.decls", tmp.getRoot());
+    for (File shard :
+        Traces.split("tcas.dtrace.gz", "std.main(int;char **;)int:::ENTER", 3, tmp.getRoot())) {
+      File inv_file = new File(shard.getPath().replace(".dtrace", ".inv.gz"));
+      Traces.daikon(inv_file, decls.toString(), shard.toString());
+      shards.add(inv_file);
+    }
+    serial = merge(1, tmp.newFile("serial.inv.gz"), shards);
+  }
+
+  /**
+   * Merges invariant files.
+   *
+   * @param threads the number of threads to merge on
+   * @param out the file to which to write the merged invariants
+   * @param inv_files the files to merge
+   * @return the text of the merged invariants
+   * @throws IOException if there is trouble reading or writing a file
+   * @throws ClassNotFoundException if an invariant file contains an unknown class
+   */
+  private static String merge(int threads, File out, List<File> inv_files)
+      throws IOException, ClassNotFoundException {
+    List<String> args = new ArrayList<>();
+    args.add("--threads");
+    args.add(String.valueOf(threads));
+    args.add("-o");
+    args.add(out.toString());
+    for (File file : inv_files) {
+      args.add(file.toString());
+    }
+    MergeInvariants.output_inv_file = null;
+    MergeInvariants.mainHelper(args.toArray(new String[0]));
+    return Traces.invariants(out);
+  }
+
+  /**
+   * Merging the files in pairs, and then the results in pairs, gives the serial result. With three
+   * files, the merge of the first two is merged with the third.
+   */
+  @Test
+  public void testTreeMerge() throws IOException, ClassNotFoundException {
+    assertEquals(serial, merge(2, tmp.newFile("tree.inv.gz"), shards));
+  }
+
+  /** The result of a merge can itself be merged. */
+  @Test
+  public void testMergeMerged() throws IOException, ClassNotFoundException {
+    File first = tmp.newFile("first.inv.gz");
+    merge(1, first, shards.subList(0, 2));
+    List<File> merged = new ArrayList<>();
+    merged.add(first);
+    merged.add(shards.get(2));
+    assertEquals(serial, merge(1, tmp.newFile("merged.inv.gz"), merged));
+  }
+}
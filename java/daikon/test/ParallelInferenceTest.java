@@ -0,0 +1,134 @@
+package daikon.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import daikon.DiscReasonMap;
+import daikon.FileIO;
+import daikon.PptMap;
+import daikon.PptTopLevel;
+import daikon.PrintInvariants;
+import daikon.inv.DiscardInfo;
+import daikon.inv.InvariantInfo;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests that applying samples on several threads (see {@link FileIO#dkconfig_inference_threads})
+ * gives the invariants that applying them serially does.
+ */
+public class ParallelInferenceTest {
+
+  /** The directory for the trace and invariant files. */
+  @ClassRule public static TemporaryFolder tmp = new TemporaryFolder();
+
+  /** The declarations of the tcas trace. */
+  private static File decls = new File("tcas.decls");
+
+  /** The samples of the tcas trace. */
+  private static File dtrace = new File("tcas.dtrace.gz");
+
+  /** The invariants inferred serially. */
+  private static String serial = "";
+
+  /** The invariants inferred serially without the dataflow hierarchy. */
+  private static String serial_nohierarchy = "";
+
+  /** Restores the defaults after each test. */
+  @After
+  public void tearDown() {
+    FileIO.dkconfig_inference_threads = 1;
+    PrintInvariants.print_discarded_invariants = false;
+  }
+
+  /**
+   * Infers the invariants of the tcas trace serially.
+   *
+   * @throws IOException if there is trouble reading or writing a file
+   */
+  @BeforeClass
+  public static void infer_serially() throws IOException {
+    decls = Traces.copy("tcas.decls", tmp.getRoot());
+    dtrace = Traces.copy("tcas.dtrace.gz", tmp.getRoot());
+    FileIO.dkconfig_inference_threads = 1;
+    serial = infer("serial.inv.gz");
+    serial_nohierarchy = infer("serial_nohierarchy.inv.gz", "--nohierarchy");
+  }
+
+  /**
+   * Infers the invariants of the tcas trace.
+   *
+   * @param name the name of the invariant file to write
+   * @param options other options of Daikon
+   * @return the invariants
+   * @throws IOException if there is trouble reading or writing a file
+   */
+  private static String infer(String name, String... options) throws IOException {
+    File inv_file = new File(tmp.getRoot(), name);
+    String[] args = new String[options.length + 2];
+    System.arraycopy(options, 0, args, 0, options.length);
+    args[options.length] = decls.toString();
+    args[options.length + 1] = dtrace.toString();
+    Traces.daikon(inv_file, args);
+    return Traces.invariants(inv_file);
+  }
+
+  /** Program points whose samples are applied on different threads get the serial invariants. */
+  @Test
+  public void testFourThreads() throws IOException {
+    FileIO.dkconfig_inference_threads = 4;
+    assertEquals(serial, infer("parallel.inv.gz"));
+  }
+
+  /**
+   * Returns the reasons why invariants were discarded in the last run of Daikon, sorted.
+   *
+   * @param inv_file the invariant file written by the run
+   * @return the reasons, one per line
+   * @throws IOException if there is trouble reading the file
+   */
+  private static String discard_reasons(File inv_file) throws IOException {
+    PptMap ppts = FileIO.read_serialized_pptmap(inv_file, false);
+    List<String> result = new ArrayList<>();
+    for (PptTopLevel ppt : ppts.pptIterable()) {
+      for (DiscardInfo di :
+          DiscReasonMap.returnMatches_from_ppt(new InvariantInfo(ppt.name(), null, null))) {
+        result.add(ppt.name() + ": " + di.format());
+      }
+    }
+    Collections.sort(result);
+    return String.join("\n", result);
+  }
+
+  /** Program points whose samples are applied on different threads record the serial reasons. */
+  @Test
+  public void testFourThreadsDiscReason() throws IOException {
+    File serial_file = new File(tmp.getRoot(), "serial_disc.inv.gz");
+    Traces.daikon(serial_file, "--disc_reason", "all", decls.toString(), dtrace.toString());
+    String expected = discard_reasons(serial_file);
+    assertTrue(expected.length() > 0);
+
+    FileIO.dkconfig_inference_threads = 4;
+    File parallel_file = new File(tmp.getRoot(), "parallel_disc.inv.gz");
+    Traces.daikon(parallel_file, "--disc_reason", "all", decls.toString(), dtrace.toString());
+    assertEquals(expected, discard_reasons(parallel_file));
+  }
+
+  /**
+   * Without the dataflow hierarchy, each numbered exit also adds its samples to the combined exit,
+   * on the same thread.
+   */
+  @Test
+  public void testFourThreadsNoHierarchy() throws IOException {
+    FileIO.dkconfig_inference_threads = 4;
+    assertEquals(serial_nohierarchy, infer("parallel_nohierarchy.inv.gz", "--nohierarchy"));
+  }
+}
@@ -0,0 +1,271 @@
+package daikon.test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import daikon.Daikon;
+import daikon.FileIO;
+import daikon.PptMap;
+import daikon.PptRelation;
+import daikon.PptTopLevel;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.plumelib.util.StringsPlume;
+
+/**
+ * Tests that merging invariants up the program point hierarchy on several threads (see {@link
+ * Daikon#dkconfig_merge_threads}) gives the invariants that merging serially does. In the trace,
+ * the program points of A.m(B) are children of both A:::OBJECT and, through its parameter,
+ * B:::OBJECT (see {@link PptRelation#dkconfig_enable_object_user}), so those two cannot be merged
+ * concurrently, while B.n() has only one parent.
+ */
+public class ParallelMergeTest {
+
+  /** The directory for the trace and invariant files. */
+  @ClassRule public static TemporaryFolder tmp = new TemporaryFolder();
+
+  /** The declarations of the trace. */
+  private static File decls = new File("merge.decls");
+
+  /** The samples of the trace. */
+  private static File dtrace = new File("merge.dtrace");
+
+  /** The fields of class A. */
+  private static final String[] A_FIELDS = {"x", "u", "v"};
+
+  /** The fields of class B. */
+  private static final String[] B_FIELDS = {"y", "w", "z"};
+
+  /** The invariants merged serially. */
+  private static String serial = "";
+
+  /** Restores the default after each test. */
+  @After
+  public void tearDown() {
+    Daikon.dkconfig_merge_threads = 1;
+  }
+
+  /** Restores the default. */
+  @AfterClass
+  public static void tearDownClass() {
+    PptRelation.dkconfig_enable_object_user = false;
+  }
+
+  /**
+   * Writes the trace, and infers its invariants, merging serially. Enables the relations between
+   * the program points of a method and the object program points of its parameters.
+   *
+   * @throws IOException if there is trouble reading or writing a file
+   */
+  @BeforeClass
+  public static void write_trace() throws IOException {
+    List<String> lines = new ArrayList<>();
+    lines.add("decl-version 2.0");
+    lines.add("var-comparability none");
+    lines.add("");
+    lines.add("ppt A:::OBJECT");
+    lines.add("ppt-type object");
+    object_vars(lines, "A", A_FIELDS, null);
+    lines.add("");
+    lines.add("ppt B:::OBJECT");
+    lines.add("ppt-type object");
+    object_vars(lines, "B", B_FIELDS, null);
+    for (String point : new String[] {"ENTER", "EXIT1", "EXIT2"}) {
+      lines.add("");
+      lines.add("ppt A.m(B):::" + point);
+      lines.add("ppt-type " + (point.equals("ENTER") ? "enter" : "subexit"));
+      lines.add("parent parent A:::OBJECT 1");
+      lines.add("parent user B:::OBJECT 2");
+      object_vars(lines, "A", A_FIELDS, "A:::OBJECT 1");
+      lines.add("variable b");
+      lines.add("  var-kind variable");
+      lines.add("  dec-type B");
+      lines.add("  rep-type hashcode");
+      lines.add("  flags is_param");
+      lines.add("  parent B:::OBJECT 2 this");
+      for (String field : B_FIELDS) {
+        lines.add("variable b." + field);
+        lines.add("  var-kind field " + field);
+        lines.add("  enclosing-var b");
+        lines.add("  dec-type int");
+        lines.add("  rep-type int");
+        lines.add("  parent B:::OBJECT 2 this." + field);
+      }
+      if (!point.equals("ENTER")) {
+        return_var(lines);
+      }
+    }
+    for (String point : new String[] {"ENTER", "EXIT1"}) {
+      lines.add("");
+      lines.add("ppt B.n():::" + point);
+      lines.add("ppt-type " + (point.equals("ENTER") ? "enter" : "subexit"));
+      lines.add("parent parent B:::OBJECT 1");
+      object_vars(lines, "B", B_FIELDS, "B:::OBJECT 1");
+      if (!point.equals("ENTER")) {
+        return_var(lines);
+      }
+    }
+    lines.add("");
+    decls = tmp.newFile("merge.decls");
+    Files.write(decls.toPath(), StringsPlume.joinLines(lines).getBytes(UTF_8));
+
+    StringBuilder text = new StringBuilder();
+    int nonce = 0;
+    for (int i = 0; i < 200; i++) {
+      int a = 1000 + i % 3;
+      int x = i % 7;
+      int b = 2000 + i % 4;
+      int y = 2 * (i % 5) + 1;
+      String[] args = fields("this", a, A_FIELDS, x, i % 11, (i * 7) % 13);
+      String[] b_args = fields("b", b, B_FIELDS, y, i % 2, (i * 3) % 17);
+      text.append(sample("A.m(B):::ENTER", nonce, args, b_args));
+      String exit = (x < y) ? "A.m(B):::EXIT1" : "A.m(B):::EXIT2";
+      String[] result = {"return", String.valueOf((x < y) ? x + y : x - y)};
+      text.append(sample(exit, nonce, args, b_args, result));
+      nonce++;
+
+      String[] n_args = fields("this", b, B_FIELDS, y, i % 2, (i * 3) % 17);
+      text.append(sample("B.n():::ENTER", nonce, n_args));
+      text.append(sample("B.n():::EXIT1", nonce, n_args, new String[] {"return", "" + y * y}));
+      nonce++;
+    }
+    dtrace = tmp.newFile("merge.dtrace");
+    Files.write(dtrace.toPath(), text.toString().getBytes(UTF_8));
+
+    PptRelation.dkconfig_enable_object_user = true;
+    Daikon.dkconfig_merge_threads = 1;
+    serial = merge("serial.inv.gz");
+  }
+
+  /**
+   * Adds the declarations of the receiver of a method and its fields.
+   *
+   * @param lines the declarations
+   * @param type the class of the receiver
+   * @param fields the names of the fields
+   * @param parent the parent of the variables, or null for an object program point
+   */
+  private static void object_vars(
+      List<String> lines, String type, String[] fields, @Nullable String parent) {
+    lines.add("variable this");
+    lines.add("  var-kind variable");
+    lines.add("  dec-type " + type);
+    lines.add("  rep-type hashcode");
+    if (parent != null) {
+      lines.add("  flags is_param");
+      lines.add("  parent " + parent);
+    }
+    for (String field : fields) {
+      lines.add("variable this." + field);
+      lines.add("  var-kind field " + field);
+      lines.add("  enclosing-var this");
+      lines.add("  dec-type int");
+      lines.add("  rep-type int");
+      if (parent != null) {
+        lines.add("  parent " + parent + " this." + field);
+      }
+    }
+  }
+
+  /**
+   * Returns the names and values of an object and its fields, alternately.
+   *
+   * @param name the name of the object
+   * @param hashcode the value of the object
+   * @param fields the names of the fields
+   * @param values the values of the fields
+   * @return the names and values
+   */
+  private static String[] fields(String name, int hashcode, String[] fields, int... values) {
+    String[] result = new String[2 * fields.length + 2];
+    result[0] = name;
+    result[1] = String.valueOf(hashcode);
+    for (int i = 0; i < fields.length; i++) {
+      result[2 * i + 2] = name + "." + fields[i];
+      result[2 * i + 3] = String.valueOf(values[i]);
+    }
+    return result;
+  }
+
+  /**
+   * Adds the declaration of the return value of a method.
+   *
+   * @param lines the declarations
+   */
+  private static void return_var(List<String> lines) {
+    lines.add("variable return");
+    lines.add("  var-kind return");
+    lines.add("  dec-type int");
+    lines.add("  rep-type int");
+  }
+
+  /**
+   * Returns the text of one sample.
+   *
+   * @param ppt the program point
+   * @param nonce the invocation nonce
+   * @param vars the names and values of the variables, alternately
+   * @return the text of the sample
+   */
+  private static String sample(String ppt, int nonce, String[]... vars) {
+    List<String> lines = new ArrayList<>();
+    lines.add(ppt);
+    lines.add("this_invocation_nonce");
+    lines.add(String.valueOf(nonce));
+    for (String[] pairs : vars) {
+      for (int i = 0; i < pairs.length; i += 2) {
+        lines.add(pairs[i]);
+        lines.add(pairs[i + 1]);
+        lines.add("1");
+      }
+    }
+    lines.add("");
+    lines.add("");
+    return StringsPlume.joinLines(lines);
+  }
+
+  /**
+   * Infers the invariants of the trace.
+   *
+   * @param name the name of the invariant file to write
+   * @return the invariants
+   * @throws IOException if there is trouble reading or writing a file
+   */
+  private static String merge(String name) throws IOException {
+    File inv_file = new File(tmp.getRoot(), name);
+    Traces.daikon(inv_file, decls.toString(), dtrace.toString());
+    return Traces.invariants(inv_file);
+  }
+
+  /** The hierarchy of the trace has a program point with two parents. */
+  @Test
+  public void testSharedChildren() throws IOException {
+    PptMap ppts = FileIO.read_serialized_pptmap(new File(tmp.getRoot(), "serial.inv.gz"), false);
+    PptTopLevel enter = ppts.get("A.m(B):::ENTER");
+    assertNotNull(enter);
+    assertEquals(2, enter.parents.size());
+  }
+
+  /**
+   * Merging on several threads gives the serial invariants. Which merges overlap depends on timing,
+   * so the merge is repeated.
+   */
+  @Test
+  public void testFourThreads() throws IOException {
+    Daikon.dkconfig_merge_threads = 4;
+    for (int i = 0; i < 5; i++) {
+      assertEquals(serial, merge("parallel" + i + ".inv.gz"));
+    }
+  }
+}
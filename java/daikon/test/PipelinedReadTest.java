@@ -0,0 +1,188 @@
+package daikon.test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import daikon.FileIO;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.plumelib.util.StringsPlume;
+
+/**
+ * Tests that reading a dtrace file on a separate thread (see {@link FileIO#dkconfig_pipelined_read})
+ * gives the invariants that reading it on the inference thread does. Besides the tcas trace, the
+ * tests read a trace that declares a program point after samples of another one, so the reader
+ * waits for the samples before it reads the declaration.
+ */
+public class PipelinedReadTest {
+
+  /** The directory for the trace and invariant files. */
+  @ClassRule public static TemporaryFolder tmp = new TemporaryFolder();
+
+  /** The declarations of the tcas trace. */
+  private static File decls = new File("tcas.decls");
+
+  /** The samples of the tcas trace. */
+  private static File dtrace = new File("tcas.dtrace.gz");
+
+  /** A trace whose declarations are mixed into its samples. */
+  private static File mixed = new File("mixed.dtrace");
+
+  /** The invariants of the tcas trace, read on the inference thread. */
+  private static String serial = "";
+
+  /** The invariants of the mixed trace, read on the inference thread. */
+  private static String serial_mixed = "";
+
+  /** Restores the defaults after each test. */
+  @After
+  public void tearDown() {
+    FileIO.dkconfig_pipelined_read = false;
+    FileIO.dkconfig_pipelined_read_queue_size = 1024;
+    FileIO.dkconfig_inference_threads = 1;
+  }
+
+  /**
+   * Writes the mixed trace, and infers the invariants of both traces without a reader thread.
+   *
+   * @throws IOException if there is trouble reading or writing a file
+   */
+  @BeforeClass
+  public static void infer_serially() throws IOException {
+    decls = Traces.copy("tcas.decls", tmp.getRoot());
+    dtrace = Traces.copy("tcas.dtrace.gz", tmp.getRoot());
+
+    StringBuilder text = new StringBuilder();
+    text.append(StringsPlume.joinLines("decl-version 2.0", "var-comparability none", ""));
+    text.append(decl("f"));
+    for (int i = 0; i < 20; i++) {
+      text.append(call("f", i, i % 7, (i % 7) * 2));
+    }
+    // g is declared after f has been called, and f is called again between calls of g.
+    text.append(decl("g"));
+    for (int i = 20; i < 60; i++) {
+      if (i % 3 == 0) {
+        text.append(call("f", i, i, i * 3));
+      } else {
+        text.append(call("g", i, i - 20, i + 1));
+      }
+    }
+    mixed = tmp.newFile("mixed.dtrace");
+    Files.write(mixed.toPath(), text.toString().getBytes(UTF_8));
+
+    serial = infer("serial.inv.gz", decls.toString(), dtrace.toString());
+    serial_mixed = infer("serial_mixed.inv.gz", mixed.toString());
+    assertTrue(serial_mixed, serial_mixed.contains("P.g(int):::EXIT"));
+  }
+
+  /**
+   * Returns the declarations of the entry and exit of a procedure.
+   *
+   * @param name the name of the procedure
+   * @return the text of the declarations
+   */
+  private static String decl(String name) {
+    String x =
+        StringsPlume.joinLines(
+            "variable x", "  var-kind variable", "  dec-type int", "  rep-type int");
+    return StringsPlume.joinLines(
+        "ppt P." + name + "(int):::ENTER",
+        "ppt-type enter",
+        x,
+        "",
+        "ppt P." + name + "(int):::EXIT1",
+        "ppt-type subexit",
+        x,
+        "variable return",
+        "  var-kind return",
+        "  dec-type int",
+        "  rep-type int",
+        "",
+        "");
+  }
+
+  /**
+   * Returns the samples of the entry and exit of one call of a procedure.
+   *
+   * @param name the name of the procedure
+   * @param nonce the invocation nonce
+   * @param x the value of x
+   * @param result the return value
+   * @return the text of the samples
+   */
+  private static String call(String name, int nonce, int x, int result) {
+    String ppt = "P." + name + "(int):::";
+    return StringsPlume.joinLines(
+        ppt + "ENTER",
+        "this_invocation_nonce",
+        String.valueOf(nonce),
+        "x",
+        String.valueOf(x),
+        "1",
+        "",
+        ppt + "EXIT1",
+        "this_invocation_nonce",
+        String.valueOf(nonce),
+        "x",
+        String.valueOf(x),
+        "1",
+        "return",
+        String.valueOf(result),
+        "1",
+        "",
+        "");
+  }
+
+  /**
+   * Infers the invariants of a trace.
+   *
+   * @param name the name of the invariant file to write
+   * @param files the .decls and .dtrace files
+   * @return the invariants
+   * @throws IOException if there is trouble reading or writing a file
+   */
+  private static String infer(String name, String... files) throws IOException {
+    File inv_file = new File(tmp.getRoot(), name);
+    Traces.daikon(inv_file, files);
+    return Traces.invariants(inv_file);
+  }
+
+  /** Samples read on a separate thread give the invariants of samples read serially. */
+  @Test
+  public void testPipelined() throws IOException {
+    FileIO.dkconfig_pipelined_read = true;
+    assertEquals(serial, infer("pipelined.inv.gz", decls.toString(), dtrace.toString()));
+  }
+
+  /** The reader thread blocks on a short queue without changing the results. */
+  @Test
+  public void testSmallQueue() throws IOException {
+    FileIO.dkconfig_pipelined_read = true;
+    FileIO.dkconfig_pipelined_read_queue_size = 2;
+    assertEquals(serial, infer("small_queue.inv.gz", decls.toString(), dtrace.toString()));
+  }
+
+  /** A declaration among the samples is read after the samples before it are processed. */
+  @Test
+  public void testMixedDeclarations() throws IOException {
+    FileIO.dkconfig_pipelined_read = true;
+    FileIO.dkconfig_pipelined_read_queue_size = 2;
+    assertEquals(serial_mixed, infer("pipelined_mixed.inv.gz", mixed.toString()));
+  }
+
+  /** The reader thread also hands samples on to the inference threads. */
+  @Test
+  public void testMixedDeclarationsInferenceThreads() throws IOException {
+    FileIO.dkconfig_pipelined_read = true;
+    FileIO.dkconfig_pipelined_read_queue_size = 2;
+    FileIO.dkconfig_inference_threads = 2;
+    assertEquals(serial_mixed, infer("threads_mixed.inv.gz", mixed.toString()));
+  }
+}
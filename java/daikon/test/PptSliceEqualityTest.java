@@ -0,0 +1,247 @@
+package daikon.test;
+
+import static java.util.logging.Level.INFO;
+import static org.junit.Assert.assertEquals;
+
+import daikon.Daikon;
+import daikon.PptSliceEquality;
+import daikon.PptTopLevel;
+import daikon.ValueTuple;
+import daikon.VarInfo;
+import daikon.inv.Equality;
+import daikon.inv.Invariant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests that {@link PptSliceEquality#add} splits the equality sets of a program point as the
+ * earlier implementation did, which checked each set's variables against its leader in turn. Each
+ * test applies samples to six integer variables, a through f, which start out in one set, and
+ * compares the sets with those computed by {@link #split}, a copy of that implementation over lists
+ * of variable indices.
+ */
+public class PptSliceEqualityTest {
+
+  /** The names of the variables. */
+  private static final String[] NAMES = {"a", "b", "c", "d", "e", "f"};
+
+  /** The program point whose equality sets are split. */
+  private final PptTopLevel ppt = new_ppt();
+
+  /** The equality sets, as computed by {@link #split}; each set is in index order. */
+  private List<List<Integer>> expected = new ArrayList<>();
+
+  /** prepare for tests */
+  @BeforeClass
+  public static void setUpClass() {
+    daikon.LogHelper.setupLogs(INFO);
+  }
+
+  /**
+   * Creates the program point, with all of its variables in one equality set.
+   *
+   * @return the program point
+   */
+  private static PptTopLevel new_ppt() {
+    VarInfo[] vis = new VarInfo[NAMES.length];
+    for (int i = 0; i < vis.length; i++) {
+      vis[i] = Common.newIntVarInfo(NAMES[i]);
+    }
+    PptTopLevel result = Common.makePptTopLevel("P.m():::EXIT1", vis);
+    Daikon.setupEquality(result);
+    return result;
+  }
+
+  /** Starts {@link #expected} with all of the variables in one equality set. */
+  @Before
+  public void setUp() {
+    List<Integer> all = new ArrayList<>();
+    for (int i = 0; i < NAMES.length; i++) {
+      all.add(i);
+    }
+    expected.add(all);
+    assertEquals("[a, b, c, d, e, f]", sets());
+  }
+
+  /**
+   * Applies a sample, in which every variable is modified, to the equality sets and to {@link
+   * #expected}.
+   *
+   * @param vals the value of each variable
+   */
+  private void add(long... vals) {
+    int[] mods = new int[vals.length];
+    Long[] objs = new Long[vals.length];
+    for (int i = 0; i < vals.length; i++) {
+      mods[i] = ValueTuple.MODIFIED;
+      objs[i] = vals[i];
+    }
+    add(objs, mods);
+  }
+
+  /**
+   * Applies a sample to the equality sets and to {@link #expected}, and checks that they agree.
+   *
+   * @param vals the value of each variable, null if it is missing
+   * @param mods the modbit of each variable
+   */
+  private void add(Long[] vals, int[] mods) {
+    ValueTuple vt = ValueTuple.makeUninterned(vals.clone(), mods.clone());
+    PptSliceEquality view = ppt.equality_view;
+    assert view != null : "@AssumeAssertion(nullness): set by setupEquality";
+    List<List<Integer>> before = expected;
+    expected = split(expected, vals, mods);
+    assertEquals(!before.equals(expected), view.splits(vt));
+    view.add(vt, 1);
+    assertEquals(format(expected), sets());
+  }
+
+  /**
+   * Splits equality sets on a sample, as PptSliceEquality and Equality did before the sets were
+   * kept as a partition of the variables. Each variable whose value or modbit differs from its
+   * leader's leaves its set, and the variables that leave a set are grouped by value, with missing
+   * variables in a group of their own.
+   *
+   * @param sets the equality sets, each in index order
+   * @param vals the value of each variable, null if it is missing
+   * @param mods the modbit of each variable
+   * @return the equality sets after the sample, each in index order
+   */
+  private static List<List<Integer>> split(List<List<Integer>> sets, Long[] vals, int[] mods) {
+    List<List<Integer>> result = new ArrayList<>();
+    for (List<Integer> set : sets) {
+      int leader = set.get(0);
+      List<Integer> kept = new ArrayList<>();
+      Map<Object, List<Integer>> split_off = new HashMap<>();
+      for (int vi : set) {
+        if (vi == leader || (equal(vals[vi], vals[leader]) && mods[vi] == mods[leader])) {
+          kept.add(vi);
+        } else {
+          Object key = (mods[vi] == ValueTuple.MISSING_NONSENSICAL) ? "missing" : vals[vi];
+          split_off.computeIfAbsent(key, k -> new ArrayList<>()).add(vi);
+        }
+      }
+      result.add(kept);
+      result.addAll(split_off.values());
+    }
+    return result;
+  }
+
+  /**
+   * Returns true if two values are equal, or both missing.
+   *
+   * @param v1 a value, or null
+   * @param v2 a value, or null
+   * @return true if v1 and v2 are equal, or both null
+   */
+  private static boolean equal(Long v1, Long v2) {
+    return (v1 == null) ? (v2 == null) : v1.equals(v2);
+  }
+
+  /**
+   * Returns the equality sets of {@link #ppt}, ordered by their leaders.
+   *
+   * @return the equality sets, as lists of variable names
+   */
+  private String sets() {
+    PptSliceEquality view = ppt.equality_view;
+    assert view != null : "@AssumeAssertion(nullness): set by setupEquality";
+    List<List<Integer>> sets = new ArrayList<>();
+    for (Invariant inv : view.invs) {
+      Equality eq = (Equality) inv;
+      List<Integer> set = new ArrayList<>();
+      for (VarInfo vi : eq.getVars()) {
+        set.add(vi.varinfo_index);
+      }
+      assertEquals(eq.leader().varinfo_index, (int) set.get(0));
+      sets.add(set);
+    }
+    return format(sets);
+  }
+
+  /**
+   * Formats equality sets, ordered by their leaders.
+   *
+   * @param sets equality sets, each in index order
+   * @return the sets, as lists of variable names
+   */
+  private static String format(List<List<Integer>> sets) {
+    TreeMap<Integer, List<String>> by_leader = new TreeMap<>();
+    for (List<Integer> set : sets) {
+      List<String> names = new ArrayList<>();
+      for (int vi : set) {
+        names.add(NAMES[vi]);
+      }
+      by_leader.put(set.get(0), names);
+    }
+    StringBuilder result = new StringBuilder();
+    for (List<String> names : by_leader.values()) {
+      if (result.length() > 0) {
+        result.append(' ');
+      }
+      result.append(names);
+    }
+    return result.toString();
+  }
+
+  @Test
+  public void testNoSplit() {
+    add(1, 1, 1, 1, 1, 1);
+    add(2, 2, 2, 2, 2, 2);
+    assertEquals("[a, b, c, d, e, f]", sets());
+  }
+
+  @Test
+  public void testSplitIntoSeveral() {
+    add(1, 1, 1, 1, 1, 1);
+    add(1, 2, 2, 3, 3, 1);
+    assertEquals("[a, f] [b, c] [d, e]", sets());
+    add(4, 5, 5, 6, 6, 4);
+    assertEquals("[a, f] [b, c] [d, e]", sets());
+  }
+
+  @Test
+  public void testSplitOnModbit() {
+    add(5, 5, 5, 5, 5, 5);
+    int u = ValueTuple.UNMODIFIED;
+    int m = ValueTuple.MODIFIED;
+    add(new Long[] {5L, 5L, 5L, 5L, 5L, 5L}, new int[] {m, u, u, m, m, m});
+    assertEquals("[a, d, e, f] [b, c]", sets());
+  }
+
+  @Test
+  public void testSplitMissing() {
+    int m = ValueTuple.MODIFIED;
+    int n = ValueTuple.MISSING_NONSENSICAL;
+    add(new Long[] {1L, null, null, 1L, 2L, 2L}, new int[] {m, n, n, m, m, m});
+    assertEquals("[a, d] [b, c] [e, f]", sets());
+    // The set whose leader is missing splits when one of its members is present.
+    add(new Long[] {1L, null, 3L, 1L, 2L, 2L}, new int[] {m, n, m, m, m, m});
+    assertEquals("[a, d] [b] [c] [e, f]", sets());
+  }
+
+  @Test
+  public void testSplitToLeader() {
+    add(1, 1, 1, 1, 1, 1);
+    add(1, 2, 3, 4, 5, 6);
+    assertEquals("[a] [b] [c] [d] [e] [f]", sets());
+    add(7, 7, 7, 7, 7, 7);
+    assertEquals("[a] [b] [c] [d] [e] [f]", sets());
+  }
+
+  @Test
+  public void testSplitTwoSets() {
+    add(1, 1, 1, 2, 2, 2);
+    assertEquals("[a, b, c] [d, e, f]", sets());
+    add(1, 3, 1, 2, 4, 4);
+    assertEquals("[a, c] [b] [d] [e, f]", sets());
+    add(8, 9, 8, 10, 11, 11);
+    assertEquals("[a, c] [b] [d] [e, f]", sets());
+  }
+}
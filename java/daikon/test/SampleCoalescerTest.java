@@ -0,0 +1,239 @@
+package daikon.test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import daikon.FileIO;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.plumelib.util.StringsPlume;
+
+/**
+ * Tests that combining runs of identical samples (see {@link FileIO#dkconfig_coalesce_samples})
+ * gives the invariants that applying each sample separately does. In the trace, the fields of an
+ * object are nonsensical while it is null, and an index runs off the end of an array, so that the
+ * first sample of a run splits equality sets, including one whose leader is missing.
+ */
+public class SampleCoalescerTest {
+
+  /** The directory for the trace and invariant files. */
+  @ClassRule public static TemporaryFolder tmp = new TemporaryFolder();
+
+  /** The declarations of the trace. */
+  private static File decls = new File("runs.decls");
+
+  /** The samples of the trace. */
+  private static File dtrace = new File("runs.dtrace");
+
+  /** The invariants inferred from each sample separately. */
+  private static String expected = "";
+
+  /** The invariants inferred from each sample separately, without the dataflow hierarchy. */
+  private static String expected_nohierarchy = "";
+
+  /** Restores the default after each test. */
+  @After
+  public void tearDown() {
+    FileIO.dkconfig_coalesce_samples = 1;
+  }
+
+  /**
+   * Writes the trace, and infers its invariants from each sample separately.
+   *
+   * @throws IOException if there is trouble reading or writing a file
+   */
+  @BeforeClass
+  public static void write_trace() throws IOException {
+    String vars =
+        StringsPlume.joinLines(
+            "variable p",
+            "  var-kind variable",
+            "  dec-type P",
+            "  rep-type hashcode",
+            "variable p.x",
+            "  var-kind field x",
+            "  enclosing-var p",
+            "  dec-type int",
+            "  rep-type int",
+            "variable q",
+            "  var-kind variable",
+            "  dec-type P",
+            "  rep-type hashcode",
+            "variable q.x",
+            "  var-kind field x",
+            "  enclosing-var q",
+            "  dec-type int",
+            "  rep-type int",
+            "variable q.y",
+            "  var-kind field y",
+            "  enclosing-var q",
+            "  dec-type int",
+            "  rep-type int",
+            "variable a",
+            "  var-kind variable",
+            "  dec-type int[]",
+            "  rep-type hashcode",
+            "variable a[..]",
+            "  var-kind array",
+            "  enclosing-var a",
+            "  array 1",
+            "  dec-type int[]",
+            "  rep-type int[]",
+            "variable i",
+            "  var-kind variable",
+            "  dec-type int",
+            "  rep-type int",
+            "");
+    decls = tmp.newFile("runs.decls");
+    Files.write(
+        decls.toPath(),
+        StringsPlume.joinLines(
+                "decl-version 2.0",
+                "var-comparability none",
+                "",
+                "ppt P.m(P,P,int[],int):::ENTER",
+                "ppt-type enter",
+                vars,
+                "ppt P.m(P,P,int[],int):::EXIT1",
+                "ppt-type subexit",
+                vars)
+            .getBytes(UTF_8));
+
+    // Each row is a number of identical calls: p.x (or null), q.x and q.y (or null), a, i. While p
+    // and q are null, their fields are in one equality set, whose leader p.x is missing on the last
+    // calls, and q.x and q.y are not. Earlier calls differ in a and i only.
+    Object[][] calls = {
+      {2, null, null, null, "[1 2 3]", 3},
+      {1, null, null, null, "[1 2 3]", 1},
+      {4, null, null, null, "[4 4]", 1},
+      {1, null, null, null, "[]", 0},
+      {3, null, null, null, "[5 6]", 0},
+      {3, null, 5, 5, "[5 6]", 2},
+    };
+    StringBuilder text = new StringBuilder();
+    int nonce = 0;
+    for (Object[] call : calls) {
+      for (int n = 0; n < (Integer) call[0]; n++) {
+        for (String point : new String[] {"ENTER", "EXIT1"}) {
+          text.append(
+              sample(
+                  point,
+                  nonce,
+                  (Integer) call[1],
+                  (Integer) call[2],
+                  (Integer) call[3],
+                  (String) call[4],
+                  (Integer) call[5]));
+        }
+        nonce++;
+      }
+    }
+    dtrace = tmp.newFile("runs.dtrace");
+    Files.write(dtrace.toPath(), text.toString().getBytes(UTF_8));
+
+    expected = infer("separate.inv.gz");
+    expected_nohierarchy = infer("separate_nohierarchy.inv.gz", "--nohierarchy");
+    assertTrue(expected, expected.contains("q.x == q.y"));
+  }
+
+  /**
+   * Returns the text of one sample of P.m.
+   *
+   * @param point ENTER or EXIT1
+   * @param nonce the invocation nonce
+   * @param px the value of p.x, or null if p is null
+   * @param qx the value of q.x, or null if q is null
+   * @param qy the value of q.y, or null if q is null
+   * @param a the elements of a
+   * @param i the value of i
+   * @return the text of the sample
+   */
+  private static String sample(
+      String point,
+      int nonce,
+      Integer px,
+      Integer qx,
+      Integer qy,
+      String a,
+      int i) {
+    return StringsPlume.joinLines(
+        "P.m(P,P,int[],int):::" + point,
+        "this_invocation_nonce",
+        String.valueOf(nonce),
+        "p",
+        (px == null) ? "null" : "1001",
+        "1",
+        "p.x",
+        (px == null) ? "nonsensical" : String.valueOf(px),
+        (px == null) ? "2" : "1",
+        "q",
+        (qx == null) ? "null" : "1002",
+        "1",
+        "q.x",
+        (qx == null) ? "nonsensical" : String.valueOf(qx),
+        (qx == null) ? "2" : "1",
+        "q.y",
+        (qy == null) ? "nonsensical" : String.valueOf(qy),
+        (qy == null) ? "2" : "1",
+        "a",
+        "1003",
+        "1",
+        "a[..]",
+        a,
+        "1",
+        "i",
+        String.valueOf(i),
+        "1",
+        "",
+        "");
+  }
+
+  /**
+   * Infers the invariants of the trace.
+   *
+   * @param name the name of the invariant file to write
+   * @param options other options of Daikon
+   * @return the invariants
+   * @throws IOException if there is trouble reading or writing a file
+   */
+  private static String infer(String name, String... options) throws IOException {
+    File inv_file = new File(tmp.getRoot(), name);
+    String[] args = new String[options.length + 2];
+    System.arraycopy(options, 0, args, 0, options.length);
+    args[options.length] = decls.toString();
+    args[options.length + 1] = dtrace.toString();
+    Traces.daikon(inv_file, args);
+    return Traces.invariants(inv_file);
+  }
+
+  /** Each run of identical samples is applied at once. */
+  @Test
+  public void testCoalesced() throws IOException {
+    FileIO.dkconfig_coalesce_samples = 1000;
+    assertEquals(expected, infer("coalesced.inv.gz"));
+  }
+
+  /** Runs of identical samples are applied two samples at a time. */
+  @Test
+  public void testCoalescedPairs() throws IOException {
+    FileIO.dkconfig_coalesce_samples = 2;
+    assertEquals(expected, infer("pairs.inv.gz"));
+  }
+
+  /**
+   * Without the dataflow hierarchy, the exit's samples are also applied to the combined exit, with
+   * their counts.
+   */
+  @Test
+  public void testCoalescedNoHierarchy() throws IOException {
+    FileIO.dkconfig_coalesce_samples = 1000;
+    assertEquals(expected_nohierarchy, infer("coalesced_nohierarchy.inv.gz", "--nohierarchy"));
+  }
+}
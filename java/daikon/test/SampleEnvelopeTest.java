@@ -0,0 +1,156 @@
+package daikon.test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import daikon.PptSlice;
+import daikon.inv.SampleEnvelope;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.plumelib.util.StringsPlume;
+
+/**
+ * Tests that presenting the samples of a stable slice only to some of its invariants (see {@link
+ * PptSlice#dkconfig_stable_samples} and {@link SampleEnvelope}) gives the invariants that
+ * presenting every sample to every invariant does. In the trace, the slices over x and y become
+ * stable, and then a sample falls outside their envelopes: it raises the upper bound of x and turns
+ * x &lt; y into x &le; y, and later lowers the lower bound of x to zero.
+ */
+public class SampleEnvelopeTest {
+
+  /** The directory for the trace and invariant files. */
+  @ClassRule public static TemporaryFolder tmp = new TemporaryFolder();
+
+  /** The declarations of the trace. */
+  private static File decls = new File("envelope.decls");
+
+  /** The samples of the trace. */
+  private static File dtrace = new File("envelope.dtrace");
+
+  /** The invariants inferred with every sample presented to every invariant. */
+  private static String expected = "";
+
+  /** Restores the default after each test. */
+  @After
+  public void tearDown() {
+    PptSlice.dkconfig_stable_samples = 10;
+  }
+
+  /**
+   * Writes the trace, and infers its invariants with every sample presented to every invariant.
+   *
+   * @throws IOException if there is trouble reading or writing a file
+   */
+  @BeforeClass
+  public static void write_trace() throws IOException {
+    String vars =
+        StringsPlume.joinLines(
+            "variable x",
+            "  var-kind variable",
+            "  dec-type int",
+            "  rep-type int",
+            "variable y",
+            "  var-kind variable",
+            "  dec-type int",
+            "  rep-type int",
+            "");
+    decls = tmp.newFile("envelope.decls");
+    Files.write(
+        decls.toPath(),
+        StringsPlume.joinLines(
+                "decl-version 2.0",
+                "var-comparability none",
+                "",
+                "ppt P.f(int,int):::ENTER",
+                "ppt-type enter",
+                vars,
+                "ppt P.f(int,int):::EXIT1",
+                "ppt-type subexit",
+                vars)
+            .getBytes(UTF_8));
+
+    StringBuilder text = new StringBuilder();
+    int nonce = 0;
+    // Each run of calls keeps the slices stable; the call after it widens their envelopes.
+    int[][] widening = {{50, 50}, {0, 3}, {7, 9}};
+    for (int[] wide : widening) {
+      for (int i = 0; i < 40; i++) {
+        int x = 1 + i % 5;
+        text.append(call(nonce++, x, x + 1 + i % 2));
+      }
+      text.append(call(nonce++, wide[0], wide[1]));
+    }
+    dtrace = tmp.newFile("envelope.dtrace");
+    Files.write(dtrace.toPath(), text.toString().getBytes(UTF_8));
+
+    PptSlice.dkconfig_stable_samples = 0;
+    try {
+      expected = infer("unstable.inv.gz");
+    } finally {
+      PptSlice.dkconfig_stable_samples = 10;
+    }
+    assertTrue(expected, expected.contains("x <= y"));
+    assertTrue(expected, expected.contains("y >= 2"));
+  }
+
+  /**
+   * Returns the samples of the entry and exit of one call of P.f.
+   *
+   * @param nonce the invocation nonce
+   * @param x the value of x
+   * @param y the value of y
+   * @return the text of the samples
+   */
+  private static String call(int nonce, int x, int y) {
+    StringBuilder result = new StringBuilder();
+    for (String point : new String[] {"ENTER", "EXIT1"}) {
+      result.append(
+          StringsPlume.joinLines(
+              "P.f(int,int):::" + point,
+              "this_invocation_nonce",
+              String.valueOf(nonce),
+              "x",
+              String.valueOf(x),
+              "1",
+              "y",
+              String.valueOf(y),
+              "1",
+              "",
+              ""));
+    }
+    return result.toString();
+  }
+
+  /**
+   * Infers the invariants of the trace.
+   *
+   * @param name the name of the invariant file to write
+   * @return the invariants
+   * @throws IOException if there is trouble reading or writing a file
+   */
+  private static String infer(String name) throws IOException {
+    File inv_file = new File(tmp.getRoot(), name);
+    Traces.daikon(inv_file, decls.toString(), dtrace.toString());
+    return Traces.invariants(inv_file);
+  }
+
+  /** Slices become stable after the default number of samples. */
+  @Test
+  public void testDefault() throws IOException {
+    assertEquals(expected, infer("default.inv.gz"));
+  }
+
+  /** Slices become stable after every sample that changes none of their invariants. */
+  @Test
+  public void testOne() throws IOException {
+    PptSlice.dkconfig_stable_samples = 1;
+    assertEquals(expected, infer("one.inv.gz"));
+  }
+}
@@ -0,0 +1,191 @@
+package daikon.test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import daikon.Daikon;
+import daikon.FileIO;
+import daikon.PptConditional;
+import daikon.PptMap;
+import daikon.PptRelation;
+import daikon.PptTopLevel;
+import daikon.PrintInvariants;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Runs Daikon on the traces in daikon/test/traces, for tests that compare the results of different
+ * ways of inferring or merging invariants.
+ *
+ * <p>tcas.decls and tcas.dtrace.gz are the first 30 runs of the tcas trace of the Daikon system
+ * tests. Some exits of some procedures are never reached in some runs, and boolean procedures have
+ * conditional program points for their return values.
+ */
+final class Traces {
+  private Traces() {
+    throw new Error("do not instantiate");
+  }
+
+  /**
+   * Copies a trace in daikon/test/traces to a file.
+   *
+   * @param name the name of the trace file
+   * @param dir the directory to which to copy it
+   * @return the copy
+   * @throws IOException if there is trouble reading or writing the file
+   */
+  static File copy(String name, File dir) throws IOException {
+    File file = new File(dir, name);
+    try (InputStream in = Traces.class.getResourceAsStream("traces/" + name)) {
+      if (in == null) {
+        throw new Error("Cannot find daikon/test/traces/" + name);
+      }
+      Files.copy(in, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+    return file;
+  }
+
+  /**
+   * Splits a trace in daikon/test/traces into shards of consecutive runs, each of which starts
+   * with a sample of the given program point.
+   *
+   * @param name the name of the trace file, which is gzipped
+   * @param run_ppt the name of the program point whose samples start the runs
+   * @param num_shards the number of shards
+   * @param dir the directory to which to write the shards
+   * @return the shards
+   * @throws IOException if there is trouble reading or writing a file
+   */
+  static List<File> split(String name, String run_ppt, int num_shards, File dir)
+      throws IOException {
+    List<StringBuilder> runs = new ArrayList<>();
+    try (InputStream in = Traces.class.getResourceAsStream("traces/" + name)) {
+      if (in == null) {
+        throw new Error("Cannot find daikon/test/traces/" + name);
+      }
+      BufferedReader reader =
+          new BufferedReader(new InputStreamReader(new GZIPInputStream(in), UTF_8));
+      for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+        if (line.equals(run_ppt) || runs.isEmpty()) {
+          runs.add(new StringBuilder());
+        }
+        runs.get(runs.size() - 1).append(line).append('\n');
+      }
+    }
+
+    List<File> shards = new ArrayList<>();
+    for (int i = 0; i < num_shards; i++) {
+      File shard = new File(dir, "shard" + i + ".dtrace");
+      try (Writer out = Files.newBufferedWriter(shard.toPath(), UTF_8)) {
+        for (int r = runs.size() * i / num_shards; r < runs.size() * (i + 1) / num_shards; r++) {
+          out.append(runs.get(r));
+        }
+      }
+      shards.add(shard);
+    }
+    return shards;
+  }
+
+  /**
+   * Runs Daikon, writing the invariants to a file and not printing them.
+   *
+   * @param inv_file the file to which to write the invariants
+   * @param args the other arguments of Daikon: options, then .decls and .dtrace files
+   */
+  static void daikon(File inv_file, String... args) {
+    String[] all_args = new String[args.length + 3];
+    all_args[0] = "--no_text_output";
+    all_args[1] = "-o";
+    all_args[2] = inv_file.toString();
+    System.arraycopy(args, 0, all_args, 3, args.length);
+    boolean saved_quiet = Daikon.dkconfig_quiet;
+    Daikon.dkconfig_quiet = true;
+    // The format of the trace is determined when it is read.
+    FileIO.new_decl_format = null;
+    try {
+      Daikon.mainHelper(all_args);
+    } finally {
+      Daikon.dkconfig_quiet = saved_quiet;
+    }
+  }
+
+  /**
+   * Returns the invariants of an invariant file, as PrintInvariants prints them.
+   *
+   * @param inv_file an invariant file
+   * @return the text of the invariants
+   * @throws IOException if there is trouble reading the file
+   */
+  static String invariants(File inv_file) throws IOException {
+    return invariants(FileIO.read_serialized_pptmap(inv_file, false));
+  }
+
+  /**
+   * Returns the invariants of some program points, as PrintInvariants prints them.
+   *
+   * @param ppts the program points
+   * @return the text of the invariants
+   */
+  static String invariants(PptMap ppts) {
+    assert FileIO.new_decl_format != null
+        : "@AssumeAssertion(nullness): set when the program points were read";
+    StringWriter text = new StringWriter();
+    PrintWriter pw = new PrintWriter(text);
+    PrintInvariants.print_invariants(ppts, pw);
+    pw.flush();
+    return text.toString();
+  }
+
+  /**
+   * Returns a description of the program point hierarchy: for each of the given program points
+   * and each of its conditional program points, its parent and child relations, in order, and
+   * their variable maps.
+   *
+   * @param ppts the program points
+   * @return a description of the relations of the program points
+   */
+  static String hierarchy(Iterable<PptTopLevel> ppts) {
+    List<PptTopLevel> sorted = new ArrayList<>();
+    for (PptTopLevel ppt : ppts) {
+      sorted.add(ppt);
+    }
+    sorted.sort(Comparator.comparing(PptTopLevel::name));
+    StringBuilder result = new StringBuilder();
+    for (PptTopLevel ppt : sorted) {
+      describe_relations(ppt, result);
+      for (PptConditional cond : ppt.cond_iterable()) {
+        describe_relations(cond, result);
+      }
+    }
+    return result.toString();
+  }
+
+  /**
+   * Describes the parent and child relations of a program point.
+   *
+   * @param ppt a program point
+   * @param result where to append the description
+   */
+  private static void describe_relations(PptTopLevel ppt, StringBuilder result) {
+    result.append(ppt.name()).append('\n');
+    for (PptRelation rel : ppt.parents) {
+      result.append("  parent ").append(rel).append(' ');
+      result.append(rel.parent_to_child_var_string()).append('\n');
+    }
+    for (PptRelation rel : ppt.children) {
+      result.append("  child ").append(rel).append(' ');
+      result.append(rel.parent_to_child_var_string()).append('\n');
+    }
+  }
+}
@@ -0,0 +1,140 @@
+package daikon.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import daikon.inv.ValueSet;
+import org.junit.After;
+import org.junit.Test;
+
+/** Tests of {@link ValueSet}, with and without exact counts. */
+public class ValueSetTest {
+
+  /** Restores the default after each test. */
+  @After
+  public void tearDown() {
+    ValueSet.dkconfig_exact_counts = false;
+  }
+
+  /**
+   * Returns a new set of long arrays.
+   *
+   * @param exact whether the set counts exactly
+   * @return a new, empty set
+   */
+  private static ValueSet scalar_array_set(boolean exact) {
+    ValueSet.dkconfig_exact_counts = exact;
+    return new ValueSet.ValueSetScalarArray(44);
+  }
+
+  /**
+   * Returns a new set of longs.
+   *
+   * @param exact whether the set counts exactly
+   * @return a new, empty set
+   */
+  private static ValueSet.ValueSetScalar scalar_set(boolean exact) {
+    ValueSet.dkconfig_exact_counts = exact;
+    return new ValueSet.ValueSetScalar(44);
+  }
+
+  @Test
+  public void testHashCollision() {
+    // Arrays.hashCode(new long[] {0}) == Arrays.hashCode(new long[] {-1})
+    ValueSet approximate = scalar_array_set(false);
+    approximate.add((Object) new long[] {0});
+    approximate.add((Object) new long[] {-1});
+    assertEquals(1, approximate.size());
+
+    ValueSet exact = scalar_array_set(true);
+    exact.add((Object) new long[] {0});
+    exact.add((Object) new long[] {-1});
+    exact.add((Object) new long[] {0});
+    assertEquals(2, exact.size());
+  }
+
+  @Test
+  public void testLimit() {
+    ValueSet approximate = scalar_set(false);
+    ValueSet exact = scalar_set(true);
+    for (long i = 0; i < 44; i++) {
+      approximate.add((Object) i);
+      exact.add((Object) i);
+    }
+    assertEquals(44, approximate.size());
+    assertEquals(44, exact.size());
+    assertFalse(exact.repNulled());
+
+    for (long i = 44; i < 10000; i++) {
+      approximate.add((Object) i);
+      exact.add((Object) (i * 7919));
+    }
+    assertEquals(45, approximate.size());
+    assertTrue(exact.repNulled());
+    // The sketch's relative standard error is about 13%.
+    assertTrue(String.valueOf(exact.size()), Math.abs(exact.size() - 10000) < 4000);
+  }
+
+  @Test
+  public void testMerge() {
+    ValueSet small1 = scalar_set(true);
+    ValueSet small2 = scalar_set(true);
+    for (long i = 0; i < 10; i++) {
+      small1.add((Object) i);
+      small2.add((Object) (i + 5));
+    }
+    small1.add(small2);
+    assertEquals(15, small1.size());
+
+    ValueSet large1 = scalar_set(true);
+    ValueSet large2 = scalar_set(true);
+    for (long i = 0; i < 1000; i++) {
+      large1.add((Object) i);
+      large2.add((Object) (i + 1000));
+    }
+    small1.add(large1);
+    small1.add(large2);
+    assertTrue(String.valueOf(small1.size()), Math.abs(small1.size() - 2000) < 800);
+  }
+
+  @Test
+  public void testStatistics() {
+    ValueSet.ValueSetScalar vs = scalar_set(true);
+    vs.add((Object) 3L);
+    vs.add((Object) (-2L));
+    vs.add((Object) 3L);
+    assertEquals(-2, vs.min());
+    assertEquals(3, vs.max());
+    assertEquals(2, vs.size());
+  }
+
+  @Test
+  public void testContains() {
+    for (boolean exact : new boolean[] {false, true}) {
+      ValueSet vs = scalar_set(exact);
+      for (long i = 0; i < 44; i++) {
+        vs.add((Object) (i * 3));
+      }
+      for (long i = 0; i < 132; i++) {
+        assertEquals(i % 3 == 0, vs.contains(i));
+      }
+    }
+
+    // Once the count is estimated, no value that was added is reported missing.
+    ValueSet sketch = scalar_set(true);
+    for (long i = 0; i < 1000; i++) {
+      sketch.add((Object) (i * 3));
+    }
+    assertTrue(sketch.repNulled());
+    int found = 0;
+    for (long i = 0; i < 3000; i++) {
+      if (i % 3 == 0) {
+        assertTrue(sketch.contains(i));
+      } else if (sketch.contains(i)) {
+        found++;
+      }
+    }
+    assertTrue(String.valueOf(found), found < 2000);
+  }
+}
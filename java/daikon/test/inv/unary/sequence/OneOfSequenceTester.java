@@ -5,6 +5,7 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import daikon.FileIO;
+import daikon.InternPool;
 import daikon.PptSlice;
 import daikon.PptSlice1;
 import daikon.PptTopLevel;
@@ -18,7 +19,6 @@ import junit.framework.*;
 import org.checkerframework.checker.nullness.qual.NonNull;
 import org.junit.BeforeClass;
 import org.junit.Test;
-import org.plumelib.util.Intern;
 
 @SuppressWarnings("nullness") // testing code
 public class OneOfSequenceTester {
@@ -66,8 +66,8 @@ public class OneOfSequenceTester {
     @NonNull OneOfSequence inv1 = (OneOfSequence) OneOfSequence.get_proto().instantiate(slicex);
     @NonNull OneOfSequence inv2 = (OneOfSequence) OneOfSequence.get_proto().instantiate(slicex);
 
-    inv1.add_modified(Intern.intern(new long[] {19, 23}), DOESNT_MATTER);
-    inv2.add_modified(Intern.intern(new long[] {91, 0}), DOESNT_MATTER);
+    inv1.add_modified(InternPool.intern(new long[] {19, 23}), DOESNT_MATTER);
+    inv2.add_modified(InternPool.intern(new long[] {91, 0}), DOESNT_MATTER);
 
     assertFalse(inv1.isSameFormula(inv2));
   }
@@ -77,8 +77,8 @@ public class OneOfSequenceTester {
     @NonNull OneOfSequence inv1 = (OneOfSequence) OneOfSequence.get_proto().instantiate(slicex);
     @NonNull OneOfSequence inv2 = (OneOfSequence) OneOfSequence.get_proto().instantiate(slicex);
 
-    inv1.add_modified(Intern.intern(new long[] {19, 23}), DOESNT_MATTER);
-    inv2.add_modified(Intern.intern(new long[] {91, 32}), DOESNT_MATTER);
+    inv1.add_modified(InternPool.intern(new long[] {19, 23}), DOESNT_MATTER);
+    inv2.add_modified(InternPool.intern(new long[] {91, 32}), DOESNT_MATTER);
 
     assertTrue(inv1.isSameFormula(inv2));
   }
@@ -88,8 +88,8 @@ public class OneOfSequenceTester {
     @NonNull OneOfSequence inv1 = (OneOfSequence) OneOfSequence.get_proto().instantiate(slicex);
     @NonNull OneOfSequence inv2 = (OneOfSequence) OneOfSequence.get_proto().instantiate(slicex);
 
-    inv1.add_modified(Intern.intern(new long[] {19, 0}), DOESNT_MATTER);
-    inv2.add_modified(Intern.intern(new long[] {91, 0}), DOESNT_MATTER);
+    inv1.add_modified(InternPool.intern(new long[] {19, 0}), DOESNT_MATTER);
+    inv2.add_modified(InternPool.intern(new long[] {91, 0}), DOESNT_MATTER);
 
     assertTrue(inv1.isSameFormula(inv2));
   }
@@ -99,8 +99,8 @@ public class OneOfSequenceTester {
     @NonNull OneOfSequence inv1 = (OneOfSequence) OneOfSequence.get_proto().instantiate(slicex);
     @NonNull OneOfSequence inv2 = (OneOfSequence) OneOfSequence.get_proto().instantiate(slicex);
 
-    inv1.add_modified(Intern.intern(new long[] {0, 0}), DOESNT_MATTER);
-    inv2.add_modified(Intern.intern(new long[] {0, 0}), DOESNT_MATTER);
+    inv1.add_modified(InternPool.intern(new long[] {0, 0}), DOESNT_MATTER);
+    inv2.add_modified(InternPool.intern(new long[] {0, 0}), DOESNT_MATTER);
 
     assertTrue(inv1.isSameFormula(inv2));
   }
@@ -110,8 +110,8 @@ public class OneOfSequenceTester {
     @NonNull OneOfSequence inv1 = (OneOfSequence) OneOfSequence.get_proto().instantiate(slicex);
     @NonNull OneOfSequence inv2 = (OneOfSequence) OneOfSequence.get_proto().instantiate(slicex);
 
-    inv1.add_modified(Intern.intern(new long[] {0, 0, 0}), DOESNT_MATTER);
-    inv2.add_modified(Intern.intern(new long[] {0, 0}), DOESNT_MATTER);
+    inv1.add_modified(InternPool.intern(new long[] {0, 0, 0}), DOESNT_MATTER);
+    inv2.add_modified(InternPool.intern(new long[] {0, 0}), DOESNT_MATTER);
 
     assertFalse(inv1.isSameFormula(inv2));
   }
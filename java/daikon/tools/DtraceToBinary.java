@@ -0,0 +1,285 @@
+package daikon.tools;
+
+import daikon.BinaryDtrace;
+import daikon.Daikon;
+import daikon.FileIO;
+import daikon.PptMap;
+import daikon.PptTopLevel;
+import daikon.ValueTuple;
+import daikon.VarInfo;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.LineNumberReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.plumelib.util.FilesPlume;
+import org.plumelib.util.StringsPlume;
+
+/**
+ * Converts a data trace file from the textual format to the binary format (see {@link
+ * BinaryDtrace}). Declarations, comments, and other records that are not samples are copied
+ * unchanged into TEXT records; each sample is parsed by Daikon and written as a binary record.
+ * Invoke it like:
+ *
+ * <pre>
+ *   java daikon.tools.DtraceToBinary StackArTester.dtrace.gz StackArTester.bin.dtrace.gz
+ * </pre>
+ *
+ * If the declarations are in separate files, as Kvasir writes them, give them first, as for Daikon:
+ *
+ * <pre>
+ *   java daikon.tools.DtraceToBinary tcas.decls tcas.dtrace tcas.bin.dtrace.gz
+ * </pre>
+ *
+ * The declaration files are not copied, so they must also be given to Daikon with the output. The
+ * output is compressed if its name ends in ".gz". Daikon reads either format, so the output can be
+ * used in place of the input.
+ */
+public class DtraceToBinary {
+
+  /** The system-specific line separator. */
+  private static final String lineSep = System.lineSeparator();
+
+  /** The usage message for this program. */
+  private static String usage =
+      StringsPlume.joinLines(
+          "Usage: DtraceToBinary [DECLS]... INPUT OUTPUT",
+          "Converts data trace file INPUT to Daikon's binary format, writing OUTPUT.",
+          "The DECLS files hold declarations that INPUT does not contain.",
+          "OUTPUT is compressed if its name ends in .gz.");
+
+  public static void main(String[] args) {
+    try {
+      mainHelper(args);
+    } catch (Daikon.DaikonTerminationException e) {
+      Daikon.handleDaikonTerminationException(e);
+    }
+  }
+
+  /**
+   * This does the work of {@link #main(String[])}, but it never calls System.exit, so it is
+   * appropriate to be called progrmmatically.
+   *
+   * @param args command-line arguments, like those of {@link #main}
+   */
+  public static void mainHelper(final String[] args) {
+    List<File> decls_files = new ArrayList<>();
+    List<String> files = new ArrayList<>();
+    for (String arg : args) {
+      if (arg.indexOf(".decls") != -1) {
+        decls_files.add(new File(arg));
+      } else {
+        files.add(arg);
+      }
+    }
+    if (files.size() != 2) {
+      throw new Daikon.UserError(usage);
+    }
+    try {
+      convert(decls_files, files.get(0), files.get(1));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Converts a textual data trace file to the binary format. If the conversion fails, the output
+   * file is deleted.
+   *
+   * @param decls_files declaration files to read before the data trace file
+   * @param input the name of the textual data trace file
+   * @param output the name of the binary data trace file to write
+   * @throws IOException if there is trouble reading or writing
+   */
+  public static void convert(List<File> decls_files, String input, String output)
+      throws IOException {
+    if (BinaryDtrace.is_binary(input)) {
+      throw new Daikon.UserError(input + " is already a binary data trace file");
+    }
+    boolean converted = false;
+    try {
+      write_binary(decls_files, input, output);
+      converted = true;
+    } finally {
+      if (!converted) {
+        // A partial output file would look like a truncated trace.
+        new File(output).delete();
+      }
+    }
+  }
+
+  /**
+   * Does the work of {@link #convert}, reading the input once. Daikon parses the records as they
+   * are read, and each record that is not a sample is copied from the text that was read for it.
+   *
+   * @param decls_files declaration files to read before the data trace file
+   * @param input the name of the textual data trace file
+   * @param output the name of the binary data trace file to write
+   * @throws IOException if there is trouble reading or writing
+   */
+  private static void write_binary(List<File> decls_files, String input, String output)
+      throws IOException {
+    FileIO.resetNewDeclFormat();
+    PptMap ppts = FileIO.read_declaration_files(decls_files);
+    RecordingReader text = new RecordingReader(FilesPlume.newFileReader(input));
+    try (FileIO.ParseState state = new FileIO.ParseState(input, text, ppts);
+        BinaryDtrace.Writer writer = new BinaryDtrace.Writer(open_output(output))) {
+      Writer text_out = writer.text();
+      Map<PptTopLevel, Integer> ppt_ids = new HashMap<>();
+      while (true) {
+        FileIO.read_data_trace_record_setstate(state);
+        FileIO.RecordType rtype = state.rtype;
+        String record = text.take_text();
+        if (rtype != FileIO.RecordType.SAMPLE) {
+          text_out.write(record);
+        }
+        if (rtype == FileIO.RecordType.EOF || rtype == FileIO.RecordType.TRUNCATED) {
+          break;
+        }
+        if (rtype == FileIO.RecordType.SAMPLE) {
+          PptTopLevel ppt = state.ppt;
+          ValueTuple vt = state.vt;
+          assert ppt != null && vt != null
+              : "@AssumeAssertion(nullness): dependent: set for samples";
+          write_sample(writer, ppt_ids, ppt, vt, state.nonce);
+        }
+      }
+    }
+  }
+
+  /**
+   * Opens the output file, compressing it if its name ends in ".gz".
+   *
+   * @param output the name of the file
+   * @return a stream that writes the file
+   * @throws IOException if the file cannot be created
+   */
+  private static OutputStream open_output(String output) throws IOException {
+    OutputStream os = new FileOutputStream(output);
+    if (output.endsWith(".gz")) {
+      try {
+        os = new GZIPOutputStream(os);
+      } catch (IOException e) {
+        os.close();
+        throw e;
+      }
+    }
+    return new BufferedOutputStream(os);
+  }
+
+  /**
+   * A reader that keeps the lines it has read, so that the text of a record can be copied after
+   * Daikon has parsed it. Lines that are read again after {@link #reset} are kept only once.
+   */
+  private static class RecordingReader extends LineNumberReader {
+
+    /** The lines read since {@link #take_text} was last called, each with a line separator. */
+    private final StringBuilder text = new StringBuilder();
+
+    /** The length of {@link #text} when {@link #mark} was last called. */
+    private int marked_length = 0;
+
+    /**
+     * Creates a RecordingReader.
+     *
+     * @param in the reader of the file's characters
+     */
+    RecordingReader(Reader in) {
+      super(in);
+    }
+
+    @Override
+    public @Nullable String readLine() throws IOException {
+      String line = super.readLine();
+      if (line != null) {
+        text.append(line).append(lineSep);
+      }
+      return line;
+    }
+
+    @Override
+    public void mark(int readAheadLimit) throws IOException {
+      super.mark(readAheadLimit);
+      marked_length = text.length();
+    }
+
+    @Override
+    public void reset() throws IOException {
+      super.reset();
+      text.setLength(marked_length);
+    }
+
+    /**
+     * Returns the lines read since this method was last called, and forgets them.
+     *
+     * @return the text of the lines, each followed by a line separator
+     */
+    String take_text() {
+      String result = text.toString();
+      text.setLength(0);
+      marked_length = 0;
+      return result;
+    }
+  }
+
+  /**
+   * Writes one sample, preceded by the variable list of its program point if this is the program
+   * point's first sample.
+   */
+  private static void write_sample(
+      BinaryDtrace.Writer writer,
+      Map<PptTopLevel, Integer> ppt_ids,
+      PptTopLevel ppt,
+      ValueTuple vt,
+      @Nullable Integer nonce)
+      throws IOException {
+    // The variables in the trace are the first num_tracevars that are not static constants.
+    VarInfo[] trace_vars = new VarInfo[ppt.num_tracevars];
+    int num_vars = 0;
+    for (VarInfo vi : ppt.var_infos) {
+      if (num_vars == trace_vars.length) {
+        break;
+      }
+      if (!vi.is_static_constant) {
+        trace_vars[num_vars++] = vi;
+      }
+    }
+
+    Integer id = ppt_ids.get(ppt);
+    if (id == null) {
+      String[] names = new String[num_vars];
+      int[] types = new int[num_vars];
+      for (int i = 0; i < num_vars; i++) {
+        names[i] = trace_vars[i].str_name();
+        types[i] = BinaryDtrace.type_code(trace_vars[i].rep_type.format());
+        if (types[i] == -1) {
+          throw new Daikon.UserError(
+              String.format(
+                  "Variable %s of program point %s has type %s, which the binary format does not"
+                      + " support",
+                  names[i], ppt.name(), trace_vars[i].rep_type));
+        }
+      }
+      id = writer.declare_ppt(ppt.name(), names, types);
+      ppt_ids.put(ppt, id);
+    }
+
+    @Nullable Object[] vals = new @Nullable Object[num_vars];
+    int[] mods = new int[num_vars];
+    for (int i = 0; i < num_vars; i++) {
+      vals[i] = vt.vals[trace_vars[i].value_index];
+      mods[i] = vt.mods[trace_vars[i].value_index];
+    }
+    writer.write_sample(id, nonce, vals, mods);
+  }
+}
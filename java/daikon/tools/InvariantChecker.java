@@ -26,11 +26,16 @@ import java.io.OptionalDataException;
 import java.io.PrintStream;
 import java.io.StreamCorruptedException;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.logging.Logger;
 import org.checkerframework.checker.mustcall.qual.Owning;
 import org.checkerframework.checker.nullness.qual.Nullable;
@@ -55,6 +60,7 @@ public class InvariantChecker {
   private static final String conf_SWITCH = "conf";
   private static final String filter_SWITCH = "filter";
   private static final String verbose_SWITCH = "verbose";
+  private static final String threads_SWITCH = "threads";
 
   /** The usage message for this program. */
   private static String usage =
@@ -71,6 +77,8 @@ public class InvariantChecker {
           "      We output how many invariants failed for each invariant file. We check for"
               + " failure against any sample in any dtrace file.",
           "  --" + verbose_SWITCH + " print all failing samples",
+          "  --" + threads_SWITCH + " N",
+          "      Check the samples of different program points on N threads",
           "  --" + Daikon.config_option_SWITCH + " config_var=val",
           "      Sets the specified configuration variable.  ",
           "  --" + Daikon.debugAll_SWITCH,
@@ -89,6 +97,13 @@ public class InvariantChecker {
   static boolean doFilter;
   static boolean doConf;
   static boolean quiet = true;
+
+  /**
+   * The number of threads that check samples. If greater than 1, the samples of each method are
+   * checked by one of a pool of threads, and the results are the same as for a single thread.
+   */
+  static int threads = 1;
+
   static HashSet<Invariant> failedInvariants = new HashSet<>(); // Yoav added
   static HashSet<Invariant> testedInvariants = new HashSet<>(); // Yoav added
   static HashSet<Invariant> activeInvariants = new HashSet<>(); // Yoav added
@@ -117,6 +132,7 @@ public class InvariantChecker {
       throws FileNotFoundException, StreamCorruptedException, OptionalDataException, IOException,
           ClassNotFoundException {
     daikon.LogHelper.setupLogs(INFO);
+    reset_state();
 
     LongOpt[] longopts =
         new LongOpt[] {
@@ -126,6 +142,7 @@ public class InvariantChecker {
           new LongOpt(conf_SWITCH, LongOpt.NO_ARGUMENT, null, 0),
           new LongOpt(filter_SWITCH, LongOpt.NO_ARGUMENT, null, 0),
           new LongOpt(verbose_SWITCH, LongOpt.NO_ARGUMENT, null, 0),
+          new LongOpt(threads_SWITCH, LongOpt.REQUIRED_ARGUMENT, null, 0),
           new LongOpt(Daikon.debugAll_SWITCH, LongOpt.NO_ARGUMENT, null, 0),
           new LongOpt(Daikon.debug_SWITCH, LongOpt.REQUIRED_ARGUMENT, null, 0),
           new LongOpt(Daikon.ppt_regexp_SWITCH, LongOpt.REQUIRED_ARGUMENT, null, 0),
@@ -147,6 +164,16 @@ public class InvariantChecker {
             doFilter = true;
           } else if (verbose_SWITCH.equals(option_name)) {
             quiet = false;
+          } else if (threads_SWITCH.equals(option_name)) {
+            String threads_string = Daikon.getOptarg(g);
+            try {
+              threads = Integer.parseInt(threads_string);
+            } catch (NumberFormatException e) {
+              throw new Daikon.UserError("Bad number of threads: " + threads_string);
+            }
+            if (threads < 1) {
+              throw new Daikon.UserError("Bad number of threads: " + threads_string);
+            }
           } else if (dir_SWITCH.equals(option_name)) {
             dir_file = new File(Daikon.getOptarg(g));
             if (!dir_file.exists() || !dir_file.isDirectory()) {
@@ -291,6 +318,23 @@ public class InvariantChecker {
     }
   }
 
+  /** Resets the options and results of a previous call of {@link #mainHelper}. */
+  private static void reset_state() {
+    dtrace_files.clear();
+    output_stream = System.out;
+    error_cnt = 0;
+    sample_cnt = 0;
+    dir_file = null;
+    doFilter = false;
+    doConf = false;
+    quiet = true;
+    threads = 1;
+    failedInvariants.clear();
+    testedInvariants.clear();
+    activeInvariants.clear();
+    outputComma.clear();
+  }
+
   private static String toPercentage(int portion, int total) {
     double s = portion * 100;
     return String.format("%.2f", s / total) + "%";
@@ -332,12 +376,17 @@ public class InvariantChecker {
     }
 
     // Read and process the data trace files
-    FileIO.Processor processor = new InvariantCheckProcessor();
+    InvariantCheckProcessor processor = new InvariantCheckProcessor();
 
     Daikon.FileIOProgress progress = new Daikon.FileIOProgress();
     progress.start();
     progress.clear();
-    FileIO.read_data_trace_files(dtrace_files, ppts, processor, false);
+    try {
+      FileIO.read_data_trace_files(dtrace_files, ppts, processor, false);
+      processor.finish();
+    } finally {
+      processor.close();
+    }
     progress.shouldStop = true;
     System.out.println();
     System.out.printf(
@@ -366,6 +415,8 @@ public class InvariantChecker {
   static final class EnterCall {
 
     public PptTopLevel ppt;
+
+    /** The sample; its derived variables are computed by the thread that checks ppt. */
     public ValueTuple vt;
 
     public EnterCall(PptTopLevel ppt, ValueTuple vt) {
@@ -375,73 +426,159 @@ public class InvariantChecker {
     }
   }
 
-  public static class InvariantCheckProcessor extends FileIO.Processor {
+  /** A sample record read from a dtrace file, to be checked against the invariants. */
+  static final class Sample {
+    /** The program point of the record. */
+    final PptTopLevel ppt;
 
-    Map<Integer, EnterCall> call_map = new LinkedHashMap<>();
+    /** The sample, including orig variables but not derived variables. */
+    final ValueTuple vt;
 
     /**
-     * process the sample by checking it against each existing invariant and issuing an error if any
-     * invariant is falsified or weakened.
+     * For an enter record, where to store the sample once its derived variables are computed; for
+     * an exit record, the matching enter record, or null if there is none.
      */
-    @RequiresNonNull("daikon.FileIO.data_trace_state")
-    @Override
-    public void process_sample(
-        PptMap all_ppts, PptTopLevel ppt, ValueTuple vt, @Nullable Integer nonce) {
+    final @Nullable EnterCall enter;
 
-      debug.fine("processing sample from: " + ppt.name);
+    /** The combined exit to which the sample of a numbered exit is also applied, or null. */
+    final @Nullable PptTopLevel combined_exit;
 
-      // Add orig and derived variables
-      FileIO.compute_orig_variables(ppt, vt.vals, vt.mods, nonce);
-      FileIO.compute_derived_variables(ppt, vt.vals, vt.mods);
+    /** The nonce of the record. */
+    final @Nullable Integer nonce;
+
+    /** The position of the record among those read, which orders the messages. */
+    final long seq;
+
+    /** The line number of the record, for messages. */
+    final int linenum;
+
+    /** The file of the record, for messages. */
+    final String filename;
+
+    Sample(
+        PptTopLevel ppt,
+        ValueTuple vt,
+        @Nullable EnterCall enter,
+        @Nullable PptTopLevel combined_exit,
+        @Nullable Integer nonce,
+        long seq,
+        int linenum,
+        String filename) {
+      this.ppt = ppt;
+      this.vt = vt;
+      this.enter = enter;
+      this.combined_exit = combined_exit;
+      this.nonce = nonce;
+      this.seq = seq;
+      this.linenum = linenum;
+      this.filename = filename;
+    }
+  }
+
+  /** A message about a sample, to be printed once the messages of earlier samples are printed. */
+  static final class Message {
+    /** The position of the record whose checking produced the message. */
+    final long seq;
+
+    /** Where to print the message. */
+    final PrintStream stream;
+
+    /** The message. */
+    final String text;
+
+    Message(long seq, PrintStream stream, String text) {
+      this.seq = seq;
+      this.stream = stream;
+      this.text = text;
+    }
+  }
+
+  /**
+   * Checks samples against the invariants of some program points, and records the results. All the
+   * samples of a program point are checked by the same SampleChecker, in file order.
+   */
+  static final class SampleChecker {
+    /** The invariants checked against at least one sample. */
+    final Set<Invariant> tested = new HashSet<>();
+
+    /** The invariants falsified or weakened by a sample. */
+    final Set<Invariant> failed = new HashSet<>();
+
+    /** The number of samples that falsified or weakened an invariant. */
+    int errors = 0;
+
+    /** The number of times an invariant was checked against a sample. */
+    int samples = 0;
+
+    /** The messages, if they are held back to be printed in order; if null, they are printed. */
+    final @Nullable List<Message> messages;
+
+    /**
+     * Creates a SampleChecker.
+     *
+     * @param hold_messages if true, messages are stored in {@link #messages} rather than printed
+     */
+    SampleChecker(boolean hold_messages) {
+      this.messages = hold_messages ? new ArrayList<>() : null;
+    }
+
+    /** Prints a message, or stores it if messages are held back. */
+    void message(Sample sample, PrintStream stream, String text) {
+      if (messages == null) {
+        stream.println(text);
+      } else {
+        messages.add(new Message(sample.seq, stream, text));
+      }
+    }
+
+    /**
+     * Computes the derived variables of a sample, and checks it (and, for an exit, the sample of
+     * the matching enter) against the invariants.
+     */
+    void check(Sample sample) {
+      PptTopLevel ppt = sample.ppt;
+      FileIO.compute_derived_variables(ppt, sample.vt.vals, sample.vt.mods);
 
       // Intern the sample
-      vt = new ValueTuple(vt.vals, vt.mods);
+      ValueTuple vt = new ValueTuple(sample.vt.vals, sample.vt.mods);
 
       // If this is an enter point, just remember it for later
       if (ppt.ppt_name.isEnterPoint()) {
-        assert nonce != null : "@AssumeAssertion(nullness): nonce exists for enter & exit points";
-        if (dir_file != null) {
-          // Yoav: I had to do a hack to handle the case that several dtrace files are concatenated
-          // together, and Sung's dtrace files have unterminated calls, and when concatenating two
-          // files you can have the same nonce.
-          // So I have to remove the nonce found from the call_map.
-          call_map.remove(nonce);
-        } else {
-          assert call_map.get(nonce) == null;
-        }
-        call_map.put(nonce, new EnterCall(ppt, vt));
+        assert sample.enter != null : "@AssumeAssertion(nullness): enter records have an EnterCall";
+        sample.enter.vt = vt;
         debug.fine("Skipping enter sample");
         return;
       }
 
       // If this is an exit point, process the saved enter point
       if (ppt.ppt_name.isExitPoint()) {
-        assert nonce != null : "@AssumeAssertion(nullness): nonce exists for enter & exit points";
-        EnterCall ec = call_map.get(nonce);
+        EnterCall ec = sample.enter;
         if (ec != null) {
-          call_map.remove(nonce);
           debug.fine("Processing enter sample from " + ec.ppt.name);
-          add(ec.ppt, ec.vt, all_ppts);
+          add(ec.ppt, ec.vt, null, sample);
         } else { // didn't find the enter
           if (!quiet) {
-            System.out.printf("couldn't find enter for nonce %d at ppt %s%n", nonce, ppt.name());
+            message(
+                sample,
+                System.out,
+                String.format("couldn't find enter for nonce %d at ppt %s", sample.nonce, ppt.name()));
           }
           return;
         }
       }
 
-      add(ppt, vt, all_ppts);
+      add(ppt, vt, sample.combined_exit, sample);
     }
 
-    @RequiresNonNull("daikon.FileIO.data_trace_state")
-    private void add(PptTopLevel ppt, ValueTuple vt, PptMap all_ppts) {
+    private void add(
+        PptTopLevel ppt, ValueTuple vt, @Nullable PptTopLevel combined_exit, Sample sample) {
       // Add the sample to any splitters
       if (ppt.has_splitters()) {
         assert ppt.splitters != null; // because ppt.has_splitters() = true
         for (PptSplitter ppt_split : ppt.splitters) {
           PptConditional ppt_cond = ppt_split.choose_conditional(vt);
           if (ppt_cond != null) {
-            add(ppt_cond, vt, all_ppts);
+            add(ppt_cond, vt, null, sample);
           } else {
             debug.fine(": sample doesn't pick conditional");
           }
@@ -449,12 +586,9 @@ public class InvariantChecker {
       }
 
       // if this is a numbered exit, apply to the combined exit as well
-      if (!(ppt instanceof PptConditional) && ppt.ppt_name.isNumberedExitPoint()) {
-        PptTopLevel parent = all_ppts.get(ppt.ppt_name.makeExit());
-        if (parent != null) {
-          parent.get_missingOutOfBounds(ppt, vt);
-          add(parent, vt, all_ppts);
-        }
+      if (combined_exit != null) {
+        combined_exit.get_missingOutOfBounds(ppt, vt);
+        add(combined_exit, vt, null, sample);
       }
 
       // If the point has no variables, skip it
@@ -506,24 +640,27 @@ public class InvariantChecker {
             continue;
           }
 
-          // Yoav added
-          if (!activeInvariants.contains(inv)) {
+          // Yoav added.  An invariant that failed is no longer active; it is removed from
+          // activeInvariants, which other threads may be reading, when checking is done.
+          if (!activeInvariants.contains(inv) || failed.contains(inv)) {
             // System.out.printf("skipping invariant %s:%s%n", inv.ppt.name(),
             //                   inv.format());
             continue;
           }
 
           // String invRep = invariant2str(ppt, inv);
-          testedInvariants.add(inv);
+          tested.add(inv);
 
           // Store string representation of original invariant for verbose mode
           String invRep = quiet ? null : inv.format();
 
           InvariantStatus status = inv.add_sample(vt, 1);
-          sample_cnt++;
+          samples++;
           if (status != InvariantStatus.NO_CHANGE) {
             if (!quiet) {
-              output_stream.println(
+              message(
+                  sample,
+                  output_stream,
                   "At ppt "
                       + ppt.name
                       + ", Invariant '"
@@ -531,15 +668,299 @@ public class InvariantChecker {
                       + "' invalidated by sample "
                       + Debug.toString(slice.var_infos, vt)
                       + "at line "
-                      + FileIO.get_linenum()
+                      + sample.linenum
                       + " in file "
-                      + FileIO.data_trace_state.filename);
+                      + sample.filename);
+            }
+            failed.add(inv);
+            errors++;
+          }
+        }
+      }
+    }
+
+    /** Adds the results of this to the totals. */
+    void add_to_totals() {
+      testedInvariants.addAll(tested);
+      failedInvariants.addAll(failed);
+      activeInvariants.removeAll(failed);
+      error_cnt += errors;
+      sample_cnt += samples;
+    }
+  }
+
+  public static class InvariantCheckProcessor extends FileIO.Processor {
+
+    Map<Integer, EnterCall> call_map = new LinkedHashMap<>();
+
+    /** Checks the samples on this thread, if there is one thread; else see {@link #parallel}. */
+    final SampleChecker checker;
+
+    /** Checks the samples on several threads (see {@link #threads}), or null. */
+    final @Nullable ParallelChecker parallel;
+
+    /** The number of sample records read. */
+    long seq = 0;
+
+    public InvariantCheckProcessor() {
+      checker = new SampleChecker(threads > 1);
+      parallel = (threads > 1) ? new ParallelChecker(threads) : null;
+    }
+
+    /**
+     * process the sample by checking it against each existing invariant and issuing an error if any
+     * invariant is falsified or weakened.
+     */
+    @RequiresNonNull("daikon.FileIO.data_trace_state")
+    @Override
+    public void process_sample(
+        PptMap all_ppts, PptTopLevel ppt, ValueTuple vt, @Nullable Integer nonce) {
+
+      debug.fine("processing sample from: " + ppt.name);
+
+      // Add orig variables.  The derived variables are computed when the sample is checked.
+      FileIO.compute_orig_variables(ppt, vt.vals, vt.mods, nonce);
+
+      // Matching enters and exits, like computing orig variables, depends on the order of the
+      // records, so it is done here, before the samples are handed to other threads.
+      EnterCall enter = null;
+      if (ppt.ppt_name.isEnterPoint()) {
+        assert nonce != null : "@AssumeAssertion(nullness): nonce exists for enter & exit points";
+        if (dir_file != null) {
+          // Yoav: I had to do a hack to handle the case that several dtrace files are concatenated
+          // together, and Sung's dtrace files have unterminated calls, and when concatenating two
+          // files you can have the same nonce.
+          // So I have to remove the nonce found from the call_map.
+          call_map.remove(nonce);
+        } else {
+          assert call_map.get(nonce) == null;
+        }
+        enter = new EnterCall(ppt, vt);
+        call_map.put(nonce, enter);
+      } else if (ppt.ppt_name.isExitPoint()) {
+        assert nonce != null : "@AssumeAssertion(nullness): nonce exists for enter & exit points";
+        enter = call_map.remove(nonce);
+      }
+
+      PptTopLevel combined_exit = null;
+      if (!(ppt instanceof PptConditional) && ppt.ppt_name.isNumberedExitPoint()) {
+        combined_exit = all_ppts.get(ppt.ppt_name.makeExit());
+      }
+
+      Sample sample =
+          new Sample(
+              ppt,
+              vt,
+              enter,
+              combined_exit,
+              nonce,
+              seq++,
+              FileIO.get_linenum(),
+              FileIO.data_trace_state.filename);
+      if (parallel == null) {
+        checker.check(sample);
+      } else if (enter != null
+          && !ppt.ppt_name.isEnterPoint()
+          && parallel.worker_of(enter.ppt) != parallel.worker_of(ppt)) {
+        // The enter belongs to another method (which happens only if nonces are reused), so it is
+        // checked by another thread.  Check the exit here, once every other sample is checked.
+        parallel.await_idle();
+        checker.check(sample);
+      } else {
+        parallel.add_sample(sample);
+      }
+    }
+
+    /**
+     * Waits for every sample to be checked, prints the held-back messages in the order of their
+     * records, and adds the results to the totals.
+     */
+    void finish() {
+      List<SampleChecker> checkers = new ArrayList<>();
+      checkers.add(checker);
+      if (parallel != null) {
+        checkers.addAll(parallel.finish());
+      }
+      List<Message> messages = new ArrayList<>();
+      for (SampleChecker c : checkers) {
+        c.add_to_totals();
+        if (c.messages != null) {
+          messages.addAll(c.messages);
+        }
+      }
+      // The messages of one record all come from one checker, in order; the sort is stable.
+      messages.sort(Comparator.comparingLong(m -> m.seq));
+      for (Message m : messages) {
+        m.stream.println(m.text);
+      }
+    }
+
+    /** Stops the threads that check samples, if any. */
+    void close() {
+      if (parallel != null) {
+        parallel.close();
+      }
+    }
+  }
+
+  /**
+   * Checks samples on several threads. The samples of each method (its enter, exits, and their
+   * conditional program points) are checked by one thread, in file order, so each invariant sees
+   * the same samples in the same order as when checking on a single thread.
+   */
+  static final class ParallelChecker {
+
+    /** Number of samples that may be queued for one thread before the reader blocks. */
+    private static final int QUEUE_SIZE = 256;
+
+    /** Tells a thread to exit. */
+    private static final Object SHUTDOWN = new Object();
+
+    /** The threads. */
+    private final Thread[] workers;
+
+    /** The queue of each thread; contains Samples and {@link #SHUTDOWN}. */
+    private final List<BlockingQueue<Object>> queues = new ArrayList<>();
+
+    /** The checker of each thread. */
+    private final List<SampleChecker> checkers = new ArrayList<>();
+
+    /** Maps each method seen so far to the index of its thread. */
+    private final Map<String, Integer> worker_index = new HashMap<>();
+
+    /** Number of samples handed to the threads that they have not finished checking. */
+    private int pending = 0;
+
+    /** The first exception thrown by any thread, to be thrown by the reader. */
+    private @Nullable RuntimeException failure = null;
+
+    /**
+     * Creates a pool of threads.
+     *
+     * @param num_threads the number of threads
+     */
+    ParallelChecker(int num_threads) {
+      workers = new Thread[num_threads];
+      for (int i = 0; i < num_threads; i++) {
+        BlockingQueue<Object> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+        SampleChecker checker = new SampleChecker(true);
+        queues.add(queue);
+        checkers.add(checker);
+        Thread worker = new Thread(() -> run_worker(queue, checker), "checker " + i);
+        worker.setDaemon(true);
+        workers[i] = worker;
+        worker.start();
+      }
+    }
+
+    /**
+     * Returns the index of the thread that checks the samples of the given program point's method.
+     * Methods are assigned to threads round-robin, in order of first appearance.
+     */
+    int worker_of(PptTopLevel ppt) {
+      String method = ppt.ppt_name.getNameWithoutPoint();
+      if (method == null) {
+        method = ppt.name();
+      }
+      Integer index = worker_index.get(method);
+      if (index == null) {
+        index = worker_index.size() % workers.length;
+        worker_index.put(method, index);
+      }
+      return index;
+    }
+
+    /** Hands a sample to the thread of its method. Blocks if that thread is far behind. */
+    void add_sample(Sample sample) {
+      check_failure();
+      synchronized (this) {
+        pending++;
+      }
+      try {
+        queues.get(worker_of(sample.ppt)).put(sample);
+      } catch (InterruptedException e) {
+        throw new Daikon.UserError(e, "Interrupted while checking " + sample.filename);
+      }
+    }
+
+    /** Body of a thread: checks samples until told to exit. */
+    private void run_worker(BlockingQueue<Object> queue, SampleChecker checker) {
+      while (true) {
+        Object task;
+        try {
+          task = queue.take();
+        } catch (InterruptedException e) {
+          return;
+        }
+        if (task == SHUTDOWN) {
+          return;
+        }
+        Sample sample = (Sample) task;
+        try {
+          if (!has_failed()) {
+            checker.check(sample);
+          }
+        } catch (Throwable e) {
+          RuntimeException rethrow =
+              (e instanceof RuntimeException)
+                  ? (RuntimeException) e
+                  : new Daikon.UserError(
+                      e, Daikon.UserError.error_at_line_file(sample.linenum, sample.filename, e));
+          synchronized (this) {
+            if (failure == null) {
+              failure = rethrow;
             }
-            failedInvariants.add(inv);
-            activeInvariants.remove(inv);
-            error_cnt++;
           }
         }
+        synchronized (this) {
+          pending--;
+          if (pending == 0) {
+            notifyAll();
+          }
+        }
+      }
+    }
+
+    /** Returns true if a thread has failed. */
+    private synchronized boolean has_failed() {
+      return failure != null;
+    }
+
+    /** Rethrows, on the calling thread, the first exception thrown by any thread. */
+    private synchronized void check_failure() {
+      if (failure != null) {
+        throw failure;
+      }
+    }
+
+    /** Blocks until the threads have checked every sample handed to them so far. */
+    synchronized void await_idle() {
+      while (pending > 0) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+    }
+
+    /**
+     * Waits for every sample to be checked, rethrows any exception that a thread threw, and returns
+     * the checkers of the threads.
+     */
+    List<SampleChecker> finish() {
+      await_idle();
+      check_failure();
+      return checkers;
+    }
+
+    /** Stops the threads. */
+    void close() {
+      for (int i = 0; i < workers.length; i++) {
+        if (!queues.get(i).offer(SHUTDOWN)) {
+          workers[i].interrupt();
+        }
       }
     }
   }